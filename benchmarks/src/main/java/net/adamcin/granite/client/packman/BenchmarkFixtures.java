@@ -0,0 +1,182 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds the synthetic inputs shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final ResponseProgressListener NOOP_LISTENER = new ResponseProgressListener() {
+        public void onStart(String title) { }
+        public void onLog(String message) { }
+        public void onMessage(String message) { }
+        public void onProgress(String action, String path) { }
+        public void onError(String path, String error) { }
+    };
+
+    private BenchmarkFixtures() {
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        InputStream in = BenchmarkFixtures.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("missing resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Expand the progress section of install_success.html to the requested number of lines, keeping the original
+     * header and the trailing success line.
+     */
+    static byte[] detailedResponse(int lines) throws IOException {
+        String template = new String(readResource("/install_success.html"), UTF_8);
+        String[] templateLines = template.split("\n");
+
+        int firstProgress = -1;
+        int lastProgress = -1;
+        for (int i = 0; i < templateLines.length; i++) {
+            if (templateLines[i].startsWith("<span class=\"") && templateLines[i].contains("&nbsp;/")) {
+                if (firstProgress < 0) {
+                    firstProgress = i;
+                }
+                lastProgress = i;
+            }
+        }
+        if (firstProgress < 0) {
+            throw new IOException("install_success.html has no progress lines");
+        }
+
+        StringBuilder sb = new StringBuilder(lines * 64);
+        for (int i = 0; i < firstProgress; i++) {
+            sb.append(templateLines[i]).append('\n');
+        }
+        int span = lastProgress - firstProgress + 1;
+        for (int i = 0; i < lines; i++) {
+            String line = templateLines[firstProgress + (i % span)];
+            sb.append(line.replace("</span>", "/n" + i + "</span>")).append('\n');
+        }
+        for (int i = lastProgress + 1; i < templateLines.length; i++) {
+            sb.append(templateLines[i]).append('\n');
+        }
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Build a JSON list service response with the requested number of results.
+     */
+    static byte[] listResponse(int entries) {
+        StringBuilder sb = new StringBuilder(entries * 160);
+        sb.append("{\"results\":[");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"pid\":\"benchmark-group-").append(i % 50).append(":package-").append(i)
+                    .append(":1.").append(i % 10).append(".0\",\"path\":\"/etc/packages/benchmark-group-")
+                    .append(i % 50).append("/package-").append(i).append("-1.").append(i % 10)
+                    .append(".0.zip\",\"name\":\"package-").append(i)
+                    .append("\",\"downloadName\":\"package-").append(i).append(".zip\",\"group\":\"benchmark-group-")
+                    .append(i % 50).append("\",\"version\":\"1.").append(i % 10)
+                    .append(".0\",\"size\":").append(1024 + i)
+                    .append(",\"hasSnapshot\":").append(i % 3 == 0)
+                    .append(",\"needsRewrap\":").append(i % 7 == 0).append('}');
+        }
+        sb.append("],\"total\":").append(entries).append('}');
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Write a copy of test-packmgr-client-1.0.zip with {@code entries} additional content entries of
+     * {@code entrySize} bytes each under the covered filter root.
+     */
+    static File packageFile(File dir, int entries, int entrySize) throws IOException {
+        File file = new File(dir, "benchmark-" + entries + "-" + entrySize + ".zip");
+        byte[] content = new byte[entrySize];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+
+        List<String> names = new ArrayList<String>();
+        ZipInputStream source = new ZipInputStream(BenchmarkFixtures.class
+                .getResourceAsStream("/test-packmgr-client-1.0.zip"));
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            // content entries first, so that the package metadata is at the end of the archive
+            for (int i = 0; i < entries; i++) {
+                zip.putNextEntry(new ZipEntry("jcr_root/test-packmgr/foo/node" + i + "/.content.xml"));
+                zip.write(content);
+                zip.closeEntry();
+            }
+            byte[] buffer = new byte[8192];
+            ZipEntry entry;
+            while ((entry = source.getNextEntry()) != null) {
+                names.add(entry.getName());
+                zip.putNextEntry(new ZipEntry(entry.getName()));
+                int len;
+                while ((len = source.read(buffer)) != -1) {
+                    zip.write(buffer, 0, len);
+                }
+                zip.closeEntry();
+            }
+        } finally {
+            source.close();
+            zip.close();
+        }
+        if (!names.contains("META-INF/vault/properties.xml")) {
+            throw new IOException("test package has no properties.xml");
+        }
+        return file;
+    }
+}
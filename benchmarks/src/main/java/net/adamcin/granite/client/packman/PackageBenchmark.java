@@ -0,0 +1,150 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.granite.client.packman.validation.DefaultValidationOptions;
+import net.adamcin.granite.client.packman.validation.PackageValidator;
+import net.adamcin.granite.client.packman.validation.ValidatedPackage;
+import net.adamcin.granite.client.packman.validation.ValidationReport;
+import net.adamcin.granite.client.packman.validation.ValidationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PackId#identifyPackage(File)} and {@link PackageValidator#validate(File,
+ * net.adamcin.granite.client.packman.validation.ValidationOptions)} on packages of increasing size, and
+ * {@link PackageValidator#validateAll} on copies of the same package. {@link PackageValidator#report} is measured
+ * both in the calling thread and with its checks run concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackageBenchmark {
+
+    private static final int COPIES = 16;
+
+    @Param({"10", "1000", "10000"})
+    public int entries;
+
+    @Param({"1024"})
+    public int entrySize;
+
+    private File dir;
+    private File packageFile;
+    private DefaultValidationOptions options;
+    private List<File> copies;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("packman-bench").toFile();
+        packageFile = BenchmarkFixtures.packageFile(dir, entries, entrySize);
+        options = new DefaultValidationOptions()
+                .setValidationFilter(new WspFilter(new WspFilter.Root("/test-packmgr")));
+        if (PackId.identifyPackage(packageFile) == null) {
+            throw new IllegalStateException("benchmark package is not identified");
+        }
+        copies = new ArrayList<File>(COPIES);
+        for (int i = 0; i < COPIES; i++) {
+            File copy = new File(dir, "copy-" + i + ".zip");
+            Files.copy(packageFile.toPath(), copy.toPath());
+            copies.add(copy);
+        }
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+        for (File copy : copies) {
+            copy.delete();
+        }
+        packageFile.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public PackId identifyPackage() throws Exception {
+        return PackId.identifyPackage(packageFile);
+    }
+
+    @Benchmark
+    public PackId identifyPackageJarFile() throws Exception {
+        return PackId.identifyJarFile(packageFile);
+    }
+
+    @Benchmark
+    public ValidationResult validate() {
+        return PackageValidator.validate(packageFile, options);
+    }
+
+    @Benchmark
+    public ValidationReport report() {
+        return PackageValidator.report(packageFile, options);
+    }
+
+    @Benchmark
+    public ValidationReport reportConcurrently() {
+        return PackageValidator.report(packageFile, options, executor);
+    }
+
+    @Benchmark
+    public int validateAllCopies() {
+        int valid = 0;
+        Iterator<ValidatedPackage> results = PackageValidator.validateAll(copies, options, executor);
+        while (results.hasNext()) {
+            if (results.next().getResult().getReason() == ValidationResult.Reason.SUCCESS) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+}
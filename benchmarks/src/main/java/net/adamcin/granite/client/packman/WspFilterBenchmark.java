@@ -0,0 +1,128 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.granite.client.packman.validation.PackageValidator;
+import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures path matching against a filter with many roots and rules, using {@link CompiledWspFilter} and a Jackrabbit
+ * {@link WorkspaceFilter} converted by {@link PackageValidator#convertToWorkspaceFilter(WspFilter)}, with and without
+ * the conversion that was previously done for every check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WspFilterBenchmark {
+
+    @Param({"10", "1000"})
+    public int roots;
+
+    @Param({"2", "100"})
+    public int rules;
+
+    private WspFilter filter;
+    private CompiledWspFilter compiled;
+    private WorkspaceFilter vault;
+    private String[] paths;
+
+    @Setup
+    public void setUp() {
+        List<WspFilter.Root> filterRoots = new ArrayList<WspFilter.Root>(roots);
+        for (int i = 0; i < roots; i++) {
+            String root = "/apps/project" + i;
+            List<WspFilter.Rule> rootRules = new ArrayList<WspFilter.Rule>(rules);
+            rootRules.add(new WspFilter.Rule(false, root + "/install(/.*)?"));
+            for (int j = 2; j < rules; j++) {
+                rootRules.add(new WspFilter.Rule(j % 2 == 0, root + "/content/section" + j + "(/.*)?"));
+            }
+            rootRules.add(new WspFilter.Rule(true, root + "/install/keep\\.jar"));
+            filterRoots.add(new WspFilter.Root(root, rootRules));
+        }
+        filter = new WspFilter(filterRoots);
+        compiled = CompiledWspFilter.compile(filter);
+        vault = PackageValidator.convertToWorkspaceFilter(filter);
+        paths = new String[64];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = "/apps/project" + (i * 7919 % roots) + (i % 2 == 0 ? "/components/page" : "/install/x.jar");
+        }
+    }
+
+    @Benchmark
+    public int compiledContains() {
+        int count = 0;
+        for (String path : paths) {
+            if (compiled.contains(path)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int vaultContains() {
+        int count = 0;
+        for (String path : paths) {
+            if (vault.contains(path)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int vaultConvertAndCovers() {
+        WorkspaceFilter converted = PackageValidator.convertToWorkspaceFilter(filter);
+        int count = 0;
+        for (String path : paths) {
+            if (converted.covers(path)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
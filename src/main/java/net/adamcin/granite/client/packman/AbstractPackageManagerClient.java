@@ -27,28 +27,43 @@
 
 package net.adamcin.granite.client.packman;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * The AbstractPackageManagerClient provides constants and concrete implementations for generic method logic and response
@@ -90,6 +105,8 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     public static final String KEY_NEEDS_REWRAP = "needsRewrap";
     public static final String KEY_INCLUDE_VERSIONS = "includeVersions";
     public static final String KEY_QUERY = "q";
+    public static final String KEY_START = "start";
+    public static final String KEY_LIMIT = "limit";
     public static final String KEY_GROUP_NAME = "groupName";
     public static final String KEY_PACKAGE_NAME = "packageName";
     public static final String KEY_PACKAGE_VERSION = "packageVersion";
@@ -111,11 +128,14 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     public static final String CMD_DELETE = "delete";
     public static final String CMD_REPLICATE = "replicate";
 
-    private static final Pattern PATTERN_TITLE = Pattern.compile("^<body><h2>([^<]*)</h2>");
-    private static final Pattern PATTERN_LOG = Pattern.compile("^([^<]*<br>)+");
-    //private static final Pattern PATTERN_MESSAGE = Pattern.compile("<span class=\"([^\"]*)\"><b>([^<]*)</b>&nbsp;([^<(]*)(\\([^)]*\\))?</span>");
-    private static final Pattern PATTERN_MESSAGE = Pattern.compile("<span class=\"([^\"]*)\"><b>([^<]*)</b>&nbsp;([^<(]*)(.*)$");
-    private static final Pattern PATTERN_SUCCESS = Pattern.compile("^</div><br>(.*) in (\\d+)ms\\.<br>");
+
+    private static final long TRANSFER_SIZE = 1024L * 1024L;
+
+    public static final long DEFAULT_DOWNLOAD_SEGMENT_SIZE = 8L * 1024L * 1024L;
+
+    public static final int DEFAULT_BULK_PARALLELISM = 4;
+
+    public static final String MSG_UPLOAD_SKIPPED = "Package is unchanged. Upload skipped.";
 
     public static final String LOGIN_PATH = "/crx/j_security_check";
     public static final String LOGIN_PARAM_USERNAME = "j_username";
@@ -139,6 +159,15 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     private long requestTimeout = -1L;
     private long serviceTimeout = -1L;
     private long waitDelay = -1L;
+    private ServiceWaitStrategy serviceWaitStrategy = new BackoffServiceWaitStrategy();
+    private ServiceAvailabilityMonitor serviceAvailabilityMonitor;
+    private Executor asyncExecutor;
+    private UploadLedger uploadLedger;
+    private ListResponseCache listResponseCache;
+    private int downloadParallelism = 0;
+    private int bulkParallelism = DEFAULT_BULK_PARALLELISM;
+    private long downloadSegmentSize = DEFAULT_DOWNLOAD_SEGMENT_SIZE;
+    private final AsyncPackageManager asyncPackageManager = new AsyncPackageManagerView();
 
     public Charset getCharset() {
         return charset;
@@ -215,6 +244,143 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         this.waitDelay = waitDelay;
     }
 
+    public ServiceWaitStrategy getServiceWaitStrategy() {
+        return serviceWaitStrategy;
+    }
+
+    /**
+     * Set the strategy that determines the delay between service availability probes sent by
+     * {@link #waitForService()}, and which probe errors are retried. Defaults to a
+     * {@link BackoffServiceWaitStrategy}.
+     * @param serviceWaitStrategy the strategy
+     */
+    public void setServiceWaitStrategy(ServiceWaitStrategy serviceWaitStrategy) {
+        if (serviceWaitStrategy == null) {
+            throw new NullPointerException("serviceWaitStrategy");
+        }
+        this.serviceWaitStrategy = serviceWaitStrategy;
+    }
+
+    public ServiceAvailabilityMonitor getServiceAvailabilityMonitor() {
+        return serviceAvailabilityMonitor;
+    }
+
+    /**
+     * Set a monitor to share service availability probes with other clients that target the same base URL.
+     * {@link #waitForService()} still sleeps for the wait delay of this client before joining the shared probe.
+     * Probes are not shared by credentials, so the probe sent by another client may report the service available
+     * even if this client cannot log in to it. Only share a monitor between clients that use the same credentials.
+     * @param serviceAvailabilityMonitor the monitor, or null for this client to send its own probes
+     */
+    public void setServiceAvailabilityMonitor(ServiceAvailabilityMonitor serviceAvailabilityMonitor) {
+        this.serviceAvailabilityMonitor = serviceAvailabilityMonitor;
+    }
+
+    public int getDownloadParallelism() {
+        return downloadParallelism;
+    }
+
+    /**
+     * Set the number of concurrent HTTP Range requests used by {@link #download(PackId, File)} and
+     * {@link #downloadToDirectory(PackId, File)}. Ranged downloads are written to a {@code .part} file next to the
+     * destination, along with a {@code .part.state} file that records the completed segments, so that a failed
+     * download resumes where it left off when retried. If the server does not honor the Range header, the package is
+     * downloaded in a single stream. Set to zero or a negative number for a plain, non-resumable download.
+     * @param downloadParallelism number of concurrent segment requests
+     */
+    public void setDownloadParallelism(int downloadParallelism) {
+        this.downloadParallelism = downloadParallelism;
+    }
+
+    public long getDownloadSegmentSize() {
+        return downloadSegmentSize;
+    }
+
+    /**
+     * Set the size in bytes of each segment requested by a ranged download. A download being resumed keeps the
+     * segment size it was started with.
+     * @param downloadSegmentSize segment size in bytes
+     */
+    public void setDownloadSegmentSize(long downloadSegmentSize) {
+        if (downloadSegmentSize < 1L) {
+            throw new IllegalArgumentException("downloadSegmentSize must be positive");
+        }
+        this.downloadSegmentSize = downloadSegmentSize;
+    }
+
+    public int getBulkParallelism() {
+        return bulkParallelism;
+    }
+
+    /**
+     * Set the maximum number of commands that {@link #deleteAll(PackIdFilter)},
+     * {@link #downloadAll(PackIdFilter, File)}, and {@link #buildAll(PackIdFilter)} send to the server at the same
+     * time.
+     * @param bulkParallelism number of concurrent commands
+     */
+    public void setBulkParallelism(int bulkParallelism) {
+        if (bulkParallelism < 1) {
+            throw new IllegalArgumentException("bulkParallelism must be at least 1");
+        }
+        this.bulkParallelism = bulkParallelism;
+    }
+
+    public UploadLedger getUploadLedger() {
+        return uploadLedger;
+    }
+
+    /**
+     * Set the ledger used by {@link #uploadIfChanged(File, boolean, PackId)} to recognize packages that have
+     * already been uploaded. Share one ledger between clients to track many servers in one place.
+     * @param uploadLedger the ledger, or null to always upload
+     */
+    public void setUploadLedger(UploadLedger uploadLedger) {
+        this.uploadLedger = uploadLedger;
+    }
+
+    public ListResponseCache getListResponseCache() {
+        return listResponseCache;
+    }
+
+    /**
+     * Set a cache for the responses of {@link #list()}, {@link #list(String)}, {@link #list(PackId, boolean)},
+     * and {@link #existsOnServer(PackId)}. This client invalidates the cached responses for its base URL before
+     * every command that changes packages on the server.
+     * @param listResponseCache the cache, or null to always send list requests
+     */
+    public void setListResponseCache(ListResponseCache listResponseCache) {
+        this.listResponseCache = listResponseCache;
+    }
+
+    /**
+     * @return the executor used by {@link #getAsyncPackageManager()} for transports that must block a thread
+     *         per request. Defaults to a shared pool of daemon threads.
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor != null ? asyncExecutor : DefaultAsyncExecutor.INSTANCE;
+    }
+
+    /**
+     * Set the executor used by {@link #getAsyncPackageManager()} for transports that must block a thread
+     * per request. Set to null to restore the shared default.
+     * @param asyncExecutor the executor
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    private static final class DefaultAsyncExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "packman-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     protected final String getHtmlUrl() {
         //return getBaseUrl() + HTML_SERVICE_PATH;
     	return constructUrl(HTML_SERVICE_PATH, null, null);
@@ -303,97 +469,6 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
 
     protected abstract ResponseBuilder getResponseBuilder();
 
-    private static boolean handleStart(String line, ResponseProgressListener listener) {
-        if (line.startsWith("<body>")) {
-            Matcher titleMatcher = PATTERN_TITLE.matcher(line);
-            if (titleMatcher.find()) {
-                listener.onStart(titleMatcher.group(1));
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private static DetailedResponse handleSuccess(String line, List<String> progressErrors) {
-        if (line.startsWith("</div>")) {
-            String message = "";
-            long duration = -1L;
-            Matcher successMatcher = PATTERN_SUCCESS.matcher(line);
-            if (successMatcher.find()) {
-                message = successMatcher.group(1);
-                try {
-                    duration = Long.valueOf(successMatcher.group(2));
-                } catch (Exception e) { }
-                return new DetailedResponseImpl(true, message, duration, progressErrors, null);
-            }
-        }
-        return null;
-    }
-
-    private static DetailedResponse handleFailure(String line, List<String> failureBuilder, List<String> progressErrors) {
-        if (line.startsWith("</pre>")) {
-            String msg = failureBuilder != null && !failureBuilder.isEmpty() ? failureBuilder.remove(0) : "";
-            return new DetailedResponseImpl(false, msg, -1, progressErrors, failureBuilder);
-        } else {
-            // assume line is part of stack trace
-            failureBuilder.add(line.trim());
-        }
-        return null;
-    }
-
-    private static void handleLogs(String line, ResponseProgressListener listener) {
-        if (!line.startsWith("<span")) {
-            Matcher logMatcher = PATTERN_LOG.matcher(line);
-            if (logMatcher.find()) {
-                String logs = logMatcher.group(1);
-                for (String log : logs.split("<br>")) {
-                    if (!log.isEmpty()) {
-                        listener.onLog(log);
-                    }
-                }
-            }
-        }
-    }
-
-    private static void handleMessage(String line, List<String> progressErrors, ResponseProgressListener listener, BufferedReader reader) {
-        Matcher messageMatcher = PATTERN_MESSAGE.matcher(line);
-        if (messageMatcher.find()) {
-            String action = messageMatcher.group(1);
-            String path = messageMatcher.group(3);
-            String error = messageMatcher.group(4);
-            boolean isEndOfMessage = error.endsWith("</span><br>");
-
-            try {
-                while (!isEndOfMessage) {
-                    String addtLine = reader.readLine();
-                    if (addtLine.endsWith("</span><br>")) {
-                        isEndOfMessage = true;
-                    }
-                    error = error + "\r\n" + addtLine;
-                }
-            } catch (IOException e) {
-                e.printStackTrace(System.err);
-            }
-
-            if (error.lastIndexOf("</span><br>") >= 0) {
-                error = error.substring(0, error.lastIndexOf("</span><br>"));
-            }
-
-            if ("E".equals(action)) {
-                progressErrors.add(path + " " + error);
-                listener.onError(path.trim(), error.substring(1, error.length()-1));
-            } else if (action.length() == 1) {
-                listener.onProgress(action, path.trim());
-            } else {
-                listener.onMessage(action);
-            }
-        }
-    }
-
-    private static boolean handleBeginFailure(String line) {
-        return line.endsWith("<span class=\"error\">Error during processing.</span><br><code><pre>");
-    }
-
     protected static DetailedResponse parseDetailedResponse(final int statusCode,
                                                                   final String statusText,
                                                                   final InputStream stream,
@@ -401,69 +476,38 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
                                                                   final ResponseProgressListener listener)
         throws IOException {
 
+        try {
+            checkDetailedResponseStatus(statusCode, statusText);
+            return newDetailedResponseParser(listener, charset).parse(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Create a push-based parser for transports which receive the detailed response body in chunks. Parsing begins
+     * with the first chunk, so listener events are delivered while the response is still being received.
+     * @param listener the progress listener. may be null
+     * @param charset the response charset. may be null
+     * @return a new parser
+     */
+    protected static DetailedResponseParser newDetailedResponseParser(final ResponseProgressListener listener,
+                                                                      final String charset) {
+        return new DetailedResponseParser(listener, charset);
+    }
+
+    /**
+     * Check the status of a detailed response before parsing its body.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @throws IOException if the status indicates failure
+     */
+    protected static void checkDetailedResponseStatus(final int statusCode, final String statusText)
+            throws IOException {
         if (statusCode == 400) {
             throw new IOException("Command not supported by service");
         } else if (statusCode / 100 != 2) {
             throw new IOException(Integer.toString(statusCode) + " " + statusText);
-        } else {
-            final ResponseProgressListener _listener = listener == null ? DEFAULT_LISTENER : listener;
-
-            BufferedReader reader = null;
-            try {
-                reader = new BufferedReader(new InputStreamReader(stream,
-                        charset != null ? charset : DEFAULT_CHARSET));
-                boolean isFailure = false;
-                boolean isStarted = false;
-                final List<String> failureBuilder = new ArrayList<String>();
-                final List<String> progressErrors = new ArrayList<String>();
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (isFailure) {
-
-                        // handle failure end line
-                        DetailedResponse response = handleFailure(line, failureBuilder, progressErrors);
-                        if (response != null) {
-                            return response;
-                        }
-
-                    } else {
-
-                        if (!isStarted) {
-                            // handle title line
-                            if (handleStart(line, _listener)) {
-                                isStarted = true;
-                            }
-                        }
-
-                        if (isStarted) {
-                            // handle success line
-                            DetailedResponse response = handleSuccess(line, progressErrors);
-                            if (response != null) {
-                                return response;
-                            }
-
-                            // handle log statements
-                            handleLogs(line, _listener);
-
-                            // handle progress message
-                            handleMessage(line, progressErrors, _listener, reader);
-
-                            if (handleBeginFailure(line)) {
-                                isFailure = true;
-                            }
-                        }
-                    }
-                }
-
-                // throw an exception if neither success or failure was returned
-                throw new IOException("Failed to parse service response");
-
-            } finally {
-                if (reader != null) {
-                    reader.close();
-                }
-            }
         }
     }
 
@@ -522,29 +566,54 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
                                                     final InputStream stream,
                                                     final String charset)
         throws IOException {
+        return parseListResponse(statusCode, statusText, stream, charset, null);
+    }
 
-        if (statusCode == 200) {
-            try {
-                ArrayList<ListResult> results = new ArrayList<ListResult>();
-                JSONTokener tokener = new JSONTokener(new InputStreamReader(stream,
-                        charset != null ? charset : DEFAULT_CHARSET));
-
-                final JSONObject resultsObj = new JSONObject(tokener);
-                final JSONArray resultsArr = resultsObj.getJSONArray(KEY_RESULTS);
-
-                final int total = resultsObj.getInt(KEY_TOTAL);
+    /**
+     * Parse a list response, passing each result to the listener as soon as it is parsed instead of collecting them.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param stream the response body, which is closed
+     * @param charset the response charset. may be null
+     * @param listener the result listener, or null to collect the results in the returned response
+     * @return the parsed response
+     * @throws IOException if the status indicates failure, or if the response can not be parsed
+     */
+    protected static ListResponse parseListResponse(final int statusCode,
+                                                    final String statusText,
+                                                    final InputStream stream,
+                                                    final String charset,
+                                                    final ListResultListener listener)
+        throws IOException {
 
-                for (int i = 0; i < resultsArr.length(); i++) {
-                    JSONObject result = resultsArr.getJSONObject(i);
+        try {
+            checkListResponseStatus(statusCode, statusText);
+            return newListResponseParser(listener, charset).parse(stream);
+        } finally {
+            stream.close();
+        }
+    }
 
-                    results.add(ListResultImpl.fromJSONObject(result));
-                }
+    /**
+     * Create a push-based parser for transports which receive the list response body in chunks.
+     * @param listener the result listener, or null to collect the results in the parsed response
+     * @param charset the response charset. may be null
+     * @return a new parser
+     */
+    protected static ListResponseParser newListResponseParser(final ListResultListener listener,
+                                                              final String charset) {
+        return new ListResponseParser(listener, charset);
+    }
 
-                return new ListResponseImpl(results, total);
-            } catch (JSONException e) {
-                throw new IOException("Exception encountered while parsing response.", e);
-            }
-        } else {
+    /**
+     * Check the status of a list response before parsing its body.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @throws IOException if the status indicates failure
+     */
+    protected static void checkListResponseStatus(final int statusCode, final String statusText)
+            throws IOException {
+        if (statusCode != 200) {
             throw new IOException("Invalid status code: " + statusCode);
         }
     }
@@ -560,25 +629,24 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         }
 
         if (statusCode == 200) {
-            InputStream in = new BufferedInputStream(stream);
-            OutputStream out = null;
+            final File tempFile = createDownloadTempFile(outputFile);
+            boolean success = false;
             try {
-
-                out = new BufferedOutputStream(new FileOutputStream(outputFile));
-
-                byte[] buffer = new byte[16384];
-                long totalLength = 0;
-                int len;
-                while ((len = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, len);
-                    totalLength += len;
+                final FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE);
+                final long totalLength;
+                try {
+                    totalLength = transferFrom(Channels.newChannel(stream), channel);
+                    channel.force(false);
+                } finally {
+                    channel.close();
                 }
-
+                moveAtomically(tempFile, outputFile);
+                success = true;
                 return new DownloadResponseImpl(totalLength, outputFile);
             } finally {
-                try { in.close(); } catch (IOException ignored) {}
-                if (out != null) {
-                    try { out.close(); } catch (IOException ignored) {}
+                try { stream.close(); } catch (IOException ignored) {}
+                if (!success) {
+                    tempFile.delete();
                 }
             }
         } else {
@@ -586,6 +654,174 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         }
     }
 
+    /**
+     * Create a temporary file in the same directory as the download destination, so that the completed download can
+     * be renamed into place atomically and a failed download never leaves a truncated package at the destination.
+     * @param outputFile the download destination
+     * @return an empty temporary file
+     * @throws IOException if the file can not be created
+     */
+    protected static File createDownloadTempFile(final File outputFile) throws IOException {
+        File parent = outputFile.getAbsoluteFile().getParentFile();
+        return File.createTempFile(outputFile.getName() + ".", ".download", parent);
+    }
+
+    /**
+     * Transfer the entire source to the channel, starting at its current size, without intermediate heap buffers.
+     * @param source the source channel
+     * @param channel the destination channel
+     * @return number of bytes transferred
+     * @throws IOException if the source can not be read or the channel can not be written
+     */
+    static long transferFrom(final ReadableByteChannel source, final FileChannel channel) throws IOException {
+        long position = channel.size();
+        final long start = position;
+        long transferred;
+        while ((transferred = channel.transferFrom(source, position, TRANSFER_SIZE)) > 0L) {
+            position += transferred;
+        }
+        return position - start;
+    }
+
+    /**
+     * Check the status of a response to a download range request before its body is written.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param acceptFull true if a 200 response containing the entire package is acceptable
+     * @throws IOException if the status indicates failure
+     */
+    protected static void checkRangeResponseStatus(final int statusCode,
+                                                   final String statusText,
+                                                   final boolean acceptFull)
+            throws IOException {
+
+        if (statusCode == 206 || (statusCode == 200 && acceptFull)) {
+            return;
+        } else if (statusCode == 401) {
+            throw new UnauthorizedException("401 Unauthorized. Please login.");
+        } else if (statusCode == 200) {
+            throw new IOException("Server ignored the range request");
+        } else {
+            throw new IOException("Invalid status code: " + statusCode + " " + statusText);
+        }
+    }
+
+    /**
+     * Create a {@link RangeResponse} once the body of a download range request has been written.
+     * @param statusCode the response status code
+     * @param contentRange the value of the Content-Range header
+     * @param validator the value of the ETag or Last-Modified header
+     * @param first the first byte requested
+     * @param length the number of bytes received
+     * @return the range response
+     * @throws IOException if the received range does not match the request
+     */
+    protected static RangeResponse createRangeResponse(final int statusCode,
+                                                       final String contentRange,
+                                                       final String validator,
+                                                       final long first,
+                                                       final long length)
+            throws IOException {
+
+        if (statusCode == 200) {
+            return new RangeResponse(true, length, length, validator);
+        }
+
+        // bytes first-last/total
+        final String prefix = "bytes ";
+        if (contentRange == null || !contentRange.startsWith(prefix)) {
+            throw new IOException("Invalid Content-Range: " + contentRange);
+        }
+        final int dash = contentRange.indexOf('-', prefix.length());
+        final int slash = contentRange.indexOf('/', prefix.length());
+        if (dash < 0 || slash < dash) {
+            throw new IOException("Invalid Content-Range: " + contentRange);
+        }
+
+        final long rangeFirst;
+        final long rangeLast;
+        final long total;
+        try {
+            rangeFirst = Long.parseLong(contentRange.substring(prefix.length(), dash).trim());
+            rangeLast = Long.parseLong(contentRange.substring(dash + 1, slash).trim());
+            String _total = contentRange.substring(slash + 1).trim();
+            total = "*".equals(_total) ? -1L : Long.parseLong(_total);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Range: " + contentRange, e);
+        }
+
+        if (rangeFirst != first || rangeLast - rangeFirst + 1L != length) {
+            throw new IOException("Received " + length + " bytes for Content-Range: " + contentRange
+                    + ", expected range starting at " + first);
+        }
+
+        return new RangeResponse(false, length, total, validator);
+    }
+
+    /**
+     * Write the body of a response to a download range request into the channel at the requested position, or at
+     * position 0 if the server responded with the entire package.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param contentRange the value of the Content-Range header
+     * @param validator the value of the ETag or Last-Modified header
+     * @param stream the response body
+     * @param channel the destination channel
+     * @param first the first byte requested
+     * @param acceptFull true if a 200 response containing the entire package is acceptable
+     * @return the range response
+     * @throws IOException if the response indicates failure or can not be written
+     */
+    protected static RangeResponse parseRangeResponse(final int statusCode,
+                                                      final String statusText,
+                                                      final String contentRange,
+                                                      final String validator,
+                                                      final InputStream stream,
+                                                      final FileChannel channel,
+                                                      final long first,
+                                                      final boolean acceptFull)
+            throws IOException {
+
+        try {
+            checkRangeResponseStatus(statusCode, statusText, acceptFull);
+            long length = 0L;
+            if (stream != null) {
+                long position = statusCode == 206 ? first : 0L;
+                ReadableByteChannel source = Channels.newChannel(stream);
+                ByteBuffer buffer = ByteBuffer.allocate(65536);
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        int written = channel.write(buffer, position);
+                        position += written;
+                        length += written;
+                    }
+                    buffer.clear();
+                }
+            }
+            return createRangeResponse(statusCode, contentRange, validator, first, length);
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Replace the target file with the source file, atomically if the file system supports it.
+     * @param source the source file
+     * @param target the target file
+     * @throws IOException if the file can not be moved
+     */
+    protected static void moveAtomically(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     protected static DownloadResponse createDownloadResponse(final File outputFile)
             throws IOException {
 
@@ -715,6 +951,22 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         }
     }
 
+    /**
+     * Passes each result of a collected list response to the listener, as a listener-based list method would have
+     * passed them while parsing.
+     * @return a response with the total of the collected response but without results, or the collected response
+     *         itself if it was not successful
+     */
+    static ListResponse replay(ListResponse response, ListResultListener listener) {
+        if (!response.isSuccess()) {
+            return response;
+        }
+        for (ListResult result : response.getResults()) {
+            listener.onResult(result);
+        }
+        return new ListResponseImpl(Collections.<ListResult>emptyList(), response.getTotal());
+    }
+
     static class ListResponseImpl implements ListResponse {
         final List<ListResult> results;
         final int total;
@@ -764,18 +1016,6 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         public boolean isHasSnapshot() { return this.hasSnapshot; }
         public boolean isNeedsRewrap() { return this.needsRewrap; }
 
-        static ListResultImpl fromJSONObject(JSONObject result) throws JSONException {
-            PackId packId = PackId.createPackId(
-                    result.getString(KEY_GROUP),
-                    result.getString(KEY_NAME),
-                    result.optString(KEY_VERSION)
-            );
-
-            boolean hasSnapshot = result.has(KEY_HAS_SNAPSHOT) && result.getBoolean(KEY_HAS_SNAPSHOT);
-            boolean needsRewrap = result.has(KEY_NEEDS_REWRAP) && result.getBoolean(KEY_NEEDS_REWRAP);
-            return new ListResultImpl(packId, hasSnapshot, needsRewrap);
-        }
-
         @Override
         public String toString() {
             return "ListResultImpl{" +
@@ -786,6 +1026,52 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         }
     }
 
+    /**
+     * The result of a download range request.
+     */
+    protected static final class RangeResponse {
+        private final boolean full;
+        private final long length;
+        private final long total;
+        private final String validator;
+
+        RangeResponse(boolean full, long length, long total, String validator) {
+            this.full = full;
+            this.length = length;
+            this.total = total;
+            this.validator = validator;
+        }
+
+        /**
+         * @return true if the server ignored the range and responded with the entire package
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * @return number of bytes received
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return total size of the package, or -1 if not reported by the server
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the ETag or Last-Modified value reported by the server, used to detect a package that changed
+         *         between attempts of a resumed download
+         */
+        public String getValidator() {
+            return validator;
+        }
+    }
+
     static class DownloadResponseImpl implements DownloadResponse {
         private final Long length;
         private final File content;
@@ -823,158 +1109,552 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         protected abstract DetailedResponse getDetailedResponse(ResponseProgressListener listener) throws Exception;
         protected abstract DownloadResponse getDownloadResponse(File outputFile) throws Exception;
         protected abstract SimpleResponse getUpdateResponse() throws Exception;
-    }
 
-    //-------------------------------------------------------------------------
-    // PackageManagerClient method implementations
-    //-------------------------------------------------------------------------
+        /**
+         * Request the range {@code first-last} of the package identified by {@link #forPackId(PackId)} from the
+         * download service, and write it to the channel using
+         * {@link #parseRangeResponse(int, String, String, String, InputStream, FileChannel, long, boolean)}.
+         * Transports that can not send range requests return null, in which case a plain download is performed.
+         * @param first the first byte
+         * @param last the last byte, inclusive
+         * @param channel the destination channel
+         * @param acceptFull true if a 200 response containing the entire package is acceptable
+         * @return the range response, or null if range requests are not supported
+         * @throws Exception for unknown errors
+         */
+        protected RangeResponse getRangeResponse(long first, long last, FileChannel channel, boolean acceptFull)
+                throws Exception {
+            return null;
+        }
+
+        /**
+         * Request the package list and pass each result to the listener as it is parsed. Transports should override
+         * this method to parse the response as it is received with
+         * {@link #parseListResponse(int, String, InputStream, String, ListResultListener)} or a
+         * {@link ListResponseParser}. The default implementation parses the complete response first.
+         * @param listener the result listener, or null to collect the results in the returned response
+         * @return the list response, without results if a listener is provided
+         * @throws Exception for unknown errors
+         */
+        protected ListResponse getListResponse(ListResultListener listener) throws Exception {
+            final ListResponse response = getListResponse();
+            if (listener == null) {
+                return response;
+            }
+            for (ListResult result : response.getResults()) {
+                listener.onResult(result);
+            }
+            return new ListResponseImpl(Collections.<ListResult>emptyList(), response.getTotal());
+        }
 
-    /**
-     * {@inheritDoc}
-     */
-    public final PackId identify(File file) throws IOException {
-        return PackId.identifyPackage(file);
-    }
-    
-    /**
-     * {@inheritDoc}
-     */
-    public final PackId identify(File file, boolean strict) throws IOException {
-        return PackId.identifyPackage(file, strict);
-    }
+        /**
+         * Transports with a non-blocking request pipeline should override the *Async methods. The default
+         * implementations run the corresponding blocking method on the provided {@link Executor}.
+         */
+        protected CompletableFuture<SimpleResponse> getSimpleResponseAsync(final Executor executor) {
+            return completeAsync(new Callable<SimpleResponse>() {
+                public SimpleResponse call() throws Exception {
+                    return getSimpleResponse();
+                }
+            }, executor);
+        }
 
-    /**
-     * {@inheritDoc}
-     */
-    public final boolean waitForService() throws Exception {
-        if (waitDelay >= 0L) {
-            Thread.sleep(waitDelay);
+        protected CompletableFuture<ListResponse> getListResponseAsync(final Executor executor) {
+            return completeAsync(new Callable<ListResponse>() {
+                public ListResponse call() throws Exception {
+                    return getListResponse();
+                }
+            }, executor);
         }
-        boolean checkTimeout = serviceTimeout >= 0L;
-        int tries = 0;
-        final long stop = System.currentTimeMillis() + serviceTimeout;
-        Either<? extends Exception, Boolean> resp;
-        do {
-            final long current = System.currentTimeMillis();
-            final long sleepy = Math.min(5, tries) * 1000L;
 
-            Thread.sleep(sleepy);
+        protected CompletableFuture<DetailedResponse> getDetailedResponseAsync(final ResponseProgressListener listener,
+                                                                               final Executor executor) {
+            return completeAsync(new Callable<DetailedResponse>() {
+                public DetailedResponse call() throws Exception {
+                    return getDetailedResponse(listener);
+                }
+            }, executor);
+        }
 
-            if (checkTimeout && stop <= (current + sleepy)) {
+        protected CompletableFuture<DownloadResponse> getDownloadResponseAsync(final File outputFile,
+                                                                               final Executor executor) {
+            return completeAsync(new Callable<DownloadResponse>() {
+                public DownloadResponse call() throws Exception {
+                    return getDownloadResponse(outputFile);
+                }
+            }, executor);
+        }
+
+        protected CompletableFuture<SimpleResponse> getUpdateResponseAsync(final Executor executor) {
+            return completeAsync(new Callable<SimpleResponse>() {
+                public SimpleResponse call() throws Exception {
+                    return getUpdateResponse();
+                }
+            }, executor);
+        }
+    }
+
+    protected static <T> CompletableFuture<T> completeAsync(final Callable<T> callable, final Executor executor) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.complete(callable.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    protected static <T> CompletableFuture<T> failedFuture(final Throwable cause) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    //-------------------------------------------------------------------------
+    // Request preparation shared by the blocking and non-blocking APIs
+    //-------------------------------------------------------------------------
+
+    private ResponseBuilder prepareList(String query) {
+        return getResponseBuilder().withParam(KEY_QUERY, query != null ? query : "");
+    }
+
+    private ResponseBuilder prepareListPage(String query, int start, int limit) {
+        return prepareList(query).withParam(KEY_START, start).withParam(KEY_LIMIT, limit);
+    }
+
+    private ResponseBuilder prepareList(PackId packageId, boolean includeVersions) {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        return getResponseBuilder().forPackId(packageId)
+                .withParam(KEY_INCLUDE_VERSIONS, Boolean.toString(includeVersions));
+    }
+
+    private ResponseBuilder prepareUpload(File file, boolean force, PackId packageId) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        final PackId uploadId = packageId == null ? identify(file) : packageId;
+        forgetUpload(uploadId);
+        return getResponseBuilder().forPackId(uploadId)
+                .withParam(KEY_CMD, CMD_UPLOAD)
+                .withParam(KEY_PACKAGE, file, MIME_ZIP)
+                .withParam(KEY_FORCE, force);
+    }
+
+    private ResponseBuilder prepareDownload(PackId packageId, File toFile) {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        if (toFile == null) {
+            throw new NullPointerException("toFile");
+        }
+        return getResponseBuilder().forPackId(packageId);
+    }
+
+    private static File prepareDownloadDirectory(PackId packageId, File toDirectory) throws IOException {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        if (toDirectory == null) {
+            throw new NullPointerException("toDirectory");
+        }
+
+        File toFile = new File(toDirectory, packageId.getInstallationPath().substring(1) + ".zip");
+        if (toFile.getParentFile().isDirectory() || toFile.getParentFile().mkdirs()) {
+            return toFile;
+        } else {
+            throw new IOException("Failed to create path: " + toFile.getParentFile().getAbsolutePath());
+        }
+    }
+
+    private ResponseBuilder prepareCommand(PackId packageId, String cmd) {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        return getResponseBuilder().forPackId(packageId)
+                .withParam(KEY_CMD, cmd);
+    }
+
+    private ResponseBuilder prepareInstall(PackId packageId, boolean recursive, int autosave, ACHandling acHandling) {
+        ResponseBuilder rb = prepareCommand(packageId, CMD_INSTALL)
+                .withParam(KEY_RECURSIVE, recursive)
+                .withParam(KEY_AUTOSAVE, Math.max(autosave, MIN_AUTOSAVE));
+
+        if (acHandling != null) {
+            rb.withParam(KEY_ACHANDLING, acHandling.name().toLowerCase());
+        }
+
+        return rb;
+    }
+
+    private ResponseBuilder prepareCreate(PackId packageId) {
+        return prepareCommand(packageId, CMD_CREATE)
+                .withParam(KEY_GROUP_NAME, packageId.getGroup())
+                .withParam(KEY_PACKAGE_NAME, packageId.getName())
+                .withParam(KEY_PACKAGE_VERSION, packageId.getVersion());
+    }
+
+    private ResponseBuilder prepareUpdateFilter(PackId packageId, WspFilter filter) throws JSONException {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+
+        return getResponseBuilder()
+                .withParam(KEY_PATH, packageId.getInstallationPath() + ".zip")
+                .withParam(KEY_GROUP_NAME, packageId.getGroup())
+                .withParam(KEY_PACKAGE_NAME, packageId.getName())
+                .withParam(KEY_VERSION, packageId.getVersion())
+                .withParam(KEY_FILTER, filter.toJSONString(0));
+    }
+
+    private ResponseBuilder prepareMove(PackId packageId, PackId moveToId) {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        if (moveToId == null) {
+            throw new NullPointerException("moveToId");
+        }
+
+        return getResponseBuilder()
+                .withParam(KEY_PATH, packageId.getInstallationPath() + ".zip")
+                .withParam(KEY_GROUP_NAME, moveToId.getGroup())
+                .withParam(KEY_PACKAGE_NAME, moveToId.getName())
+                .withParam(KEY_VERSION, moveToId.getVersion());
+    }
+
+    /**
+     * Compute the hex-encoded SHA-256 digest of a file.
+     * @param file the file
+     * @return the digest
+     * @throws IOException if the file can not be read
+     */
+    protected static String digest(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Forget any recorded upload of a package that is about to be changed or removed on the server, along with any
+     * cached list responses that include it.
+     */
+    private void forgetUpload(PackId packageId) throws IOException {
+        invalidateList();
+        UploadLedger ledger = this.uploadLedger;
+        if (ledger != null && packageId != null) {
+            ledger.forget(getBaseUrl(), packageId);
+        }
+    }
+
+    /**
+     * Invalidate cached list responses for this server before and after a command that changes packages on it.
+     */
+    private void invalidateList() {
+        ListResponseCache cache = this.listResponseCache;
+        if (cache != null) {
+            cache.invalidate(getBaseUrl());
+        }
+    }
+
+    /**
+     * Invalidate cached list responses for this server again once a command that changes packages on it completes,
+     * so that a list response received while the command was in flight is not served from the cache afterward.
+     * The command's own future is returned, so that cancelling it still cancels the underlying request.
+     */
+    private <T> CompletableFuture<T> invalidateListOnCompletion(CompletableFuture<T> future) {
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T response, Throwable error) {
+                invalidateList();
+            }
+        });
+        return future;
+    }
+
+    private static String listKey(String query) {
+        return query == null ? "" : KEY_QUERY + "=" + query;
+    }
+
+    private static String listKey(PackId packageId, boolean includeVersions) {
+        return packageId.getInstallationPath() + "?" + KEY_INCLUDE_VERSIONS + "=" + includeVersions;
+    }
+
+    private ListResponse getListResponse(ResponseBuilder rb, String key) throws Exception {
+        final ListResponseCache cache = this.listResponseCache;
+        if (cache == null) {
+            return rb.getListResponse();
+        }
+        final String baseUrl = getBaseUrl();
+        final ListResponse cached = cache.get(baseUrl, key);
+        if (cached != null) {
+            return cached;
+        }
+        final long generation = cache.getGeneration();
+        final ListResponse response = rb.getListResponse();
+        cache.put(baseUrl, key, response, generation);
+        return response;
+    }
+
+    private CompletableFuture<ListResponse> getListResponseAsync(ResponseBuilder rb, final String key) {
+        final ListResponseCache cache = this.listResponseCache;
+        if (cache == null) {
+            return rb.getListResponseAsync(getAsyncExecutor());
+        }
+        final String baseUrl = getBaseUrl();
+        final ListResponse cached = cache.get(baseUrl, key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final long generation = cache.getGeneration();
+        return rb.getListResponseAsync(getAsyncExecutor()).thenApply(new Function<ListResponse, ListResponse>() {
+            public ListResponse apply(ListResponse response) {
+                cache.put(baseUrl, key, response, generation);
+                return response;
+            }
+        });
+    }
+
+    private RangedDownload newRangedDownload(final PackId packageId, final File toFile) {
+        return new RangedDownload(toFile, downloadSegmentSize, downloadParallelism, getAsyncExecutor(),
+                new RangedDownload.Fetcher() {
+                    public RangeResponse fetch(long first, long last, FileChannel channel, boolean acceptFull)
+                            throws Exception {
+                        return prepareDownload(packageId, toFile).getRangeResponse(first, last, channel, acceptFull);
+                    }
+                });
+    }
+
+    private static boolean isListed(ListResponse response, PackId packageId) {
+        return response.getResults().size() > 0
+                && response.getResults().get(0).getPackId().equals(packageId);
+    }
+
+    //-------------------------------------------------------------------------
+    // PackageManagerClient method implementations
+    //-------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    public final PackId identify(File file) throws IOException {
+        return PackId.identifyPackage(file);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public final PackId identify(File file, boolean strict) throws IOException {
+        return PackId.identifyPackage(file, strict);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final boolean waitForService() throws Exception {
+        if (waitDelay >= 0L) {
+            Thread.sleep(waitDelay);
+        }
+        final ServiceAvailabilityMonitor monitor = this.serviceAvailabilityMonitor;
+        if (monitor != null) {
+            return monitor.waitForService(this);
+        }
+        final ServiceWaitStrategy strategy = this.serviceWaitStrategy;
+        final boolean checkTimeout = serviceTimeout >= 0L;
+        final long stop = System.currentTimeMillis() + serviceTimeout;
+        for (int attempt = 0; ; attempt++) {
+            final long delay = Math.max(0L, strategy.getDelay(attempt));
+
+            if (checkTimeout && stop <= (System.currentTimeMillis() + delay)) {
                 throw new IOException("Service timeout exceeded.");
             }
 
-            resp = checkServiceAvailability(checkTimeout, stop - (current + sleepy));
+            if (delay > 0L) {
+                Thread.sleep(delay);
+            }
+
+            Either<? extends Exception, Boolean> resp =
+                    checkServiceAvailability(checkTimeout, stop - System.currentTimeMillis());
             if (resp.isLeft()) {
-                throw resp.getLeft();
+                if (!strategy.isRetryable(resp.getLeft())) {
+                    throw resp.getLeft();
+                }
+            } else if (resp.getRight()) {
+                return true;
             }
-            tries++;
-        } while (!resp.isLeft() && !resp.getRight());
-        return resp.getRight();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     public final boolean existsOnServer(PackId packageId) throws Exception {
-        ListResponse response = list(packageId, false);
-        return response.getResults().size() > 0
-                && response.getResults().get(0).getPackId().equals(packageId);
+        return isListed(list(packageId, false), packageId);
     }
 
     /**
      * {@inheritDoc}
      */
     public final ListResponse list() throws Exception {
-        return getResponseBuilder().getListResponse();
+        return getListResponse(getResponseBuilder(), listKey(null));
     }
 
     /**
      * {@inheritDoc}
      */
     public final ListResponse list(String query) throws Exception {
-        return getResponseBuilder().withParam(KEY_QUERY, query != null ? query : "").getListResponse();
+        return getListResponse(prepareList(query), listKey(query != null ? query : ""));
     }
 
     /**
      * {@inheritDoc}
      */
     public final ListResponse list(PackId packageId, boolean includeVersions) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        return getListResponse(prepareList(packageId, includeVersions), listKey(packageId, includeVersions));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final ListResponse list(String query, ListResultListener listener) throws Exception {
+        if (listener == null) {
+            throw new NullPointerException("listener");
         }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_INCLUDE_VERSIONS, Boolean.toString(includeVersions)).getListResponse();
+        return prepareList(query).getListResponse(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final ListResponse list(PackId packageId, boolean includeVersions, ListResultListener listener)
+            throws Exception {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        return prepareList(packageId, includeVersions).getListResponse(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final PagedListIterable listIterable(final String query, final int pageSize) {
+        return new PagedListIterable(new PagedListIterator.Fetcher() {
+            public CompletableFuture<ListResponse> fetch(int start, int limit) {
+                return prepareListPage(query, start, limit).getListResponseAsync(getAsyncExecutor());
+            }
+        }, pageSize);
     }
 
     /**
      * {@inheritDoc}
      */
     public final SimpleResponse upload(File file, boolean force, PackId packageId) throws Exception {
+        final ResponseBuilder rb = prepareUpload(file, force, packageId);
+        try {
+            return rb.getSimpleResponse();
+        } finally {
+            invalidateList();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final SimpleResponse uploadIfChanged(File file, boolean force, PackId packageId) throws Exception {
+        final UploadLedger ledger = this.uploadLedger;
+        if (ledger == null) {
+            return upload(file, force, packageId);
+        }
         if (file == null) {
             throw new NullPointerException("file");
         }
-        return getResponseBuilder().forPackId(packageId == null ? identify(file) : packageId)
-                .withParam(KEY_CMD, CMD_UPLOAD)
-                .withParam(KEY_PACKAGE, file, MIME_ZIP)
-                .withParam(KEY_FORCE, force)
-                .getSimpleResponse();
+
+        final PackId _packageId = packageId == null ? identify(file) : packageId;
+        final String digest = digest(file);
+
+        if (digest.equals(ledger.getDigest(getBaseUrl(), _packageId)) && existsOnServer(_packageId)) {
+            return new SimpleResponseImpl(true, MSG_UPLOAD_SKIPPED, _packageId.getInstallationPath() + ".zip");
+        }
+
+        ledger.forget(getBaseUrl(), _packageId);
+        SimpleResponse response = upload(file, force, _packageId);
+        if (response.isSuccess()) {
+            ledger.recordUpload(getBaseUrl(), _packageId, digest);
+        }
+        return response;
     }
 
     /**
      * {@inheritDoc}
      */
     public final DownloadResponse download(PackId packageId, File toFile) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
-        }
-        if (toFile == null) {
-            throw new NullPointerException("toFile");
+        final ResponseBuilder rb = prepareDownload(packageId, toFile);
+        if (downloadParallelism > 0) {
+            DownloadResponse response = newRangedDownload(packageId, toFile).download();
+            if (response != null) {
+                return response;
+            }
         }
-        return getResponseBuilder().forPackId(packageId).getDownloadResponse(toFile);
+        return rb.getDownloadResponse(toFile);
     }
 
     /**
      * {@inheritDoc}
      */
     public final DownloadResponse downloadToDirectory(PackId packageId, File toDirectory) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
-        }
-        if (toDirectory == null) {
-            throw new NullPointerException("toDirectory");
-        }
-
-        File toFile = new File(toDirectory, packageId.getInstallationPath().substring(1) + ".zip");
-        if (toFile.getParentFile().isDirectory() || toFile.getParentFile().mkdirs()) {
-            return download(packageId, toFile);
-        } else {
-            throw new IOException("Failed to create path: " + toFile.getParentFile().getAbsolutePath());
-        }
+        return download(packageId, prepareDownloadDirectory(packageId, toDirectory));
     }
 
     /**
      * {@inheritDoc}
      */
     public final SimpleResponse delete(PackId packageId) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        forgetUpload(packageId);
+        try {
+            return prepareCommand(packageId, CMD_DELETE).getSimpleResponse();
+        } finally {
+            invalidateList();
         }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_DELETE)
-                .getSimpleResponse();
     }
 
     /**
      * {@inheritDoc}
      */
     public final SimpleResponse replicate(PackId packageId) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
-        }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_REPLICATE)
-                .getSimpleResponse();
+        return prepareCommand(packageId, CMD_REPLICATE).getSimpleResponse();
     }
 
     /**
@@ -988,12 +1668,7 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse contents(PackId packageId, ResponseProgressListener listener) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
-        }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_CONTENTS)
-                .getDetailedResponse(listener);
+        return prepareCommand(packageId, CMD_CONTENTS).getDetailedResponse(listener);
     }
 
     /**
@@ -1014,20 +1689,13 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
                                           int autosave,
                                           ACHandling acHandling,
                                           ResponseProgressListener listener) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
-        }
-
-        ResponseBuilder rb = getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_INSTALL)
-                .withParam(KEY_RECURSIVE, recursive)
-                .withParam(KEY_AUTOSAVE, Math.max(autosave, MIN_AUTOSAVE));
-
-        if (acHandling != null) {
-            rb.withParam(KEY_ACHANDLING, acHandling.name().toLowerCase());
+        final ResponseBuilder rb = prepareInstall(packageId, recursive, autosave, acHandling);
+        invalidateList();
+        try {
+            return rb.getDetailedResponse(listener);
+        } finally {
+            invalidateList();
         }
-
-        return rb.getDetailedResponse(listener);
     }
 
     /**
@@ -1041,68 +1709,44 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse dryRun(PackId packageId, ResponseProgressListener listener) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
-        }
-
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_DRY_RUN)
-                .getDetailedResponse(listener);
+        return prepareCommand(packageId, CMD_DRY_RUN).getDetailedResponse(listener);
     }
 
     /**
      * {@inheritDoc}
      */
     public final SimpleResponse create(PackId packageId) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        forgetUpload(packageId);
+        try {
+            return prepareCreate(packageId).getSimpleResponse();
+        } finally {
+            invalidateList();
         }
-
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_CREATE)
-                .withParam(KEY_GROUP_NAME, packageId.getGroup())
-                .withParam(KEY_PACKAGE_NAME, packageId.getName())
-                .withParam(KEY_PACKAGE_VERSION, packageId.getVersion())
-                .getSimpleResponse();
     }
 
     /**
      * {@inheritDoc}
      */
     public final SimpleResponse updateFilter(PackId packageId, WspFilter filter) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        forgetUpload(packageId);
+        try {
+            return prepareUpdateFilter(packageId, filter).getUpdateResponse();
+        } finally {
+            invalidateList();
         }
-        if (filter == null) {
-            throw new NullPointerException("filter");
-        }
-
-        return getResponseBuilder()
-                .withParam(KEY_PATH, packageId.getInstallationPath() + ".zip")
-                .withParam(KEY_GROUP_NAME, packageId.getGroup())
-                .withParam(KEY_PACKAGE_NAME, packageId.getName())
-                .withParam(KEY_VERSION, packageId.getVersion())
-                .withParam(KEY_FILTER, filter.toJSONString(0))
-                .getUpdateResponse();
     }
 
     /**
      * {@inheritDoc}
      */
     public final SimpleResponse move(PackId packageId, PackId moveToId) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        forgetUpload(packageId);
+        forgetUpload(moveToId);
+        try {
+            return prepareMove(packageId, moveToId).getUpdateResponse();
+        } finally {
+            invalidateList();
         }
-        if (moveToId == null) {
-            throw new NullPointerException("moveToId");
-        }
-
-        return getResponseBuilder()
-                .withParam(KEY_PATH, packageId.getInstallationPath() + ".zip")
-                .withParam(KEY_GROUP_NAME, moveToId.getGroup())
-                .withParam(KEY_PACKAGE_NAME, moveToId.getName())
-                .withParam(KEY_VERSION, moveToId.getVersion())
-                .getUpdateResponse();
     }
 
     /**
@@ -1116,13 +1760,12 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse build(PackId packageId, ResponseProgressListener listener) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        forgetUpload(packageId);
+        try {
+            return prepareCommand(packageId, CMD_BUILD).getDetailedResponse(listener);
+        } finally {
+            invalidateList();
         }
-
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_BUILD)
-                .getDetailedResponse(listener);
     }
 
     /**
@@ -1136,13 +1779,12 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse rewrap(PackId packageId, ResponseProgressListener listener) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        forgetUpload(packageId);
+        try {
+            return prepareCommand(packageId, CMD_REWRAP).getDetailedResponse(listener);
+        } finally {
+            invalidateList();
         }
-
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_REWRAP)
-                .getDetailedResponse(listener);
     }
 
     /**
@@ -1156,12 +1798,282 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse uninstall(PackId packageId, ResponseProgressListener listener) throws Exception {
-        if (packageId == null) {
-            throw new NullPointerException("packageId");
+        invalidateList();
+        try {
+            return prepareCommand(packageId, CMD_UNINSTALL).getDetailedResponse(listener);
+        } finally {
+            invalidateList();
         }
+    }
 
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_UNINSTALL)
-                .getDetailedResponse(listener);
+    /**
+     * {@inheritDoc}
+     */
+    public final BulkResponse<SimpleResponse> deleteAll(PackIdFilter filter) throws Exception {
+        return runAll(filter, new BulkCommand<SimpleResponse>() {
+            public CompletableFuture<SimpleResponse> execute(PackId packageId) {
+                return asyncPackageManager.delete(packageId);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final BulkResponse<DownloadResponse> downloadAll(PackIdFilter filter, final File toDirectory)
+            throws Exception {
+        if (toDirectory == null) {
+            throw new NullPointerException("toDirectory");
+        }
+        return runAll(filter, new BulkCommand<DownloadResponse>() {
+            public CompletableFuture<DownloadResponse> execute(PackId packageId) {
+                return asyncPackageManager.downloadToDirectory(packageId, toDirectory);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final BulkResponse<DetailedResponse> buildAll(PackIdFilter filter) throws Exception {
+        return runAll(filter, new BulkCommand<DetailedResponse>() {
+            public CompletableFuture<DetailedResponse> execute(PackId packageId) {
+                return asyncPackageManager.build(packageId, null);
+            }
+        });
+    }
+
+    /**
+     * Starts the command of a bulk operation for a single package.
+     */
+    private interface BulkCommand<R> {
+        CompletableFuture<R> execute(PackId packageId);
+    }
+
+    /**
+     * Stream the package list, keeping only the ids that match the filter, then run the command for each match
+     * through the {@link AsyncPackageManager} view with at most {@link #getBulkParallelism()} commands in flight.
+     */
+    private <R> BulkResponse<R> runAll(final PackIdFilter filter, final BulkCommand<R> command) throws Exception {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        final long start = System.currentTimeMillis();
+        final List<PackId> matches = new ArrayList<PackId>();
+        list((String) null, new ListResultListener() {
+            public void onResult(ListResult result) {
+                PackId packageId = result.getPackId();
+                if (packageId != null && filter.includes(packageId)) {
+                    matches.add(packageId);
+                }
+            }
+        });
+
+        final Semaphore permits = new Semaphore(bulkParallelism);
+        final BiConsumer<R, Throwable> release = new BiConsumer<R, Throwable>() {
+            public void accept(R response, Throwable error) {
+                permits.release();
+            }
+        };
+        final List<CompletableFuture<R>> futures = new ArrayList<CompletableFuture<R>>(matches.size());
+        final List<BulkResponse.Item<R>> items = new ArrayList<BulkResponse.Item<R>>(matches.size());
+        try {
+            for (PackId packageId : matches) {
+                permits.acquire();
+                CompletableFuture<R> future;
+                try {
+                    future = command.execute(packageId);
+                } catch (RuntimeException e) {
+                    future = failedFuture(e);
+                }
+                future.whenComplete(release);
+                futures.add(future);
+            }
+
+            for (int i = 0; i < matches.size(); i++) {
+                try {
+                    items.add(new BulkResponse.Item<R>(matches.get(i), futures.get(i).get(), null));
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    items.add(new BulkResponse.Item<R>(matches.get(i), null,
+                            cause instanceof Exception ? (Exception) cause : e));
+                }
+            }
+        } catch (InterruptedException e) {
+            for (CompletableFuture<R> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return new BulkResponse<R>(items, System.currentTimeMillis() - start);
+    }
+
+    //-------------------------------------------------------------------------
+    // AsyncPackageManager method implementations
+    //-------------------------------------------------------------------------
+
+    /**
+     * Returns a non-blocking view of this client. Commands issued through the view share this client's
+     * connection details, credentials, and timeouts.
+     * @return the {@link AsyncPackageManager} view of this client
+     */
+    public final AsyncPackageManager getAsyncPackageManager() {
+        return asyncPackageManager;
+    }
+
+    private final class AsyncPackageManagerView implements AsyncPackageManager {
+
+        public CompletableFuture<Boolean> existsOnServer(final PackId packageId) {
+            return list(packageId, false).thenApply(new Function<ListResponse, Boolean>() {
+                public Boolean apply(ListResponse response) {
+                    return isListed(response, packageId);
+                }
+            });
+        }
+
+        public CompletableFuture<ListResponse> list() {
+            return getListResponseAsync(getResponseBuilder(), listKey(null));
+        }
+
+        public CompletableFuture<ListResponse> list(String query) {
+            return getListResponseAsync(prepareList(query), listKey(query != null ? query : ""));
+        }
+
+        public CompletableFuture<ListResponse> list(PackId packageId, boolean includeVersions) {
+            return getListResponseAsync(prepareList(packageId, includeVersions),
+                    listKey(packageId, includeVersions));
+        }
+
+        public CompletableFuture<SimpleResponse> upload(File file, boolean force, PackId packageId) {
+            final ResponseBuilder rb;
+            try {
+                rb = prepareUpload(file, force, packageId);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return invalidateListOnCompletion(rb.getSimpleResponseAsync(getAsyncExecutor()));
+        }
+
+        public CompletableFuture<SimpleResponse> uploadIfChanged(final File file, final boolean force,
+                                                                 final PackId packageId) {
+            if (file == null) {
+                throw new NullPointerException("file");
+            }
+            return completeAsync(new Callable<SimpleResponse>() {
+                public SimpleResponse call() throws Exception {
+                    return AbstractPackageManagerClient.this.uploadIfChanged(file, force, packageId);
+                }
+            }, getAsyncExecutor());
+        }
+
+        public CompletableFuture<DownloadResponse> download(final PackId packageId, final File toFile) {
+            final ResponseBuilder rb = prepareDownload(packageId, toFile);
+            if (downloadParallelism > 0) {
+                return completeAsync(new Callable<DownloadResponse>() {
+                    public DownloadResponse call() throws Exception {
+                        return AbstractPackageManagerClient.this.download(packageId, toFile);
+                    }
+                }, getAsyncExecutor());
+            }
+            return rb.getDownloadResponseAsync(toFile, getAsyncExecutor());
+        }
+
+        public CompletableFuture<DownloadResponse> downloadToDirectory(PackId packageId, File toDirectory) {
+            final File toFile;
+            try {
+                toFile = prepareDownloadDirectory(packageId, toDirectory);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return download(packageId, toFile);
+        }
+
+        public CompletableFuture<SimpleResponse> delete(PackId packageId) {
+            try {
+                forgetUpload(packageId);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return invalidateListOnCompletion(
+                    prepareCommand(packageId, CMD_DELETE).getSimpleResponseAsync(getAsyncExecutor()));
+        }
+
+        public CompletableFuture<SimpleResponse> replicate(PackId packageId) {
+            return prepareCommand(packageId, CMD_REPLICATE).getSimpleResponseAsync(getAsyncExecutor());
+        }
+
+        public CompletableFuture<DetailedResponse> contents(PackId packageId, ResponseProgressListener listener) {
+            return prepareCommand(packageId, CMD_CONTENTS).getDetailedResponseAsync(listener, getAsyncExecutor());
+        }
+
+        public CompletableFuture<DetailedResponse> install(PackId packageId, boolean recursive, int autosave,
+                                                           ACHandling acHandling, ResponseProgressListener listener) {
+            final ResponseBuilder rb = prepareInstall(packageId, recursive, autosave, acHandling);
+            invalidateList();
+            return invalidateListOnCompletion(rb.getDetailedResponseAsync(listener, getAsyncExecutor()));
+        }
+
+        public CompletableFuture<DetailedResponse> dryRun(PackId packageId, ResponseProgressListener listener) {
+            return prepareCommand(packageId, CMD_DRY_RUN).getDetailedResponseAsync(listener, getAsyncExecutor());
+        }
+
+        public CompletableFuture<SimpleResponse> create(PackId packageId) {
+            try {
+                forgetUpload(packageId);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return invalidateListOnCompletion(prepareCreate(packageId).getSimpleResponseAsync(getAsyncExecutor()));
+        }
+
+        public CompletableFuture<SimpleResponse> updateFilter(PackId packageId, WspFilter filter) {
+            final ResponseBuilder rb;
+            try {
+                forgetUpload(packageId);
+                rb = prepareUpdateFilter(packageId, filter);
+            } catch (IOException e) {
+                return failedFuture(e);
+            } catch (JSONException e) {
+                return failedFuture(e);
+            }
+            return invalidateListOnCompletion(rb.getUpdateResponseAsync(getAsyncExecutor()));
+        }
+
+        public CompletableFuture<SimpleResponse> move(PackId packageId, PackId moveToId) {
+            try {
+                forgetUpload(packageId);
+                forgetUpload(moveToId);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return invalidateListOnCompletion(
+                    prepareMove(packageId, moveToId).getUpdateResponseAsync(getAsyncExecutor()));
+        }
+
+        public CompletableFuture<DetailedResponse> build(PackId packageId, ResponseProgressListener listener) {
+            try {
+                forgetUpload(packageId);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return invalidateListOnCompletion(
+                    prepareCommand(packageId, CMD_BUILD).getDetailedResponseAsync(listener, getAsyncExecutor()));
+        }
+
+        public CompletableFuture<DetailedResponse> rewrap(PackId packageId, ResponseProgressListener listener) {
+            try {
+                forgetUpload(packageId);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return invalidateListOnCompletion(
+                    prepareCommand(packageId, CMD_REWRAP).getDetailedResponseAsync(listener, getAsyncExecutor()));
+        }
+
+        public CompletableFuture<DetailedResponse> uninstall(PackId packageId, ResponseProgressListener listener) {
+            invalidateList();
+            return invalidateListOnCompletion(
+                    prepareCommand(packageId, CMD_UNINSTALL).getDetailedResponseAsync(listener, getAsyncExecutor()));
+        }
     }
 }
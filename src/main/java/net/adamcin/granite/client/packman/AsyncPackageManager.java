@@ -0,0 +1,217 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart to {@link PackageManagerClient}. Every command returns a {@link CompletableFuture}
+ * which is completed with the same response that the blocking method would return, or completed exceptionally
+ * with the exception that it would throw. Null arguments are still rejected immediately with a
+ * {@link NullPointerException}.
+ *
+ * Obtain an instance from {@link AbstractPackageManagerClient#getAsyncPackageManager()}.
+ */
+public interface AsyncPackageManager {
+
+    /**
+     * Checks if a package with the specified packageId has already been uploaded to the server.
+     * @param packageId the {@link PackId} representing the package
+     * @return future {@code true} if a package exists, {@code false} otherwise
+     * @see PackageManagerClient#existsOnServer(PackId)
+     */
+    CompletableFuture<Boolean> existsOnServer(PackId packageId);
+
+    /**
+     * List all packages
+     * @return future package list service response
+     * @see PackageManagerClient#list()
+     */
+    CompletableFuture<ListResponse> list();
+
+    /**
+     * List all packages and filter by {@code query}
+     * @param query can be null or empty string
+     * @return future package list service response filtered by {@code query}
+     * @see PackageManagerClient#list(String)
+     */
+    CompletableFuture<ListResponse> list(String query);
+
+    /**
+     * List one package matching {@code packageId} or many packages matching the package group and name
+     * up to the first hyphen.
+     * @param packageId the {@link PackId} representing the group:name(:version)? to match
+     * @param includeVersions set to true to match on group:name up to the first hyphen in the "name-version"
+     *                        string, which effectively matches against all versions of the package
+     * @return future package list service response
+     * @see PackageManagerClient#list(PackId, boolean)
+     */
+    CompletableFuture<ListResponse> list(PackId packageId, boolean includeVersions);
+
+    /**
+     * Upload a package to the server. Does not install the package once uploaded.
+     * @param file the package file to be uploaded
+     * @param force set to {@code true} for the uploaded file to replace an existing package on the
+     *              server that has the same id.
+     * @param packageId optional {@link PackId} providing the installation path. If {@code null},
+     *                  the {@code file} will be identified and that {@link PackId} will be used.
+     * @return future standard simple service response
+     * @see PackageManagerClient#upload(File, boolean, PackId)
+     */
+    CompletableFuture<SimpleResponse> upload(File file, boolean force, PackId packageId);
+
+    /**
+     * Upload a package to the server unless it is unchanged since it was last uploaded.
+     * @param file the package file to be uploaded
+     * @param force set to {@code true} to replace an existing package on the server that has the same id
+     * @param packageId optional {@link PackId}. If {@code null}, the {@code file} will be identified.
+     * @return a future standard simple service response
+     * @see PackageManagerClient#uploadIfChanged(File, boolean, PackId)
+     */
+    CompletableFuture<SimpleResponse> uploadIfChanged(File file, boolean force, PackId packageId);
+
+    /**
+     * Downloads the package identified by {@code packageId} to the absolute path specified by {@code toFile}
+     * @param packageId {@link PackId} representing package to be downloaded
+     * @param toFile the file to save the downloaded binary data to.
+     * @return future download service response
+     * @see PackageManagerClient#download(PackId, File)
+     */
+    CompletableFuture<DownloadResponse> download(PackId packageId, File toFile);
+
+    /**
+     * Downloads the package to a qualified relative path under {@code toDirectory}
+     * @param packageId {@link PackId} representing package to be downloaded
+     * @param toDirectory a base directory under which packages will be saved at a relative path matching
+     *                    their CRX installation path, starting with "./etc/packages"
+     * @return future download service response
+     * @see PackageManagerClient#downloadToDirectory(PackId, File)
+     */
+    CompletableFuture<DownloadResponse> downloadToDirectory(PackId packageId, File toDirectory);
+
+    /**
+     * Delete a package from the server. Does not uninstall the package.
+     * @param packageId {@link PackId} representing package to be deleted
+     * @return future standard simple service response
+     * @see PackageManagerClient#delete(PackId)
+     */
+    CompletableFuture<SimpleResponse> delete(PackId packageId);
+
+    /**
+     * Replicates the package using the server's default replication agents
+     * @param packageId {@link PackId} representing package to be replicated
+     * @return future simple service response
+     * @see PackageManagerClient#replicate(PackId)
+     */
+    CompletableFuture<SimpleResponse> replicate(PackId packageId);
+
+    /**
+     * Prints the contents of the package to the response
+     * @param packageId {@link PackId} representing package
+     * @param listener response progress listener
+     * @return future detailed service response
+     * @see PackageManagerClient#contents(PackId, ResponseProgressListener)
+     */
+    CompletableFuture<DetailedResponse> contents(PackId packageId, ResponseProgressListener listener);
+
+    /**
+     * Install a package that has already been uploaded to the server.
+     * @param packageId {@link PackId} representing package to be installed
+     * @param recursive set to {@code true} to also install subpackages
+     * @param autosave number of changes between session saves.
+     * @param acHandling Access Control Handling value {@link ACHandling}. Unspecified if {@code null}.
+     * @param listener response progress listener
+     * @return future detailed service response
+     * @see PackageManagerClient#install(PackId, boolean, int, ACHandling, ResponseProgressListener)
+     */
+    CompletableFuture<DetailedResponse> install(PackId packageId, boolean recursive, int autosave,
+                                                ACHandling acHandling, ResponseProgressListener listener);
+
+    /**
+     * Performs a dryRun of an installation of the specified package
+     * @param packageId {@link PackId} representing package
+     * @param listener response progress listener
+     * @return future detailed service response
+     * @see PackageManagerClient#dryRun(PackId, ResponseProgressListener)
+     */
+    CompletableFuture<DetailedResponse> dryRun(PackId packageId, ResponseProgressListener listener);
+
+    /**
+     * Create a package with the specified packageId
+     * @param packageId {@link PackId} representing new package
+     * @return future simple service response
+     * @see PackageManagerClient#create(PackId)
+     */
+    CompletableFuture<SimpleResponse> create(PackId packageId);
+
+    /**
+     * Update a package definition with the specified {@link WspFilter}
+     * @param packageId {@link PackId} representing package to update
+     * @param filter new workspace filter
+     * @return future simple service response
+     * @see PackageManagerClient#updateFilter(PackId, WspFilter)
+     */
+    CompletableFuture<SimpleResponse> updateFilter(PackId packageId, WspFilter filter);
+
+    /**
+     * Move/Rename a package on the server
+     * @param packageId {@link PackId} representing package to move/rename
+     * @param moveToId {@link PackId} package ID to move to
+     * @return future simple service response
+     * @see PackageManagerClient#move(PackId, PackId)
+     */
+    CompletableFuture<SimpleResponse> move(PackId packageId, PackId moveToId);
+
+    /**
+     * Builds the specified package
+     * @param packageId {@link PackId} representing package
+     * @param listener response progress listener
+     * @return future detailed service response
+     * @see PackageManagerClient#build(PackId, ResponseProgressListener)
+     */
+    CompletableFuture<DetailedResponse> build(PackId packageId, ResponseProgressListener listener);
+
+    /**
+     * Rewraps the specified package
+     * @param packageId {@link PackId} representing package
+     * @param listener response progress listener
+     * @return future detailed service response
+     * @see PackageManagerClient#rewrap(PackId, ResponseProgressListener)
+     */
+    CompletableFuture<DetailedResponse> rewrap(PackId packageId, ResponseProgressListener listener);
+
+    /**
+     * Uninstalls the specified package
+     * @param packageId {@link PackId} representing package
+     * @param listener response progress listener
+     * @return future detailed service response
+     * @see PackageManagerClient#uninstall(PackId, ResponseProgressListener)
+     */
+    CompletableFuture<DetailedResponse> uninstall(PackId packageId, ResponseProgressListener listener);
+}
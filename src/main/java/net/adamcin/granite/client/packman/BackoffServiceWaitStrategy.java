@@ -0,0 +1,143 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * {@link ServiceWaitStrategy} with capped exponential backoff and random jitter. The first probe is sent immediately,
+ * and the delay before probe {@code n} is {@code min(maxDelay, initialDelay * multiplier^(n-1))}, reduced by a random
+ * fraction of up to {@code jitter}, so that a server recovering from a bundle restart is detected quickly without
+ * being hammered by many clients polling in lockstep. Connection errors are retried, since the server is expected to
+ * refuse connections while it restarts, but an {@link UnauthorizedException} is not.
+ */
+public class BackoffServiceWaitStrategy implements ServiceWaitStrategy, Serializable {
+
+    private static final long serialVersionUID = -6184036545164123318L;
+
+    public static final long DEFAULT_INITIAL_DELAY = 25L;
+    public static final long DEFAULT_MAX_DELAY = 2000L;
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private double multiplier = DEFAULT_MULTIPLIER;
+    private double jitter = DEFAULT_JITTER;
+    private boolean retryErrors = true;
+
+    private final Random random = new Random();
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * @param initialDelay delay in milliseconds before the second probe
+     * @return this strategy
+     */
+    public BackoffServiceWaitStrategy setInitialDelay(long initialDelay) {
+        this.initialDelay = Math.max(0L, initialDelay);
+        return this;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @param maxDelay upper bound in milliseconds for the delay between probes
+     * @return this strategy
+     */
+    public BackoffServiceWaitStrategy setMaxDelay(long maxDelay) {
+        this.maxDelay = Math.max(0L, maxDelay);
+        return this;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * @param multiplier growth factor of the delay between consecutive probes. Values below 1.0 are treated as 1.0.
+     * @return this strategy
+     */
+    public BackoffServiceWaitStrategy setMultiplier(double multiplier) {
+        this.multiplier = Math.max(1.0, multiplier);
+        return this;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param jitter maximum fraction between 0.0 and 1.0 by which each delay is randomly reduced
+     * @return this strategy
+     */
+    public BackoffServiceWaitStrategy setJitter(double jitter) {
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+        return this;
+    }
+
+    public boolean isRetryErrors() {
+        return retryErrors;
+    }
+
+    /**
+     * @param retryErrors set to false to throw connection errors immediately instead of retrying them
+     * @return this strategy
+     */
+    public BackoffServiceWaitStrategy setRetryErrors(boolean retryErrors) {
+        this.retryErrors = retryErrors;
+        return this;
+    }
+
+    public long getDelay(int attempt) {
+        if (attempt <= 0) {
+            return 0L;
+        }
+        double base = initialDelay * Math.pow(multiplier, attempt - 1);
+        long capped = base >= maxDelay ? maxDelay : (long) base;
+        if (jitter > 0.0 && capped > 0L) {
+            double fraction;
+            synchronized (random) {
+                fraction = random.nextDouble();
+            }
+            return capped - (long) (capped * jitter * fraction);
+        }
+        return capped;
+    }
+
+    public boolean isRetryable(Exception error) {
+        return retryErrors && error instanceof IOException && !(error instanceof UnauthorizedException);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated outcome of a bulk operation such as {@link PackageManagerClient#deleteAll(PackIdFilter)}, with one item
+ * per matching package in list order.
+ * @param <R> the response type of the command run for each package
+ */
+public final class BulkResponse<R> {
+
+    /**
+     * The outcome of the command for a single package.
+     * @param <R> the response type of the command
+     */
+    public static final class Item<R> {
+        private final PackId packId;
+        private final R response;
+        private final Exception error;
+
+        Item(PackId packId, R response, Exception error) {
+            this.packId = packId;
+            this.response = response;
+            this.error = error;
+        }
+
+        public PackId getPackId() {
+            return packId;
+        }
+
+        /**
+         * @return the response, or {@code null} if the command threw an exception
+         */
+        public R getResponse() {
+            return response;
+        }
+
+        /**
+         * @return the exception thrown by the command, or {@code null} if a response was received
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * @return true if the command completed and, if its response is a {@link ServiceResponse}, reported success
+         */
+        public boolean isSuccess() {
+            return error == null && response != null
+                    && (!(response instanceof ServiceResponse) || ((ServiceResponse) response).isSuccess());
+        }
+
+        public String getMessage() {
+            if (error != null) {
+                return String.valueOf(error.getMessage());
+            } else if (response instanceof ServiceResponse) {
+                return ((ServiceResponse) response).getMessage();
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "Item{" +
+                    "packId=" + packId +
+                    ", success=" + isSuccess() +
+                    ", message='" + getMessage() + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * Runs the command of a bulk operation for a single package.
+     * @param <R> the response type of the command
+     */
+    interface Command<R> {
+        R execute(PackId packageId) throws Exception;
+    }
+
+    private final List<Item<R>> items;
+    private final long duration;
+
+    BulkResponse(List<Item<R>> items, long duration) {
+        this.items = Collections.unmodifiableList(items);
+        this.duration = duration;
+    }
+
+    /**
+     * Lists the packages on the server, keeping only the ids that match the filter, then runs the command for each
+     * match, one at a time. Used by the default bulk methods of {@link PackageManagerClient}.
+     */
+    static <R> BulkResponse<R> runSequentially(final PackageManagerClient client, final PackIdFilter filter,
+                                               final Command<R> command) throws Exception {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        final long start = System.currentTimeMillis();
+        final List<PackId> matches = new ArrayList<PackId>();
+        client.list((String) null, new ListResultListener() {
+            public void onResult(ListResult result) {
+                PackId packageId = result.getPackId();
+                if (packageId != null && filter.includes(packageId)) {
+                    matches.add(packageId);
+                }
+            }
+        });
+
+        final List<Item<R>> items = new ArrayList<Item<R>>(matches.size());
+        for (PackId packageId : matches) {
+            try {
+                items.add(new Item<R>(packageId, command.execute(packageId), null));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                items.add(new Item<R>(packageId, null, e));
+            }
+        }
+        return new BulkResponse<R>(items, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return one item per matching package, in list order
+     */
+    public List<Item<R>> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the items for which the command failed
+     */
+    public List<Item<R>> getFailures() {
+        List<Item<R>> failures = new ArrayList<Item<R>>();
+        for (Item<R> item : items) {
+            if (!item.isSuccess()) {
+                failures.add(item);
+            }
+        }
+        return Collections.unmodifiableList(failures);
+    }
+
+    public int getSuccessCount() {
+        return items.size() - getFailures().size();
+    }
+
+    /**
+     * @return true if the command succeeded for every matching package, or if no package matched
+     */
+    public boolean isSuccess() {
+        for (Item<R> item : items) {
+            if (!item.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return elapsed time in milliseconds for listing the packages and running all commands
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResponse{" +
+                "items=" + items.size() +
+                ", failures=" + getFailures().size() +
+                ", duration=" + duration +
+                '}';
+    }
+}
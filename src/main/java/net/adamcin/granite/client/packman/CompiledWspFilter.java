@@ -0,0 +1,256 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable, thread-safe matcher for a {@link WspFilter}, with the same semantics as a Jackrabbit
+ * {@link org.apache.jackrabbit.vault.fs.config.DefaultWorkspaceFilter} built from the same roots and rules. The rules
+ * of each root are compiled once into a {@link RuleAutomaton}, so that a path is tested against all of them in a single
+ * pass, regardless of the number of rules. Roots are indexed in a trie of path segments, so that
+ * {@link #covers(String)} and {@link #contains(String)} only visit the roots along the path, in O(path depth), rather
+ * than testing every root.
+ * <p>
+ * A root covers its own path and every path below it. A covered path is contained by a root when the last rule
+ * whose pattern matches the whole path is an include rule, or, when no rule matches, when the first rule is an
+ * exclude rule. A root without rules contains every path it covers. The filter covers or contains a path if any of
+ * its roots does, and the covering root of a path is the first such root in filter order.
+ */
+public final class CompiledWspFilter {
+
+    private final WspFilter filter;
+    private final Node trie;
+
+    private CompiledWspFilter(final WspFilter filter) {
+        this.filter = filter;
+        this.trie = new Node();
+        final Map<String, Pattern> patterns = new HashMap<String, Pattern>();
+        final List<Root> compiledRoots = new ArrayList<Root>();
+        for (WspFilter.Root root : filter.getRoots()) {
+            Root compiled = new Root(compiledRoots.size(), root, patterns);
+            compiledRoots.add(compiled);
+            trie.insert(compiled);
+        }
+    }
+
+    /**
+     * @param filter the filter to compile
+     * @return a compiled filter, which keeps a reference to the original
+     */
+    public static CompiledWspFilter compile(WspFilter filter) {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        return new CompiledWspFilter(filter);
+    }
+
+    public WspFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param path an absolute repository path
+     * @return true if any root covers the path
+     */
+    public boolean covers(String path) {
+        return getCoveringIndex(path) >= 0;
+    }
+
+    /**
+     * @param path an absolute repository path
+     * @return the first root in filter order which covers the path, or null if no root covers it
+     */
+    public WspFilter.Root getCoveringRoot(String path) {
+        final int index = getCoveringIndex(path);
+        return index >= 0 ? filter.getRoots().get(index) : null;
+    }
+
+    /**
+     * @param path an absolute repository path
+     * @return true if any root which covers the path also contains it
+     */
+    public boolean contains(String path) {
+        if (path == null) {
+            return false;
+        }
+        Node node = trie;
+        int start = 0;
+        while (node != null) {
+            final int slash = path.indexOf('/', start);
+            final String segment = slash < 0 ? path.substring(start) : path.substring(start, slash);
+            node = node.children.get(segment);
+            if (node == null) {
+                return false;
+            }
+            for (Root root : node.roots) {
+                if (root.contains(path)) {
+                    return true;
+                }
+            }
+            if (slash < 0) {
+                return false;
+            }
+            start = slash + 1;
+        }
+        return false;
+    }
+
+    private int getCoveringIndex(final String path) {
+        if (path == null) {
+            return -1;
+        }
+        int first = -1;
+        Node node = trie;
+        int start = 0;
+        while (true) {
+            final int slash = path.indexOf('/', start);
+            final String segment = slash < 0 ? path.substring(start) : path.substring(start, slash);
+            node = node.children.get(segment);
+            if (node == null) {
+                return first;
+            }
+            if (!node.roots.isEmpty()) {
+                final int index = node.roots.get(0).index;
+                if (first < 0 || index < first) {
+                    first = index;
+                }
+            }
+            if (slash < 0) {
+                return first;
+            }
+            start = slash + 1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledWspFilter{" + filter + '}';
+    }
+
+    /**
+     * A trie node for one path segment. Roots ending at this node are kept in filter order.
+     */
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        private final List<Root> roots = new ArrayList<Root>(1);
+
+        private void insert(final Root root) {
+            Node node = this;
+            int start = 0;
+            final String path = root.path;
+            while (true) {
+                final int slash = path.indexOf('/', start);
+                final String segment = slash < 0 ? path.substring(start) : path.substring(start, slash);
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+                if (slash < 0) {
+                    break;
+                }
+                start = slash + 1;
+            }
+            node.roots.add(root);
+        }
+    }
+
+    /**
+     * A root with its rules compiled into a single {@link RuleAutomaton}, which finds the last matching rule in one
+     * pass over the path. Rules that the automaton does not support are kept as compiled patterns, and only tested
+     * when they come after the last rule matched by the automaton.
+     */
+    private static final class Root {
+        private final int index;
+        private final String path;
+        private final RuleAutomaton automaton;
+        private final Pattern[] fallbacks;
+        private final boolean[] includes;
+        private final boolean noMatch;
+
+        private Root(final int index, final WspFilter.Root root, final Map<String, Pattern> compiled) {
+            this.index = index;
+            String rootPath = root.getPath() != null ? root.getPath() : "";
+            // a trailing slash is not part of the root, as in FilterSet.setRoot(String)
+            if (rootPath.endsWith("/")) {
+                rootPath = rootPath.substring(0, rootPath.length() - 1);
+            }
+            this.path = rootPath;
+
+            final List<WspFilter.Rule> rules = root.getRules() != null
+                    ? root.getRules() : Collections.<WspFilter.Rule>emptyList();
+            final int count = rules.size();
+            final List<String> patterns = new ArrayList<String>(count);
+            this.includes = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                final WspFilter.Rule rule = rules.get(i);
+                Pattern pattern = compiled.get(rule.getPattern());
+                if (pattern == null) {
+                    // validates the syntax, and is kept for rules that the automaton does not support
+                    pattern = Pattern.compile(rule.getPattern());
+                    compiled.put(rule.getPattern(), pattern);
+                }
+                patterns.add(rule.getPattern());
+                this.includes[i] = rule.isInclude();
+            }
+            this.automaton = RuleAutomaton.compile(patterns);
+            this.fallbacks = new Pattern[count];
+            for (int i = 0; i < count; i++) {
+                if (!automaton.isSupported(i)) {
+                    this.fallbacks[i] = compiled.get(patterns.get(i));
+                }
+            }
+            this.noMatch = count == 0 || !rules.get(0).isInclude();
+        }
+
+        /**
+         * Assumes that the path is covered by this root.
+         */
+        private boolean contains(final String path) {
+            if (includes.length == 0) {
+                return noMatch;
+            }
+            int matched = automaton.lastMatch(path);
+            for (int i = fallbacks.length - 1; i > matched; i--) {
+                if (fallbacks[i] != null && fallbacks[i].matcher(path).matches()) {
+                    matched = i;
+                    break;
+                }
+            }
+            return matched >= 0 ? includes[matched] : noMatch;
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Push-based parser for the HTML progress output of the package manager console (install, build, etc.). Bytes are
+ * decoded and tokenized in a single forward pass. Lines are assembled in a reusable buffer and matched in place,
+ * so the only strings created are those passed to the {@link ResponseProgressListener} or retained by the
+ * resulting {@link DetailedResponse}.
+ * <p>
+ * Feed response body chunks to {@link #feed(byte[], int, int)} as they arrive, then call {@link #finish()} to get
+ * the response. Instances are not thread-safe and must not be reused.
+ */
+public final class DetailedResponseParser {
+
+    /**
+     * Lines (and multi-line error messages) longer than this many chars are truncated to keep memory bounded.
+     */
+    static final int MAX_LINE_LENGTH = 1 << 20;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String START_PREFIX = "<body><h2>";
+    private static final String START_SUFFIX = "</h2>";
+    private static final String SUCCESS_PREFIX = "</div><br>";
+    private static final String SUCCESS_DURATION_PREFIX = " in ";
+    private static final String SUCCESS_DURATION_SUFFIX = "ms.<br>";
+    private static final String BR = "<br>";
+    private static final String SPAN = "<span";
+    private static final String MESSAGE_PREFIX = "<span class=\"";
+    private static final String MESSAGE_ACTION_SUFFIX = "\"><b>";
+    private static final String MESSAGE_LABEL_SUFFIX = "</b>&nbsp;";
+    private static final String MESSAGE_END = "</span><br>";
+    private static final String FAILURE_BEGIN = "<span class=\"error\">Error during processing.</span><br><code><pre>";
+    private static final String FAILURE_END = "</pre>";
+
+    private final ResponseProgressListener listener;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+
+    private char[] line = new char[256];
+    private int lineLength = 0;
+    private boolean skipLineFeed = false;
+
+    private boolean started = false;
+    private boolean failure = false;
+    private final List<String> progressErrors = new ArrayList<String>();
+    private final List<String> failureBuilder = new ArrayList<String>();
+
+    private String pendingAction = null;
+    private String pendingPath = null;
+    private final StringBuilder pendingError = new StringBuilder();
+
+    private DetailedResponse result = null;
+
+    DetailedResponseParser(final ResponseProgressListener listener, final String charset) {
+        this.listener = listener != null ? listener : AbstractPackageManagerClient.DEFAULT_LISTENER;
+        this.decoder = forName(charset).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static Charset forName(final String charset) {
+        try {
+            if (charset != null && Charset.isSupported(charset)) {
+                return Charset.forName(charset);
+            }
+        } catch (IllegalCharsetNameException e) {
+            // fall through to the default
+        }
+        return Charset.forName(AbstractPackageManagerClient.DEFAULT_CHARSET);
+    }
+
+    /**
+     * @return true once a success or failure result has been parsed. Any further input is ignored.
+     */
+    public boolean isDone() {
+        return result != null;
+    }
+
+    /**
+     * Parse a chunk of the response body.
+     * @param bytes the buffer
+     * @param offset start of the chunk
+     * @param length length of the chunk
+     * @return true if a result has been parsed and no more input is required
+     */
+    public boolean feed(final byte[] bytes, final int offset, final int length) {
+        return feed(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Parse a chunk of the response body. The buffer's position is advanced past the consumed bytes.
+     * @param bytes the chunk
+     * @return true if a result has been parsed and no more input is required
+     */
+    public boolean feed(final ByteBuffer bytes) {
+        while (result == null && bytes.hasRemaining()) {
+            int count = Math.min(bytes.remaining(), byteBuffer.remaining());
+            ByteBuffer slice = bytes.duplicate();
+            slice.limit(slice.position() + count);
+            byteBuffer.put(slice);
+            bytes.position(bytes.position() + count);
+
+            byteBuffer.flip();
+            decode(false);
+            byteBuffer.compact();
+        }
+        return result != null;
+    }
+
+    /**
+     * Signal the end of the response body.
+     * @return the parsed response
+     * @throws IOException if neither success nor failure could be determined from the response
+     */
+    public DetailedResponse finish() throws IOException {
+        if (result == null) {
+            byteBuffer.flip();
+            decode(true);
+            byteBuffer.clear();
+            CoderResult coderResult;
+            do {
+                coderResult = decoder.flush(charBuffer);
+                scan();
+            } while (coderResult.isOverflow());
+
+            if (result == null && lineLength > 0) {
+                processLine();
+            }
+
+            if (result == null && pendingAction != null) {
+                // the response ended in the middle of a multi-line message
+                completePendingMessage();
+            }
+        }
+
+        if (result == null) {
+            throw new IOException("Failed to parse service response");
+        }
+        return result;
+    }
+
+    /**
+     * Read and parse the stream until a result is determined or the end of the stream is reached. The stream is not
+     * closed.
+     * @param stream the response body
+     * @return the parsed response
+     * @throws IOException if the stream can not be read or if the response can not be parsed
+     */
+    public DetailedResponse parse(final InputStream stream) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while (!isDone() && (read = stream.read(buffer)) != -1) {
+            feed(buffer, 0, read);
+        }
+        return finish();
+    }
+
+    private void decode(final boolean endOfInput) {
+        CoderResult coderResult;
+        do {
+            coderResult = decoder.decode(byteBuffer, charBuffer, endOfInput);
+            scan();
+        } while (coderResult.isOverflow() && result == null);
+    }
+
+    private void scan() {
+        charBuffer.flip();
+        final char[] chars = charBuffer.array();
+        final int limit = charBuffer.limit();
+        for (int i = charBuffer.position(); i < limit && result == null; i++) {
+            final char c = chars[i];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+
+            if (c == '\n' || c == '\r') {
+                skipLineFeed = c == '\r';
+                processLine();
+                lineLength = 0;
+            } else if (lineLength < line.length) {
+                line[lineLength++] = c;
+            } else if (line.length < MAX_LINE_LENGTH) {
+                char[] grown = new char[Math.min(line.length * 2, MAX_LINE_LENGTH)];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+                line[lineLength++] = c;
+            }
+        }
+        charBuffer.clear();
+    }
+
+    private void processLine() {
+        if (result != null) {
+            return;
+        }
+
+        if (pendingAction != null) {
+            if (pendingError.length() < MAX_LINE_LENGTH) {
+                pendingError.append("\r\n").append(line, 0, lineLength);
+            }
+            if (endsWith(MESSAGE_END)) {
+                completePendingMessage();
+            }
+            return;
+        }
+
+        if (failure) {
+            if (startsWith(FAILURE_END, 0)) {
+                String message = failureBuilder.isEmpty() ? "" : failureBuilder.remove(0);
+                result = new AbstractPackageManagerClient.DetailedResponseImpl(false, message, -1L,
+                        progressErrors, failureBuilder);
+            } else {
+                // assume line is part of stack trace
+                failureBuilder.add(trimmed(0, lineLength));
+            }
+            return;
+        }
+
+        if (!started) {
+            handleStart();
+        }
+
+        if (started) {
+            if (startsWith(SUCCESS_PREFIX, 0)) {
+                handleSuccess();
+                if (result != null) {
+                    return;
+                }
+            }
+
+            if (!startsWith(SPAN, 0)) {
+                handleLogs();
+            }
+
+            handleMessage();
+
+            if (endsWith(FAILURE_BEGIN)) {
+                failure = true;
+            }
+        }
+    }
+
+    private void handleStart() {
+        if (startsWith(START_PREFIX, 0)) {
+            int end = indexOf('<', START_PREFIX.length());
+            if (end >= 0 && startsWith(START_SUFFIX, end)) {
+                started = true;
+                listener.onStart(new String(line, START_PREFIX.length(), end - START_PREFIX.length()));
+            }
+        }
+    }
+
+    /**
+     * Matches {@code </div><br>(.*) in (\d+)ms\.<br>}, where the message is as long as possible.
+     */
+    private void handleSuccess() {
+        final int from = SUCCESS_PREFIX.length();
+        for (int at = lastIndexOf(SUCCESS_DURATION_PREFIX, lineLength); at >= from;
+             at = lastIndexOf(SUCCESS_DURATION_PREFIX, at - 1)) {
+
+            final int digits = at + SUCCESS_DURATION_PREFIX.length();
+            int end = digits;
+            long duration = 0L;
+            while (end < lineLength && line[end] >= '0' && line[end] <= '9') {
+                duration = duration >= 0L && duration <= (Long.MAX_VALUE - 9L) / 10L
+                        ? duration * 10L + (line[end] - '0') : -1L;
+                end++;
+            }
+
+            if (end > digits && startsWith(SUCCESS_DURATION_SUFFIX, end)) {
+                result = new AbstractPackageManagerClient.DetailedResponseImpl(true,
+                        new String(line, from, at - from), duration, progressErrors, null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Emits each {@code text<br>} segment at the beginning of the line.
+     */
+    private void handleLogs() {
+        int pos = 0;
+        int end;
+        while ((end = indexOf('<', pos)) >= 0 && startsWith(BR, end)) {
+            if (end > pos) {
+                listener.onLog(new String(line, pos, end - pos));
+            }
+            pos = end + BR.length();
+        }
+    }
+
+    /**
+     * Matches {@code <span class="([^"]*)"><b>([^<]*)</b>&nbsp;([^<(]*)(.*)$} against the line.
+     */
+    private void handleMessage() {
+        for (int start = indexOf(MESSAGE_PREFIX, 0); start >= 0; start = indexOf(MESSAGE_PREFIX, start + 1)) {
+            final int actionStart = start + MESSAGE_PREFIX.length();
+            final int actionEnd = indexOf('"', actionStart);
+            if (actionEnd < 0) {
+                return;
+            }
+            if (!startsWith(MESSAGE_ACTION_SUFFIX, actionEnd)) {
+                continue;
+            }
+            final int labelEnd = indexOf('<', actionEnd + MESSAGE_ACTION_SUFFIX.length());
+            if (labelEnd < 0 || !startsWith(MESSAGE_LABEL_SUFFIX, labelEnd)) {
+                continue;
+            }
+
+            final int pathStart = labelEnd + MESSAGE_LABEL_SUFFIX.length();
+            int pathEnd = pathStart;
+            while (pathEnd < lineLength && line[pathEnd] != '<' && line[pathEnd] != '(') {
+                pathEnd++;
+            }
+
+            final int actionLength = actionEnd - actionStart;
+            if (!endsWith(MESSAGE_END)) {
+                // error message continues on the following lines
+                pendingAction = new String(line, actionStart, actionLength);
+                pendingPath = new String(line, pathStart, pathEnd - pathStart);
+                pendingError.setLength(0);
+                pendingError.append(line, pathEnd, lineLength - pathEnd);
+            } else if (actionLength == 1 && line[actionStart] == 'E') {
+                onError(new String(line, pathStart, pathEnd - pathStart),
+                        new String(line, pathEnd, lineLength - MESSAGE_END.length() - pathEnd));
+            } else if (actionLength == 1) {
+                listener.onProgress(new String(line, actionStart, 1), trimmed(pathStart, pathEnd));
+            } else {
+                listener.onMessage(new String(line, actionStart, actionLength));
+            }
+            return;
+        }
+    }
+
+    private void completePendingMessage() {
+        final String action = pendingAction;
+        final String path = pendingPath;
+        pendingAction = null;
+        pendingPath = null;
+
+        int end = pendingError.lastIndexOf(MESSAGE_END);
+        if (end >= 0) {
+            pendingError.setLength(end);
+        }
+
+        if ("E".equals(action)) {
+            onError(path, pendingError.toString());
+        } else if (action.length() == 1) {
+            listener.onProgress(action, path.trim());
+        } else {
+            listener.onMessage(action);
+        }
+        pendingError.setLength(0);
+    }
+
+    private void onError(final String path, final String error) {
+        progressErrors.add(path + " " + error);
+        // strip the enclosing parentheses
+        listener.onError(path.trim(), error.length() >= 2 ? error.substring(1, error.length() - 1) : "");
+    }
+
+    private String trimmed(int start, int end) {
+        while (start < end && line[start] <= ' ') {
+            start++;
+        }
+        while (end > start && line[end - 1] <= ' ') {
+            end--;
+        }
+        return new String(line, start, end - start);
+    }
+
+    private boolean startsWith(final String prefix, final int offset) {
+        final int length = prefix.length();
+        if (offset < 0 || offset + length > lineLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (line[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean endsWith(final String suffix) {
+        return startsWith(suffix, lineLength - suffix.length());
+    }
+
+    private int indexOf(final char c, final int from) {
+        for (int i = from; i < lineLength; i++) {
+            if (line[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(final String s, final int from) {
+        final char first = s.charAt(0);
+        for (int i = indexOf(first, from); i >= 0; i = indexOf(first, i + 1)) {
+            if (startsWith(s, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(final String s, final int from) {
+        for (int i = Math.min(from, lineLength - s.length()); i >= 0; i--) {
+            if (startsWith(s, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * {@link UploadLedger} persisted to a properties file, so that unchanged packages are recognized across builds.
+ * The file is rewritten atomically after every change. Construct with a {@code null} file for a ledger that lives
+ * only as long as the instance.
+ */
+public final class FileUploadLedger implements UploadLedger {
+
+    private final File file;
+    private final Properties digests = new Properties();
+
+    /**
+     * @param file the ledger file, which is loaded if it exists. May be {@code null}.
+     * @throws IOException if the existing ledger file can not be read
+     */
+    public FileUploadLedger(File file) throws IOException {
+        this.file = file;
+        if (file != null && file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                digests.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static String key(String baseUrl, PackId packageId) {
+        if (baseUrl == null) {
+            throw new NullPointerException("baseUrl");
+        }
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        return baseUrl + packageId.getInstallationPath();
+    }
+
+    public synchronized String getDigest(String baseUrl, PackId packageId) {
+        return digests.getProperty(key(baseUrl, packageId));
+    }
+
+    public synchronized void recordUpload(String baseUrl, PackId packageId, String digest) throws IOException {
+        if (digest == null) {
+            throw new NullPointerException("digest");
+        }
+        if (!digest.equals(digests.setProperty(key(baseUrl, packageId), digest))) {
+            save();
+        }
+    }
+
+    public synchronized void forget(String baseUrl, PackId packageId) throws IOException {
+        if (digests.remove(key(baseUrl, packageId)) != null) {
+            save();
+        }
+    }
+
+    private void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create path: " + parent.getAbsolutePath());
+        }
+
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                digests.store(out, "package upload digests");
+            } finally {
+                out.close();
+            }
+
+            AbstractPackageManagerClient.moveAtomically(temp, file);
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+}
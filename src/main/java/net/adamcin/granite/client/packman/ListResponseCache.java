@@ -0,0 +1,204 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded cache of successful {@link ListResponse}s, keyed by base URL and list query, so that repeated calls
+ * to {@link PackageManagerClient#existsOnServer(PackId)} and {@code list} do not each cost a round trip. Entries
+ * expire after a fixed time-to-live, the least recently used entry is evicted when the cache is full, and a client
+ * invalidates all entries for its base URL whenever it changes packages on the server. Changes made by other clients
+ * which do not share the cache are only observed once the entries expire.
+ *
+ * Enable with {@link AbstractPackageManagerClient#setListResponseCache(ListResponseCache)}. One cache may be shared
+ * by many clients.
+ */
+public final class ListResponseCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL = 30000L;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, CachedResponse> entries;
+
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ListResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries maximum number of cached responses
+     * @param ttl time-to-live of each cached response in milliseconds
+     */
+    public ListResponseCache(int maxEntries, long ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (ttl < 0L) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                if (size() > ListResponseCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private static String key(String baseUrl, String query) {
+        if (baseUrl == null) {
+            throw new NullPointerException("baseUrl");
+        }
+        if (query == null) {
+            throw new NullPointerException("query");
+        }
+        return baseUrl + "\n" + query;
+    }
+
+    /**
+     * @param baseUrl the base URL of the server
+     * @param query the key of the list request, unique to its parameters
+     * @return the cached response, or null if none is cached or it has expired
+     */
+    public synchronized ListResponse get(String baseUrl, String query) {
+        final String key = key(baseUrl, query);
+        final CachedResponse entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - entry.created >= ttlNanos) {
+            entries.remove(key);
+            evictions++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.response;
+    }
+
+    /**
+     * @return a token to pass to {@link #put(String, String, ListResponse, long)} when the list request that was
+     *         sent after calling this method completes
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a successful response, unless the cache has been invalidated since the request was sent.
+     * @param baseUrl the base URL of the server
+     * @param query the key of the list request, unique to its parameters
+     * @param response the response
+     * @param generation the value of {@link #getGeneration()} before the request was sent
+     */
+    public synchronized void put(String baseUrl, String query, ListResponse response, long generation) {
+        final String key = key(baseUrl, query);
+        if (response == null || !response.isSuccess() || generation != this.generation) {
+            return;
+        }
+        entries.put(key, new CachedResponse(response, System.nanoTime()));
+    }
+
+    /**
+     * Remove all cached responses for a server.
+     * @param baseUrl the base URL of the server
+     */
+    public synchronized void invalidate(String baseUrl) {
+        final String prefix = key(baseUrl, "");
+        generation++;
+        for (Iterator<String> keys = entries.keySet().iterator(); keys.hasNext(); ) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of responses removed because the cache was full or because they expired
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ListResponseCache{" +
+                "size=" + entries.size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    private static final class CachedResponse {
+        private final ListResponse response;
+        private final long created;
+
+        private CachedResponse(ListResponse response, long created) {
+            this.response = response;
+            this.created = created;
+        }
+    }
+}
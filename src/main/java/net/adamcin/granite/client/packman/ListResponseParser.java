@@ -0,0 +1,530 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Push-based parser for the JSON output of the package list service. Bytes are decoded and tokenized in a single
+ * forward pass, without building a JSON object tree. Keys are matched in a reusable token buffer, values of
+ * unrecognized keys are skipped, and each {@link ListResult} is created as soon as its object has been closed.
+ * <p>
+ * If a {@link ListResultListener} is provided, each result is passed to it and not retained, so memory use does not
+ * grow with the number of packages, and the {@link ListResponse} returned by {@link #finish()} has no results.
+ * Otherwise, the results are collected in the returned response. Instances are not thread-safe and must not be
+ * reused.
+ */
+public final class ListResponseParser {
+
+    /**
+     * Strings and literals longer than this many chars are rejected to keep memory bounded.
+     */
+    static final int MAX_TOKEN_LENGTH = 1 << 20;
+
+    /**
+     * Maximum nesting of JSON arrays and objects.
+     */
+    static final int MAX_DEPTH = 256;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int LEX_DEFAULT = 0;
+    private static final int LEX_STRING = 1;
+    private static final int LEX_ESCAPE = 2;
+    private static final int LEX_UNICODE = 3;
+    private static final int LEX_LITERAL = 4;
+
+    private static final int KEY_OTHER = 0;
+    private static final int KEY_RESULTS = 1;
+    private static final int KEY_TOTAL = 2;
+    private static final int KEY_GROUP = 3;
+    private static final int KEY_NAME = 4;
+    private static final int KEY_VERSION = 5;
+    private static final int KEY_HAS_SNAPSHOT = 6;
+    private static final int KEY_NEEDS_REWRAP = 7;
+
+    private final ListResultListener listener;
+    private final List<ListResult> results;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+
+    private long position = 0L;
+    private int lexState = LEX_DEFAULT;
+    private char[] token = new char[64];
+    private int tokenLength = 0;
+    private int unicodeValue = 0;
+    private int unicodeDigits = 0;
+
+    private final boolean[] objects = new boolean[MAX_DEPTH];
+    private int depth = 0;
+    private boolean expectKey = false;
+    private boolean done = false;
+
+    private int rootKey = KEY_OTHER;
+    private int resultKey = KEY_OTHER;
+    private boolean inResults = false;
+    private boolean inResult = false;
+    private boolean sawResults = false;
+    private boolean sawTotal = false;
+    private int total = 0;
+
+    private String group;
+    private String name;
+    private String version;
+    private boolean hasSnapshot;
+    private boolean needsRewrap;
+
+    ListResponseParser(final ListResultListener listener, final String charset) {
+        this.listener = listener;
+        this.results = listener == null ? new ArrayList<ListResult>() : null;
+        this.decoder = forName(charset).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static Charset forName(final String charset) {
+        try {
+            if (charset != null && Charset.isSupported(charset)) {
+                return Charset.forName(charset);
+            }
+        } catch (IllegalCharsetNameException e) {
+            // fall through to the default
+        }
+        return Charset.forName(AbstractPackageManagerClient.DEFAULT_CHARSET);
+    }
+
+    /**
+     * @return true once the top-level JSON object has been closed. Any further input is ignored.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Parse a chunk of the response body.
+     * @param bytes the buffer
+     * @param offset start of the chunk
+     * @param length length of the chunk
+     * @return true if the response is complete and no more input is required
+     * @throws IOException if the chunk is not valid JSON
+     */
+    public boolean feed(final byte[] bytes, final int offset, final int length) throws IOException {
+        return feed(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Parse a chunk of the response body. The buffer's position is advanced past the consumed bytes.
+     * @param bytes the chunk
+     * @return true if the response is complete and no more input is required
+     * @throws IOException if the chunk is not valid JSON
+     */
+    public boolean feed(final ByteBuffer bytes) throws IOException {
+        while (!done && bytes.hasRemaining()) {
+            int count = Math.min(bytes.remaining(), byteBuffer.remaining());
+            ByteBuffer slice = bytes.duplicate();
+            slice.limit(slice.position() + count);
+            byteBuffer.put(slice);
+            bytes.position(bytes.position() + count);
+
+            byteBuffer.flip();
+            decode(false);
+            byteBuffer.compact();
+        }
+        return done;
+    }
+
+    /**
+     * Signal the end of the response body.
+     * @return the parsed response, without results if a {@link ListResultListener} was provided
+     * @throws IOException if the response is incomplete or is missing the results or total
+     */
+    public ListResponse finish() throws IOException {
+        if (!done) {
+            byteBuffer.flip();
+            decode(true);
+            byteBuffer.clear();
+            CoderResult coderResult;
+            do {
+                coderResult = decoder.flush(charBuffer);
+                scan();
+            } while (coderResult.isOverflow());
+        }
+
+        if (!done) {
+            throw error("Unexpected end of response");
+        }
+        if (!sawResults) {
+            throw error("Missing \"" + AbstractPackageManagerClient.KEY_RESULTS + "\" array");
+        }
+        if (!sawTotal) {
+            throw error("Missing \"" + AbstractPackageManagerClient.KEY_TOTAL + "\" value");
+        }
+        return new AbstractPackageManagerClient.ListResponseImpl(
+                results != null ? results : Collections.<ListResult>emptyList(), total);
+    }
+
+    /**
+     * Read and parse the stream until the response is complete or the end of the stream is reached. The stream is not
+     * closed.
+     * @param stream the response body
+     * @return the parsed response
+     * @throws IOException if the stream can not be read or if the response can not be parsed
+     */
+    public ListResponse parse(final InputStream stream) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while (!isDone() && (read = stream.read(buffer)) != -1) {
+            feed(buffer, 0, read);
+        }
+        return finish();
+    }
+
+    private void decode(final boolean endOfInput) throws IOException {
+        CoderResult coderResult;
+        do {
+            coderResult = decoder.decode(byteBuffer, charBuffer, endOfInput);
+            scan();
+        } while (coderResult.isOverflow() && !done);
+    }
+
+    private void scan() throws IOException {
+        charBuffer.flip();
+        final char[] chars = charBuffer.array();
+        final int limit = charBuffer.limit();
+        for (int i = charBuffer.position(); i < limit && !done; i++) {
+            position++;
+            lex(chars[i]);
+        }
+        charBuffer.clear();
+    }
+
+    private void lex(final char c) throws IOException {
+        switch (lexState) {
+            case LEX_STRING:
+                if (c == '"') {
+                    lexState = LEX_DEFAULT;
+                    onString();
+                } else if (c == '\\') {
+                    lexState = LEX_ESCAPE;
+                } else {
+                    append(c);
+                }
+                return;
+            case LEX_ESCAPE:
+                lexState = LEX_STRING;
+                switch (c) {
+                    case 'b': append('\b'); return;
+                    case 't': append('\t'); return;
+                    case 'n': append('\n'); return;
+                    case 'f': append('\f'); return;
+                    case 'r': append('\r'); return;
+                    case '"':
+                    case '\'':
+                    case '\\':
+                    case '/': append(c); return;
+                    case 'u':
+                        lexState = LEX_UNICODE;
+                        unicodeValue = 0;
+                        unicodeDigits = 0;
+                        return;
+                    default:
+                        throw error("Illegal escape");
+                }
+            case LEX_UNICODE:
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    throw error("Illegal unicode escape");
+                }
+                unicodeValue = (unicodeValue << 4) | digit;
+                if (++unicodeDigits == 4) {
+                    append((char) unicodeValue);
+                    lexState = LEX_STRING;
+                }
+                return;
+            case LEX_LITERAL:
+                if (!isDelimiter(c)) {
+                    append(c);
+                    return;
+                }
+                lexState = LEX_DEFAULT;
+                onLiteral();
+                lexDefault(c);
+                return;
+            default:
+                lexDefault(c);
+        }
+    }
+
+    /**
+     * Handles a character outside of any string or literal token, including the delimiter that ends a literal.
+     */
+    private void lexDefault(final char c) throws IOException {
+        switch (c) {
+            case '{': beginContainer(true); return;
+            case '[': beginContainer(false); return;
+            case '}': endContainer(true); return;
+            case ']': endContainer(false); return;
+            case ',': onComma(); return;
+            case ':': onColon(); return;
+            case '"':
+                tokenLength = 0;
+                lexState = LEX_STRING;
+                return;
+            default:
+                if (!isWhitespace(c)) {
+                    tokenLength = 0;
+                    append(c);
+                    lexState = LEX_LITERAL;
+                }
+        }
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\uFEFF';
+    }
+
+    private static boolean isDelimiter(final char c) {
+        return isWhitespace(c) || c == ',' || c == ':' || c == ']' || c == '}' || c == '[' || c == '{' || c == '"';
+    }
+
+    private void append(final char c) throws IOException {
+        if (tokenLength == token.length) {
+            if (token.length >= MAX_TOKEN_LENGTH) {
+                throw error("Value exceeds " + MAX_TOKEN_LENGTH + " chars");
+            }
+            char[] grown = new char[Math.min(token.length * 2, MAX_TOKEN_LENGTH)];
+            System.arraycopy(token, 0, grown, 0, tokenLength);
+            token = grown;
+        }
+        token[tokenLength++] = c;
+    }
+
+    private boolean tokenEquals(final String value) {
+        if (value.length() != tokenLength) {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++) {
+            if (token[i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String tokenString() {
+        return new String(token, 0, tokenLength);
+    }
+
+    private IOException error(final String message) {
+        return new IOException("Failed to parse list response at char " + position + ": " + message);
+    }
+
+    private void beginContainer(final boolean object) throws IOException {
+        if (depth == 0) {
+            if (!object) {
+                throw error("Expected a JSON object");
+            }
+        } else if (objects[depth - 1] && expectKey) {
+            throw error("Expected a key");
+        } else if (depth == 1 && rootKey == KEY_RESULTS) {
+            if (object) {
+                throw error("Expected \"" + AbstractPackageManagerClient.KEY_RESULTS + "\" to be an array");
+            }
+            inResults = true;
+            sawResults = true;
+        } else if (depth == 2 && inResults && object) {
+            inResult = true;
+            resultKey = KEY_OTHER;
+            group = null;
+            name = null;
+            version = null;
+            hasSnapshot = false;
+            needsRewrap = false;
+        }
+
+        if (depth == MAX_DEPTH) {
+            throw error("Nesting exceeds " + MAX_DEPTH + " levels");
+        }
+        objects[depth++] = object;
+        expectKey = object;
+    }
+
+    private void endContainer(final boolean object) throws IOException {
+        if (depth == 0 || objects[depth - 1] != object) {
+            throw error("Unexpected '" + (object ? '}' : ']') + "'");
+        }
+        depth--;
+        expectKey = false;
+        if (depth == 2 && inResult) {
+            inResult = false;
+            onResult();
+        } else if (depth == 1 && inResults) {
+            inResults = false;
+        } else if (depth == 0) {
+            done = true;
+        }
+    }
+
+    private void onComma() throws IOException {
+        if (depth == 0) {
+            throw error("Unexpected ','");
+        }
+        expectKey = objects[depth - 1];
+    }
+
+    private void onColon() throws IOException {
+        if (depth == 0 || !objects[depth - 1] || expectKey) {
+            throw error("Unexpected ':'");
+        }
+    }
+
+    private void onString() throws IOException {
+        if (depth == 0) {
+            throw error("Expected a JSON object");
+        }
+        if (objects[depth - 1] && expectKey) {
+            expectKey = false;
+            if (depth == 1) {
+                rootKey = matchRootKey();
+            } else if (depth == 3 && inResult) {
+                resultKey = matchResultKey();
+            }
+        } else {
+            onValue(true);
+        }
+    }
+
+    private void onLiteral() throws IOException {
+        if (depth == 0) {
+            throw error("Expected a JSON object");
+        }
+        if (objects[depth - 1] && expectKey) {
+            throw error("Expected a key");
+        }
+        onValue(false);
+    }
+
+    private int matchRootKey() {
+        if (tokenEquals(AbstractPackageManagerClient.KEY_RESULTS)) {
+            return KEY_RESULTS;
+        } else if (tokenEquals(AbstractPackageManagerClient.KEY_TOTAL)) {
+            return KEY_TOTAL;
+        }
+        return KEY_OTHER;
+    }
+
+    private int matchResultKey() {
+        if (tokenEquals(AbstractPackageManagerClient.KEY_GROUP)) {
+            return KEY_GROUP;
+        } else if (tokenEquals(AbstractPackageManagerClient.KEY_NAME)) {
+            return KEY_NAME;
+        } else if (tokenEquals(AbstractPackageManagerClient.KEY_VERSION)) {
+            return KEY_VERSION;
+        } else if (tokenEquals(AbstractPackageManagerClient.KEY_HAS_SNAPSHOT)) {
+            return KEY_HAS_SNAPSHOT;
+        } else if (tokenEquals(AbstractPackageManagerClient.KEY_NEEDS_REWRAP)) {
+            return KEY_NEEDS_REWRAP;
+        }
+        return KEY_OTHER;
+    }
+
+    private void onValue(final boolean string) throws IOException {
+        final boolean isNull = !string && tokenEquals("null");
+        if (depth == 1) {
+            if (rootKey == KEY_TOTAL) {
+                total = parseInt();
+                sawTotal = true;
+            } else if (rootKey == KEY_RESULTS) {
+                throw error("Expected \"" + AbstractPackageManagerClient.KEY_RESULTS + "\" to be an array");
+            }
+        } else if (depth == 3 && inResult) {
+            switch (resultKey) {
+                case KEY_GROUP: group = isNull ? null : tokenString(); break;
+                case KEY_NAME: name = isNull ? null : tokenString(); break;
+                case KEY_VERSION: version = isNull ? "" : tokenString(); break;
+                case KEY_HAS_SNAPSHOT: hasSnapshot = parseBoolean(); break;
+                case KEY_NEEDS_REWRAP: needsRewrap = parseBoolean(); break;
+                default: break;
+            }
+        }
+    }
+
+    private int parseInt() throws IOException {
+        final String value = tokenString();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Double.parseDouble(value);
+            } catch (NumberFormatException e2) {
+                throw error("Expected a number: " + value);
+            }
+        }
+    }
+
+    private boolean parseBoolean() throws IOException {
+        if (tokenLength == 4 && tokenString().equalsIgnoreCase("true")) {
+            return true;
+        } else if (tokenLength == 5 && tokenString().equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw error("Expected a boolean: " + tokenString());
+    }
+
+    private void onResult() throws IOException {
+        if (group == null) {
+            throw error("Missing \"" + AbstractPackageManagerClient.KEY_GROUP + "\" in result");
+        }
+        if (name == null) {
+            throw error("Missing \"" + AbstractPackageManagerClient.KEY_NAME + "\" in result");
+        }
+        final ListResult result = new AbstractPackageManagerClient.ListResultImpl(
+                PackId.createPackId(group, name, version != null ? version : ""), hasSnapshot, needsRewrap);
+        group = null;
+        name = null;
+        version = null;
+        if (listener != null) {
+            listener.onResult(result);
+        } else {
+            results.add(result);
+        }
+    }
+}
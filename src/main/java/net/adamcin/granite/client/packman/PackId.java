@@ -35,6 +35,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -51,12 +54,21 @@ public final class PackId implements Serializable, Comparable<PackId> {
     public static final String PROP_VERSION = "version";
     public static final String PROP_PATH = "path";
 
+    private static final List<String> IDENTIFY_KEYS =
+            Collections.unmodifiableList(Arrays.asList(PROP_GROUP, PROP_NAME, PROP_VERSION, PROP_PATH));
+
+    /**
+     * properties.xml entries larger than this are left to the {@link JarFile} path.
+     */
+    private static final int MAX_PROPERTIES_SIZE = 1 << 20;
+
     private static final long serialVersionUID = -2933986835157825071L;
 
     private final String group;
     private final String name;
     private final String version;
     private final String installationPath;
+    private transient volatile Version parsedVersion;
 
     private PackId(final String group, final String name, final String version, final String installationPath) {
         this.group = group;
@@ -81,6 +93,18 @@ public final class PackId implements Serializable, Comparable<PackId> {
         return installationPath;
     }
 
+    /**
+     * @return the version parsed for comparison, which is created once and reused by {@link #compareTo(PackId)}
+     */
+    Version getParsedVersion() {
+        Version parsed = parsedVersion;
+        if (parsed == null) {
+            parsed = Version.create(version);
+            parsedVersion = parsed;
+        }
+        return parsed;
+    }
+
     @Override
     public String toString() {
         return group + ":" + name + ":" + version;
@@ -131,7 +155,7 @@ public final class PackId implements Serializable, Comparable<PackId> {
                 if (this.getVersion().equals(o.getVersion())) {
                     return 0;
                 } else {
-                    return Version.create(this.getVersion()).compareTo(Version.create(o.getVersion()));
+                    return this.getParsedVersion().compareTo(o.getParsedVersion());
                 }
             } else {
                 return this.getName().compareTo(o.getName());
@@ -154,7 +178,11 @@ public final class PackId implements Serializable, Comparable<PackId> {
     }
 
     /**
-     * Attempt to identify a file as a valid CRX content package.
+     * Attempt to identify a file as a valid CRX content package. Only the zip central directory and the
+     * META-INF/vault/properties.xml entry are read, and only the keys used for identification are extracted from it.
+     * Archives or properties files that the lightweight reader does not support are identified with {@link JarFile}
+     * and {@link Properties#loadFromXML(InputStream)} instead. If a default {@link PackageIdentityCache} is set, it is
+     * consulted first.
      * @param file the alleged content package file to identify
      * @param strict set to true to require a META-INF/vault/properties.xml file.
      * @return a PackId instance if identification was successful, or null if file is readable, but not a package.
@@ -165,25 +193,80 @@ public final class PackId implements Serializable, Comparable<PackId> {
             throw new NullPointerException("file");
         }
 
+        PackageIdentityCache cache = PackageIdentityCache.getDefault();
+        PackId id = cache != null ? cache.identify(file) : identifyArchive(file);
+
+        return identified(file, id, strict);
+    }
+
+    /**
+     * Identifies a package from its properties.xml, without consulting the {@link PackageIdentityCache}.
+     * @param file the package file
+     * @return the identified PackId, or null if the package has no usable properties
+     * @throws IOException if package file cannot be opened
+     */
+    static PackId identifyArchive(final File file) throws IOException {
+        try {
+            return identifyZipDirectory(file);
+        } catch (IOException e) {
+            return identifyJarFile(file);
+        }
+    }
+
+    /**
+     * Identifies a package by reading its central directory and properties.xml entry directly.
+     * @param file the package file
+     * @return the identified PackId, or null if the package has no usable properties
+     * @throws IOException if the file is not a zip archive, or the archive or properties.xml is not supported by
+     *                     the lightweight reader
+     */
+    static PackId identifyZipDirectory(final File file) throws IOException {
+        ZipDirectory zip = ZipDirectory.open(file);
+        try {
+            ZipDirectory.Entry propsEntry = zip.getEntry(PROPERTIES_ENTRY);
+            if (propsEntry == null) {
+                return null;
+            }
+            return identifyProperties(PropertiesXmlScanner.scan(
+                    zip.readEntry(propsEntry, MAX_PROPERTIES_SIZE), IDENTIFY_KEYS));
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Identifies a package using {@link JarFile} and {@link Properties#loadFromXML(InputStream)}.
+     * @param file the package file
+     * @return the identified PackId, or null if the package has no usable properties
+     * @throws IOException if package file cannot be opened
+     */
+    static PackId identifyJarFile(final File file) throws IOException {
         JarFile jar = new JarFile(file);
-        JarEntry propsEntry = jar.getJarEntry(PROPERTIES_ENTRY);
-
-        PackId id = null;
-        if (propsEntry != null) {
-            InputStream propsStream = null;
-            try {
-                propsStream = jar.getInputStream(propsEntry);
-                Properties props = new Properties();
-                props.loadFromXML(propsStream);
-
-                id = identifyProperties(props);
-            } finally {
-                if (propsStream != null) {
-                    propsStream.close();
+        try {
+            JarEntry propsEntry = jar.getJarEntry(PROPERTIES_ENTRY);
+
+            PackId id = null;
+            if (propsEntry != null) {
+                InputStream propsStream = null;
+                try {
+                    propsStream = jar.getInputStream(propsEntry);
+                    Properties props = new Properties();
+                    props.loadFromXML(propsStream);
+
+                    id = identifyProperties(props);
+                } finally {
+                    if (propsStream != null) {
+                        propsStream.close();
+                    }
                 }
             }
+            return id;
+        } finally {
+            jar.close();
         }
+    }
 
+    private static PackId identified(final File file, final PackId id, final boolean strict) {
         if (id == null && !strict) {
             PackageId _id = new PackageId(PackageId.ETC_PACKAGES_PREFIX + file.getName());
             return new PackId(_id.getGroup(), _id.getName(), _id.getVersionString(), _id.getInstallationPath());
@@ -210,6 +293,15 @@ public final class PackId implements Serializable, Comparable<PackId> {
         }
     }
 
+    /**
+     * Recreates a PackId from its stored fields, including ids which {@link #createPackId(String, String, String)}
+     * would reject, such as those identified from an installation path.
+     */
+    static PackId restorePackId(final String group, final String name, final String version,
+                                final String installationPath) {
+        return new PackId(group, name, version, installationPath);
+    }
+
     public static PackId createPackId(final String group, final String name, final String version) {
         if (group != null && group.length() > 1 && name != null && name.length() > 1) {
             PackageId _id = new PackageId(group, name, version != null ? version : "");
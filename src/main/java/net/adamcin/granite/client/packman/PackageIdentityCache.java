@@ -0,0 +1,549 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of package identification results, so that repeated command-line or build runs over the same
+ * package files do not reopen every zip. Each entry is keyed by the canonical path, size and last modified time of a
+ * package file, and optionally by a SHA-256 hash of its content, and holds the {@link PackId} (or the fact that the
+ * file is not a package).
+ * <p>
+ * Entries are stored in a compact append-only file. Each record is length-prefixed and checksummed, a later record
+ * for the same path replaces an earlier one, and a torn record at the end of the file, left by an interrupted
+ * write, is discarded when the file is opened. The file is compacted when it is opened if most of its records have
+ * been replaced. Reads, appends and compaction are guarded by a file lock, so several processes may share a cache
+ * file, and a process that still has a file open after another process replaced it by compaction reopens the new
+ * file before its next append. Records appended by another process after this cache was opened are otherwise not
+ * seen until it is reopened. Appends never wait for the lock: while it is held elsewhere, or if the file cannot be
+ * written, new entries are kept in memory only.
+ * <p>
+ * {@link PackId#identifyPackage(File, boolean)} consults the cache set with {@link #setDefault(PackageIdentityCache)}.
+ * Instances are thread-safe.
+ */
+public final class PackageIdentityCache implements Closeable {
+
+    private static final int MAGIC = 0x504d4943;
+    private static final int FORMAT_VERSION = 1;
+    private static final int REPLACED_VERSION = -1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 24;
+
+    private static final int FLAG_PACK_ID = 0x01;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+
+    private static volatile PackageIdentityCache defaultCache = null;
+
+    private final File file;
+    private final Map<String, Record> records = new HashMap<String, Record>();
+    private FileChannel channel;
+    private int recordCount;
+    private boolean verifyContent;
+    private long hits;
+    private long misses;
+
+    private PackageIdentityCache(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens a cache file, creating it if it does not exist.
+     * @param file the cache file
+     * @return the opened cache, which should be closed when no longer needed
+     * @throws IOException if the file cannot be created or read, or is not a cache file
+     */
+    public static PackageIdentityCache open(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        PackageIdentityCache cache = new PackageIdentityCache(file);
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * @return the cache consulted by {@link PackId#identifyPackage(File, boolean)}, or null if none is set
+     */
+    public static PackageIdentityCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * @param cache the cache to be consulted by {@link PackId#identifyPackage(File, boolean)}, or null for none
+     */
+    public static void setDefault(PackageIdentityCache cache) {
+        defaultCache = cache;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized boolean isVerifyContent() {
+        return verifyContent;
+    }
+
+    /**
+     * @param verifyContent set to true to also require a matching SHA-256 hash of the package content before reusing
+     *                      an entry. This reads each file in full, but avoids opening it as a zip.
+     * @return this
+     */
+    public synchronized PackageIdentityCache setVerifyContent(boolean verifyContent) {
+        this.verifyContent = verifyContent;
+        return this;
+    }
+
+    /**
+     * Identifies a package file, reusing the cached result if the file is unchanged. A file which is not a
+     * package is remembered as such. Files that cannot be opened are not cached.
+     * @param packageFile the package file
+     * @return the identified {@link PackId}, or null if the file is not a package
+     * @throws IOException if the package file cannot be opened
+     */
+    public PackId identify(File packageFile) throws IOException {
+        final Key key = key(packageFile);
+        synchronized (this) {
+            Record record = records.get(key.path);
+            if (record != null && record.matches(key)) {
+                hits++;
+                return record.packId;
+            }
+            misses++;
+        }
+
+        final PackId packId = PackId.identifyArchive(packageFile);
+        synchronized (this) {
+            append(new Record(key, packId));
+        }
+        return packId;
+    }
+
+    /**
+     * @return the number of package files with cached entries
+     */
+    public synchronized int size() {
+        return records.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Closes the cache file. If this cache is the default cache, the default is cleared.
+     * @throws IOException if the cache file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (defaultCache == this) {
+            defaultCache = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PackageIdentityCache{file=" + file + ", size=" + records.size()
+                + ", hits=" + hits + ", misses=" + misses + '}';
+    }
+
+    private Key key(final File packageFile) throws IOException {
+        if (packageFile == null) {
+            throw new NullPointerException("packageFile");
+        }
+        final File canonical = packageFile.getCanonicalFile();
+        if (!canonical.isFile()) {
+            throw new IOException("not a file: " + packageFile);
+        }
+        final long size = canonical.length();
+        final long lastModified = canonical.lastModified();
+        final byte[] hash = isVerifyContent() ? hash(canonical) : null;
+        return new Key(canonical.getPath(), size, lastModified, hash);
+    }
+
+    private static byte[] hash(final File packageFile) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream is = new FileInputStream(packageFile);
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buf)) >= 0) {
+                digest.update(buf, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return digest.digest();
+    }
+
+    private synchronized void load() throws IOException {
+        final FileLock lock = openLocked(true);
+        boolean loaded = false;
+        try {
+            readRecords();
+            if (recordCount > 2 * records.size() + 64) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // keep using the uncompacted file, e.g. where it cannot be replaced while others have it open
+                }
+            }
+            loaded = true;
+        } finally {
+            if (lock.isValid()) {
+                lock.release();
+            }
+            if (!loaded) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Opens the cache file and locks it, writing the header if the file is new. If the opened file has already been
+     * replaced by a compaction in another process, the file is opened again.
+     * @param wait true to wait for the lock, false to give up if it is held elsewhere
+     * @return the lock, which the caller must release, or null if {@code wait} is false and the lock is held
+     *         elsewhere
+     */
+    private FileLock openLocked(final boolean wait) throws IOException {
+        while (true) {
+            final FileChannel opened = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean current = false;
+            try {
+                final FileLock lock = wait ? opened.lock() : tryLock(opened);
+                if (lock == null) {
+                    return null;
+                } else if (opened.size() == 0L) {
+                    writeFully(opened, header(FORMAT_VERSION), 0L);
+                } else if (isReplaced(opened)) {
+                    continue;
+                }
+                channel = opened;
+                current = true;
+                return lock;
+            } finally {
+                if (!current) {
+                    opened.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the header of the file open in the channel was marked by {@link #compact()} after the file was
+     *         replaced
+     */
+    private static boolean isReplaced(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // keep reading
+        }
+        return header.position() == HEADER_SIZE && header.getInt(0) == MAGIC && header.getInt(4) == REPLACED_VERSION;
+    }
+
+    private void readRecords() throws IOException {
+        final long size = channel.size();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0L)), BUFFER_SIZE));
+        if (size < HEADER_SIZE || in.readInt() != MAGIC) {
+            throw new IOException("not a package identity cache file: " + file);
+        }
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("unsupported package identity cache version: " + file);
+        }
+
+        recordCount = 0;
+        long validLength = HEADER_SIZE;
+        final CRC32 crc = new CRC32();
+        while (validLength < size) {
+            try {
+                final int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE || validLength + 8 + length > size) {
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                final int checksum = in.readInt();
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                Record record = Record.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                records.put(record.key.path, record);
+                recordCount++;
+                validLength += 8 + length;
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        if (validLength < size) {
+            // discard a torn or corrupt tail so that new records are readable
+            channel.truncate(validLength);
+        }
+    }
+
+    /**
+     * Rewrites the cache file with only the latest record for each path. Must be called while holding the lock on a
+     * channel whose records have all been read, so that no record appended by another process is lost. The
+     * compacted file is written to a uniquely named temporary file and moved over the cache file, and the header of
+     * the replaced file is then marked, so that a process that opened it before the move and is waiting for its
+     * lock opens the new file instead of appending to the replaced one. Closing the old channel releases the lock.
+     */
+    private void compact() throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final Path temp = Files.createTempFile(dir.toPath(), file.getName() + ".", ".tmp");
+        FileChannel out = null;
+        boolean moved = false;
+        try {
+            out = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long position = writeFully(out, header(FORMAT_VERSION), 0L);
+            for (Record record : records.values()) {
+                position = writeFully(out, encode(record), position);
+            }
+            out.force(false);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                if (out != null) {
+                    out.close();
+                }
+                Files.deleteIfExists(temp);
+            }
+        }
+        final FileChannel replaced = channel;
+        channel = out;
+        recordCount = records.size();
+        try {
+            writeFully(replaced, header(REPLACED_VERSION), 0L);
+            replaced.force(false);
+        } finally {
+            replaced.close();
+        }
+    }
+
+    /**
+     * Remembers a record, and appends it to the file if the file lock can be taken without waiting. Persisting is
+     * best-effort: if another process or cache holds the lock, or the file cannot be written, the record is kept in
+     * memory only.
+     */
+    private void append(final Record record) {
+        try {
+            if (channel != null) {
+                persist(encode(record));
+            }
+        } catch (IOException e) {
+            // keep serving the record from memory only
+        } finally {
+            records.put(record.key.path, record);
+        }
+    }
+
+    private void persist(final ByteBuffer buffer) throws IOException {
+        FileLock lock = tryLock(channel);
+        if (lock == null) {
+            return;
+        }
+        try {
+            if (isReplaced(channel)) {
+                // compacted by another process; read the new file, which may hold records appended since
+                final FileChannel replaced = channel;
+                final FileLock reopened = openLocked(false);
+                if (reopened == null) {
+                    // keep the replaced file open and retry on the next append
+                    return;
+                }
+                lock.release();
+                replaced.close();
+                lock = reopened;
+                readRecords();
+            }
+            writeFully(channel, buffer, channel.size());
+            recordCount++;
+        } finally {
+            if (lock.isValid()) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * @return a lock on the whole file, or null if another process or another channel in this process holds it
+     */
+    private static FileLock tryLock(final FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer header(final int version) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(version).flip();
+        return header;
+    }
+
+    private static ByteBuffer encode(final Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        record.write(out);
+        out.flush();
+        final byte[] payload = bytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length).put(payload).putInt((int) crc.getValue()).flip();
+        return buffer;
+    }
+
+    private static long writeFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+        return pos;
+    }
+
+    private static final class Key {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+
+        private Key(final String path, final long size, final long lastModified, final byte[] hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private static final class Record {
+        private final Key key;
+        private final PackId packId;
+
+        private Record(final Key key, final PackId packId) {
+            this.key = key;
+            this.packId = packId;
+        }
+
+        /**
+         * A key without a hash only matches on path, size, and last modified time. A key with a hash also requires
+         * the record to have been written with the same hash.
+         */
+        private boolean matches(final Key other) {
+            return key.path.equals(other.path)
+                    && key.size == other.size
+                    && key.lastModified == other.lastModified
+                    && (other.hash == null || Arrays.equals(key.hash, other.hash));
+        }
+
+        private void write(final DataOutputStream out) throws IOException {
+            out.writeUTF(key.path);
+            out.writeLong(key.size);
+            out.writeLong(key.lastModified);
+            if (key.hash != null) {
+                out.writeByte(key.hash.length);
+                out.write(key.hash);
+            } else {
+                out.writeByte(0);
+            }
+            out.writeByte(packId != null ? FLAG_PACK_ID : 0);
+            if (packId != null) {
+                out.writeUTF(packId.getGroup());
+                out.writeUTF(packId.getName());
+                out.writeUTF(packId.getVersion());
+                out.writeUTF(packId.getInstallationPath());
+            }
+        }
+
+        private static Record read(final DataInputStream in) throws IOException {
+            final String path = in.readUTF();
+            final long size = in.readLong();
+            final long lastModified = in.readLong();
+            final int hashLength = in.readUnsignedByte();
+            byte[] hash = null;
+            if (hashLength > 0) {
+                hash = new byte[hashLength];
+                in.readFully(hash);
+            }
+            final int flags = in.readUnsignedByte();
+            PackId packId = null;
+            if ((flags & FLAG_PACK_ID) != 0) {
+                packId = PackId.restorePackId(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+            }
+            return new Record(new Key(path, size, lastModified, hash), packId);
+        }
+    }
+}
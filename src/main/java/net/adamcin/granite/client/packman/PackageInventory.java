@@ -0,0 +1,230 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable snapshot of all packages on a server, loaded with a single {@link PackageManagerClient#list()} request
+ * and indexed for lookups that would otherwise each cost a round trip: existence of a {@link PackId} in constant
+ * time, all versions or the latest version of a package, and all packages of a group or of the groups under a
+ * prefix. Results are sorted by {@link PackId}, so versions of the same package are in ascending version order.
+ */
+public final class PackageInventory {
+
+    private static final Comparator<ListResult> BY_PACK_ID = new Comparator<ListResult>() {
+        public int compare(ListResult left, ListResult right) {
+            return left.getPackId().compareTo(right.getPackId());
+        }
+    };
+
+    private final List<ListResult> results;
+    private final Map<PackId, ListResult> byPackId;
+    private final NavigableMap<String, List<ListResult>> byGroup;
+    private final Map<String, List<ListResult>> byName;
+    private final Map<String, List<ListResult>> byGroupAndName;
+
+    /**
+     * @param results the list results to index. Results with a null {@link PackId} are skipped.
+     */
+    public PackageInventory(Collection<? extends ListResult> results) {
+        if (results == null) {
+            throw new NullPointerException("results");
+        }
+        List<ListResult> sorted = new ArrayList<ListResult>(results.size());
+        for (ListResult result : results) {
+            if (result != null && result.getPackId() != null) {
+                sorted.add(result);
+            }
+        }
+        Collections.sort(sorted, BY_PACK_ID);
+
+        Map<PackId, ListResult> byPackId = new HashMap<PackId, ListResult>(sorted.size() * 4 / 3 + 1);
+        NavigableMap<String, List<ListResult>> byGroup = new TreeMap<String, List<ListResult>>();
+        Map<String, List<ListResult>> byName = new HashMap<String, List<ListResult>>();
+        Map<String, List<ListResult>> byGroupAndName = new HashMap<String, List<ListResult>>();
+
+        // appending to each index in sorted order keeps every index list sorted as well
+        for (ListResult result : sorted) {
+            PackId packId = result.getPackId();
+            byPackId.put(packId, result);
+            append(byGroup, packId.getGroup(), result);
+            append(byName, packId.getName(), result);
+            append(byGroupAndName, key(packId.getGroup(), packId.getName()), result);
+        }
+
+        this.results = Collections.unmodifiableList(sorted);
+        this.byPackId = byPackId;
+        this.byGroup = byGroup;
+        this.byName = byName;
+        this.byGroupAndName = byGroupAndName;
+    }
+
+    /**
+     * @param response a successful list response
+     * @return an inventory of the listed packages
+     * @throws IOException if the response is not successful
+     */
+    public static PackageInventory fromListResponse(ListResponse response) throws IOException {
+        if (response == null) {
+            throw new NullPointerException("response");
+        }
+        if (!response.isSuccess()) {
+            throw new IOException("Failed to list packages: " + response.getMessage());
+        }
+        return new PackageInventory(response.getResults());
+    }
+
+    /**
+     * @param client the client
+     * @return an inventory of all packages on the server targeted by {@code client}
+     * @throws Exception if the packages can not be listed
+     */
+    public static PackageInventory load(PackageManagerClient client) throws Exception {
+        if (client == null) {
+            throw new NullPointerException("client");
+        }
+        return fromListResponse(client.list());
+    }
+
+    private static String key(String group, String name) {
+        return group + ":" + name;
+    }
+
+    private static void append(Map<String, List<ListResult>> index, String key, ListResult result) {
+        List<ListResult> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<ListResult>(1);
+            index.put(key, list);
+        }
+        list.add(result);
+    }
+
+    private static List<ListResult> view(List<ListResult> list) {
+        return list != null ? Collections.unmodifiableList(list) : Collections.<ListResult>emptyList();
+    }
+
+    /**
+     * @return the number of packages in the inventory
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * @return all packages, sorted by {@link PackId}
+     */
+    public List<ListResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @param packageId the package id
+     * @return true if the package is in the inventory
+     */
+    public boolean contains(PackId packageId) {
+        return packageId != null && byPackId.containsKey(packageId);
+    }
+
+    /**
+     * @param packageId the package id
+     * @return the list result for the package, or null if it is not in the inventory
+     */
+    public ListResult get(PackId packageId) {
+        return packageId != null ? byPackId.get(packageId) : null;
+    }
+
+    /**
+     * @return the sorted set of groups in the inventory
+     */
+    public Set<String> getGroups() {
+        return Collections.unmodifiableSet(byGroup.keySet());
+    }
+
+    /**
+     * @param group the package group
+     * @return all packages in the group, sorted by name and version
+     */
+    public List<ListResult> getByGroup(String group) {
+        return view(byGroup.get(group));
+    }
+
+    /**
+     * @param groupPrefix prefix of the package groups to match, such as "adamcin" or "adamcin/"
+     * @return all packages in groups that start with the prefix, sorted by {@link PackId}
+     */
+    public List<ListResult> getByGroupPrefix(String groupPrefix) {
+        if (groupPrefix == null) {
+            throw new NullPointerException("groupPrefix");
+        }
+        List<ListResult> matches = new ArrayList<ListResult>();
+        for (List<ListResult> group
+                : byGroup.subMap(groupPrefix, true, groupPrefix + Character.MAX_VALUE, true).values()) {
+            matches.addAll(group);
+        }
+        return Collections.unmodifiableList(matches);
+    }
+
+    /**
+     * @param name the package name
+     * @return all packages with the name in any group, sorted by {@link PackId}
+     */
+    public List<ListResult> getByName(String name) {
+        return view(byName.get(name));
+    }
+
+    /**
+     * @param group the package group
+     * @param name the package name
+     * @return all versions of the package, in ascending version order
+     */
+    public List<ListResult> getVersions(String group, String name) {
+        return view(byGroupAndName.get(key(group, name)));
+    }
+
+    /**
+     * @param group the package group
+     * @param name the package name
+     * @return the latest version of the package, or null if it is not in the inventory
+     */
+    public ListResult getLatest(String group, String name) {
+        List<ListResult> versions = byGroupAndName.get(key(group, name));
+        return versions != null ? versions.get(versions.size() - 1) : null;
+    }
+}
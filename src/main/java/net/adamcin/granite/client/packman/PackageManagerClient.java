@@ -29,6 +29,7 @@ package net.adamcin.granite.client.packman;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This is the Public API for a CRX Package Manager Console client. It is intended to
@@ -133,6 +134,122 @@ public interface PackageManagerClient {
      */
     ListResponse list(PackId packageId, boolean includeVersions) throws Exception;
 
+    /**
+     * List all packages filtered by {@code query}, passing each result to the listener as soon as it is parsed
+     * rather than collecting them, so that memory use does not grow with the number of packages. The default
+     * implementation collects the response of {@link #list(String)} and then passes each of its results to the
+     * listener.
+     * @param query can be null or empty string
+     * @param listener receives each result
+     * @return package list service response with the total, but without results
+     * @throws Exception for unknown errors
+     */
+    default ListResponse list(String query, ListResultListener listener) throws Exception {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        return AbstractPackageManagerClient.replay(list(query), listener);
+    }
+
+    /**
+     * List packages matching {@code packageId}, passing each result to the listener as soon as it is parsed
+     * rather than collecting them. The default implementation collects the response of
+     * {@link #list(PackId, boolean)} and then passes each of its results to the listener.
+     * @param packageId the {@link PackId} representing the group:name(:version)? to match
+     * @param includeVersions set to true to match all versions of the package
+     * @param listener receives each result
+     * @return package list service response with the total, but without results
+     * @throws Exception for unknown errors
+     * @see #list(PackId, boolean)
+     */
+    default ListResponse list(PackId packageId, boolean includeVersions, ListResultListener listener)
+            throws Exception {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        return AbstractPackageManagerClient.replay(list(packageId, includeVersions), listener);
+    }
+
+    /**
+     * Lazily list all packages filtered by {@code query}, requesting {@code pageSize} results at a time. The next page
+     * is prefetched while the current one is consumed, and nothing more is requested once iteration stops. Iterators
+     * should be closed when abandoned early. The default implementation does not page: the first call to
+     * {@link java.util.Iterator#hasNext()} collects the complete response of {@link #list(String)}.
+     * @param query can be null or empty string
+     * @param pageSize number of results per request
+     * @return an iterable over the matching packages
+     * @see PagedListIterator
+     */
+    default PagedListIterable listIterable(final String query, int pageSize) {
+        return new PagedListIterable(new PagedListIterator.Fetcher() {
+            public CompletableFuture<ListResponse> fetch(int start, int limit) {
+                if (start > 0) {
+                    return null;
+                }
+                CompletableFuture<ListResponse> future = new CompletableFuture<ListResponse>();
+                try {
+                    future.complete(list(query));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }
+        }, pageSize);
+    }
+
+    /**
+     * Delete every package on the server whose id is included by the filter. The package list is streamed and
+     * filtered, and the matching packages are deleted concurrently. Does not uninstall the packages. The default
+     * implementation deletes the matching packages one at a time.
+     * @param filter selects the packages to delete
+     * @return one result per matching package
+     * @throws Exception if the packages can not be listed, or if interrupted
+     */
+    default BulkResponse<SimpleResponse> deleteAll(PackIdFilter filter) throws Exception {
+        return BulkResponse.runSequentially(this, filter, new BulkResponse.Command<SimpleResponse>() {
+            public SimpleResponse execute(PackId packageId) throws Exception {
+                return delete(packageId);
+            }
+        });
+    }
+
+    /**
+     * Download every package on the server whose id is included by the filter to a qualified relative path under
+     * {@code toDirectory}, concurrently. The default implementation downloads the matching packages one at a time.
+     * @param filter selects the packages to download
+     * @param toDirectory a base directory under which packages will be saved at a relative path matching
+     *                    their CRX installation path, starting with "./etc/packages"
+     * @return one result per matching package
+     * @throws Exception if the packages can not be listed, or if interrupted
+     * @see #downloadToDirectory(PackId, File)
+     */
+    default BulkResponse<DownloadResponse> downloadAll(PackIdFilter filter, final File toDirectory)
+            throws Exception {
+        if (toDirectory == null) {
+            throw new NullPointerException("toDirectory");
+        }
+        return BulkResponse.runSequentially(this, filter, new BulkResponse.Command<DownloadResponse>() {
+            public DownloadResponse execute(PackId packageId) throws Exception {
+                return downloadToDirectory(packageId, toDirectory);
+            }
+        });
+    }
+
+    /**
+     * Build every package on the server whose id is included by the filter, concurrently. The default
+     * implementation builds the matching packages one at a time.
+     * @param filter selects the packages to build
+     * @return one result per matching package
+     * @throws Exception if the packages can not be listed, or if interrupted
+     */
+    default BulkResponse<DetailedResponse> buildAll(PackIdFilter filter) throws Exception {
+        return BulkResponse.runSequentially(this, filter, new BulkResponse.Command<DetailedResponse>() {
+            public DetailedResponse execute(PackId packageId) throws Exception {
+                return build(packageId, null);
+            }
+        });
+    }
+
     /**
      * Upload a package to the server. Does not install the package once uploaded.
      * @param file the package file to be uploaded
@@ -145,6 +262,24 @@ public interface PackageManagerClient {
      */
     SimpleResponse upload(File file, boolean force, PackId packageId) throws Exception;
 
+    /**
+     * Upload a package to the server, unless the {@link UploadLedger} configured for this client shows that a file
+     * with the same content digest was already uploaded as the same package to the same server, and the package
+     * still exists on the server. Without a ledger, this is equivalent to {@link #upload(File, boolean, PackId)}.
+     * The default implementation has no ledger and always uploads.
+     * @param file the package file to be uploaded
+     * @param force set to {@code true} for the uploaded file to replace an existing package on the
+     *              server that has the same id. Has no effect if no existing package is found.
+     * @param packageId optional {@link PackId} providing the installation path. If {@code null},
+     *                  the {@code file} will be identified and that {@link PackId} will be used.
+     * @return standard simple service response, or a successful response with a message indicating that the
+     *         upload was skipped
+     * @throws Exception for unknown errors
+     */
+    default SimpleResponse uploadIfChanged(File file, boolean force, PackId packageId) throws Exception {
+        return upload(file, force, packageId);
+    }
+
     /**
      * Downloads the package identified by {@code packageId} to the absolute path specified by {@code toFile}
      * @param packageId {@link PackId} representing package to be downloaded
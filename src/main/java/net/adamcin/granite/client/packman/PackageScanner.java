@@ -0,0 +1,301 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Identifies every content package under a directory tree. Directories are listed and files are identified in
+ * parallel by a {@link ForkJoinPool}, using the strict {@link PackId#identifyPackage(File, boolean)}, so files
+ * without a META-INF/vault/properties.xml entry are ignored. Only files with a {@code .zip} extension are considered,
+ * and symbolic links to directories are not followed.
+ * <p>
+ * Results are remembered between scans, keyed by file path, and reused as long as the file's size, modification time
+ * and file key (the inode on most platforms) are unchanged, so repeated scans of a large staging directory only open
+ * new or modified files. Files that cannot be read as zip archives are skipped, and that outcome is remembered in the
+ * same way. Files and directories that are removed while a scan is running, and broken symbolic links, are skipped.
+ * Instances are thread-safe.
+ */
+public final class PackageScanner {
+
+    private static final String EXTENSION = ".zip";
+
+    private final ConcurrentMap<Path, CachedIdentity> cache = new ConcurrentHashMap<Path, CachedIdentity>();
+    private volatile int parallelism = Runtime.getRuntime().availableProcessors();
+    private volatile ForkJoinPool pool = null;
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the parallelism of the pool created for each scan, when no pool has been set
+     * @return this
+     */
+    public PackageScanner setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param pool a pool to run scans on, or null to create a pool for each scan
+     * @return this
+     */
+    public PackageScanner setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Scans a directory tree for content packages.
+     * @param directory the root of the tree
+     * @return a map of package ids to package files, sorted by package id. If the same package id is found in more
+     * than one file, the file with the lowest path is returned.
+     * @throws IOException if a directory cannot be listed
+     */
+    public SortedMap<PackId, File> scan(File directory) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (!directory.isDirectory()) {
+            throw new IOException("not a directory: " + directory);
+        }
+
+        final Path root = directory.toPath().toAbsolutePath().normalize();
+        final ConcurrentMap<Path, PackId> found = new ConcurrentHashMap<Path, PackId>();
+        final Set<Path> visited = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        final ScanDirectory task = new ScanDirectory(root, false, found, visited);
+
+        ForkJoinPool scanPool = this.pool;
+        final boolean ownPool = scanPool == null;
+        if (ownPool) {
+            scanPool = new ForkJoinPool(parallelism);
+        }
+        try {
+            scanPool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (ownPool) {
+                scanPool.shutdown();
+            }
+        }
+
+        for (Path path : cache.keySet()) {
+            if (path.startsWith(root) && !visited.contains(path)) {
+                cache.remove(path);
+            }
+        }
+
+        TreeMap<PackId, File> packages = new TreeMap<PackId, File>();
+        List<Path> paths = new ArrayList<Path>(found.keySet());
+        Collections.sort(paths);
+        for (Path path : paths) {
+            PackId packId = found.get(path);
+            if (!packages.containsKey(packId)) {
+                packages.put(packId, path.toFile());
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * @return the number of files with remembered results
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Forgets all remembered results, so that the next scan identifies every file again.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    private PackId identify(final Path path, final BasicFileAttributes attrs) {
+        CachedIdentity cached = cache.get(path);
+        if (cached != null && cached.matches(attrs)) {
+            return cached.packId;
+        }
+
+        PackId packId;
+        try {
+            packId = PackId.identifyPackage(path.toFile(), true);
+        } catch (IOException e) {
+            packId = null;
+        }
+        cache.put(path, new CachedIdentity(attrs, packId));
+        return packId;
+    }
+
+    private static boolean isCandidate(final Path path) {
+        final Path fileName = path.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        final String name = fileName.toString();
+        return name.length() > EXTENSION.length()
+                && name.regionMatches(true, name.length() - EXTENSION.length(), EXTENSION, 0, EXTENSION.length());
+    }
+
+    /**
+     * Lists one directory, forking a task for each subdirectory and each candidate file.
+     */
+    private final class ScanDirectory extends RecursiveAction {
+        private final Path directory;
+        private final boolean subdirectory;
+        private final ConcurrentMap<Path, PackId> found;
+        private final Set<Path> visited;
+
+        private ScanDirectory(final Path directory, final boolean subdirectory,
+                              final ConcurrentMap<Path, PackId> found, final Set<Path> visited) {
+            this.directory = directory;
+            this.subdirectory = subdirectory;
+            this.found = found;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+            DirectoryStream<Path> stream = null;
+            try {
+                try {
+                    stream = Files.newDirectoryStream(directory);
+                } catch (NoSuchFileException e) {
+                    if (subdirectory) {
+                        // removed since its parent was listed
+                        return;
+                    }
+                    throw e;
+                }
+                for (Path child : stream) {
+                    try {
+                        BasicFileAttributes attrs =
+                                Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isDirectory()) {
+                            tasks.add(new ScanDirectory(child, true, found, visited));
+                        } else if (isCandidate(child)) {
+                            if (attrs.isSymbolicLink()) {
+                                attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                            }
+                            if (attrs.isRegularFile()) {
+                                tasks.add(new IdentifyFile(child, attrs, found, visited));
+                            }
+                        }
+                    } catch (NoSuchFileException e) {
+                        // removed since the directory was listed, or a broken symbolic link
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException ignored) {
+                        // nothing more can be done
+                    }
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private final class IdentifyFile extends RecursiveAction {
+        private final Path file;
+        private final BasicFileAttributes attrs;
+        private final ConcurrentMap<Path, PackId> found;
+        private final Set<Path> visited;
+
+        private IdentifyFile(final Path file, final BasicFileAttributes attrs,
+                             final ConcurrentMap<Path, PackId> found, final Set<Path> visited) {
+            this.file = file;
+            this.attrs = attrs;
+            this.found = found;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute() {
+            visited.add(file);
+            PackId packId = identify(file, attrs);
+            if (packId != null) {
+                found.put(file, packId);
+            }
+        }
+    }
+
+    private static final class CachedIdentity {
+        private final long size;
+        private final long lastModified;
+        private final Object fileKey;
+        private final PackId packId;
+
+        private CachedIdentity(final BasicFileAttributes attrs, final PackId packId) {
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.fileKey = attrs.fileKey();
+            this.packId = packId;
+        }
+
+        private boolean matches(final BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && lastModified == attrs.lastModifiedTime().toMillis()
+                    && (fileKey == null ? attrs.fileKey() == null : fileKey.equals(attrs.fileKey()));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Iterates over the results of the package list service one page at a time, using the {@code start} and
+ * {@code limit} parameters. The first page is requested by the first call to {@link #hasNext()}, and as soon as a
+ * page arrives the next one is requested in the background while the current one is consumed. Call
+ * {@link #close()} to stop early and cancel the page request in flight.
+ * <p>
+ * Pages are requested independently, so packages that are uploaded or deleted during iteration may cause results to
+ * be skipped or repeated. If the server ignores the paging parameters and returns more results than the page size,
+ * that response is treated as the complete list. Errors are rethrown by {@link #hasNext()} as an
+ * {@link IllegalStateException} with the original exception as its cause.
+ */
+public final class PagedListIterator implements Iterator<ListResult>, Closeable {
+
+    /**
+     * Requests a single page of the list, or returns null if there are no more pages.
+     */
+    interface Fetcher {
+        CompletableFuture<ListResponse> fetch(int start, int limit);
+    }
+
+    private final Fetcher fetcher;
+    private final int pageSize;
+
+    private List<ListResult> page = Collections.emptyList();
+    private int index = 0;
+    private int nextStart = 0;
+    private CompletableFuture<ListResponse> nextPage = null;
+    private boolean started = false;
+    private boolean closed = false;
+
+    PagedListIterator(Fetcher fetcher, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.fetcher = fetcher;
+        this.pageSize = pageSize;
+    }
+
+    public boolean hasNext() {
+        while (index >= page.size()) {
+            if (closed) {
+                return false;
+            }
+            if (!started) {
+                started = true;
+                nextPage = fetcher.fetch(nextStart, pageSize);
+            }
+            if (nextPage == null) {
+                closed = true;
+                return false;
+            }
+            advance();
+        }
+        return true;
+    }
+
+    public ListResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(index++);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Stop iterating and cancel the prefetched page request, if any.
+     */
+    public void close() {
+        closed = true;
+        page = Collections.emptyList();
+        index = 0;
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+    }
+
+    private void advance() {
+        final ListResponse response;
+        try {
+            response = nextPage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while listing packages", e);
+        } catch (ExecutionException e) {
+            close();
+            throw new IllegalStateException("Failed to list packages", e.getCause() != null ? e.getCause() : e);
+        }
+
+        page = response.getResults();
+        index = 0;
+        nextPage = null;
+
+        final int start = nextStart;
+        nextStart = start + page.size();
+        if (!page.isEmpty() && page.size() <= pageSize && nextStart < response.getTotal()) {
+            nextPage = fetcher.fetch(nextStart, pageSize);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lightweight scanner for the XML format written by {@link Properties#storeToXML(java.io.OutputStream, String)}, used
+ * to read a handful of keys from a package's properties.xml without the cost of a validating XML parser. Only
+ * {@code entry} elements are examined. Comments, processing instructions, and an external DOCTYPE are skipped.
+ * <p>
+ * Anything outside of what {@link Properties#storeToXML(java.io.OutputStream, String)} produces, such as an internal
+ * DTD subset, a root element other than {@code properties}, an element other than {@code comment} or {@code entry}
+ * inside it, nested elements in an entry, or an undeclared entity reference, is rejected with an
+ * {@link IOException}, so that callers can fall back to {@link Properties#loadFromXML(java.io.InputStream)}.
+ */
+final class PropertiesXmlScanner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern ENCODING_PATTERN =
+            Pattern.compile("^<\\?xml\\s[^>]*?encoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._-]*)[\"']");
+
+    private static final String ROOT_START = "<properties";
+    private static final String ROOT_END = "</properties>";
+    private static final String COMMENT_ELEMENT_START = "<comment";
+    private static final String COMMENT_ELEMENT_END = "</comment>";
+    private static final String ENTRY_START = "<entry";
+    private static final String ENTRY_END = "</entry>";
+    private static final String COMMENT_START = "<!--";
+    private static final String CDATA_START = "<![CDATA[";
+    private static final String DOCTYPE_START = "<!DOCTYPE";
+
+    private PropertiesXmlScanner() {
+    }
+
+    /**
+     * Scans the XML document for entries with any of the given keys. As with
+     * {@link Properties#loadFromXML(java.io.InputStream)}, the last entry wins if a key is repeated.
+     * @param xml the encoded XML document
+     * @param keys the keys to extract
+     * @return the extracted properties
+     * @throws IOException if the document uses a construct that the scanner does not support
+     */
+    static Properties scan(final byte[] xml, final Collection<String> keys) throws IOException {
+        final String doc = decode(xml);
+        final Properties props = new Properties();
+        final int length = doc.length();
+        boolean inRoot = false;
+        boolean rootClosed = false;
+        int pos = 0;
+        while (pos < length) {
+            final int lt = doc.indexOf('<', pos);
+            if (!inRoot) {
+                checkWhitespace(doc, pos, lt < 0 ? length : lt);
+            }
+            if (lt < 0) {
+                break;
+            }
+            if (doc.startsWith(COMMENT_START, lt)) {
+                pos = skipPast(doc, lt + COMMENT_START.length(), "-->");
+            } else if (doc.startsWith("<?", lt)) {
+                pos = skipPast(doc, lt + 2, "?>");
+            } else if (doc.startsWith(DOCTYPE_START, lt)) {
+                final int gt = doc.indexOf('>', lt);
+                if (gt < 0 || doc.substring(lt, gt).indexOf('[') >= 0) {
+                    throw new IOException("unsupported DOCTYPE declaration");
+                }
+                pos = gt + 1;
+            } else if (doc.startsWith("<!", lt)) {
+                throw new IOException("unsupported markup at char " + lt);
+            } else if (inRoot && isTag(doc, lt, ENTRY_START)) {
+                pos = scanEntry(doc, lt + ENTRY_START.length(), keys, props);
+            } else {
+                final int gt = doc.indexOf('>', lt);
+                if (gt < 0) {
+                    throw new IOException("unterminated tag at char " + lt);
+                }
+                if (inRoot && doc.startsWith(ROOT_END, lt)) {
+                    inRoot = false;
+                    rootClosed = true;
+                } else if (inRoot && (isTag(doc, lt, COMMENT_ELEMENT_START)
+                        || doc.startsWith(COMMENT_ELEMENT_END, lt))) {
+                    // the comment written by storeToXML
+                } else if (!inRoot && !rootClosed && isTag(doc, lt, ROOT_START)) {
+                    inRoot = doc.charAt(gt - 1) != '/';
+                    rootClosed = !inRoot;
+                } else {
+                    throw new IOException("unexpected element at char " + lt);
+                }
+                pos = gt + 1;
+            }
+        }
+        if (!rootClosed) {
+            throw new IOException("missing properties element");
+        }
+        return props;
+    }
+
+    private static boolean isTag(final String doc, final int lt, final String tagStart) {
+        return doc.startsWith(tagStart, lt) && lt + tagStart.length() < doc.length()
+                && isTagNameEnd(doc.charAt(lt + tagStart.length()));
+    }
+
+    private static void checkWhitespace(final String doc, final int start, final int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespace(doc.charAt(i))) {
+                throw new IOException("unexpected text outside of the properties element at char " + i);
+            }
+        }
+    }
+
+    private static int scanEntry(final String doc, final int start, final Collection<String> keys,
+                                 final Properties props) throws IOException {
+        final int length = doc.length();
+        String key = null;
+        int pos = start;
+        while (true) {
+            while (pos < length && isWhitespace(doc.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= length) {
+                throw new IOException("unterminated entry tag at char " + start);
+            }
+            final char c = doc.charAt(pos);
+            if (c == '>' || (c == '/' && doc.startsWith("/>", pos))) {
+                break;
+            }
+            final int eq = doc.indexOf('=', pos);
+            if (eq < 0) {
+                throw new IOException("malformed attribute at char " + pos);
+            }
+            final String attrName = doc.substring(pos, eq).trim();
+            pos = eq + 1;
+            while (pos < length && isWhitespace(doc.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= length || (doc.charAt(pos) != '"' && doc.charAt(pos) != '\'')) {
+                throw new IOException("malformed attribute at char " + pos);
+            }
+            final char quote = doc.charAt(pos);
+            final int close = doc.indexOf(quote, pos + 1);
+            if (close < 0) {
+                throw new IOException("unterminated attribute at char " + pos);
+            }
+            if ("key".equals(attrName)) {
+                key = unescape(doc, pos + 1, close, true);
+            }
+            pos = close + 1;
+        }
+
+        if (key == null) {
+            throw new IOException("entry without key at char " + start);
+        }
+
+        if (doc.charAt(pos) == '/') {
+            if (keys.contains(key)) {
+                props.setProperty(key, "");
+            }
+            return pos + 2;
+        }
+
+        final int valueStart = pos + 1;
+        final int valueEnd = doc.indexOf(ENTRY_END, valueStart);
+        if (valueEnd < 0) {
+            throw new IOException("unterminated entry at char " + start);
+        }
+        if (keys.contains(key)) {
+            props.setProperty(key, unescape(doc, valueStart, valueEnd, false));
+        } else if (doc.indexOf(CDATA_START, valueStart) >= 0
+                && doc.indexOf(CDATA_START, valueStart) < valueEnd) {
+            // a CDATA section could hide a premature end tag, so let the full parser deal with it
+            throw new IOException("unsupported CDATA section at char " + valueStart);
+        }
+        return valueEnd + ENTRY_END.length();
+    }
+
+    private static String unescape(final String doc, final int start, final int end, final boolean attribute)
+            throws IOException {
+        final StringBuilder sb = new StringBuilder(end - start);
+        int pos = start;
+        while (pos < end) {
+            final char c = doc.charAt(pos);
+            if (c == '&') {
+                final int semi = doc.indexOf(';', pos);
+                if (semi < 0 || semi >= end) {
+                    throw new IOException("unterminated entity reference at char " + pos);
+                }
+                appendEntity(sb, doc.substring(pos + 1, semi), pos);
+                pos = semi + 1;
+            } else if (c == '<') {
+                if (!attribute && doc.startsWith(CDATA_START, pos)) {
+                    final int cdataEnd = doc.indexOf("]]>", pos);
+                    if (cdataEnd < 0 || cdataEnd >= end) {
+                        throw new IOException("unsupported CDATA section at char " + pos);
+                    }
+                    sb.append(doc, pos + CDATA_START.length(), cdataEnd);
+                    pos = cdataEnd + 3;
+                } else {
+                    throw new IOException("unexpected markup in entry at char " + pos);
+                }
+            } else if (c == '\r') {
+                // XML line-end normalization
+                sb.append(attribute ? ' ' : '\n');
+                pos++;
+                if (pos < end && doc.charAt(pos) == '\n') {
+                    pos++;
+                }
+            } else if (attribute && (c == '\n' || c == '\t')) {
+                sb.append(' ');
+                pos++;
+            } else {
+                sb.append(c);
+                pos++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendEntity(final StringBuilder sb, final String entity, final int pos) throws IOException {
+        if ("amp".equals(entity)) {
+            sb.append('&');
+        } else if ("lt".equals(entity)) {
+            sb.append('<');
+        } else if ("gt".equals(entity)) {
+            sb.append('>');
+        } else if ("quot".equals(entity)) {
+            sb.append('"');
+        } else if ("apos".equals(entity)) {
+            sb.append('\'');
+        } else if (entity.startsWith("#")) {
+            try {
+                final int codePoint = entity.startsWith("#x")
+                        ? Integer.parseInt(entity.substring(2), 16)
+                        : Integer.parseInt(entity.substring(1), 10);
+                sb.appendCodePoint(codePoint);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid character reference at char " + pos);
+            }
+        } else {
+            throw new IOException("unsupported entity reference &" + entity + "; at char " + pos);
+        }
+    }
+
+    private static int skipPast(final String doc, final int from, final String terminator) throws IOException {
+        final int end = doc.indexOf(terminator, from);
+        if (end < 0) {
+            throw new IOException("unterminated markup at char " + from);
+        }
+        return end + terminator.length();
+    }
+
+    private static boolean isTagNameEnd(final char c) {
+        return c == '>' || c == '/' || isWhitespace(c);
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static String decode(final byte[] xml) throws IOException {
+        int offset = 0;
+        Charset charset = UTF_8;
+        if (xml.length >= 3 && (xml[0] & 0xFF) == 0xEF && (xml[1] & 0xFF) == 0xBB && (xml[2] & 0xFF) == 0xBF) {
+            offset = 3;
+        } else if (xml.length >= 2 && (((xml[0] & 0xFF) == 0xFE && (xml[1] & 0xFF) == 0xFF)
+                || ((xml[0] & 0xFF) == 0xFF && (xml[1] & 0xFF) == 0xFE))) {
+            return new String(xml, Charset.forName("UTF-16"));
+        } else {
+            // the declaration is ASCII-compatible in every encoding we accept here
+            final int prologLength = Math.min(xml.length, 256);
+            final Matcher matcher = ENCODING_PATTERN.matcher(new String(xml, 0, prologLength, "ISO-8859-1"));
+            if (matcher.find()) {
+                try {
+                    charset = Charset.forName(matcher.group(1));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("unsupported encoding " + matcher.group(1));
+                }
+            }
+        }
+        return new String(xml, offset, xml.length - offset, charset);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+
+/**
+ * Downloads a package as a series of fixed-size segments using HTTP Range requests, with up to {@code parallelism}
+ * requests in flight. Segments are written in place to a {@code .part} file, and the indices of completed segments are
+ * recorded in a {@code .part.state} file after each segment is flushed, so that an interrupted download can be resumed
+ * by a later attempt. The part file is moved to the destination once every segment is complete.
+ */
+final class RangedDownload {
+
+    static final String PART_SUFFIX = ".part";
+    static final String STATE_SUFFIX = ".state";
+
+    private static final String PROP_TOTAL = "total";
+    private static final String PROP_SEGMENT_SIZE = "segmentSize";
+    private static final String PROP_VALIDATOR = "validator";
+    private static final String PROP_COMPLETED = "completed";
+
+    /**
+     * Requests a single range of the package.
+     */
+    interface Fetcher {
+        AbstractPackageManagerClient.RangeResponse fetch(long first, long last, FileChannel channel, boolean acceptFull)
+                throws Exception;
+    }
+
+    private final File target;
+    private final File partFile;
+    private final File stateFile;
+    private final int parallelism;
+    private final Executor executor;
+    private final Fetcher fetcher;
+
+    private long segmentSize;
+    private long total = -1L;
+    private String validator;
+    private BitSet completed = new BitSet();
+
+    RangedDownload(File target, long segmentSize, int parallelism, Executor executor, Fetcher fetcher) {
+        this.target = target;
+        this.partFile = new File(target.getPath() + PART_SUFFIX);
+        this.stateFile = new File(partFile.getPath() + STATE_SUFFIX);
+        this.segmentSize = segmentSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = executor;
+        this.fetcher = fetcher;
+    }
+
+    File getPartFile() {
+        return partFile;
+    }
+
+    File getStateFile() {
+        return stateFile;
+    }
+
+    /**
+     * @return the download response, or null if the transport does not support range requests
+     * @throws Exception if a segment fails. The part and state files are kept so that the download can be resumed.
+     *                   If the first request of a resumed download fails, the saved progress is discarded and the
+     *                   download starts again from the first segment.
+     */
+    DownloadResponse download() throws Exception {
+        boolean resumed = loadState();
+
+        final FileChannel channel = FileChannel.open(partFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        boolean closed = false;
+        try {
+            if (resumed && isComplete()) {
+                closed = true;
+                return finish(channel);
+            }
+
+            int probe = resumed ? completed.nextClearBit(0) : 0;
+            AbstractPackageManagerClient.RangeResponse probeResponse;
+            try {
+                probeResponse = fetchProbe(probe, channel);
+            } catch (Exception e) {
+                if (!resumed || e instanceof InterruptedException) {
+                    throw e;
+                }
+                // the saved state may no longer fit the package, e.g. a 416 because it shrank on the server
+                restart(channel);
+                resumed = false;
+                probe = 0;
+                probeResponse = fetchProbe(probe, channel);
+            }
+
+            if (probeResponse == null) {
+                // range requests are not supported by this transport
+                channel.close();
+                closed = true;
+                if (!resumed) {
+                    discard();
+                }
+                return null;
+            }
+
+            if (probeResponse.isFull()) {
+                // the server ignored the range and sent the whole package
+                channel.truncate(probeResponse.getLength());
+                closed = true;
+                return finish(channel);
+            }
+
+            if (probeResponse.getTotal() < 0L) {
+                throw new IOException("Server did not report the package size for a range request");
+            }
+
+            if (resumed && (probeResponse.getTotal() != total
+                    || !sameValidator(validator, probeResponse.getValidator()))) {
+                // the package changed on the server since the last attempt
+                completed.clear();
+            }
+
+            total = probeResponse.getTotal();
+            validator = probeResponse.getValidator();
+            if (channel.size() > total) {
+                channel.truncate(total);
+            }
+            completed.set(probe);
+            channel.force(false);
+            saveState();
+
+            fetchRemaining(channel);
+
+            closed = true;
+            return finish(channel);
+        } finally {
+            if (!closed) {
+                channel.close();
+            }
+        }
+    }
+
+    private AbstractPackageManagerClient.RangeResponse fetchProbe(final int index, final FileChannel channel)
+            throws Exception {
+        final long first = index * segmentSize;
+        return fetcher.fetch(first, first + segmentSize - 1L, channel, true);
+    }
+
+    /**
+     * Forget the saved progress of a resumed download and truncate the part file, so that it starts again from the
+     * first segment.
+     */
+    private void restart(final FileChannel channel) throws IOException {
+        stateFile.delete();
+        channel.truncate(0L);
+        completed = new BitSet();
+        total = -1L;
+        validator = null;
+    }
+
+    private void fetchRemaining(final FileChannel channel) throws Exception {
+        final int segments = getSegmentCount();
+        final CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+
+        int next = completed.nextClearBit(0);
+        int inFlight = 0;
+        Exception failure = null;
+
+        while (true) {
+            while (failure == null && inFlight < parallelism && next < segments) {
+                completionService.submit(newSegmentTask(next, channel));
+                inFlight++;
+                next = completed.nextClearBit(next + 1);
+            }
+
+            if (inFlight == 0) {
+                break;
+            }
+
+            try {
+                int index = completionService.take().get();
+                completed.set(index);
+                channel.force(false);
+                saveState();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            } finally {
+                inFlight--;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Callable<Integer> newSegmentTask(final int index, final FileChannel channel) {
+        return new Callable<Integer>() {
+            public Integer call() throws Exception {
+                final long first = index * segmentSize;
+                final long last = Math.min(first + segmentSize, total) - 1L;
+                AbstractPackageManagerClient.RangeResponse response = fetcher.fetch(first, last, channel, false);
+                if (response == null) {
+                    throw new IOException("Range request for segment " + index + " returned no response");
+                }
+                if (response.getTotal() != total || !sameValidator(validator, response.getValidator())) {
+                    throw new IOException("Package changed on the server during download");
+                }
+                return index;
+            }
+        };
+    }
+
+    private DownloadResponse finish(final FileChannel channel) throws IOException {
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        AbstractPackageManagerClient.moveAtomically(partFile, target);
+        stateFile.delete();
+        return AbstractPackageManagerClient.createDownloadResponse(target);
+    }
+
+    int getSegmentCount() {
+        return total < 0L ? -1 : (int) ((total + segmentSize - 1L) / segmentSize);
+    }
+
+    boolean isComplete() {
+        int segments = getSegmentCount();
+        return segments >= 0 && completed.nextClearBit(0) >= segments;
+    }
+
+    private void discard() {
+        partFile.delete();
+        stateFile.delete();
+    }
+
+    private static boolean sameValidator(String expected, String actual) {
+        return expected == null || actual == null || expected.equals(actual);
+    }
+
+    boolean loadState() throws IOException {
+        if (!partFile.isFile() || !stateFile.isFile()) {
+            discard();
+            return false;
+        }
+
+        Properties props = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(stateFile);
+            props.load(is);
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+        }
+
+        try {
+            long savedTotal = Long.parseLong(props.getProperty(PROP_TOTAL, "-1"));
+            long savedSegmentSize = Long.parseLong(props.getProperty(PROP_SEGMENT_SIZE, "0"));
+            if (savedTotal < 0L || savedSegmentSize < 1L) {
+                discard();
+                return false;
+            }
+            BitSet savedCompleted = new BitSet();
+            for (String index : props.getProperty(PROP_COMPLETED, "").split(",")) {
+                if (index.trim().length() > 0) {
+                    savedCompleted.set(Integer.parseInt(index.trim()));
+                }
+            }
+            this.total = savedTotal;
+            this.segmentSize = savedSegmentSize;
+            this.validator = props.getProperty(PROP_VALIDATOR);
+            this.completed = savedCompleted;
+            return true;
+        } catch (NumberFormatException e) {
+            discard();
+            return false;
+        }
+    }
+
+    private void saveState() throws IOException {
+        Properties props = new Properties();
+        props.setProperty(PROP_TOTAL, Long.toString(total));
+        props.setProperty(PROP_SEGMENT_SIZE, Long.toString(segmentSize));
+        if (validator != null) {
+            props.setProperty(PROP_VALIDATOR, validator);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1)) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(i);
+        }
+        props.setProperty(PROP_COMPLETED, sb.toString());
+
+        File temp = new File(stateFile.getPath() + ".tmp");
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(temp);
+            props.store(os, null);
+        } finally {
+            if (os != null) {
+                os.close();
+            }
+        }
+        AbstractPackageManagerClient.moveAtomically(temp, stateFile);
+    }
+}
@@ -0,0 +1,867 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Matches a path against a list of rule patterns at once, reporting the index of the last pattern that matches the
+ * whole path, as {@link java.util.regex.Matcher#matches()} would. The patterns are parsed into a single NFA, which is
+ * converted to a DFA lazily, one state at a time, as paths are matched. Each path is read once, one code point at a
+ * time, regardless of the number of patterns.
+ * <p>
+ * Only a subset of the {@link java.util.regex.Pattern} syntax is supported: literals and escapes, {@code .},
+ * character classes with ranges, negation and the {@code \d \w \s} classes, groups, alternation, and greedy or
+ * reluctant quantifiers, with {@code ^} and {@code $} only at the very start and end. Patterns with any other
+ * construct, such as flags, lookaround, back references, possessive quantifiers, or nested classes, are reported by
+ * {@link #isSupported(int)} and never match, so callers must test them with {@link java.util.regex.Pattern}.
+ * <p>
+ * Instances are thread-safe. The number of cached DFA states is bounded, and transitions beyond the bound are
+ * computed without being cached.
+ */
+final class RuleAutomaton {
+
+    static final int MAX_DFA_STATES = 4096;
+    static final int MAX_NFA_STATES = 1 << 16;
+    static final int MAX_REPEAT = 256;
+
+    private static final int ASCII = 128;
+
+    private final boolean[] supported;
+    private final NfaState[] nfa;
+    private final State start;
+    private final ConcurrentMap<StateKey, State> states = new ConcurrentHashMap<StateKey, State>();
+    private final AtomicInteger stateCount = new AtomicInteger();
+
+    private RuleAutomaton(final List<String> patterns) {
+        this.supported = new boolean[patterns.size()];
+        final List<NfaState> builder = new ArrayList<NfaState>();
+        final List<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < patterns.size(); i++) {
+            final int mark = builder.size();
+            try {
+                Node node = new Parser(patterns.get(i)).parse();
+                NfaState match = new NfaState(NfaState.MATCH, null, null, i);
+                add(builder, match);
+                starts.add(node.compile(builder, match.id));
+                supported[i] = true;
+            } catch (UnsupportedPatternException e) {
+                while (builder.size() > mark) {
+                    builder.remove(builder.size() - 1);
+                }
+            }
+        }
+        final int[] startOuts = new int[starts.size()];
+        for (int i = 0; i < startOuts.length; i++) {
+            startOuts[i] = starts.get(i);
+        }
+        NfaState split = new NfaState(NfaState.SPLIT, null, startOuts, -1);
+        add(builder, split);
+        this.nfa = builder.toArray(new NfaState[builder.size()]);
+        this.start = intern(closure(new int[]{split.id}, 1));
+    }
+
+    /**
+     * @param patterns the rule patterns, each of which must be accepted by {@link java.util.regex.Pattern#compile(String)}
+     * @return a new automaton
+     */
+    static RuleAutomaton compile(List<String> patterns) {
+        if (patterns == null) {
+            throw new NullPointerException("patterns");
+        }
+        return new RuleAutomaton(patterns);
+    }
+
+    /**
+     * @return the number of patterns
+     */
+    int size() {
+        return supported.length;
+    }
+
+    /**
+     * @param index the index of a pattern
+     * @return true if the pattern is matched by this automaton
+     */
+    boolean isSupported(int index) {
+        return supported[index];
+    }
+
+    /**
+     * @param path the input
+     * @return the highest index of a supported pattern which matches the whole input, or -1 if none match
+     */
+    int lastMatch(CharSequence path) {
+        State state = start;
+        final int length = path.length();
+        int i = 0;
+        while (i < length) {
+            if (state.dead) {
+                return -1;
+            }
+            final char c = path.charAt(i);
+            int codePoint = c;
+            i++;
+            if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(path.charAt(i))) {
+                codePoint = Character.toCodePoint(c, path.charAt(i));
+                i++;
+            }
+            state = step(state, codePoint);
+        }
+        return state.accept;
+    }
+
+    /**
+     * @return the number of cached DFA states, for tests
+     */
+    int getStateCount() {
+        return stateCount.get();
+    }
+
+    private State step(final State state, final int codePoint) {
+        State next = codePoint < ASCII ? state.ascii[codePoint] : state.other.get(codePoint);
+        if (next != null) {
+            return next;
+        }
+        final int[] targets = new int[state.nfaStates.length];
+        int count = 0;
+        for (int id : state.nfaStates) {
+            NfaState nfaState = nfa[id];
+            if (nfaState.type == NfaState.CHAR && nfaState.set.contains(codePoint)) {
+                targets[count++] = nfaState.outs[0];
+            }
+        }
+        next = intern(closure(targets, count));
+        if (next.cached) {
+            if (codePoint < ASCII) {
+                state.ascii[codePoint] = next;
+            } else {
+                state.other.put(codePoint, next);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Follows split states from the given states, keeping only character and match states, which are all that
+     * distinguish one DFA state from another.
+     */
+    private int[] closure(final int[] from, final int count) {
+        final boolean[] seen = new boolean[nfa.length];
+        final int[] stack = new int[nfa.length];
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            if (!seen[from[i]]) {
+                seen[from[i]] = true;
+                stack[top++] = from[i];
+            }
+        }
+        final int[] result = new int[nfa.length];
+        int size = 0;
+        while (top > 0) {
+            final NfaState nfaState = nfa[stack[--top]];
+            if (nfaState.type == NfaState.SPLIT) {
+                for (int out : nfaState.outs) {
+                    if (!seen[out]) {
+                        seen[out] = true;
+                        stack[top++] = out;
+                    }
+                }
+            } else {
+                result[size++] = nfaState.id;
+            }
+        }
+        final int[] sorted = Arrays.copyOf(result, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private State intern(final int[] nfaStates) {
+        final StateKey key = new StateKey(nfaStates);
+        State state = states.get(key);
+        if (state == null) {
+            boolean cache = stateCount.get() < MAX_DFA_STATES;
+            state = new State(nfaStates, accept(nfaStates), dead(nfaStates), cache);
+            if (cache) {
+                State existing = states.putIfAbsent(key, state);
+                if (existing != null) {
+                    state = existing;
+                } else {
+                    stateCount.incrementAndGet();
+                }
+            }
+        }
+        return state;
+    }
+
+    private int accept(final int[] nfaStates) {
+        int accept = -1;
+        for (int id : nfaStates) {
+            if (nfa[id].type == NfaState.MATCH && nfa[id].rule > accept) {
+                accept = nfa[id].rule;
+            }
+        }
+        return accept;
+    }
+
+    private boolean dead(final int[] nfaStates) {
+        for (int id : nfaStates) {
+            if (nfa[id].type == NfaState.CHAR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void add(final List<NfaState> builder, final NfaState state) {
+        state.id = builder.size();
+        builder.add(state);
+    }
+
+    /**
+     * A DFA state. Transitions are filled in lazily, and may be computed more than once by racing threads, which
+     * is harmless because equal states are interned.
+     */
+    private static final class State {
+        private final int[] nfaStates;
+        private final int accept;
+        private final boolean dead;
+        private final boolean cached;
+        private final State[] ascii = new State[ASCII];
+        private final ConcurrentMap<Integer, State> other = new ConcurrentHashMap<Integer, State>();
+
+        private State(final int[] nfaStates, final int accept, final boolean dead, final boolean cached) {
+            this.nfaStates = nfaStates;
+            this.accept = accept;
+            this.dead = dead;
+            this.cached = cached;
+        }
+    }
+
+    private static final class StateKey {
+        private final int[] nfaStates;
+        private final int hash;
+
+        private StateKey(final int[] nfaStates) {
+            this.nfaStates = nfaStates;
+            this.hash = Arrays.hashCode(nfaStates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof StateKey && Arrays.equals(nfaStates, ((StateKey) o).nfaStates));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class NfaState {
+        private static final int CHAR = 0;
+        private static final int SPLIT = 1;
+        private static final int MATCH = 2;
+
+        private final int type;
+        private final CharSet set;
+        private int[] outs;
+        private final int rule;
+        private int id;
+
+        private NfaState(final int type, final CharSet set, final int[] outs, final int rule) {
+            this.type = type;
+            this.set = set;
+            this.outs = outs;
+            this.rule = rule;
+        }
+    }
+
+    private static final class UnsupportedPatternException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedPatternException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A set of code points, stored as sorted, disjoint, inclusive ranges.
+     */
+    static final class CharSet {
+        private static final int MAX = Character.MAX_CODE_POINT;
+
+        private final int[] ranges;
+
+        private CharSet(final int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(final int... bounds) {
+            return new CharSet(bounds.clone()).normalize();
+        }
+
+        boolean contains(final int codePoint) {
+            int low = 0;
+            int high = ranges.length / 2 - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (codePoint < ranges[2 * mid]) {
+                    high = mid - 1;
+                } else if (codePoint > ranges[2 * mid + 1]) {
+                    low = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CharSet union(final CharSet other) {
+            int[] merged = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+            System.arraycopy(other.ranges, 0, merged, ranges.length, other.ranges.length);
+            return new CharSet(merged).normalize();
+        }
+
+        CharSet complement() {
+            final int[] result = new int[ranges.length + 2];
+            int size = 0;
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    result[size++] = next;
+                    result[size++] = ranges[i] - 1;
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= MAX) {
+                result[size++] = next;
+                result[size++] = MAX;
+            }
+            return new CharSet(Arrays.copyOf(result, size));
+        }
+
+        private CharSet normalize() {
+            final int count = ranges.length / 2;
+            final long[] packed = new long[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = ((long) ranges[2 * i] << 32) | (ranges[2 * i + 1] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed);
+            final int[] result = new int[ranges.length];
+            int size = 0;
+            for (long range : packed) {
+                final int low = (int) (range >>> 32);
+                final int high = (int) range;
+                if (size > 0 && low <= result[size - 1] + 1) {
+                    result[size - 1] = Math.max(result[size - 1], high);
+                } else {
+                    result[size++] = low;
+                    result[size++] = high;
+                }
+            }
+            return new CharSet(Arrays.copyOf(result, size));
+        }
+    }
+
+    private static final CharSet DIGIT = CharSet.of('0', '9');
+    private static final CharSet WORD = CharSet.of('a', 'z', 'A', 'Z', '_', '_', '0', '9');
+    private static final CharSet SPACE = CharSet.of(' ', ' ', '\t', '\n', 0x0B, 0x0B, '\f', '\f', '\r', '\r');
+    private static final CharSet DOT = CharSet.of('\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029).complement();
+
+    /**
+     * A node of the parsed pattern. Nodes are compiled back to front, each returning the NFA state that starts it,
+     * given the state that follows it, so that bounded repetitions can be compiled more than once.
+     */
+    private abstract static class Node {
+        abstract int compile(List<NfaState> builder, int next) throws UnsupportedPatternException;
+
+        static int newState(final List<NfaState> builder, final int type, final CharSet set, final int[] outs)
+                throws UnsupportedPatternException {
+            if (builder.size() >= MAX_NFA_STATES) {
+                throw new UnsupportedPatternException("too many states");
+            }
+            NfaState state = new NfaState(type, set, outs, -1);
+            add(builder, state);
+            return state.id;
+        }
+    }
+
+    private static final class SetNode extends Node {
+        private final CharSet set;
+
+        private SetNode(final CharSet set) {
+            this.set = set;
+        }
+
+        int compile(final List<NfaState> builder, final int next) throws UnsupportedPatternException {
+            return newState(builder, NfaState.CHAR, set, new int[]{next});
+        }
+    }
+
+    private static final class ConcatNode extends Node {
+        private final List<Node> nodes;
+
+        private ConcatNode(final List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        int compile(final List<NfaState> builder, final int next) throws UnsupportedPatternException {
+            int state = next;
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                state = nodes.get(i).compile(builder, state);
+            }
+            return state;
+        }
+    }
+
+    private static final class AltNode extends Node {
+        private final List<Node> nodes;
+
+        private AltNode(final List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        int compile(final List<NfaState> builder, final int next) throws UnsupportedPatternException {
+            final int[] outs = new int[nodes.size()];
+            for (int i = 0; i < outs.length; i++) {
+                outs[i] = nodes.get(i).compile(builder, next);
+            }
+            return newState(builder, NfaState.SPLIT, null, outs);
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+        private final Node node;
+        private final int min;
+        private final int max;
+
+        private RepeatNode(final Node node, final int min, final int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        int compile(final List<NfaState> builder, final int next) throws UnsupportedPatternException {
+            int state = next;
+            if (max < 0) {
+                final int loop = newState(builder, NfaState.SPLIT, null, null);
+                final int body = node.compile(builder, loop);
+                builder.get(loop).outs = new int[]{body, next};
+                state = loop;
+            } else {
+                for (int i = min; i < max; i++) {
+                    final int body = node.compile(builder, state);
+                    state = newState(builder, NfaState.SPLIT, null, new int[]{body, state});
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                state = node.compile(builder, state);
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of the pattern syntax.
+     */
+    private static final class Parser {
+        private final String pattern;
+        private int pos;
+
+        private Parser(final String pattern) {
+            this.pattern = pattern;
+        }
+
+        private Node parse() throws UnsupportedPatternException {
+            Node node = parseAlternation();
+            if (pos < pattern.length()) {
+                throw new UnsupportedPatternException("unexpected " + pattern.charAt(pos));
+            }
+            return node;
+        }
+
+        private Node parseAlternation() throws UnsupportedPatternException {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(parseConcat());
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(parseConcat());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new AltNode(alternatives);
+        }
+
+        private Node parseConcat() throws UnsupportedPatternException {
+            List<Node> nodes = new ArrayList<Node>();
+            while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                Node atom = parseAtom();
+                if (atom != null) {
+                    nodes.add(parseQuantifier(atom));
+                }
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+        }
+
+        private Node parseQuantifier(final Node atom) throws UnsupportedPatternException {
+            if (pos >= pattern.length()) {
+                return atom;
+            }
+            int min;
+            int max;
+            final char c = pattern.charAt(pos);
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                final int close = pattern.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedPatternException("unterminated repetition");
+                }
+                final String spec = pattern.substring(pos + 1, close);
+                try {
+                    final int comma = spec.indexOf(',');
+                    if (comma < 0) {
+                        min = Integer.parseInt(spec);
+                        max = min;
+                    } else {
+                        min = Integer.parseInt(spec.substring(0, comma));
+                        max = comma == spec.length() - 1 ? -1 : Integer.parseInt(spec.substring(comma + 1));
+                    }
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedPatternException("invalid repetition");
+                }
+                if (min < 0 || min > MAX_REPEAT || max > MAX_REPEAT || (max >= 0 && max < min)) {
+                    throw new UnsupportedPatternException("unsupported repetition");
+                }
+                pos = close + 1;
+            } else {
+                return atom;
+            }
+            if (pos < pattern.length()) {
+                final char modifier = pattern.charAt(pos);
+                if (modifier == '?') {
+                    // reluctant quantifiers accept the same whole inputs as greedy ones
+                    pos++;
+                } else if (modifier == '+') {
+                    throw new UnsupportedPatternException("possessive quantifier");
+                }
+            }
+            if (pos < pattern.length() && "*+?{".indexOf(pattern.charAt(pos)) >= 0) {
+                throw new UnsupportedPatternException("stacked quantifiers");
+            }
+            return new RepeatNode(atom, min, max);
+        }
+
+        /**
+         * @return the parsed atom, or null for a leading or trailing anchor, which has no effect on a whole match
+         */
+        private Node parseAtom() throws UnsupportedPatternException {
+            final int codePoint = pattern.codePointAt(pos);
+            switch (codePoint) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    pos++;
+                    return new SetNode(parseClass());
+                case '.':
+                    pos++;
+                    return new SetNode(DOT);
+                case '\\':
+                    pos++;
+                    return parseEscape();
+                case '^':
+                    if (pos != 0) {
+                        throw new UnsupportedPatternException("anchor");
+                    }
+                    pos++;
+                    return null;
+                case '$':
+                    if (pos != pattern.length() - 1) {
+                        throw new UnsupportedPatternException("anchor");
+                    }
+                    pos++;
+                    return null;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedPatternException("dangling quantifier");
+                default:
+                    pos += Character.charCount(codePoint);
+                    return new SetNode(CharSet.of(codePoint, codePoint));
+            }
+        }
+
+        private Node parseGroup() throws UnsupportedPatternException {
+            pos++;
+            if (pattern.startsWith("?:", pos)) {
+                pos += 2;
+            } else if (pattern.startsWith("?<", pos) && pos + 2 < pattern.length()
+                    && Character.isLetter(pattern.charAt(pos + 2))) {
+                final int close = pattern.indexOf('>', pos);
+                if (close < 0) {
+                    throw new UnsupportedPatternException("unterminated group name");
+                }
+                pos = close + 1;
+            } else if (pattern.startsWith("?", pos)) {
+                throw new UnsupportedPatternException("special group");
+            }
+            Node node = parseAlternation();
+            if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+                throw new UnsupportedPatternException("unterminated group");
+            }
+            pos++;
+            return node;
+        }
+
+        private Node parseEscape() throws UnsupportedPatternException {
+            if (pos >= pattern.length()) {
+                throw new UnsupportedPatternException("trailing backslash");
+            }
+            final char c = pattern.charAt(pos);
+            CharSet predefined = predefinedClass(c);
+            if (predefined != null) {
+                pos++;
+                return new SetNode(predefined);
+            }
+            if (c == 'Q') {
+                int end = pattern.indexOf("\\E", pos + 1);
+                final String quoted = pattern.substring(pos + 1, end < 0 ? pattern.length() : end);
+                pos = end < 0 ? pattern.length() : end + 2;
+                if (pos < pattern.length() && "*+?{".indexOf(pattern.charAt(pos)) >= 0) {
+                    // a quantifier applies only to the last quoted character
+                    throw new UnsupportedPatternException("quantified quote");
+                }
+                List<Node> nodes = new ArrayList<Node>();
+                for (int i = 0; i < quoted.length(); ) {
+                    final int codePoint = quoted.codePointAt(i);
+                    nodes.add(new SetNode(CharSet.of(codePoint, codePoint)));
+                    i += Character.charCount(codePoint);
+                }
+                return new ConcatNode(nodes);
+            }
+            final int codePoint = parseEscapedChar();
+            return new SetNode(CharSet.of(codePoint, codePoint));
+        }
+
+        private static CharSet predefinedClass(final char c) {
+            switch (c) {
+                case 'd':
+                    return DIGIT;
+                case 'D':
+                    return DIGIT.complement();
+                case 'w':
+                    return WORD;
+                case 'W':
+                    return WORD.complement();
+                case 's':
+                    return SPACE;
+                case 'S':
+                    return SPACE.complement();
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Parses an escape sequence for a single character, with the position just after the backslash.
+         */
+        private int parseEscapedChar() throws UnsupportedPatternException {
+            if (pos >= pattern.length()) {
+                throw new UnsupportedPatternException("trailing backslash");
+            }
+            final int c = pattern.codePointAt(pos);
+            pos += Character.charCount(c);
+            switch (c) {
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return 0x07;
+                case 'e':
+                    return 0x1B;
+                case '0':
+                    return parseOctal();
+                case 'x':
+                    return parseHex();
+                case 'u':
+                    return parseHexDigits(4);
+                case 'c':
+                    if (pos >= pattern.length()) {
+                        throw new UnsupportedPatternException("invalid control character");
+                    }
+                    return pattern.charAt(pos++) ^ 64;
+                default:
+                    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                        throw new UnsupportedPatternException("escape \\" + (char) c);
+                    }
+                    return c;
+            }
+        }
+
+        private int parseOctal() throws UnsupportedPatternException {
+            int value = 0;
+            int digits = 0;
+            final int maxDigits = pos < pattern.length() && pattern.charAt(pos) <= '3' ? 3 : 2;
+            while (digits < maxDigits && pos < pattern.length()
+                    && pattern.charAt(pos) >= '0' && pattern.charAt(pos) <= '7') {
+                value = value * 8 + (pattern.charAt(pos++) - '0');
+                digits++;
+            }
+            if (digits == 0) {
+                throw new UnsupportedPatternException("invalid octal escape");
+            }
+            return value;
+        }
+
+        private int parseHex() throws UnsupportedPatternException {
+            if (pos < pattern.length() && pattern.charAt(pos) == '{') {
+                final int close = pattern.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedPatternException("unterminated hex escape");
+                }
+                try {
+                    final int value = Integer.parseInt(pattern.substring(pos + 1, close), 16);
+                    pos = close + 1;
+                    if (value < 0 || value > Character.MAX_CODE_POINT) {
+                        throw new UnsupportedPatternException("invalid hex escape");
+                    }
+                    return value;
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedPatternException("invalid hex escape");
+                }
+            }
+            return parseHexDigits(2);
+        }
+
+        private int parseHexDigits(final int count) throws UnsupportedPatternException {
+            if (pos + count > pattern.length()) {
+                throw new UnsupportedPatternException("invalid hex escape");
+            }
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                final int digit = Character.digit(pattern.charAt(pos++), 16);
+                if (digit < 0) {
+                    throw new UnsupportedPatternException("invalid hex escape");
+                }
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+
+        /**
+         * Parses a character class, with the position just after the opening bracket.
+         */
+        private CharSet parseClass() throws UnsupportedPatternException {
+            boolean negated = false;
+            if (pos < pattern.length() && pattern.charAt(pos) == '^') {
+                negated = true;
+                pos++;
+            }
+            if (pos < pattern.length() && pattern.charAt(pos) == ']') {
+                throw new UnsupportedPatternException("leading bracket in class");
+            }
+            CharSet set = CharSet.of();
+            while (true) {
+                if (pos >= pattern.length()) {
+                    throw new UnsupportedPatternException("unterminated class");
+                }
+                final char c = pattern.charAt(pos);
+                if (c == ']') {
+                    pos++;
+                    break;
+                }
+                if (c == '[' || pattern.startsWith("&&", pos)) {
+                    throw new UnsupportedPatternException("nested class");
+                }
+                final int low;
+                if (c == '\\') {
+                    pos++;
+                    if (pos < pattern.length()) {
+                        CharSet predefined = predefinedClass(pattern.charAt(pos));
+                        if (predefined != null) {
+                            pos++;
+                            set = set.union(predefined);
+                            continue;
+                        }
+                        if (pattern.charAt(pos) == 'Q') {
+                            throw new UnsupportedPatternException("quote in class");
+                        }
+                    }
+                    low = parseEscapedChar();
+                } else {
+                    low = pattern.codePointAt(pos);
+                    pos += Character.charCount(low);
+                }
+                int high = low;
+                if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+                    pos++;
+                    final char h = pattern.charAt(pos);
+                    if (h == '[') {
+                        throw new UnsupportedPatternException("nested class");
+                    }
+                    if (h == '\\') {
+                        pos++;
+                        if (pos < pattern.length() && predefinedClass(pattern.charAt(pos)) != null) {
+                            throw new UnsupportedPatternException("class in range");
+                        }
+                        high = parseEscapedChar();
+                    } else {
+                        high = pattern.codePointAt(pos);
+                        pos += Character.charCount(high);
+                    }
+                    if (high < low) {
+                        throw new UnsupportedPatternException("invalid range");
+                    }
+                }
+                set = set.union(CharSet.of(low, high));
+            }
+            return negated ? set.complement() : set;
+        }
+    }
+}
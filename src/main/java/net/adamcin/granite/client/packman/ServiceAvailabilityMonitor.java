@@ -0,0 +1,272 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Waits for service availability on behalf of any number of clients. Callers which target the same
+ * {@link PackageManagerClient#getBaseUrl()} share a single probe that runs in the background on a scheduled executor,
+ * so a pipeline that waits on N clients per server sends the probe traffic of one. The probe is sent by the client
+ * which started it, with the delays of that client's {@link ServiceWaitStrategy}, and it keeps running until the
+ * service is available, a non-retryable error is returned, or the latest service timeout of its callers is exceeded.
+ * <p>
+ * Probes are shared by base URL only, not by login identity: a caller receives the result of whichever client's
+ * probe is running, so a client with wrong or missing credentials may be told the service is available because
+ * another client's probe succeeded, and its own first request then fails to authenticate. Only share a monitor
+ * between clients that log in to the same server with the same credentials.
+ * <p>
+ * Share one monitor between clients with {@link AbstractPackageManagerClient#setServiceAvailabilityMonitor}.
+ */
+public final class ServiceAvailabilityMonitor implements Closeable {
+
+    public static final int DEFAULT_THREADS = 4;
+
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final ConcurrentMap<String, Probe> probes = new ConcurrentHashMap<String, Probe>();
+
+    /**
+     * Create a monitor with a private pool of {@link #DEFAULT_THREADS} daemon threads, which is shut down by
+     * {@link #close()}.
+     */
+    public ServiceAvailabilityMonitor() {
+        this(Executors.newScheduledThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "packman-monitor-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }), true);
+    }
+
+    /**
+     * Create a monitor which schedules probes on the specified executor. Probes block a thread while they wait for
+     * a response, so size the executor for the number of servers being watched at once.
+     * @param scheduler the executor, which is not shut down by {@link #close()}
+     */
+    public ServiceAvailabilityMonitor(ScheduledExecutorService scheduler) {
+        this(scheduler, false);
+    }
+
+    private ServiceAvailabilityMonitor(ScheduledExecutorService scheduler, boolean ownScheduler) {
+        if (scheduler == null) {
+            throw new NullPointerException("scheduler");
+        }
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+    }
+
+    /**
+     * Wait for service availability of the server targeted by {@code client}, joining the probe already running
+     * for its base URL if there is one, whichever client started it. Honors the service timeout of the client, but
+     * not its wait delay.
+     * @param client the client
+     * @return true if service availability was successfully determined
+     * @throws Exception on timeout, interruption, or IOException
+     * @see PackageManagerClient#waitForService()
+     */
+    public boolean waitForService(AbstractPackageManagerClient client) throws Exception {
+        final long serviceTimeout = client.getServiceTimeout();
+        final CompletableFuture<Boolean> future = join(client);
+        try {
+            if (serviceTimeout >= 0L) {
+                return future.get(serviceTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                return future.get();
+            }
+        } catch (TimeoutException e) {
+            throw new IOException("Service timeout exceeded.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for service availability of the server targeted by {@code client} without blocking. Cancelling the
+     * returned future does not stop the probe for other callers.
+     * @param client the client
+     * @return a future completed with true once service availability is determined, or completed exceptionally on
+     *         timeout or a non-retryable error
+     */
+    public CompletableFuture<Boolean> watch(AbstractPackageManagerClient client) {
+        return join(client).thenApply(new Function<Boolean, Boolean>() {
+            public Boolean apply(Boolean available) {
+                return available;
+            }
+        });
+    }
+
+    /**
+     * @param baseUrl the base URL of a server
+     * @return true if a probe is currently running for the server
+     */
+    public boolean isWatching(String baseUrl) {
+        return probes.containsKey(baseUrl);
+    }
+
+    /**
+     * Stop all running probes, failing their callers with a {@link CancellationException}, and shut down the
+     * executor if it was created by this monitor.
+     */
+    public void close() {
+        for (Probe probe : probes.values()) {
+            probe.future.completeExceptionally(new CancellationException("Service availability monitor closed."));
+        }
+        probes.clear();
+        if (ownScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<Boolean> join(AbstractPackageManagerClient client) {
+        if (client == null) {
+            throw new NullPointerException("client");
+        }
+        final String baseUrl = client.getBaseUrl();
+        final long serviceTimeout = client.getServiceTimeout();
+        final long deadline = serviceTimeout >= 0L ? System.currentTimeMillis() + serviceTimeout : Long.MAX_VALUE;
+        while (true) {
+            Probe probe = probes.get(baseUrl);
+            if (probe == null) {
+                Probe created = new Probe(baseUrl, client, deadline);
+                probe = probes.putIfAbsent(baseUrl, created);
+                if (probe == null) {
+                    created.schedule(0L);
+                    return created.future;
+                }
+            }
+            if (probe.extend(deadline)) {
+                return probe.future;
+            }
+            // the probe finished while we looked at it. its future may already be complete, but
+            // it is stale for a caller arriving now, so remove it and start over.
+            probes.remove(baseUrl, probe);
+        }
+    }
+
+    private final class Probe implements Runnable {
+        private final String baseUrl;
+        private final AbstractPackageManagerClient client;
+        private final ServiceWaitStrategy strategy;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        private long deadline;
+        private int attempt;
+
+        private Probe(String baseUrl, AbstractPackageManagerClient client, long deadline) {
+            this.baseUrl = baseUrl;
+            this.client = client;
+            this.strategy = client.getServiceWaitStrategy();
+            this.deadline = deadline;
+        }
+
+        private synchronized boolean extend(long deadline) {
+            if (future.isDone()) {
+                return false;
+            }
+            this.deadline = Math.max(this.deadline, deadline);
+            return true;
+        }
+
+        private synchronized long getDeadline() {
+            return deadline;
+        }
+
+        private void schedule(long delay) {
+            try {
+                scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                complete(null, e);
+            }
+        }
+
+        private void complete(Boolean available, Throwable error) {
+            synchronized (this) {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(available);
+                }
+            }
+            probes.remove(baseUrl, this);
+        }
+
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            final long deadline = getDeadline();
+            final boolean checkTimeout = deadline != Long.MAX_VALUE;
+            try {
+                AbstractPackageManagerClient.Either<? extends Exception, Boolean> resp =
+                        client.checkServiceAvailability(checkTimeout, deadline - System.currentTimeMillis());
+                if (resp.isLeft()) {
+                    if (!strategy.isRetryable(resp.getLeft())) {
+                        complete(null, resp.getLeft());
+                        return;
+                    }
+                } else if (resp.getRight()) {
+                    complete(true, null);
+                    return;
+                }
+            } catch (Exception e) {
+                complete(null, e);
+                return;
+            }
+
+            final long delay = Math.max(0L, strategy.getDelay(++attempt));
+            synchronized (this) {
+                if (this.deadline != Long.MAX_VALUE && this.deadline <= System.currentTimeMillis() + delay) {
+                    complete(null, new IOException("Service timeout exceeded."));
+                    return;
+                }
+            }
+            schedule(delay);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records the content digest of each package successfully uploaded to a server, so that
+ * {@link PackageManagerClient#uploadIfChanged(File, boolean, PackId)} can skip sending a package that the server
+ * already has. Implementations must be thread-safe.
+ */
+public interface UploadLedger {
+
+    /**
+     * @param baseUrl the base URL of the server
+     * @param packageId the package id
+     * @return the digest recorded for the last successful upload of the package to the server, or {@code null}
+     * @throws IOException if the ledger can not be read
+     */
+    String getDigest(String baseUrl, PackId packageId) throws IOException;
+
+    /**
+     * Record a successful upload.
+     * @param baseUrl the base URL of the server
+     * @param packageId the package id
+     * @param digest the digest of the uploaded file
+     * @throws IOException if the ledger can not be written
+     */
+    void recordUpload(String baseUrl, PackId packageId, String digest) throws IOException;
+
+    /**
+     * Remove any record of the package, such as when it is deleted or rebuilt on the server.
+     * @param baseUrl the base URL of the server
+     * @param packageId the package id
+     * @throws IOException if the ledger can not be written
+     */
+    void forget(String baseUrl, PackId packageId) throws IOException;
+}
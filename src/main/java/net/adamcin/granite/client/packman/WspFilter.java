@@ -172,6 +172,7 @@ public final class WspFilter implements Serializable {
     }
 
     private final List<Root> roots;
+    private transient volatile CompiledWspFilter compiled;
 
     public WspFilter(Root... roots) {
         this.roots = Arrays.asList(roots);
@@ -185,6 +186,18 @@ public final class WspFilter implements Serializable {
         return roots;
     }
 
+    /**
+     * @return the compiled form of this filter for matching paths, which is created once and then reused
+     */
+    public CompiledWspFilter compile() {
+        CompiledWspFilter compiledFilter = compiled;
+        if (compiledFilter == null) {
+            compiledFilter = CompiledWspFilter.compile(this);
+            compiled = compiledFilter;
+        }
+        return compiledFilter;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
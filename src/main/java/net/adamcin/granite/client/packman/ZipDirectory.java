@@ -0,0 +1,558 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a zip file that is built from the central directory alone. The end of central directory record
+ * is located by reading backward from the end of the file, and the central directory is then read in a single
+ * positional read, so looking up an entry by name does not touch any of the local file headers or entry data.
+ * Entry data is read on demand with positional reads, which allows several streams to be open at once.
+ * <p>
+ * ZIP64 archives are supported. Encrypted entries and compression methods other than stored and deflated are
+ * rejected with a {@link ZipException}, as are multi-disk archives.
+ */
+public final class ZipDirectory implements Closeable {
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset CP437 = Charset.forName("IBM437");
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOC_SIG = 0x07064b50;
+
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int ZIP64_END_HEADER_SIZE = 56;
+    private static final int ZIP64_LOC_HEADER_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer directory;
+    private final long entryCount;
+    private volatile List<Entry> entries;
+
+    private ZipDirectory(final File file, final FileChannel channel, final ByteBuffer directory,
+                         final long entryCount) {
+        this.file = file;
+        this.channel = channel;
+        this.directory = directory;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Opens the zip file and reads its central directory.
+     * @param file the zip file
+     * @return a new zip directory, which must be closed by the caller
+     * @throws ZipException if the file is not a supported zip archive
+     * @throws IOException if the file cannot be read
+     */
+    public static ZipDirectory open(final File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        boolean opened = false;
+        try {
+            ZipDirectory zip = readDirectory(file, channel);
+            opened = true;
+            return zip;
+        } finally {
+            if (!opened) {
+                channel.close();
+            }
+        }
+    }
+
+    private static ZipDirectory readDirectory(final File file, final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size < END_HEADER_SIZE) {
+            throw new ZipException("zip END header not found: " + file);
+        }
+
+        final int tailSize = (int) Math.min(size, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+        final long tailOffset = size - tailSize;
+        ByteBuffer tail = readFully(channel, tailOffset, tailSize);
+
+        int endPos = -1;
+        for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG
+                    && i + END_HEADER_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            throw new ZipException("zip END header not found: " + file);
+        }
+
+        final int disk = tail.getShort(endPos + 4) & 0xFFFF;
+        final int directoryDisk = tail.getShort(endPos + 6) & 0xFFFF;
+        long count = tail.getShort(endPos + 10) & 0xFFFF;
+        long directorySize = tail.getInt(endPos + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(endPos + 16) & ZIP64_MAGIC;
+
+        if (count == ZIP64_MAGIC_COUNT || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            final long locatorOffset = tailOffset + endPos - ZIP64_LOC_HEADER_SIZE;
+            if (locatorOffset >= 0) {
+                ByteBuffer locator = readFully(channel, locatorOffset, ZIP64_LOC_HEADER_SIZE);
+                if (locator.getInt(0) == ZIP64_LOC_SIG) {
+                    final long zip64EndOffset = locator.getLong(8);
+                    if (zip64EndOffset < 0 || zip64EndOffset > locatorOffset - ZIP64_END_HEADER_SIZE) {
+                        throw new ZipException("invalid zip64 END header offset: " + file);
+                    }
+                    ByteBuffer zip64End = readFully(channel, zip64EndOffset, ZIP64_END_HEADER_SIZE);
+                    if (zip64End.getInt(0) != ZIP64_END_SIG) {
+                        throw new ZipException("zip64 END header not found: " + file);
+                    }
+                    if (zip64End.getInt(16) != 0 || zip64End.getInt(20) != 0) {
+                        throw new ZipException("multi-disk zip archives are not supported: " + file);
+                    }
+                    count = zip64End.getLong(32);
+                    directorySize = zip64End.getLong(40);
+                    directoryOffset = zip64End.getLong(48);
+                }
+            }
+        } else if (disk != 0 || directoryDisk != 0) {
+            throw new ZipException("multi-disk zip archives are not supported: " + file);
+        }
+
+        if (directorySize < 0 || directorySize > Integer.MAX_VALUE
+                || directoryOffset < 0 || directoryOffset + directorySize > size
+                || count < 0 || count > directorySize / CEN_HEADER_SIZE) {
+            throw new ZipException("invalid zip central directory: " + file);
+        }
+
+        ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+        return new ZipDirectory(file, channel, directory, count);
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel, final long position, final int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new EOFException("unexpected end of zip file");
+            }
+            pos += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of entries recorded in the central directory
+     */
+    public long size() {
+        return entryCount;
+    }
+
+    /**
+     * Finds an entry by comparing the encoded name against each central directory record, so that no names are
+     * decoded for entries that do not match.
+     * @param name the entry name
+     * @return the entry, or null if the archive has no entry with that name
+     * @throws ZipException if the central directory is malformed
+     */
+    public Entry getEntry(final String name) throws ZipException {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        final byte[] utf8Name = name.getBytes(UTF_8);
+        final byte[] cp437Name = name.getBytes(CP437);
+        int pos = 0;
+        for (long i = 0; i < entryCount; i++) {
+            checkRecord(pos);
+            final int flags = directory.getShort(pos + 8) & 0xFFFF;
+            final int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            final byte[] target = (flags & FLAG_UTF8) != 0 ? utf8Name : cp437Name;
+            if (nameLength == target.length && nameEquals(pos + CEN_HEADER_SIZE, target)) {
+                return readEntry(pos, name);
+            }
+            pos += recordLength(pos);
+        }
+        return null;
+    }
+
+    /**
+     * @return all entries in central directory order
+     * @throws ZipException if the central directory is malformed
+     */
+    public List<Entry> getEntries() throws ZipException {
+        List<Entry> list = entries;
+        if (list == null) {
+            List<Entry> read = new ArrayList<Entry>((int) Math.min(entryCount, Integer.MAX_VALUE));
+            int pos = 0;
+            for (long i = 0; i < entryCount; i++) {
+                checkRecord(pos);
+                read.add(readEntry(pos, null));
+                pos += recordLength(pos);
+            }
+            list = Collections.unmodifiableList(read);
+            entries = list;
+        }
+        return list;
+    }
+
+    /**
+     * Opens a stream over the uncompressed data of an entry. The local file header is read to find the start of the
+     * data, after which the data is read with positional reads of the file channel.
+     * @param entry an entry of this zip directory
+     * @return a new input stream, which should be closed by the caller
+     * @throws ZipException if the entry is encrypted, uses an unsupported method, or has an invalid local header
+     * @throws IOException if the file cannot be read
+     */
+    public InputStream getInputStream(final Entry entry) throws IOException {
+        if (entry.isEncrypted()) {
+            throw new ZipException("encrypted zip entries are not supported: " + entry.getName());
+        }
+        if (entry.getMethod() != METHOD_STORED && entry.getMethod() != METHOD_DEFLATED) {
+            throw new ZipException("unsupported compression method " + entry.getMethod() + ": " + entry.getName());
+        }
+        ByteBuffer local = readFully(channel, entry.localHeaderOffset, LOC_HEADER_SIZE);
+        if (local.getInt(0) != LOC_SIG) {
+            throw new ZipException("invalid local header for zip entry: " + entry.getName());
+        }
+        final long dataOffset = entry.localHeaderOffset + LOC_HEADER_SIZE
+                + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+        if (dataOffset + entry.compressedSize > channel.size()) {
+            throw new ZipException("invalid data offset for zip entry: " + entry.getName());
+        }
+        InputStream data = new ChannelInputStream(channel, dataOffset, entry.compressedSize);
+        if (entry.getMethod() == METHOD_STORED) {
+            return data;
+        } else {
+            return new EntryInflaterInputStream(data, (int) Math.min(BUFFER_SIZE, Math.max(entry.compressedSize, 1)));
+        }
+    }
+
+    /**
+     * Reads the uncompressed data of a small entry into memory.
+     * @param entry an entry of this zip directory
+     * @param maxSize the largest uncompressed size to accept
+     * @return the entry data
+     * @throws ZipException if the entry is larger than maxSize, cannot be read, or does not match its recorded size
+     *                      and CRC
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] readEntry(final Entry entry, final int maxSize) throws IOException {
+        if (entry.getSize() > maxSize) {
+            throw new ZipException("zip entry is too large: " + entry.getName());
+        }
+        byte[] data = new byte[(int) entry.getSize()];
+        InputStream stream = getInputStream(entry);
+        try {
+            int off = 0;
+            while (off < data.length) {
+                int read = stream.read(data, off, data.length - off);
+                if (read < 0) {
+                    throw new EOFException("unexpected end of zip entry: " + entry.getName());
+                }
+                off += read;
+            }
+            if (stream.read() >= 0) {
+                throw new ZipException("zip entry is larger than its recorded size: " + entry.getName());
+            }
+        } finally {
+            stream.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (crc.getValue() != entry.getCrc()) {
+            throw new ZipException("invalid CRC for zip entry: " + entry.getName());
+        }
+        return data;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void checkRecord(final int pos) throws ZipException {
+        if (pos + CEN_HEADER_SIZE > directory.limit() || directory.getInt(pos) != CEN_SIG) {
+            throw new ZipException("invalid zip central directory header: " + file);
+        }
+        if (pos + recordLength(pos) > directory.limit()) {
+            throw new ZipException("invalid zip central directory header: " + file);
+        }
+    }
+
+    private int recordLength(final int pos) {
+        return CEN_HEADER_SIZE + (directory.getShort(pos + 28) & 0xFFFF)
+                + (directory.getShort(pos + 30) & 0xFFFF) + (directory.getShort(pos + 32) & 0xFFFF);
+    }
+
+    private boolean nameEquals(final int pos, final byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (directory.get(pos + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Entry readEntry(final int pos, final String knownName) throws ZipException {
+        final int flags = directory.getShort(pos + 8) & 0xFFFF;
+        final int method = directory.getShort(pos + 10) & 0xFFFF;
+        final long crc = directory.getInt(pos + 16) & ZIP64_MAGIC;
+        long compressedSize = directory.getInt(pos + 20) & ZIP64_MAGIC;
+        long size = directory.getInt(pos + 24) & ZIP64_MAGIC;
+        final int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+        final int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+        long localHeaderOffset = directory.getInt(pos + 42) & ZIP64_MAGIC;
+
+        String name = knownName;
+        if (name == null) {
+            byte[] nameBytes = new byte[nameLength];
+            for (int i = 0; i < nameLength; i++) {
+                nameBytes[i] = directory.get(pos + CEN_HEADER_SIZE + i);
+            }
+            name = new String(nameBytes, (flags & FLAG_UTF8) != 0 ? UTF_8 : CP437);
+        }
+
+        if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+            int extraPos = pos + CEN_HEADER_SIZE + nameLength;
+            final int extraEnd = extraPos + extraLength;
+            while (extraPos + 4 <= extraEnd) {
+                final int id = directory.getShort(extraPos) & 0xFFFF;
+                final int dataSize = directory.getShort(extraPos + 2) & 0xFFFF;
+                int fieldPos = extraPos + 4;
+                final int fieldEnd = fieldPos + dataSize;
+                if (fieldEnd > extraEnd) {
+                    break;
+                }
+                if (id == ZIP64_EXTRA_ID) {
+                    if (size == ZIP64_MAGIC && fieldPos + 8 <= fieldEnd) {
+                        size = directory.getLong(fieldPos);
+                        fieldPos += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC && fieldPos + 8 <= fieldEnd) {
+                        compressedSize = directory.getLong(fieldPos);
+                        fieldPos += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC && fieldPos + 8 <= fieldEnd) {
+                        localHeaderOffset = directory.getLong(fieldPos);
+                    }
+                    break;
+                }
+                extraPos = fieldEnd;
+            }
+        }
+
+        if (size < 0 || compressedSize < 0 || localHeaderOffset < 0) {
+            throw new ZipException("invalid zip64 sizes for zip entry: " + name);
+        }
+        return new Entry(name, flags, method, crc, compressedSize, size, localHeaderOffset);
+    }
+
+    /**
+     * An entry as recorded in the central directory.
+     */
+    public static final class Entry {
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private Entry(final String name, final int flags, final int method, final long crc,
+                      final long compressedSize, final long size, final long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isEncrypted() {
+            return (flags & FLAG_ENCRYPTED) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Reads a range of the file channel with positional reads, leaving the channel position untouched.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private ChannelInputStream(final FileChannel channel, final long position, final long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of zip file");
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            long skipped = Math.max(0L, Math.min(n, remaining));
+            position += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Inflates raw deflate data, supplying the trailing dummy byte that a nowrap {@link Inflater} may need, and
+     * releasing the inflater when closed.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+        private boolean closed;
+
+        private EntryInflaterInputStream(final InputStream in, final int size) {
+            super(in, new Inflater(true), size);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("unexpected end of compressed zip entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
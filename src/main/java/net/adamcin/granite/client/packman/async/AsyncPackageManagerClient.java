@@ -33,8 +33,11 @@ import com.ning.http.client.multipart.FilePart;
 import com.ning.http.client.multipart.StringPart;
 import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
 import net.adamcin.granite.client.packman.DetailedResponse;
+import net.adamcin.granite.client.packman.DetailedResponseParser;
 import net.adamcin.granite.client.packman.DownloadResponse;
 import net.adamcin.granite.client.packman.ListResponse;
+import net.adamcin.granite.client.packman.ListResponseParser;
+import net.adamcin.granite.client.packman.ListResultListener;
 import net.adamcin.granite.client.packman.PackId;
 import net.adamcin.granite.client.packman.ResponseProgressListener;
 import net.adamcin.granite.client.packman.SimpleResponse;
@@ -42,59 +45,179 @@ import net.adamcin.granite.client.packman.UnauthorizedException;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 public final class AsyncPackageManagerClient extends AbstractPackageManagerClient {
-    private static final AsyncCompletionHandler<SimpleResponse> SIMPLE_RESPONSE_HANDLER =
-            new AsyncCompletionHandler<SimpleResponse>() {
-                @Override public SimpleResponse onCompleted(Response response) throws Exception {
-                    return AbstractPackageManagerClient.parseSimpleResponse(
-                            response.getStatusCode(),
-                            response.getStatusText(),
-                            response.getResponseBodyAsStream(),
-                            getResponseEncoding(response)
-                    );
-                }
-            };
+    private static final Executor SAME_THREAD_EXECUTOR = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
 
-    private static final AsyncCompletionHandler<SimpleResponse> SIMPLE_RESPONSE_NULLABLE_HANDLER =
-            new AsyncCompletionHandler<SimpleResponse>() {
-                @Override public SimpleResponse onCompleted(Response response) throws Exception {
-                    return AbstractPackageManagerClient.parseSimpleResponse(
-                            response.getStatusCode(),
-                            response.getStatusText(),
-                            response.getResponseBodyAsStream(),
-                            getResponseEncoding(response),
-                            true
-                    );
-                }
-            };
+    /*
+     * AsyncCompletionHandler accumulates response parts in an instance field, so a handler instance must never be
+     * shared between concurrent requests. These factories create one handler per request.
+     */
+
+    private static AsyncCompletionHandler<SimpleResponse> simpleResponseHandler(final boolean nullable) {
+        return new AsyncCompletionHandler<SimpleResponse>() {
+            @Override public SimpleResponse onCompleted(Response response) throws Exception {
+                return AbstractPackageManagerClient.parseSimpleResponse(
+                        response.getStatusCode(),
+                        response.getStatusText(),
+                        response.getResponseBodyAsStream(),
+                        getResponseEncoding(response),
+                        nullable
+                );
+            }
+        };
+    }
+
+    /**
+     * Feeds body parts to a {@link ListResponseParser} as they arrive, so that the list response body is never
+     * buffered in memory, and results are passed to the listener, if any, while the response is still being received.
+     */
+    private static class ListResponseHandler implements AsyncHandler<ListResponse> {
+        private final ListResultListener listener;
+        private ListResponseParser parser = null;
+        private int status = 200;
+        private String statusText = null;
+
+        private ListResponseHandler(ListResultListener listener) {
+            this.listener = listener;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+            this.status = status.getStatusCode();
+            this.statusText = status.getStatusText();
+            return this.status == 200 ? STATE.CONTINUE : STATE.ABORT;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            FluentCaseInsensitiveStringsMap map = headers.getHeaders();
+            this.parser = newListResponseParser(listener,
+                    getResponseEncoding(map.getFirstValue("Content-Encoding"), map.getFirstValue("Content-Type")));
+            return STATE.CONTINUE;
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+            if (this.parser == null) {
+                this.parser = newListResponseParser(listener, null);
+            }
+            this.parser.feed(content.getBodyByteBuffer());
+            return STATE.CONTINUE;
+        }
+
+        public ListResponse onCompleted() throws Exception {
+            checkListResponseStatus(status, statusText);
+            if (this.parser == null) {
+                this.parser = newListResponseParser(listener, null);
+            }
+            return this.parser.finish();
+        }
+
+        public void onThrowable(Throwable t) {
+            // do nothing
+        }
+    }
+
+    /**
+     * Feeds body parts to a {@link DetailedResponseParser} as they arrive, so that progress events are delivered while
+     * the package manager is still working and the response body is never buffered in memory.
+     */
+    private static class DetailedResponseHandler implements AsyncHandler<DetailedResponse> {
+        private final ResponseProgressListener listener;
+        private DetailedResponseParser parser = null;
+        private int status = 200;
+        private String statusText = null;
+
+        private DetailedResponseHandler(ResponseProgressListener listener) {
+            this.listener = listener;
+        }
 
-    private static final AsyncCompletionHandler<ListResponse> LIST_RESPONSE_HANDLER =
-            new AsyncCompletionHandler<ListResponse>() {
-                @Override public ListResponse onCompleted(Response response) throws Exception {
-                    return AbstractPackageManagerClient.parseListResponse(
-                            response.getStatusCode(),
-                            response.getStatusText(),
-                            response.getResponseBodyAsStream(),
-                            getResponseEncoding(response)
-                    );
+        public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+            this.status = status.getStatusCode();
+            this.statusText = status.getStatusText();
+            return this.status / 100 == 2 ? STATE.CONTINUE : STATE.ABORT;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            FluentCaseInsensitiveStringsMap map = headers.getHeaders();
+            this.parser = newDetailedResponseParser(listener,
+                    getResponseEncoding(map.getFirstValue("Content-Encoding"), map.getFirstValue("Content-Type")));
+            return STATE.CONTINUE;
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+            if (this.parser == null) {
+                this.parser = newDetailedResponseParser(listener, null);
+            }
+            this.parser.feed(content.getBodyByteBuffer());
+            return STATE.CONTINUE;
+        }
+
+        public DetailedResponse onCompleted() throws Exception {
+            checkDetailedResponseStatus(status, statusText);
+            if (this.parser == null) {
+                this.parser = newDetailedResponseParser(listener, null);
+            }
+            return this.parser.finish();
+        }
+
+        public void onThrowable(Throwable t) {
+            // do nothing
+        }
+    }
+
+    /**
+     * Adapts a {@link ListenableFuture} to a {@link CompletableFuture} without blocking a thread. Cancelling the
+     * returned future also cancels the underlying request.
+     */
+    private static <T> CompletableFuture<T> toCompletableFuture(final ListenableFuture<T> listenable) {
+        final CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override public boolean cancel(boolean mayInterruptIfRunning) {
+                listenable.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        listenable.addListener(new Runnable() {
+            public void run() {
+                try {
+                    future.complete(listenable.get());
+                } catch (ExecutionException e) {
+                    future.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
                 }
-            };
+            }
+        }, SAME_THREAD_EXECUTOR);
+
+        return future;
+    }
 
+    /**
+     * Writes body parts to a temporary file next to the destination through a {@link FileChannel}, and renames it into
+     * place once the response is complete.
+     */
     private static class DownloadResponseHandler implements AsyncHandler<DownloadResponse> {
         private final File outputFile;
-        private final FileOutputStream out;
+        private final File tempFile;
+        private final FileChannel channel;
         private Throwable responseError = null;
         private int status = 200;
 
@@ -103,12 +226,16 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 throw new IOException("Cannot download to a directory. outputFile=" + outputFile.getAbsolutePath());
             }
             this.outputFile = outputFile;
-            this.out = new FileOutputStream(this.outputFile);
+            this.tempFile = createDownloadTempFile(outputFile);
+            this.channel = FileChannel.open(this.tempFile.toPath(), StandardOpenOption.WRITE);
         }
 
         public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
             if (status == 200) {
-                content.writeTo(this.out);
+                ByteBuffer buffer = content.getBodyByteBuffer();
+                while (buffer.hasRemaining()) {
+                    this.channel.write(buffer);
+                }
             }
             return STATE.CONTINUE;
         }
@@ -123,19 +250,83 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
         }
 
         public DownloadResponse onCompleted() throws Exception {
-            IOUtils.closeQuietly(this.out);
-            if (this.responseError != null) {
-                this.outputFile.delete();
-                throw new IOException("Encountered error in response.", this.responseError);
-            } else if (status != 200) {
-                this.outputFile.delete();
-                throw new IOException("Invalid response status: " + status);
+            try {
+                if (this.responseError != null) {
+                    throw new IOException("Encountered error in response.", this.responseError);
+                } else if (status != 200) {
+                    throw new IOException("Invalid response status: " + status);
+                }
+                this.channel.force(false);
+                this.channel.close();
+                moveAtomically(this.tempFile, this.outputFile);
+            } finally {
+                IOUtils.closeQuietly(this.channel);
+                this.tempFile.delete();
             }
             return AbstractPackageManagerClient.createDownloadResponse(this.outputFile);
         }
 
         public void onThrowable(Throwable t) {
-            IOUtils.closeQuietly(this.out);
+            IOUtils.closeQuietly(this.channel);
+            this.tempFile.delete();
+        }
+    }
+
+    /**
+     * Writes the body parts of a response to a download range request directly into the part file at the requested
+     * position.
+     */
+    private static class RangeResponseHandler implements AsyncHandler<RangeResponse> {
+        private final FileChannel channel;
+        private final long first;
+        private final boolean acceptFull;
+        private int status = 206;
+        private String statusText = null;
+        private String contentRange = null;
+        private String validator = null;
+        private long position;
+        private long length = 0L;
+
+        private RangeResponseHandler(FileChannel channel, long first, boolean acceptFull) {
+            this.channel = channel;
+            this.first = first;
+            this.acceptFull = acceptFull;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+            this.status = status.getStatusCode();
+            this.statusText = status.getStatusText();
+            this.position = this.status == 206 ? first : 0L;
+            return this.status == 206 || (this.status == 200 && acceptFull) ? STATE.CONTINUE : STATE.ABORT;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            FluentCaseInsensitiveStringsMap map = headers.getHeaders();
+            this.contentRange = map.getFirstValue("Content-Range");
+            this.validator = map.getFirstValue("ETag");
+            if (this.validator == null) {
+                this.validator = map.getFirstValue("Last-Modified");
+            }
+            return STATE.CONTINUE;
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+            ByteBuffer buffer = content.getBodyByteBuffer();
+            while (buffer.hasRemaining()) {
+                int written = this.channel.write(buffer, this.position);
+                this.position += written;
+                this.length += written;
+            }
+            return STATE.CONTINUE;
+        }
+
+        public RangeResponse onCompleted() throws Exception {
+            checkRangeResponseStatus(status, statusText, acceptFull);
+            return createRangeResponse(status, contentRange, validator, first, length);
+        }
+
+        public void onThrowable(Throwable t) {
+            // do nothing
         }
     }
 
@@ -160,6 +351,8 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
 
     private Realm realm = null;
 
+    private volatile ServiceProbe serviceProbe;
+
     public AsyncPackageManagerClient() {
         this(new AsyncHttpClient());
     }
@@ -177,6 +370,7 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
 
     public void setRealm(Realm realm) {
         this.realm = realm;
+        this.serviceProbe = null;
     }
 
     public Realm getRealm() {
@@ -184,6 +378,7 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
     }
 
     private void setCookies(Collection<Cookie> cookies) {
+        this.serviceProbe = null;
         this.cookies.clear();
 
         if (cookies != null) {
@@ -219,6 +414,7 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
 
     @Override
     public void preemptLogin(String username, String password) {
+         this.serviceProbe = null;
          if (username == null || password == null) {
              this.realm = null;
          } else {
@@ -261,43 +457,34 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
         return this.client.executeRequest(request, AUTHORIZED_RESPONSE_HANDLER);
     }
 
+    private <T> T await(ListenableFuture<T> fResponse)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
+    }
+
     private SimpleResponse executeSimpleRequest(Request request)
             throws IOException, InterruptedException, ExecutionException, TimeoutException {
-
-        ListenableFuture<SimpleResponse> fResponse = this.client.executeRequest(request, SIMPLE_RESPONSE_HANDLER);
-        return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
+        return await(this.client.executeRequest(request, simpleResponseHandler(false)));
     }
 
     private DetailedResponse executeDetailedRequest(final Request request, final ResponseProgressListener listener)
         throws IOException, InterruptedException, ExecutionException, TimeoutException {
-
-        ListenableFuture<DetailedResponse> fResponse = this.client.executeRequest(request, new AsyncCompletionHandler<DetailedResponse>(){
-            @Override public DetailedResponse onCompleted(Response response) throws Exception {
-                return AbstractPackageManagerClient.parseDetailedResponse(
-                        response.getStatusCode(),
-                        response.getStatusText(),
-                        response.getResponseBodyAsStream(),
-                        getResponseEncoding(response),
-                        listener
-                );
-            }
-        });
-
-        return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
+        return await(this.client.executeRequest(request, new DetailedResponseHandler(listener)));
     }
 
-    private ListResponse executeListRequest(Request request)
+    private ListResponse executeListRequest(Request request, ListResultListener listener)
             throws IOException, InterruptedException, ExecutionException, TimeoutException {
-
-        ListenableFuture<ListResponse> fResponse = this.client.executeRequest(request, LIST_RESPONSE_HANDLER);
-        return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
+        return await(this.client.executeRequest(request, new ListResponseHandler(listener)));
     }
 
     private DownloadResponse executeDownloadRequest(Request request, File outputFile)
             throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        return await(this.client.executeRequest(request, new DownloadResponseHandler(outputFile)));
+    }
 
-        ListenableFuture<DownloadResponse> fResponse = this.client.executeRequest(request, new DownloadResponseHandler(outputFile));
-        return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
+    private RangeResponse executeRangeRequest(Request request, FileChannel channel, long first, boolean acceptFull)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        return await(this.client.executeRequest(request, new RangeResponseHandler(channel, first, acceptFull)));
     }
 
     private AsyncHttpClient.BoundRequestBuilder addContext(AsyncHttpClient.BoundRequestBuilder builder) {
@@ -317,12 +504,17 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
      */
     protected final Either<? extends Exception, Boolean> checkServiceAvailability(final boolean checkTimeout,
                                                                                   final long timeoutRemaining) {
-        final Request request = getResponseBuilder().forPackId(NO_SUCH_PACK_ID).withParam(KEY_CMD, CMD_DELETE)
-                .getJsonUrlRequest().build();
+        ServiceProbe probe = this.serviceProbe;
+        if (probe == null || !probe.baseUrl.equals(getBaseUrl())) {
+            probe = new ServiceProbe(getBaseUrl(), getResponseBuilder().forPackId(NO_SUCH_PACK_ID)
+                    .withParam(KEY_CMD, CMD_DELETE).getJsonUrlRequest().build());
+            this.serviceProbe = probe;
+        }
+        final Request request = probe.request;
 
         try {
             final ListenableFuture<SimpleResponse> future =
-                    this.client.executeRequest(request, SIMPLE_RESPONSE_NULLABLE_HANDLER);
+                    this.client.executeRequest(request, simpleResponseHandler(true));
 
             SimpleResponse response = null;
             if (checkTimeout) {
@@ -339,6 +531,20 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
         }
     }
 
+    /**
+     * The service availability probe prepared once per base URL and login context. Requests are immutable, so
+     * repeated probes by waitForService are sent as is over a kept-alive connection.
+     */
+    private static final class ServiceProbe {
+        private final String baseUrl;
+        private final Request request;
+
+        private ServiceProbe(String baseUrl, Request request) {
+            this.baseUrl = baseUrl;
+            this.request = request;
+        }
+    }
+
     private AsyncHttpClient.BoundRequestBuilder buildSimpleRequest(PackId packageId) {
         if (packageId != null) {
             return this.addContext(this.client.preparePost(getJsonUrl(packageId)));
@@ -368,10 +574,13 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
     }
 
     private static String getResponseEncoding(Response response) {
-        String encoding = response.getHeader("Content-Encoding");
+        return getResponseEncoding(response.getHeader("Content-Encoding"), response.getContentType());
+    }
+
+    private static String getResponseEncoding(String contentEncoding, String contentType) {
+        String encoding = contentEncoding;
 
         if (encoding == null) {
-            String contentType = response.getContentType();
             if (contentType != null) {
                 int charsetBegin = contentType.toLowerCase().indexOf(";charset=");
                 if (charsetBegin >= 0) {
@@ -458,14 +667,11 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
             return requestBuilder;
         }
 
-        @Override
-        public SimpleResponse getSimpleResponse() throws Exception {
-            AsyncHttpClient.BoundRequestBuilder requestBuilder = getJsonUrlRequest();
-            return executeSimpleRequest(requestBuilder.build());
+        Request createSimpleRequest() {
+            return getJsonUrlRequest().build();
         }
 
-        @Override
-        public SimpleResponse getUpdateResponse() throws Exception {
+        Request createUpdateRequest() {
             AsyncHttpClient.BoundRequestBuilder requestBuilder = buildUpdateRequest();
             for (Map.Entry<String, String> param : this.stringParams.entrySet()) {
                 requestBuilder.addBodyPart(
@@ -477,11 +683,10 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 requestBuilder.addBodyPart(param.getValue());
             }
 
-            return executeSimpleRequest(requestBuilder.build());
+            return requestBuilder.build();
         }
 
-        @Override
-        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener) throws Exception {
+        Request createDetailedRequest() {
             AsyncHttpClient.BoundRequestBuilder requestBuilder = buildDetailedRequest(packId);
             for (Map.Entry<String, String> param : this.stringParams.entrySet()) {
                 if (this.fileParams.isEmpty()) {
@@ -495,11 +700,10 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 requestBuilder.addBodyPart(param.getValue());
             }
 
-            return executeDetailedRequest(requestBuilder.build(), listener);
+            return requestBuilder.build();
         }
 
-        @Override
-        protected ListResponse getListResponse() throws Exception {
+        Request createListRequest() {
             AsyncHttpClient.BoundRequestBuilder requestBuilder = buildListRequest();
             if (packId != null) {
                 requestBuilder.addQueryParam(KEY_PATH, packId.getInstallationPath() + ".zip");
@@ -509,11 +713,10 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 requestBuilder.addQueryParam(param.getKey(), param.getValue());
             }
 
-            return executeListRequest(requestBuilder.build());
+            return requestBuilder.build();
         }
 
-        @Override
-        protected DownloadResponse getDownloadResponse(File file) throws Exception {
+        Request createDownloadRequest() {
             AsyncHttpClient.BoundRequestBuilder requestBuilder = buildDownloadRequest();
             if (packId != null) {
                 requestBuilder.addQueryParam(KEY_PATH, packId.getInstallationPath() + ".zip");
@@ -523,7 +726,93 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 requestBuilder.addQueryParam(param.getKey(), param.getValue());
             }
 
-            return executeDownloadRequest(requestBuilder.build(), file);
+            return requestBuilder.build();
+        }
+
+        /**
+         * Non-blocking requests can not rely on a timed {@code get()}, so the client request timeout is applied
+         * to the request itself.
+         */
+        private Request withTimeout(Request request) {
+            if (getRequestTimeout() >= 0L) {
+                return new RequestBuilder(request)
+                        .setRequestTimeout((int) Math.min(Integer.MAX_VALUE, getRequestTimeout())).build();
+            }
+            return request;
+        }
+
+        @Override
+        public SimpleResponse getSimpleResponse() throws Exception {
+            return executeSimpleRequest(createSimpleRequest());
+        }
+
+        @Override
+        public SimpleResponse getUpdateResponse() throws Exception {
+            return executeSimpleRequest(createUpdateRequest());
+        }
+
+        @Override
+        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener) throws Exception {
+            return executeDetailedRequest(createDetailedRequest(), listener);
+        }
+
+        @Override
+        protected ListResponse getListResponse() throws Exception {
+            return executeListRequest(createListRequest(), null);
+        }
+
+        @Override
+        protected ListResponse getListResponse(ListResultListener listener) throws Exception {
+            return executeListRequest(createListRequest(), listener);
+        }
+
+        @Override
+        protected DownloadResponse getDownloadResponse(File file) throws Exception {
+            return executeDownloadRequest(createDownloadRequest(), file);
+        }
+
+        @Override
+        protected RangeResponse getRangeResponse(long first, long last, FileChannel channel, boolean acceptFull)
+                throws Exception {
+            Request request = new RequestBuilder(createDownloadRequest())
+                    .setHeader("Range", "bytes=" + first + "-" + last).build();
+            return executeRangeRequest(request, channel, first, acceptFull);
+        }
+
+        @Override
+        protected CompletableFuture<SimpleResponse> getSimpleResponseAsync(Executor executor) {
+            return toCompletableFuture(client.executeRequest(withTimeout(createSimpleRequest()),
+                    simpleResponseHandler(false)));
+        }
+
+        @Override
+        protected CompletableFuture<SimpleResponse> getUpdateResponseAsync(Executor executor) {
+            return toCompletableFuture(client.executeRequest(withTimeout(createUpdateRequest()),
+                    simpleResponseHandler(false)));
+        }
+
+        @Override
+        protected CompletableFuture<DetailedResponse> getDetailedResponseAsync(ResponseProgressListener listener,
+                                                                               Executor executor) {
+            return toCompletableFuture(client.executeRequest(withTimeout(createDetailedRequest()),
+                    new DetailedResponseHandler(listener)));
+        }
+
+        @Override
+        protected CompletableFuture<ListResponse> getListResponseAsync(Executor executor) {
+            return toCompletableFuture(client.executeRequest(withTimeout(createListRequest()),
+                    new ListResponseHandler(null)));
+        }
+
+        @Override
+        protected CompletableFuture<DownloadResponse> getDownloadResponseAsync(File file, Executor executor) {
+            final DownloadResponseHandler handler;
+            try {
+                handler = new DownloadResponseHandler(file);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+            return toCompletableFuture(client.executeRequest(withTimeout(createDownloadRequest()), handler));
         }
     }
 }
@@ -0,0 +1,159 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman.deploy;
+
+import net.adamcin.granite.client.packman.DetailedResponse;
+import net.adamcin.granite.client.packman.PackageManagerClient;
+import net.adamcin.granite.client.packman.SimpleResponse;
+
+/**
+ * The outcome of a {@link PackageDeployer} run against a single target.
+ */
+public final class DeployResult {
+
+    /**
+     * The step at which the deployment to a target stopped.
+     */
+    public enum Stage {
+        /**
+         * The package was uploaded, installed, and verified.
+         */
+        SUCCESS,
+        /**
+         * The upload was rejected or failed.
+         */
+        UPLOAD,
+        /**
+         * The install was rejected or failed.
+         */
+        INSTALL,
+        /**
+         * The package was installed, but the service did not become available or the package was not found
+         * afterward.
+         */
+        VERIFY,
+        /**
+         * The target was not attempted because an earlier target failed under {@link FailurePolicy#STOP}.
+         */
+        SKIPPED
+    }
+
+    private final PackageManagerClient target;
+    private final Stage stage;
+    private final String message;
+    private final Exception cause;
+    private final SimpleResponse uploadResponse;
+    private final DetailedResponse installResponse;
+    private final long duration;
+
+    private DeployResult(PackageManagerClient target, Stage stage, String message, Exception cause,
+                         SimpleResponse uploadResponse, DetailedResponse installResponse, long duration) {
+        this.target = target;
+        this.stage = stage;
+        this.message = message;
+        this.cause = cause;
+        this.uploadResponse = uploadResponse;
+        this.installResponse = installResponse;
+        this.duration = duration;
+    }
+
+    public PackageManagerClient getTarget() {
+        return target;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public boolean isSuccess() {
+        return stage == Stage.SUCCESS;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the exception thrown by the client, or {@code null} if the failure was reported by the service
+     */
+    public Exception getCause() {
+        return cause;
+    }
+
+    /**
+     * @return the upload response, or {@code null} if the upload did not complete
+     */
+    public SimpleResponse getUploadResponse() {
+        return uploadResponse;
+    }
+
+    /**
+     * @return the install response, or {@code null} if the install did not complete
+     */
+    public DetailedResponse getInstallResponse() {
+        return installResponse;
+    }
+
+    /**
+     * @return elapsed time in milliseconds spent on this target
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "DeployResult{" +
+                "target=" + target.getBaseUrl() +
+                ", stage=" + stage +
+                ", message='" + message + '\'' +
+                ", duration=" + duration +
+                '}';
+    }
+
+    static DeployResult success(PackageManagerClient target, SimpleResponse uploadResponse,
+                                DetailedResponse installResponse, long duration) {
+        return new DeployResult(target, Stage.SUCCESS, installResponse.getMessage(), null,
+                uploadResponse, installResponse, duration);
+    }
+
+    static DeployResult failed(PackageManagerClient target, Stage stage, String message,
+                               SimpleResponse uploadResponse, DetailedResponse installResponse, long duration) {
+        return new DeployResult(target, stage, message, null, uploadResponse, installResponse, duration);
+    }
+
+    static DeployResult failed(PackageManagerClient target, Stage stage, Exception cause,
+                               SimpleResponse uploadResponse, DetailedResponse installResponse, long duration) {
+        return new DeployResult(target, stage, String.valueOf(cause.getMessage()), cause,
+                uploadResponse, installResponse, duration);
+    }
+
+    static DeployResult skipped(PackageManagerClient target) {
+        return new DeployResult(target, Stage.SKIPPED, "Skipped after an earlier failure", null, null, null, 0L);
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman.deploy;
+
+import net.adamcin.granite.client.packman.ACHandling;
+import net.adamcin.granite.client.packman.DetailedResponse;
+import net.adamcin.granite.client.packman.PackId;
+import net.adamcin.granite.client.packman.PackageManagerClient;
+import net.adamcin.granite.client.packman.ResponseProgressListener;
+import net.adamcin.granite.client.packman.SimpleResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deploys a single package to many servers in parallel. For each target, the package is uploaded, installed, and
+ * then verified using the {@link PackageManagerClient} methods, so any transport may be used for any target.
+ * <p>
+ * The package is identified once per deployment rather than once per target. Results are reported for every
+ * target, in the same order as the targets were provided.
+ */
+public final class PackageDeployer {
+
+    private final List<PackageManagerClient> targets;
+    private int parallelism = 4;
+    private FailurePolicy failurePolicy = FailurePolicy.CONTINUE;
+    private boolean force = true;
+    private boolean recursive = true;
+    private int autosave = 1024;
+    private ACHandling acHandling = null;
+    private boolean waitForService = true;
+    private boolean skipUnchanged = false;
+    private ResponseProgressListener listener = null;
+    private Executor executor = null;
+
+    public PackageDeployer(Collection<? extends PackageManagerClient> targets) {
+        if (targets == null) {
+            throw new NullPointerException("targets");
+        }
+        this.targets = Collections.unmodifiableList(new ArrayList<PackageManagerClient>(targets));
+    }
+
+    public List<PackageManagerClient> getTargets() {
+        return targets;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism maximum number of targets to deploy to at the same time
+     * @return this
+     */
+    public PackageDeployer setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public FailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    public PackageDeployer setFailurePolicy(FailurePolicy failurePolicy) {
+        if (failurePolicy == null) {
+            throw new NullPointerException("failurePolicy");
+        }
+        this.failurePolicy = failurePolicy;
+        return this;
+    }
+
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * @param force set to {@code true} to replace an existing package with the same id on each target
+     * @return this
+     */
+    public PackageDeployer setForce(boolean force) {
+        this.force = force;
+        return this;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * @param recursive set to {@code true} to also install subpackages
+     * @return this
+     */
+    public PackageDeployer setRecursive(boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    public int getAutosave() {
+        return autosave;
+    }
+
+    /**
+     * @param autosave number of changes between session saves
+     * @return this
+     */
+    public PackageDeployer setAutosave(int autosave) {
+        this.autosave = autosave;
+        return this;
+    }
+
+    public ACHandling getACHandling() {
+        return acHandling;
+    }
+
+    /**
+     * @param acHandling Access Control Handling value. Unspecified if {@code null}.
+     * @return this
+     */
+    public PackageDeployer setACHandling(ACHandling acHandling) {
+        this.acHandling = acHandling;
+        return this;
+    }
+
+    public boolean isWaitForService() {
+        return waitForService;
+    }
+
+    /**
+     * @param waitForService set to {@code true} to call {@link PackageManagerClient#waitForService()} on each target
+     *                       after installing and before verifying
+     * @return this
+     */
+    public PackageDeployer setWaitForService(boolean waitForService) {
+        this.waitForService = waitForService;
+        return this;
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    /**
+     * @param skipUnchanged set to {@code true} to upload with
+     *                      {@link PackageManagerClient#uploadIfChanged(File, boolean, PackId)}, which skips the
+     *                      transfer to targets that already have the identical package
+     * @return this
+     */
+    public PackageDeployer setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+        return this;
+    }
+
+    public ResponseProgressListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener install progress listener. It is called concurrently for different targets, so it must be
+     *                 thread-safe.
+     * @return this
+     */
+    public PackageDeployer setListener(ResponseProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor executor to run deployments on. If {@code null}, a thread pool sized to the parallelism is
+     *                 created for each deployment and shut down afterward. Parallelism is enforced either way.
+     * @return this
+     */
+    public PackageDeployer setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Identify the package and deploy it to all targets.
+     * @param file the package file
+     * @return one result per target, in target order
+     * @throws IOException if the file is not a package
+     * @throws InterruptedException if interrupted while waiting for the deployments to finish
+     */
+    public List<DeployResult> deploy(File file) throws IOException, InterruptedException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        PackId packageId = PackId.identifyPackage(file);
+        if (packageId == null) {
+            throw new IOException("Failed to identify package: " + file.getAbsolutePath());
+        }
+        return deploy(file, packageId);
+    }
+
+    /**
+     * Deploy the package to all targets.
+     * @param file the package file
+     * @param packageId the package id
+     * @return one result per target, in target order
+     * @throws InterruptedException if interrupted while waiting for the deployments to finish
+     */
+    public List<DeployResult> deploy(final File file, final PackId packageId) throws InterruptedException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+
+        final DeployResult[] results = new DeployResult[targets.size()];
+        if (results.length == 0) {
+            return Collections.emptyList();
+        }
+
+        final ExecutorService ownExecutor = executor == null
+                ? Executors.newFixedThreadPool(Math.min(parallelism, results.length), new DeployerThreadFactory())
+                : null;
+        final Executor _executor = ownExecutor != null ? ownExecutor : executor;
+
+        final Semaphore permits = new Semaphore(parallelism);
+        final CountDownLatch done = new CountDownLatch(results.length);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        try {
+            for (int i = 0; i < results.length; i++) {
+                final int index = i;
+                final PackageManagerClient target = targets.get(index);
+
+                permits.acquire();
+                if (failurePolicy == FailurePolicy.STOP && failed.get()) {
+                    permits.release();
+                    results[index] = DeployResult.skipped(target);
+                    done.countDown();
+                    continue;
+                }
+
+                try {
+                    _executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                DeployResult result = deployTo(target, file, packageId);
+                                if (!result.isSuccess()) {
+                                    failed.set(true);
+                                }
+                                results[index] = result;
+                            } finally {
+                                permits.release();
+                                done.countDown();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    failed.set(true);
+                    results[index] = DeployResult.failed(target, DeployResult.Stage.UPLOAD, e, null, null, 0L);
+                    done.countDown();
+                }
+            }
+
+            done.await();
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    private DeployResult deployTo(final PackageManagerClient target, final File file, final PackId packageId) {
+        final long start = System.currentTimeMillis();
+        DeployResult.Stage stage = DeployResult.Stage.UPLOAD;
+        SimpleResponse uploadResponse = null;
+        DetailedResponse installResponse = null;
+
+        try {
+            uploadResponse = skipUnchanged
+                    ? target.uploadIfChanged(file, force, packageId)
+                    : target.upload(file, force, packageId);
+            if (!uploadResponse.isSuccess()) {
+                return DeployResult.failed(target, stage, uploadResponse.getMessage(),
+                        uploadResponse, null, System.currentTimeMillis() - start);
+            }
+
+            stage = DeployResult.Stage.INSTALL;
+            installResponse = target.install(packageId, recursive, autosave, acHandling, listener);
+            if (!installResponse.isSuccess()) {
+                return DeployResult.failed(target, stage, installResponse.getMessage(),
+                        uploadResponse, installResponse, System.currentTimeMillis() - start);
+            }
+
+            stage = DeployResult.Stage.VERIFY;
+            if (waitForService && !target.waitForService()) {
+                return DeployResult.failed(target, stage, "Service unavailable after install",
+                        uploadResponse, installResponse, System.currentTimeMillis() - start);
+            }
+            if (!target.existsOnServer(packageId)) {
+                return DeployResult.failed(target, stage, "Package not found after install",
+                        uploadResponse, installResponse, System.currentTimeMillis() - start);
+            }
+
+            return DeployResult.success(target, uploadResponse, installResponse, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return DeployResult.failed(target, stage, e, uploadResponse, installResponse,
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    private static final class DeployerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+        private final int pool = POOL_COUNT.incrementAndGet();
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "packman-deployer-" + pool + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -31,14 +31,17 @@ import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
 import net.adamcin.granite.client.packman.DetailedResponse;
 import net.adamcin.granite.client.packman.DownloadResponse;
 import net.adamcin.granite.client.packman.ListResponse;
+import net.adamcin.granite.client.packman.ListResultListener;
 import net.adamcin.granite.client.packman.PackId;
 import net.adamcin.granite.client.packman.ResponseProgressListener;
 import net.adamcin.granite.client.packman.SimpleResponse;
 import net.adamcin.granite.client.packman.UnauthorizedException;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -51,6 +54,7 @@ import org.apache.commons.httpclient.methods.multipart.StringPart;
 import java.io.File;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -59,6 +63,7 @@ import java.util.Map;
 
 public final class Http3PackageManagerClient extends AbstractPackageManagerClient {
     private final HttpClient client;
+    private volatile ServiceProbe serviceProbe;
 
     public Http3PackageManagerClient() {
         this(new HttpClient());
@@ -76,8 +81,15 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
     protected Either<? extends Exception, Boolean> checkServiceAvailability(final boolean checkTimeout,
                                                                             final long timeoutRemaining) {
 
-        final PostMethod request =
-                getResponseBuilder().forPackId(NO_SUCH_PACK_ID).withParam(KEY_CMD, CMD_DELETE).getJsonUrlRequest();
+        ServiceProbe probe = this.serviceProbe;
+        if (probe == null || !probe.baseUrl.equals(getBaseUrl())) {
+            Http3ResponseBuilder builder = getResponseBuilder().forPackId(NO_SUCH_PACK_ID).withParam(KEY_CMD, CMD_DELETE);
+            probe = new ServiceProbe(getBaseUrl(), getJsonUrl(NO_SUCH_PACK_ID), builder.getParts());
+            this.serviceProbe = probe;
+        }
+
+        final PostMethod request = new PostMethod(probe.url);
+        request.setRequestEntity(new MultipartRequestEntity(probe.parts, request.getParams()));
 
         final int oldTimeout = getClient().getHttpConnectionManager().getParams().getConnectionTimeout();
         if (checkTimeout) {
@@ -161,12 +173,14 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                 listener);
     }
 
-    private ListResponse executeListRequest(final HttpMethodBase request) throws IOException {
+    private ListResponse executeListRequest(final HttpMethodBase request, final ListResultListener listener)
+            throws IOException {
         int status = getClient().executeMethod(request);
         return parseListResponse(status,
                 request.getStatusText(),
                 request.getResponseBodyAsStream(),
-                request.getResponseCharSet());
+                request.getResponseCharSet(),
+                listener);
     }
 
     private DownloadResponse executeDownloadRequest(final HttpMethodBase request, final File outputFile) throws IOException {
@@ -177,6 +191,45 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                 outputFile);
     }
 
+    private RangeResponse executeRangeRequest(final HttpMethodBase request, final FileChannel channel,
+                                              final long first, final boolean acceptFull) throws IOException {
+        int status = getClient().executeMethod(request);
+        return parseRangeResponse(status,
+                request.getStatusText(),
+                getHeaderValue(request, "Content-Range"),
+                getValidator(request),
+                request.getResponseBodyAsStream(),
+                channel,
+                first,
+                acceptFull);
+    }
+
+    private static String getHeaderValue(final HttpMethodBase request, final String name) {
+        Header header = request.getResponseHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private static String getValidator(final HttpMethodBase request) {
+        String etag = getHeaderValue(request, "ETag");
+        return etag != null ? etag : getHeaderValue(request, "Last-Modified");
+    }
+
+    /**
+     * The service availability probe prepared once per base URL. String parts can be written any number of times, so
+     * repeated probes by waitForService skip the response builder.
+     */
+    private static final class ServiceProbe {
+        private final String baseUrl;
+        private final String url;
+        private final Part[] parts;
+
+        private ServiceProbe(String baseUrl, String url, Part[] parts) {
+            this.baseUrl = baseUrl;
+            this.url = url;
+            this.parts = parts;
+        }
+    }
+
     @Override
     protected Http3ResponseBuilder getResponseBuilder() {
         return new Http3ResponseBuilder().withParam(KEY_CHARSET, getCharset().name())
@@ -217,9 +270,7 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
             return this;
         }
 
-        PostMethod getJsonUrlRequest() {
-            PostMethod request = new PostMethod(getJsonUrl(this.packId));
-
+        Part[] getParts() {
             List<Part> parts = new ArrayList<Part>();
 
             for (NameValuePair part : this.stringParams.values()) {
@@ -230,8 +281,13 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                 parts.add(part);
             }
 
-            request.setRequestEntity(new MultipartRequestEntity(parts.toArray(new Part[parts.size()]),
-                    request.getParams()));
+            return parts.toArray(new Part[parts.size()]);
+        }
+
+        PostMethod getJsonUrlRequest() {
+            PostMethod request = new PostMethod(getJsonUrl(this.packId));
+
+            request.setRequestEntity(new MultipartRequestEntity(getParts(), request.getParams()));
 
             return request;
         }
@@ -298,6 +354,11 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
 
         @Override
         protected ListResponse getListResponse() throws Exception {
+            return getListResponse((ListResultListener) null);
+        }
+
+        @Override
+        protected ListResponse getListResponse(ListResultListener listener) throws Exception {
 
             StringBuilder qs = new StringBuilder();
 
@@ -316,14 +377,13 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
             GetMethod request = new GetMethod(getListUrl() + qs.substring(0, qs.length() - 1));
 
             try {
-                return executeListRequest(request);
+                return executeListRequest(request, listener);
             } finally {
                 request.releaseConnection();
             }
         }
 
-        @Override
-        protected DownloadResponse getDownloadResponse(File outputFile) throws Exception {
+        private String getDownloadRequestUrl() throws IOException {
             StringBuilder qs = new StringBuilder();
 
             qs.append("?");
@@ -338,7 +398,12 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                         .append(URLEncoder.encode(pair.getValue(), getCharset().name())).append("&");
             }
 
-            GetMethod request = new GetMethod(getDownloadUrl() + qs.substring(0, qs.length() - 1));
+            return getDownloadUrl() + qs.substring(0, qs.length() - 1);
+        }
+
+        @Override
+        protected DownloadResponse getDownloadResponse(File outputFile) throws Exception {
+            GetMethod request = new GetMethod(getDownloadRequestUrl());
 
             try {
                 return executeDownloadRequest(request, outputFile);
@@ -346,5 +411,22 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                 request.releaseConnection();
             }
         }
+
+        @Override
+        protected RangeResponse getRangeResponse(long first, long last, FileChannel channel, boolean acceptFull)
+                throws Exception {
+            if (getClient().getHttpConnectionManager() instanceof SimpleHttpConnectionManager) {
+                // a single connection can not be shared by concurrent segment requests
+                return null;
+            }
+            GetMethod request = new GetMethod(getDownloadRequestUrl());
+            request.setRequestHeader("Range", "bytes=" + first + "-" + last);
+
+            try {
+                return executeRangeRequest(request, channel, first, acceptFull);
+            } finally {
+                request.releaseConnection();
+            }
+        }
     }
 }
@@ -31,11 +31,13 @@ import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
 import net.adamcin.granite.client.packman.DetailedResponse;
 import net.adamcin.granite.client.packman.DownloadResponse;
 import net.adamcin.granite.client.packman.ListResponse;
+import net.adamcin.granite.client.packman.ListResultListener;
 import net.adamcin.granite.client.packman.PackId;
 import net.adamcin.granite.client.packman.ResponseProgressListener;
 import net.adamcin.granite.client.packman.SimpleResponse;
 import net.adamcin.granite.client.packman.UnauthorizedException;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
@@ -46,11 +48,13 @@ import org.apache.http.client.AuthCache;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
@@ -58,23 +62,29 @@ import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-public final class Http4PackageManagerClient extends AbstractPackageManagerClient {
+public final class Http4PackageManagerClient extends AbstractPackageManagerClient implements Closeable {
     private static final ResponseHandler<SimpleResponse> SIMPLE_RESPONSE_HANDLER =
             new ResponseHandler<SimpleResponse>() {
                 public SimpleResponse handleResponse(final HttpResponse response)
@@ -102,19 +112,27 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                 }
             };
 
-    private static final ResponseHandler<ListResponse> LIST_RESPONSE_HANDLER =
-            new ResponseHandler<ListResponse>() {
-                public ListResponse handleResponse(final HttpResponse response)
-                        throws ClientProtocolException, IOException {
-                    StatusLine statusLine = response.getStatusLine();
-                    return parseListResponse(
-                            statusLine.getStatusCode(),
-                            statusLine.getReasonPhrase(),
-                            response.getEntity().getContent(),
-                            getResponseEncoding(response)
-                    );
-                }
-            };
+    private static final ResponseHandler<ListResponse> LIST_RESPONSE_HANDLER = new ListResponseHandler(null);
+
+    private static class ListResponseHandler implements ResponseHandler<ListResponse> {
+        private final ListResultListener listener;
+
+        private ListResponseHandler(ListResultListener listener) {
+            this.listener = listener;
+        }
+
+        public ListResponse handleResponse(final HttpResponse response)
+                throws ClientProtocolException, IOException {
+            StatusLine statusLine = response.getStatusLine();
+            return parseListResponse(
+                    statusLine.getStatusCode(),
+                    statusLine.getReasonPhrase(),
+                    response.getEntity().getContent(),
+                    getResponseEncoding(response),
+                    listener
+            );
+        }
+    }
 
     private static class DownloadResponseHandler implements ResponseHandler<DownloadResponse> {
         private final File outputFile;
@@ -134,6 +152,58 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         }
     }
 
+    private static class RangeResponseHandler implements ResponseHandler<RangeResponse> {
+        private final FileChannel channel;
+        private final long first;
+        private final boolean acceptFull;
+
+        private RangeResponseHandler(FileChannel channel, long first, boolean acceptFull) {
+            this.channel = channel;
+            this.first = first;
+            this.acceptFull = acceptFull;
+        }
+
+        public RangeResponse handleResponse(final HttpResponse response)
+                throws ClientProtocolException, IOException {
+            StatusLine statusLine = response.getStatusLine();
+            return parseRangeResponse(
+                    statusLine.getStatusCode(),
+                    statusLine.getReasonPhrase(),
+                    getHeaderValue(response, "Content-Range"),
+                    getValidator(response),
+                    response.getEntity() != null ? response.getEntity().getContent() : null,
+                    this.channel,
+                    this.first,
+                    this.acceptFull);
+        }
+    }
+
+    /**
+     * The service availability probe prepared once per base URL. The multipart entity is repeatable, so repeated
+     * probes by waitForService only need a new request line on an already pooled connection.
+     */
+    private static final class ServiceProbe {
+        private final String baseUrl;
+        private final URI uri;
+        private final HttpEntity entity;
+
+        private ServiceProbe(String baseUrl, URI uri, HttpEntity entity) {
+            this.baseUrl = baseUrl;
+            this.uri = uri;
+            this.entity = entity;
+        }
+    }
+
+    private static String getHeaderValue(final HttpResponse response, final String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private static String getValidator(final HttpResponse response) {
+        String etag = getHeaderValue(response, "ETag");
+        return etag != null ? etag : getHeaderValue(response, "Last-Modified");
+    }
+
     private static final ResponseHandler<HttpResponse> AUTHORIZED_RESPONSE_HANDLER =
             new ResponseHandler<HttpResponse>() {
                 public HttpResponse handleResponse(final HttpResponse response)
@@ -146,23 +216,193 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                 }
             };
 
-    private final AbstractHttpClient client;
+    /**
+     * Connection pool and keep-alive settings used to build the default {@link CloseableHttpClient}. Concurrent
+     * requests from a shared {@link Http4PackageManagerClient} lease persistent connections from the pool rather
+     * than serializing on a single connection or reconnecting for every request.
+     */
+    public static final class ConnectionOptions {
+        private int maxTotal = 20;
+        private int maxPerRoute = 10;
+        private long idleTimeout = 30000L;
+        private long keepAlive = 30000L;
+        private int validateAfterInactivity = 2000;
+
+        public int getMaxTotal() {
+            return maxTotal;
+        }
+
+        /**
+         * @param maxTotal maximum number of pooled connections across all routes
+         * @return this
+         */
+        public ConnectionOptions setMaxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        public int getMaxPerRoute() {
+            return maxPerRoute;
+        }
+
+        /**
+         * @param maxPerRoute maximum number of pooled connections to a single server
+         * @return this
+         */
+        public ConnectionOptions setMaxPerRoute(int maxPerRoute) {
+            this.maxPerRoute = maxPerRoute;
+            return this;
+        }
+
+        public long getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        /**
+         * @param idleTimeout time in milliseconds after which idle pooled connections are evicted by a background
+         *                    thread. Set to a negative number or zero to disable eviction.
+         * @return this
+         */
+        public ConnectionOptions setIdleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public long getKeepAlive() {
+            return keepAlive;
+        }
+
+        /**
+         * @param keepAlive time in milliseconds to keep a connection alive when the server does not send a
+         *                  {@code Keep-Alive} timeout, and the upper bound for any timeout the server does send.
+         *                  Set to a negative number to keep connections alive indefinitely.
+         * @return this
+         */
+        public ConnectionOptions setKeepAlive(long keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public int getValidateAfterInactivity() {
+            return validateAfterInactivity;
+        }
+
+        /**
+         * @param validateAfterInactivity time in milliseconds of inactivity after which a pooled connection is
+         *                                checked for staleness before it is reused.
+         * @return this
+         */
+        public ConnectionOptions setValidateAfterInactivity(int validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+            return this;
+        }
+    }
+
+    private final CloseableHttpClient client;
+    private final boolean ownsClient;
     private HttpContext httpContext = new BasicHttpContext();
+    private volatile ServiceProbe serviceProbe;
     private CredentialsProvider preemptedProvider;
     private AuthCache preemptedAuthCache;
 
     public Http4PackageManagerClient() {
-        this(new DefaultHttpClient());
+        this(new ConnectionOptions());
+    }
+
+    /**
+     * Construct a client using a pooling connection manager configured by the provided options. The underlying
+     * {@link CloseableHttpClient} is released by {@link #close()}.
+     * @param options connection pool and keep-alive settings
+     */
+    public Http4PackageManagerClient(ConnectionOptions options) {
+        this(createClient(options), true);
     }
 
+    public Http4PackageManagerClient(CloseableHttpClient client) {
+        this(client, false);
+    }
+
+    /**
+     * @param client an {@link AbstractHttpClient}
+     * @deprecated {@link AbstractHttpClient} is deprecated. Use {@link #Http4PackageManagerClient(CloseableHttpClient)}
+     */
+    @Deprecated
     public Http4PackageManagerClient(AbstractHttpClient client) {
+        this(client, false);
+    }
+
+    private Http4PackageManagerClient(CloseableHttpClient client, boolean ownsClient) {
+        if (client == null) {
+            throw new NullPointerException("client cannot be null");
+        }
         this.client = client;
+        this.ownsClient = ownsClient;
+    }
+
+    private static CloseableHttpClient createClient(final ConnectionOptions options) {
+        if (options == null) {
+            throw new NullPointerException("options cannot be null");
+        }
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(options.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(options.getMaxPerRoute());
+        connectionManager.setValidateAfterInactivity(options.getValidateAfterInactivity());
+
+        final long keepAlive = options.getKeepAlive();
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                        long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                .getKeepAliveDuration(response, context);
+                        if (keepAlive < 0L) {
+                            return duration;
+                        } else if (duration < 0L) {
+                            return keepAlive;
+                        } else {
+                            return Math.min(duration, keepAlive);
+                        }
+                    }
+                });
+
+        if (options.getIdleTimeout() > 0L) {
+            builder.evictExpiredConnections()
+                    .evictIdleConnections(options.getIdleTimeout(), TimeUnit.MILLISECONDS);
+        }
+
+        return builder.build();
     }
 
+    /**
+     * @return the {@link AbstractHttpClient} passed to the deprecated constructor, or null if this client was
+     *         constructed with a {@link CloseableHttpClient} or {@link ConnectionOptions}
+     * @deprecated {@link AbstractHttpClient} is deprecated. Use {@link #getHttpClient()}
+     */
+    @Deprecated
     public AbstractHttpClient getClient() {
+        return client instanceof AbstractHttpClient ? (AbstractHttpClient) client : null;
+    }
+
+    /**
+     * @return the {@link CloseableHttpClient} used to execute requests
+     */
+    public CloseableHttpClient getHttpClient() {
         return client;
     }
 
+    /**
+     * Releases the pooled connections of a client created by this class. Has no effect if the
+     * {@link CloseableHttpClient} was provided to the constructor, in which case the caller remains responsible
+     * for closing it.
+     * @throws IOException if the client fails to close
+     */
+    public void close() throws IOException {
+        if (ownsClient) {
+            client.close();
+        }
+    }
+
     public HttpContext getHttpContext() {
         return httpContext;
     }
@@ -242,7 +482,7 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         request.setEntity(entity);
 
         try {
-            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
+            HttpResponse response = getHttpClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
             if (response.getStatusLine().getStatusCode() == 405) {
                 // if 405 Method not allowed, fallback to legacy login
                 return loginLegacy(username, password);
@@ -269,7 +509,7 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         request.setEntity(entity);
 
         try {
-            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
+            HttpResponse response = getHttpClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
             return response.getStatusLine().getStatusCode() == 200;
 
         } catch (Exception e) {
@@ -280,20 +520,32 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
     @Override
     protected Either<? extends Exception, Boolean> checkServiceAvailability(boolean checkTimeout,
                                                                             long timeoutRemaining) {
-        HttpUriRequest request;
-        try {
-            request = getResponseBuilder().forPackId(NO_SUCH_PACK_ID).withParam(KEY_CMD, CMD_DELETE).getJsonUrlRequest();
-        } catch (UnsupportedEncodingException e) {
-            return left(e, Boolean.class);
+        ServiceProbe probe = this.serviceProbe;
+        if (probe == null || !probe.baseUrl.equals(getBaseUrl())) {
+            try {
+                HttpPost template = getResponseBuilder().forPackId(NO_SUCH_PACK_ID).withParam(KEY_CMD, CMD_DELETE)
+                        .getJsonUrlRequest();
+                probe = new ServiceProbe(getBaseUrl(), template.getURI(), template.getEntity());
+                this.serviceProbe = probe;
+            } catch (UnsupportedEncodingException e) {
+                return left(e, Boolean.class);
+            }
         }
 
+        HttpPost request = new HttpPost(probe.uri);
+        request.setEntity(probe.entity);
+
         if (checkTimeout) {
-            HttpConnectionParams.setConnectionTimeout(request.getParams(), (int) timeoutRemaining);
-            HttpConnectionParams.setSoTimeout(request.getParams(), (int) timeoutRemaining);
+            int timeout = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, timeoutRemaining));
+            request.setConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(timeout)
+                    .setConnectTimeout(timeout)
+                    .setSocketTimeout(timeout)
+                    .build());
         }
 
         try {
-            SimpleResponse response = getClient().execute(request, SIMPLE_RESPONSE_NULLABLE_HANDLER, getHttpContext());
+            SimpleResponse response = getHttpClient().execute(request, SIMPLE_RESPONSE_NULLABLE_HANDLER, getHttpContext());
             return right(Exception.class, response != null);
         } catch (Exception e) {
             return left(e, Boolean.class);
@@ -301,11 +553,11 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
     }
 
     private SimpleResponse executeSimpleRequest(HttpUriRequest request) throws Exception {
-        return getClient().execute(request, SIMPLE_RESPONSE_HANDLER, getHttpContext());
+        return getHttpClient().execute(request, SIMPLE_RESPONSE_HANDLER, getHttpContext());
     }
 
     private DetailedResponse executeDetailedRequest(final HttpUriRequest request, final ResponseProgressListener listener) throws Exception {
-        return getClient().execute(request, new ResponseHandler<DetailedResponse>() {
+        return getHttpClient().execute(request, new ResponseHandler<DetailedResponse>() {
             public DetailedResponse handleResponse(final HttpResponse response)
                     throws ClientProtocolException, IOException {
                 StatusLine statusLine = response.getStatusLine();
@@ -319,12 +571,18 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         }, getHttpContext());
     }
 
-    private ListResponse executeListRequest(HttpUriRequest request) throws Exception {
-        return getClient().execute(request, LIST_RESPONSE_HANDLER, getHttpContext());
+    private ListResponse executeListRequest(HttpUriRequest request, ListResultListener listener) throws Exception {
+        return getHttpClient().execute(request,
+                listener != null ? new ListResponseHandler(listener) : LIST_RESPONSE_HANDLER, getHttpContext());
     }
 
     private DownloadResponse executeDownloadRequest(HttpUriRequest request, File outputFile) throws Exception {
-        return getClient().execute(request, new DownloadResponseHandler(outputFile), getHttpContext());
+        return getHttpClient().execute(request, new DownloadResponseHandler(outputFile), getHttpContext());
+    }
+
+    private RangeResponse executeRangeRequest(HttpUriRequest request, FileChannel channel, long first,
+                                              boolean acceptFull) throws Exception {
+        return getHttpClient().execute(request, new RangeResponseHandler(channel, first, acceptFull), getHttpContext());
     }
 
     @Override
@@ -431,6 +689,11 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
 
         @Override
         protected ListResponse getListResponse() throws Exception {
+            return getListResponse((ListResultListener) null);
+        }
+
+        @Override
+        protected ListResponse getListResponse(ListResultListener listener) throws Exception {
             StringBuilder qs = new StringBuilder();
 
             qs.append("?");
@@ -447,11 +710,10 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
 
             HttpGet request = new HttpGet(getListUrl() + qs.substring(0, qs.length() - 1));
 
-            return executeListRequest(request);
+            return executeListRequest(request, listener);
         }
 
-        @Override
-        protected DownloadResponse getDownloadResponse(File outputFile) throws Exception {
+        private String getDownloadRequestUrl() throws IOException {
             StringBuilder qs = new StringBuilder();
 
             qs.append("?");
@@ -466,9 +728,23 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                         .append(URLEncoder.encode(pair.getValue(), getCharset().name())).append("&");
             }
 
-            HttpGet request = new HttpGet(getDownloadUrl() + qs.substring(0, qs.length() - 1));
+            return getDownloadUrl() + qs.substring(0, qs.length() - 1);
+        }
+
+        @Override
+        protected DownloadResponse getDownloadResponse(File outputFile) throws Exception {
+            HttpGet request = new HttpGet(getDownloadRequestUrl());
 
             return executeDownloadRequest(request, outputFile);
         }
+
+        @Override
+        protected RangeResponse getRangeResponse(long first, long last, FileChannel channel, boolean acceptFull)
+                throws Exception {
+            HttpGet request = new HttpGet(getDownloadRequestUrl());
+            request.setHeader("Range", "bytes=" + first + "-" + last);
+
+            return executeRangeRequest(request, channel, first, acceptFull);
+        }
     }
 }
@@ -28,44 +28,73 @@
 package net.adamcin.granite.client.packman.validation;
 
 import net.adamcin.granite.client.packman.ACHandling;
+import net.adamcin.granite.client.packman.CompiledWspFilter;
 import net.adamcin.granite.client.packman.PackId;
 import net.adamcin.granite.client.packman.WspFilter;
 import net.adamcin.granite.client.packman.WspFilter.Root;
 import net.adamcin.granite.client.packman.WspFilter.Rule;
+import net.adamcin.granite.client.packman.ZipDirectory;
 import net.adamcin.granite.client.packman.validation.ValidationResult.Reason;
 import org.apache.jackrabbit.vault.fs.api.PathFilterSet;
 import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
+import org.apache.jackrabbit.vault.fs.config.ConfigurationException;
+import org.apache.jackrabbit.vault.fs.config.DefaultMetaInf;
 import org.apache.jackrabbit.vault.fs.config.DefaultWorkspaceFilter;
 import org.apache.jackrabbit.vault.fs.filter.DefaultPathFilter;
 import org.apache.jackrabbit.vault.fs.io.AccessControlHandling;
 import org.apache.jackrabbit.vault.fs.io.ImportOptions;
-import org.apache.jackrabbit.vault.packaging.PackageManager;
+import org.apache.jackrabbit.vault.fs.spi.CNDReader;
+import org.apache.jackrabbit.vault.fs.spi.ServiceProviderFactory;
 import org.apache.jackrabbit.vault.packaging.PackagingService;
 import org.apache.jackrabbit.vault.packaging.VaultPackage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipException;
 
 /**
  * Created by madamcin on 3/14/14.
  */
 public final class PackageValidator {
+    private static final String META_INF_VAULT = "META-INF/vault/";
+    private static final String PROP_AC_HANDLING = "acHandling";
+
     private PackageValidator() {
     }
 
     /**
-     * Validates a package file against a workspace filter. Validation consists of the following:
-     *   1. Strict identify
-     *   2. Scan file for forbidden extensions
-     *   3. Call {@link org.apache.jackrabbit.vault.packaging.PackageManager#open(java.io.File, boolean)}
-     *   4. Call {@link org.apache.jackrabbit.vault.packaging.VaultPackage#isValid()}
+     * Validates a package file against a workspace filter. The zip file is opened once, and validation consists of
+     * the following:
+     *   1. Strict identify from META-INF/vault/properties.xml
+     *   2. Scan entry names for forbidden extensions
+     *   3. Load META-INF/vault as {@link org.apache.jackrabbit.vault.packaging.PackageManager#open(java.io.File, boolean)}
+     *      would in strict mode
+     *   4. Require a package {@link org.apache.jackrabbit.vault.fs.api.WorkspaceFilter}, as
+     *      {@link org.apache.jackrabbit.vault.packaging.VaultPackage#isValid()} does
      *   5. Check package {@link org.apache.jackrabbit.vault.fs.api.WorkspaceFilter}
      *      against validation {@link org.apache.jackrabbit.vault.fs.api.WorkspaceFilter}
+     * If the zip file uses a feature that {@link ZipDirectory} does not support, the package is validated with
+     * {@link JarFile} and {@link org.apache.jackrabbit.vault.packaging.PackageManager#open(java.io.File, boolean)}
+     * instead.
      *
      * @param file the package file to be validated
      * @param options the validation options
@@ -75,73 +104,498 @@ public final class PackageValidator {
         if (file == null) {
             throw new NullPointerException("file");
         }
+        return validatePrepared(file, PreparedValidationOptions.prepare(options));
+    }
+
+    /**
+     * Validates many package files in parallel, as {@link #validate(File, ValidationOptions)} would validate each one.
+     * The options are read and prepared once for all packages, and one task per package is submitted to the executor.
+     * The returned iterator yields each result as soon as its validation completes, so results arrive in completion
+     * order rather than in the order of the files. Its {@link Iterator#next()} method blocks until the next result is
+     * available, and rethrows any runtime exception thrown by a validation task. Tasks keep running if the iterator is
+     * abandoned.
+     *
+     * @param files the package files to be validated
+     * @param options the validation options
+     * @param executor the executor to run validation tasks on
+     * @return an iterator over the validated packages, in completion order
+     */
+    public static Iterator<ValidatedPackage> validateAll(Collection<File> files, ValidationOptions options,
+                                                         Executor executor) {
+        if (files == null) {
+            throw new NullPointerException("files");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        final List<File> toValidate = new ArrayList<File>(files);
+        for (File file : toValidate) {
+            if (file == null) {
+                throw new NullPointerException("file");
+            }
+        }
+
+        final PreparedValidationOptions prepared = PreparedValidationOptions.prepare(options);
+        final CompletionService<ValidatedPackage> completion = new ExecutorCompletionService<ValidatedPackage>(executor);
+        for (final File file : toValidate) {
+            completion.submit(new Callable<ValidatedPackage>() {
+                public ValidatedPackage call() {
+                    return new ValidatedPackage(file, validatePrepared(file, prepared));
+                }
+            });
+        }
 
+        return new Iterator<ValidatedPackage>() {
+            private int remaining = toValidate.size();
+
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            public ValidatedPackage next() {
+                if (remaining <= 0) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                try {
+                    return completion.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for validation", e);
+                } catch (ExecutionException e) {
+                    throw rethrow(e);
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("remove");
+            }
+        };
+    }
+
+    /**
+     * Validates a package file as {@link #validate(File, ValidationOptions)} does, but evaluates every check rather
+     * than stopping at the first failure, and reports all violations. Failing to identify or open the package, or a
+     * package without a filter, still ends validation, because the remaining checks depend on its meta-inf.
+     *
+     * @param file the package file to be validated
+     * @param options the validation options
+     * @return the validation report
+     */
+    public static ValidationReport report(File file, ValidationOptions options) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        return new ValidationReport(file, collectViolations(file, PreparedValidationOptions.prepare(options), null));
+    }
+
+    /**
+     * Validates a package file as {@link #report(File, ValidationOptions)} does, evaluating the checks concurrently.
+     * The forbidden extension scan of the entry names runs on the executor while the calling thread loads
+     * META-INF/vault, after which the AC handling, filter root prefix, denied path and filter coverage checks each run
+     * as a separate task. A task which no executor thread has started by the time its result is needed is run by the
+     * calling thread instead, so it is safe to call this method from a task of the same bounded executor.
+     *
+     * @param file the package file to be validated
+     * @param options the validation options
+     * @param executor the executor to run checks on
+     * @return the validation report
+     */
+    public static ValidationReport report(File file, ValidationOptions options, Executor executor) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        return new ValidationReport(file,
+                collectViolations(file, PreparedValidationOptions.prepare(options), executor));
+    }
+
+    private static ValidationResult validatePrepared(File file, PreparedValidationOptions options) {
+        return firstViolation(collectViolations(file, options, null));
+    }
+
+    /**
+     * Validates a package file in a single pass over its zip central directory, collecting every violation rather
+     * than stopping at the first one. The package is identified from META-INF/vault/properties.xml, the entry names
+     * are checked for forbidden extensions, and the rest of META-INF/vault is loaded the way vault loads it in strict
+     * mode, before the meta-inf checks are run against the loaded filter and properties. Violations are listed in the
+     * order in which {@link #validate(File, ValidationOptions)} has always checked them, so the first one is the
+     * result it returns. Failing to identify or open the package ends the pass, as does a missing filter. If
+     * {@link ZipDirectory} cannot read the archive, the pass is repeated by {@link #collectArchiveViolations(File,
+     * PreparedValidationOptions)}.
+     *
+     * @param file the package file to be validated
+     * @param options the prepared validation options
+     * @param executor the executor to run checks on, or null to run them in the calling thread
+     * @return the violations, or an empty list if the package is valid
+     */
+    static List<ValidationResult> collectViolations(File file, PreparedValidationOptions options, Executor executor) {
         try {
-            PackId packageId = PackId.identifyPackage(file, true);
-            if (packageId == null) {
-                return new ValidationResult(Reason.FAILED_TO_ID);
+            return collectZipDirectoryViolations(file, options, executor);
+        } catch (ZipException e) {
+            return collectArchiveViolations(file, options);
+        }
+    }
+
+    /**
+     * @throws ZipException if {@link ZipDirectory} does not support the archive
+     */
+    private static List<ValidationResult> collectZipDirectoryViolations(File file,
+                                                                        final PreparedValidationOptions options,
+                                                                        Executor executor) throws ZipException {
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
+        ZipDirectory zip;
+        try {
+            zip = ZipDirectory.open(file);
+        } catch (ZipException e) {
+            throw e;
+        } catch (IOException e) {
+            violations.add(ValidationResult.failedToId(e));
+            return violations;
+        }
+
+        try {
+            DefaultMetaInf metaInf = new DefaultMetaInf();
+            try {
+                if (identify(zip, metaInf) == null) {
+                    violations.add(new ValidationResult(Reason.FAILED_TO_ID));
+                    return violations;
+                }
+            } catch (ZipException e) {
+                throw e;
+            } catch (IOException e) {
+                violations.add(ValidationResult.failedToId(e));
+                return violations;
+            }
+
+            final List<ZipDirectory.Entry> entries = zip.getEntries();
+
+            FutureTask<List<ValidationResult>> extensionCheck =
+                    fork(executor, new Callable<List<ValidationResult>>() {
+                        public List<ValidationResult> call() {
+                            List<ValidationResult> found = new ArrayList<ValidationResult>();
+                            collectForbiddenExtensions(entries, options.getForbiddenExtensions(), found);
+                            return found;
+                        }
+                    });
+
+            try {
+                List<ValidationResult> metaInfViolations = collectMetaInfViolations(zip, metaInf, options, executor);
+                violations.addAll(join(extensionCheck));
+                violations.addAll(metaInfViolations);
+            } finally {
+                // the zip must not be closed while the scan is still running
+                awaitQuietly(extensionCheck);
+            }
+            return violations;
+        } finally {
+            closeQuietly(zip);
+        }
+    }
+
+    protected static ValidationResult validatePackage(File file, ValidationOptions options) {
+        PreparedValidationOptions prepared = PreparedValidationOptions.prepare(options);
+        ZipDirectory zip;
+        try {
+            zip = ZipDirectory.open(file);
+        } catch (ZipException e) {
+            return firstViolation(collectPackageViolations(file, prepared));
+        } catch (IOException e) {
+            return ValidationResult.failedToOpen(e);
+        }
+
+        try {
+            return firstViolation(collectMetaInfViolations(zip, new DefaultMetaInf(), prepared, null));
+        } catch (ZipException e) {
+            return firstViolation(collectPackageViolations(file, prepared));
+        } finally {
+            closeQuietly(zip);
+        }
+    }
+
+    /**
+     * Validates a package the way {@link #validate(File, ValidationOptions)} did before it read the zip directory
+     * itself, for archives which {@link JarFile} and vault can read but {@link ZipDirectory} cannot: the package is
+     * identified by {@link PackId#identifyPackage(File, boolean)}, the entry names are scanned through a
+     * {@link JarFile}, and the package is opened with
+     * {@link org.apache.jackrabbit.vault.packaging.PackageManager#open(java.io.File, boolean)} in strict mode.
+     */
+    private static List<ValidationResult> collectArchiveViolations(File file, PreparedValidationOptions options) {
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
+        try {
+            if (PackId.identifyPackage(file, true) == null) {
+                violations.add(new ValidationResult(Reason.FAILED_TO_ID));
+                return violations;
             }
         } catch (IOException e) {
-            return new ValidationResult(Reason.FAILED_TO_ID, e);
+            violations.add(ValidationResult.failedToId(e));
+            return violations;
         }
 
         if (options.getForbiddenExtensions() != null) {
             try {
                 JarFile jarFile = new JarFile(file);
-                ValidationResult result =
-                        checkForbiddenExtensions(jarFile,
-                                options.getForbiddenExtensions());
-
-                if (result.getReason() != Reason.SUCCESS) {
-                    return result;
+                try {
+                    collectForbiddenExtensions(jarFile, options.getForbiddenExtensions(), violations);
+                } finally {
+                    jarFile.close();
                 }
             } catch (IOException e) {
-                return ValidationResult.failedToOpen(e);
+                violations.add(ValidationResult.failedToOpen(e));
+                return violations;
             }
         }
 
-        return PackageValidator.validatePackage(file, options);
+        violations.addAll(collectPackageViolations(file, options));
+        return violations;
     }
 
-    protected static ValidationResult validatePackage(File file, ValidationOptions options) {
-        PackageManager manager = PackagingService.getPackageManager();
+    /**
+     * Opens the package with {@link org.apache.jackrabbit.vault.packaging.PackageManager#open(java.io.File, boolean)}
+     * in strict mode and runs the meta-inf checks against it.
+     */
+    private static List<ValidationResult> collectPackageViolations(File file, PreparedValidationOptions options) {
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
         VaultPackage pack = null;
         try {
-            pack = manager.open(file, true);
-
+            pack = PackagingService.getPackageManager().open(file, true);
             if (!pack.isValid()) {
-                return new ValidationResult(Reason.INVALID_META_INF);
+                violations.add(ValidationResult.invalidMetaInf());
+                return violations;
             }
 
-            ValidationResult acHandlingResult = checkACHandling(options, pack);
-            if (acHandlingResult.getReason() != Reason.SUCCESS) {
-                return acHandlingResult;
+            WorkspaceFilter filter = pack.getMetaInf().getFilter();
+            collectACHandlingViolations(options, pack.getACHandling(), violations);
+            collectForbiddenFilterRootPrefixes(options, filter, violations);
+            collectDeniedPathInclusions(options, filter, violations);
+            collectFilterViolations(options, WspFilter.adaptWorkspaceFilter(filter), violations);
+            return violations;
+        } catch (IOException e) {
+            violations.add(ValidationResult.failedToOpen(e));
+            return violations;
+        } finally {
+            if (pack != null) {
+                pack.close();
             }
+        }
+    }
+
+    /**
+     * Loads META-INF/vault/properties.xml into the meta-inf and identifies the package from it.
+     *
+     * @return the package id, or null if the package has no usable properties
+     */
+    private static PackId identify(ZipDirectory zip, DefaultMetaInf metaInf) throws IOException {
+        ZipDirectory.Entry propsEntry = zip.getEntry(PackId.PROPERTIES_ENTRY);
+        if (propsEntry == null) {
+            return null;
+        }
 
-            ValidationResult forbiddenFilterRootPrefixResult = checkForbiddenFilterRootPrefix(options, pack);
-            if (forbiddenFilterRootPrefixResult.getReason() != Reason.SUCCESS) {
-                return forbiddenFilterRootPrefixResult;
+        InputStream propsStream = zip.getInputStream(propsEntry);
+        try {
+            metaInf.loadProperties(propsStream, systemId(zip, propsEntry));
+        } finally {
+            propsStream.close();
+        }
+        return PackId.identifyProperties(metaInf.getProperties());
+    }
+
+    /**
+     * Loads META-INF/vault in the calling thread, and then runs the checks which depend on it, concurrently if an
+     * executor is given. All checks have finished when this method returns.
+     */
+    private static List<ValidationResult> collectMetaInfViolations(final ZipDirectory zip,
+                                                                   final DefaultMetaInf metaInf,
+                                                                   final PreparedValidationOptions options,
+                                                                   Executor executor) throws ZipException {
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
+        try {
+            loadMetaInf(zip, metaInf);
+        } catch (ZipException e) {
+            throw e;
+        } catch (IOException e) {
+            violations.add(ValidationResult.failedToOpen(e));
+            return violations;
+        }
+
+        final WorkspaceFilter filter = metaInf.getFilter();
+        if (filter == null) {
+            violations.add(ValidationResult.invalidMetaInf());
+            return violations;
+        }
+
+        List<FutureTask<List<ValidationResult>>> checks = new ArrayList<FutureTask<List<ValidationResult>>>();
+        checks.add(fork(executor, new Callable<List<ValidationResult>>() {
+            public List<ValidationResult> call() {
+                List<ValidationResult> found = new ArrayList<ValidationResult>();
+                collectACHandlingViolations(options, getACHandling(metaInf.getProperties()), found);
+                return found;
+            }
+        }));
+        checks.add(fork(executor, new Callable<List<ValidationResult>>() {
+            public List<ValidationResult> call() {
+                List<ValidationResult> found = new ArrayList<ValidationResult>();
+                collectForbiddenFilterRootPrefixes(options, filter, found);
+                return found;
             }
+        }));
+        checks.add(fork(executor, new Callable<List<ValidationResult>>() {
+            public List<ValidationResult> call() {
+                List<ValidationResult> found = new ArrayList<ValidationResult>();
+                collectDeniedPathInclusions(options, filter, found);
+                return found;
+            }
+        }));
+        checks.add(fork(executor, new Callable<List<ValidationResult>>() {
+            public List<ValidationResult> call() {
+                WspFilter archiveFilter = WspFilter.adaptWorkspaceFilter(filter);
+                List<ValidationResult> found = new ArrayList<ValidationResult>();
+                collectFilterViolations(options, archiveFilter, found);
+                return found;
+            }
+        }));
 
-            ValidationResult deniedPathInclusionResult = checkDeniedPathInclusion(options, pack);
-            if (deniedPathInclusionResult.getReason() != Reason.SUCCESS) {
-                return deniedPathInclusionResult;
+        for (FutureTask<List<ValidationResult>> check : checks) {
+            violations.addAll(join(check));
+        }
+        return violations;
+    }
+
+    /**
+     * Submits a task to the executor, or runs it immediately if there is no executor. A task which the executor
+     * rejects is left to be run by {@link #join(FutureTask)}.
+     */
+    private static <T> FutureTask<T> fork(Executor executor, Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        if (executor == null) {
+            task.run();
+        } else {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // run by join instead
             }
+        }
+        return task;
+    }
 
-            WspFilter archiveFilter =
-                    WspFilter.adaptWorkspaceFilter(
-                            pack.getMetaInf().getFilter());
+    /**
+     * Waits for the result of a forked task, running it in the calling thread if it has not been started yet.
+     */
+    private static <T> T join(FutureTask<T> task) {
+        // does nothing if the task has already been started
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for validation", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        }
+    }
 
-            return checkFilter(options, archiveFilter);
-        } catch (IOException e) {
-            return new ValidationResult(Reason.FAILED_TO_OPEN, e);
+    /**
+     * Waits for a forked task to finish, as {@link #join(FutureTask)} does, but ignores its result and any failure.
+     */
+    private static void awaitQuietly(FutureTask<?> task) {
+        task.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    task.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return;
+                }
+            }
         } finally {
-            if (pack != null) {
-                pack.close();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+        } else if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        throw new IllegalStateException("validation failed", e.getCause());
+    }
+
+    /**
+     * Loads the META-INF/vault entries which vault reads when it opens a package in strict mode, reading each one
+     * directly from the zip directory. properties.xml is skipped if it has already been loaded.
+     */
+    private static void loadMetaInf(ZipDirectory zip, DefaultMetaInf metaInf) throws IOException {
+        for (ZipDirectory.Entry entry : zip.getEntries()) {
+            if (entry.isDirectory() || !entry.getName().startsWith(META_INF_VAULT)) {
+                continue;
+            }
+
+            String name = entry.getName().substring(META_INF_VAULT.length());
+            InputStream stream = null;
+            try {
+                if ("filter.xml".equals(name)) {
+                    stream = zip.getInputStream(entry);
+                    metaInf.loadFilter(stream, systemId(zip, entry));
+                } else if ("config.xml".equals(name)) {
+                    stream = zip.getInputStream(entry);
+                    metaInf.loadConfig(stream, systemId(zip, entry));
+                } else if ("settings.xml".equals(name)) {
+                    stream = zip.getInputStream(entry);
+                    metaInf.loadSettings(stream, systemId(zip, entry));
+                } else if ("properties.xml".equals(name)) {
+                    if (metaInf.getProperties() == null) {
+                        stream = zip.getInputStream(entry);
+                        metaInf.loadProperties(stream, systemId(zip, entry));
+                    }
+                } else if ("privileges.xml".equals(name)) {
+                    stream = zip.getInputStream(entry);
+                    metaInf.loadPrivileges(stream, systemId(zip, entry));
+                } else if ("definition/.content.xml".equals(name)) {
+                    metaInf.setHasDefinition(true);
+                } else if (name.endsWith(".cnd")) {
+                    stream = zip.getInputStream(entry);
+                    CNDReader reader = ServiceProviderFactory.getProvider().getCNDReader();
+                    reader.read(new InputStreamReader(stream, "utf8"), entry.getName(), null);
+                    metaInf.getNodeTypes().add(reader);
+                }
+            } catch (ConfigurationException e) {
+                IOException ioe = new IOException(e.toString());
+                ioe.initCause(e);
+                throw ioe;
+            } finally {
+                if (stream != null) {
+                    stream.close();
+                }
             }
         }
     }
 
+    private static String systemId(ZipDirectory zip, ZipDirectory.Entry entry) {
+        return zip.getFile().getPath() + ":" + entry.getName();
+    }
+
+    private static void closeQuietly(ZipDirectory zip) {
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // the package has been read completely, so failing to close it must not fail validation
+        }
+    }
+
+    private static ValidationResult firstViolation(List<ValidationResult> violations) {
+        return violations.isEmpty() ? ValidationResult.success() : violations.get(0);
+    }
+
     private static ACHandling modeForJKMode(AccessControlHandling jkMode) {
         if (jkMode == null) {
             return null;
@@ -157,82 +611,146 @@ public final class PackageValidator {
         }
     }
 
+    /**
+     * Reads the access control handling mode from the package properties, as
+     * {@link VaultPackage#getACHandling()} does.
+     */
+    private static AccessControlHandling getACHandling(Properties properties) {
+        String acHandling = properties != null ? properties.getProperty(PROP_AC_HANDLING) : null;
+        if (acHandling == null) {
+            return AccessControlHandling.IGNORE;
+        }
+        try {
+            return AccessControlHandling.valueOf(acHandling.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return AccessControlHandling.IGNORE;
+        }
+    }
+
     protected static ValidationResult checkACHandling(ValidationOptions options, VaultPackage pack) {
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
+        collectACHandlingViolations(options, pack.getACHandling(), violations);
+        return firstViolation(violations);
+    }
+
+    private static void collectACHandlingViolations(ValidationOptions options, AccessControlHandling acHandling,
+                                                    List<ValidationResult> violations) {
         List<ACHandling> forbidden = options.getForbiddenACHandlingModes();
-        ACHandling jkMode = modeForJKMode(pack.getACHandling());
+        ACHandling jkMode = modeForJKMode(acHandling);
         if (forbidden != null && jkMode != null) {
             if (forbidden.contains(jkMode)) {
-                return ValidationResult.forbiddenACHandlingMode(jkMode);
+                violations.add(ValidationResult.forbiddenACHandlingMode(jkMode));
             }
         }
-        return ValidationResult.success();
     }
 
-
     protected static ValidationResult checkForbiddenFilterRootPrefix(ValidationOptions options, VaultPackage pack) {
-        List<String> forbiddenFilterRootPrefixes = options.getForbiddenFilterRootPrefixes();
-        if (forbiddenFilterRootPrefixes != null) {
-            for (String rootPrefix : forbiddenFilterRootPrefixes) {
-                String trimmed = rootPrefix.trim();
-                if (trimmed.isEmpty()) {
-                    continue;
-                }
-                final String noTrailingSlash = trimmed.replaceAll("/*$", "").replaceAll("^/*", "/");
-                final String withTrailingSlash = noTrailingSlash.replaceAll("/*$", "/");
-                for (PathFilterSet filterSet : pack.getMetaInf().getFilter().getFilterSets()) {
-                    if (filterSet.getRoot().equals(noTrailingSlash)
-                            || filterSet.getRoot().startsWith(withTrailingSlash)) {
-                        WspFilter.Root invalidRoot = WspFilter.adaptFilterSet(filterSet);
-                        return ValidationResult.forbiddenRootPrefix(rootPrefix, invalidRoot);
-                    }
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
+        collectForbiddenFilterRootPrefixes(options, pack.getMetaInf().getFilter(), violations);
+        return firstViolation(violations);
+    }
+
+    private static void collectForbiddenFilterRootPrefixes(ValidationOptions options, WorkspaceFilter filter,
+                                                           List<ValidationResult> violations) {
+        List<PreparedValidationOptions.RootPrefix> rootPrefixes =
+                PreparedValidationOptions.prepare(options).getRootPrefixes();
+        for (PreparedValidationOptions.RootPrefix rootPrefix : rootPrefixes) {
+            for (PathFilterSet filterSet : filter.getFilterSets()) {
+                if (rootPrefix.matches(filterSet.getRoot())) {
+                    WspFilter.Root invalidRoot = WspFilter.adaptFilterSet(filterSet);
+                    violations.add(ValidationResult.forbiddenRootPrefix(rootPrefix.getPrefix(), invalidRoot));
                 }
             }
         }
-
-        return ValidationResult.success();
     }
 
     protected static ValidationResult checkDeniedPathInclusion(ValidationOptions options, VaultPackage pack) {
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
+        collectDeniedPathInclusions(options, pack.getMetaInf().getFilter(), violations);
+        return firstViolation(violations);
+    }
+
+    private static void collectDeniedPathInclusions(ValidationOptions options, WorkspaceFilter filter,
+                                                    List<ValidationResult> violations) {
         List<String> pathsDeniedForInclusion = options.getPathsDeniedForInclusion();
         if (pathsDeniedForInclusion != null) {
             for (String path : pathsDeniedForInclusion) {
-                if (pack.getMetaInf().getFilter().contains(path)) {
+                if (filter.contains(path)) {
                     WspFilter.Root invalidRoot = null;
-                    PathFilterSet filter = pack.getMetaInf().getFilter().getCoveringFilterSet(path);
-                    if (filter != null) {
-                        invalidRoot = WspFilter.adaptFilterSet(filter);
+                    PathFilterSet filterSet = filter.getCoveringFilterSet(path);
+                    if (filterSet != null) {
+                        invalidRoot = WspFilter.adaptFilterSet(filterSet);
                     }
-                    return ValidationResult.deniedPathInclusion(path, invalidRoot);
+                    violations.add(ValidationResult.deniedPathInclusion(path, invalidRoot));
                 }
             }
         }
-        return ValidationResult.success();
     }
 
     protected static ValidationResult checkFilter(ValidationOptions options, WspFilter archiveFilter) {
-        WspFilter wspFilter = options.getValidationFilter();
+        List<ValidationResult> violations = new ArrayList<ValidationResult>();
+        collectFilterViolations(options, archiveFilter, violations);
+        return firstViolation(violations);
+    }
+
+    private static void collectFilterViolations(ValidationOptions options, WspFilter archiveFilter,
+                                                List<ValidationResult> violations) {
+        CompiledWspFilter filter = PreparedValidationOptions.prepare(options).getCompiledFilter();
 
         // skip filter check if validation filter is not specified
-        if (wspFilter != null)  {
-            WorkspaceFilter filter = convertToWorkspaceFilter(wspFilter);
+        if (filter != null)  {
             for (Root archiveRoot : archiveFilter.getRoots()) {
                 String root = archiveRoot.getPath();
 
-                if (filter.covers(root)) {
-                    PathFilterSet covering = filter.getCoveringFilterSet(root);
-                    Root coveringRoot =
-                            WspFilter.adaptFilterSet(covering);
-
+                Root coveringRoot = filter.getCoveringRoot(root);
+                if (coveringRoot != null) {
                     if (!hasRequiredRules(coveringRoot, archiveRoot)) {
-                        return ValidationResult.rootMissingRules(archiveRoot, coveringRoot);
+                        violations.add(ValidationResult.rootMissingRules(archiveRoot, coveringRoot));
                     }
                 } else if (!options.isAllowNonCoveredRoots()) {
-                    return ValidationResult.rootNotAllowed(archiveRoot);
+                    violations.add(ValidationResult.rootNotAllowed(archiveRoot));
                 }
             }
         }
+    }
 
-        return ValidationResult.success();
+    /**
+     * @param forbiddenExtensions the forbidden extensions, normalized as by {@link PreparedValidationOptions}
+     */
+    private static void collectForbiddenExtensions(List<ZipDirectory.Entry> entries, List<String> forbiddenExtensions,
+                                                   List<ValidationResult> violations) {
+        if (forbiddenExtensions != null && !forbiddenExtensions.isEmpty()) {
+            for (ZipDirectory.Entry entry : entries) {
+                collectForbiddenExtension(entry.getName(), entry.isDirectory(), forbiddenExtensions, violations);
+            }
+        }
+    }
+
+    /**
+     * @param forbiddenExtensions the forbidden extensions, normalized as by {@link PreparedValidationOptions}
+     */
+    private static void collectForbiddenExtensions(JarFile jarFile, List<String> forbiddenExtensions,
+                                                   List<ValidationResult> violations) {
+        if (forbiddenExtensions != null && !forbiddenExtensions.isEmpty()) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                collectForbiddenExtension(entry.getName(), entry.isDirectory(), forbiddenExtensions, violations);
+            }
+        }
+    }
+
+    private static void collectForbiddenExtension(String entryName, boolean directory,
+                                                  List<String> forbiddenExtensions,
+                                                  List<ValidationResult> violations) {
+        if (!directory && entryName.startsWith("jcr_root/")) {
+            for (String ext : forbiddenExtensions) {
+                if (entryName.endsWith(ext)) {
+                    violations.add(ValidationResult.forbiddenExtension(entryName));
+                    break;
+                }
+            }
+        }
     }
 
     protected static ValidationResult checkForbiddenExtensions(JarFile jarFile, List<String> forbiddenExtensions) throws IOException {
@@ -0,0 +1,179 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman.validation;
+
+import net.adamcin.granite.client.packman.ACHandling;
+import net.adamcin.granite.client.packman.CompiledWspFilter;
+import net.adamcin.granite.client.packman.WspFilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of a {@link ValidationOptions} with everything that does not depend on the package precomputed once, so
+ * that validating many packages with the same options does not repeat the work for each one: the validation filter
+ * is compiled, and forbidden extensions and filter root prefixes are normalized.
+ */
+final class PreparedValidationOptions implements ValidationOptions {
+
+    private final WspFilter validationFilter;
+    private final CompiledWspFilter compiledFilter;
+    private final boolean allowNonCoveredRoots;
+    private final List<String> forbiddenExtensions;
+    private final List<ACHandling> forbiddenACHandlingModes;
+    private final List<String> forbiddenFilterRootPrefixes;
+    private final List<RootPrefix> rootPrefixes;
+    private final List<String> pathsDeniedForInclusion;
+
+    private PreparedValidationOptions(final ValidationOptions options) {
+        this.validationFilter = options.getValidationFilter();
+        this.compiledFilter = validationFilter != null ? validationFilter.compile() : null;
+        this.allowNonCoveredRoots = options.isAllowNonCoveredRoots();
+        this.forbiddenExtensions = normalizeExtensions(options.getForbiddenExtensions());
+        this.forbiddenACHandlingModes = copy(options.getForbiddenACHandlingModes());
+        this.forbiddenFilterRootPrefixes = copy(options.getForbiddenFilterRootPrefixes());
+        this.rootPrefixes = normalizeRootPrefixes(forbiddenFilterRootPrefixes);
+        this.pathsDeniedForInclusion = copy(options.getPathsDeniedForInclusion());
+    }
+
+    /**
+     * @param options the options to prepare
+     * @return the prepared options, or the same instance if it is already prepared
+     */
+    static PreparedValidationOptions prepare(final ValidationOptions options) {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+        if (options instanceof PreparedValidationOptions) {
+            return (PreparedValidationOptions) options;
+        }
+        return new PreparedValidationOptions(options);
+    }
+
+    public WspFilter getValidationFilter() {
+        return validationFilter;
+    }
+
+    /**
+     * @return the compiled validation filter, or null if no validation filter is specified
+     */
+    CompiledWspFilter getCompiledFilter() {
+        return compiledFilter;
+    }
+
+    public boolean isAllowNonCoveredRoots() {
+        return allowNonCoveredRoots;
+    }
+
+    /**
+     * @return the forbidden extensions, trimmed and beginning with a period, without empty elements, or null
+     */
+    public List<String> getForbiddenExtensions() {
+        return forbiddenExtensions;
+    }
+
+    public List<ACHandling> getForbiddenACHandlingModes() {
+        return forbiddenACHandlingModes;
+    }
+
+    public List<String> getForbiddenFilterRootPrefixes() {
+        return forbiddenFilterRootPrefixes;
+    }
+
+    /**
+     * @return the non-empty forbidden filter root prefixes, normalized for matching
+     */
+    List<RootPrefix> getRootPrefixes() {
+        return rootPrefixes;
+    }
+
+    public List<String> getPathsDeniedForInclusion() {
+        return pathsDeniedForInclusion;
+    }
+
+    private static <T> List<T> copy(final List<T> list) {
+        return list != null ? Collections.unmodifiableList(new ArrayList<T>(list)) : null;
+    }
+
+    private static List<String> normalizeExtensions(final List<String> extensions) {
+        if (extensions == null) {
+            return null;
+        }
+        List<String> normalized = new ArrayList<String>(extensions.size());
+        for (String extension : extensions) {
+            String ext = extension.trim();
+            if (ext.isEmpty()) {
+                continue;
+            }
+            if (!ext.startsWith(".")) {
+                ext = "." + ext;
+            }
+            normalized.add(ext);
+        }
+        return Collections.unmodifiableList(normalized);
+    }
+
+    private static List<RootPrefix> normalizeRootPrefixes(final List<String> prefixes) {
+        if (prefixes == null) {
+            return Collections.emptyList();
+        }
+        List<RootPrefix> normalized = new ArrayList<RootPrefix>(prefixes.size());
+        for (String prefix : prefixes) {
+            if (!prefix.trim().isEmpty()) {
+                normalized.add(new RootPrefix(prefix));
+            }
+        }
+        return Collections.unmodifiableList(normalized);
+    }
+
+    /**
+     * A forbidden filter root prefix, which matches a root equal to the prefix or below it.
+     */
+    static final class RootPrefix {
+        private final String prefix;
+        private final String noTrailingSlash;
+        private final String withTrailingSlash;
+
+        private RootPrefix(final String prefix) {
+            this.prefix = prefix;
+            final String trimmed = prefix.trim();
+            this.noTrailingSlash = trimmed.replaceAll("/*$", "").replaceAll("^/*", "/");
+            this.withTrailingSlash = noTrailingSlash.replaceAll("/*$", "/");
+        }
+
+        String getPrefix() {
+            return prefix;
+        }
+
+        boolean matches(final String root) {
+            return root.equals(noTrailingSlash) || root.startsWith(withTrailingSlash);
+        }
+    }
+}
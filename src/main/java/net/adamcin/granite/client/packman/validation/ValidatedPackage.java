@@ -0,0 +1,62 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman.validation;
+
+import java.io.File;
+
+/**
+ * The {@link ValidationResult} for one package file, as returned by
+ * {@link PackageValidator#validateAll(java.util.Collection, ValidationOptions, java.util.concurrent.Executor)}.
+ */
+public final class ValidatedPackage {
+
+    private final File file;
+    private final ValidationResult result;
+
+    ValidatedPackage(final File file, final ValidationResult result) {
+        this.file = file;
+        this.result = result;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public ValidationResult getResult() {
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidatedPackage{" +
+                "file=" + file +
+                ", result=" + result.getReason() +
+                '}';
+    }
+}
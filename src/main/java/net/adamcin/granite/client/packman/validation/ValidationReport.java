@@ -0,0 +1,105 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman.validation;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every violation found by validating one package file, as returned by
+ * {@link PackageValidator#report(File, ValidationOptions)}. Violations are listed in the order in which
+ * {@link PackageValidator#validate(File, ValidationOptions)} checks them, so {@link #getResult()} is the result that
+ * it returns for the same package.
+ */
+public final class ValidationReport implements Serializable {
+
+    private static final long serialVersionUID = -4325207412617207342L;
+
+    private final File file;
+    private final List<ValidationResult> violations;
+
+    ValidationReport(final File file, final List<ValidationResult> violations) {
+        this.file = file;
+        this.violations = Collections.unmodifiableList(new ArrayList<ValidationResult>(violations));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if no violations were found
+     */
+    public boolean isValid() {
+        return violations.isEmpty();
+    }
+
+    /**
+     * @return all violations, or an empty list if the package is valid
+     */
+    public List<ValidationResult> getViolations() {
+        return violations;
+    }
+
+    /**
+     * @param reason the reason to select
+     * @return the violations with the given reason
+     */
+    public List<ValidationResult> getViolations(final ValidationResult.Reason reason) {
+        List<ValidationResult> selected = new ArrayList<ValidationResult>();
+        for (ValidationResult violation : violations) {
+            if (violation.getReason() == reason) {
+                selected.add(violation);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return the first violation, or {@link ValidationResult#success()} if the package is valid
+     */
+    public ValidationResult getResult() {
+        return violations.isEmpty() ? ValidationResult.success() : violations.get(0);
+    }
+
+    @Override
+    public String toString() {
+        List<ValidationResult.Reason> reasons = new ArrayList<ValidationResult.Reason>(violations.size());
+        for (ValidationResult violation : violations) {
+            reasons.add(violation.getReason());
+        }
+        return "ValidationReport{" +
+                "file=" + file +
+                ", violations=" + reasons +
+                '}';
+    }
+}
@@ -28,17 +28,22 @@
 package net.adamcin.granite.client.packman;
 
 import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -83,6 +88,176 @@ public class AbstractPackageManagerClientTest {
         });
     }
 
+    @Test
+    public void testDetailedResponseParserChunked() {
+        for (final String resource : new String[]{INSTALL_SUCCESS, INSTALL_SUCCESS_WITH_ERRORS, INSTALL_FAILURE}) {
+            TestBody.test(new ResponseTestBody(resource) {
+                @Override protected void execute() throws Exception {
+                    byte[] bytes = IOUtils.toByteArray(stream);
+
+                    TestListener wholeListener = new TestListener();
+                    DetailedResponseParser whole = new DetailedResponseParser(wholeListener, "UTF-8");
+                    whole.feed(bytes, 0, bytes.length);
+                    DetailedResponse expected = whole.finish();
+
+                    for (int chunkSize = 1; chunkSize < 8; chunkSize++) {
+                        TestListener chunkListener = new TestListener();
+                        DetailedResponseParser chunked = new DetailedResponseParser(chunkListener, "UTF-8");
+                        for (int offset = 0; offset < bytes.length && !chunked.isDone(); offset += chunkSize) {
+                            chunked.feed(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+                        }
+                        DetailedResponse actual = chunked.finish();
+
+                        String prefix = resource + " [chunkSize=" + chunkSize + "] ";
+                        assertEquals(prefix + "success matches", expected.isSuccess(), actual.isSuccess());
+                        assertEquals(prefix + "message matches", expected.getMessage(), actual.getMessage());
+                        assertEquals(prefix + "duration matches", expected.getDuration(), actual.getDuration());
+                        assertEquals(prefix + "progressErrors match", expected.getProgressErrors(), actual.getProgressErrors());
+                        assertEquals(prefix + "stackTrace matches", expected.getStackTrace(), actual.getStackTrace());
+                        assertEquals(prefix + "progress matches", wholeListener.progress, chunkListener.progress);
+                        assertEquals(prefix + "errors match", wholeListener.errors, chunkListener.errors);
+                        assertEquals(prefix + "messages match", wholeListener.messages, chunkListener.messages);
+                    }
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testDetailedResponseParserEvents() {
+        TestBody.test(new ResponseTestBody() {
+            @Override protected void execute() throws Exception {
+                String body = "<html>\r\n"
+                        + "<body><h2>Building package</h2><div>\r\n"
+                        + "Creating package<br>Adding files<br>\r\n"
+                        + "<span class=\"A\"><b>A</b>&nbsp;/content/f\u00fcr</span><br>\n"
+                        + "<span class=\"E\"><b>E</b>&nbsp;/content/b (java.lang.Exception: first\r"
+                        + "second)</span><br>\r\n"
+                        + "<span class=\"Package built.\"><b>Package built.</b>&nbsp;</span><br>\n"
+                        + "</div><br>Package built in 42ms.<br>\n"
+                        + "<span class=\"A\"><b>A</b>&nbsp;/content/ignored</span><br>\n";
+
+                DetailedResponseParser parser = new DetailedResponseParser(listener, "UTF-8");
+                byte[] bytes = body.getBytes("UTF-8");
+                assertTrue("parser should be done after success line", parser.feed(bytes, 0, bytes.length));
+                DetailedResponse response = parser.finish();
+
+                assertTrue("parses as success", response.isSuccess());
+                assertEquals("message is correct", "Package built", response.getMessage());
+                assertEquals("duration is correct", 42L, response.getDuration());
+                assertEquals("title is correct", "Building package", listener.title);
+                assertEquals("all log segments are reported", 2, listener.logs.size());
+                assertEquals("second log segment", "Adding files", listener.logs.get(1));
+                assertEquals("multibyte path is decoded", "A", listener.progress.get("/content/f\u00fcr"));
+                assertEquals("multi-line error is joined", "java.lang.Exception: first\r\nsecond",
+                        listener.errors.get("/content/b"));
+                assertEquals("one progress error", 1, response.getProgressErrors().size());
+                assertEquals("one message", "Package built.", listener.messages.get(0));
+                assertFalse("progress after result is ignored", listener.progress.containsKey("/content/ignored"));
+            }
+        });
+    }
+
+    static final String LIST_RESPONSE = "{\"results\":[\n"
+            + "{\"pid\":\"adamcin:core:1.0\",\"group\":\"adamcin\",\"name\":\"core\",\"version\":\"1.0\","
+            + "\"size\":1024,\"filter\":[{\"root\":\"/apps/core\",\"rules\":[]}],\"hasSnapshot\":true},\n"
+            + "{\"group\":\"adamcin\",\"name\":\"f\\u00fcr \\\"quoted\\\"\",\"needsRewrap\":\"true\","
+            + "\"description\":\"line\\nbreak, {not: [json]}\",\"lastUnpacked\":null},\n"
+            + "{\"name\":\"ui\",\"group\":\"adamcin/apps\",\"version\":\"2.0-SNAPSHOT\",\"hasSnapshot\":false}\n"
+            + "], \"total\" : 3, \"extra\": {\"results\": [1, 2]}}";
+
+    @Test
+    public void testListResponseParser() throws Exception {
+        byte[] bytes = LIST_RESPONSE.getBytes("UTF-8");
+        ListResponse expected = AbstractPackageManagerClient.parseListResponse(200, "OK",
+                new ByteArrayInputStream(bytes), "UTF-8");
+        assertEquals("total is correct", 3, expected.getTotal());
+        assertEquals("all results are parsed", 3, expected.getResults().size());
+        assertEquals("escapes are decoded", "f\u00fcr \"quoted\"", expected.getResults().get(1).getPackId().getName());
+        assertTrue("boolean is parsed", expected.getResults().get(0).isHasSnapshot());
+        assertTrue("boolean string is parsed", expected.getResults().get(1).isNeedsRewrap());
+        assertEquals("missing version is empty", "", expected.getResults().get(1).getPackId().getVersion());
+        assertEquals("version is parsed", "2.0-SNAPSHOT", expected.getResults().get(2).getPackId().getVersion());
+
+        for (int chunkSize = 1; chunkSize < 8; chunkSize++) {
+            final List<ListResult> streamed = new ArrayList<ListResult>();
+            ListResponseParser parser = new ListResponseParser(new ListResultListener() {
+                public void onResult(ListResult result) {
+                    streamed.add(result);
+                }
+            }, "UTF-8");
+            for (int offset = 0; offset < bytes.length && !parser.isDone(); offset += chunkSize) {
+                parser.feed(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+            }
+            ListResponse actual = parser.finish();
+
+            String prefix = "[chunkSize=" + chunkSize + "] ";
+            assertEquals(prefix + "total matches", expected.getTotal(), actual.getTotal());
+            assertTrue(prefix + "results are not retained", actual.getResults().isEmpty());
+            assertEquals(prefix + "result count matches", expected.getResults().size(), streamed.size());
+            for (int i = 0; i < streamed.size(); i++) {
+                ListResult e = expected.getResults().get(i);
+                ListResult a = streamed.get(i);
+                assertEquals(prefix + "packId matches", e.getPackId(), a.getPackId());
+                assertEquals(prefix + "hasSnapshot matches", e.isHasSnapshot(), a.isHasSnapshot());
+                assertEquals(prefix + "needsRewrap matches", e.isNeedsRewrap(), a.isNeedsRewrap());
+            }
+        }
+    }
+
+    @Test
+    public void testListResponseParserErrors() throws Exception {
+        String[] invalid = {
+                "",
+                "[]",
+                "{\"results\":[],\"total\":0",
+                "{\"results\":[]}",
+                "{\"total\":0}",
+                "{\"results\":[{\"name\":\"core\"}],\"total\":1}",
+                "{\"results\":[{\"group\":\"adamcin\",\"name\":\"core\",\"hasSnapshot\":1}],\"total\":1}",
+                "{\"results\":[}],\"total\":0}",
+                "{\"results\":\"none\",\"total\":0}"
+        };
+        for (String body : invalid) {
+            try {
+                AbstractPackageManagerClient.parseListResponse(200, "OK",
+                        new ByteArrayInputStream(body.getBytes("UTF-8")), "UTF-8");
+                fail("invalid list response should fail: " + body);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseDownloadResponse() throws Exception {
+        File dir = new File("target/parse-download-test");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        File outputFile = new File(dir, "package.zip");
+
+        byte[] content = new byte[3 * 1024 * 1024 + 7];
+        new Random(7).nextBytes(content);
+        DownloadResponse response = AbstractPackageManagerClient.parseDownloadResponse(200, "Ok",
+                new ByteArrayInputStream(content), outputFile);
+        assertEquals("length is correct", content.length, response.getLength().longValue());
+        assertArrayEquals("content is correct", content, FileUtils.readFileToByteArray(outputFile));
+        assertEquals("no temp files remain", 1, dir.list().length);
+
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(content, 0, 1024), new InputStream() {
+            @Override public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+        try {
+            AbstractPackageManagerClient.parseDownloadResponse(200, "Ok", failing, outputFile);
+            fail("download should fail");
+        } catch (IOException e) {
+            assertEquals("connection reset", e.getMessage());
+        }
+        assertArrayEquals("previous download is intact", content, FileUtils.readFileToByteArray(outputFile));
+        assertEquals("temp file is removed", 1, dir.list().length);
+    }
 
     static abstract class ResponseTestBody extends TestBody {
         final InputStream stream;
@@ -39,6 +39,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -249,6 +252,38 @@ public abstract class AbstractPackageManagerClientTestBase {
     	});
     }
 
+    @Test
+    public void testAsyncFailureIsDeferred() {
+        TestBody.test(new PackmgrClientTestBody() {
+            @Override protected void execute() throws Exception {
+                // nothing should be listening on the tcpmux port
+                client.setBaseUrl("http://localhost:1");
+                client.setRequestTimeout(10000L);
+
+                AsyncPackageManager async = client.getAsyncPackageManager();
+                assertSame("async view should be reused", async, client.getAsyncPackageManager());
+
+                boolean npeThrown = false;
+                try {
+                    async.delete(null);
+                } catch (NullPointerException e) {
+                    npeThrown = true;
+                }
+                assertTrue("null packageId should fail immediately", npeThrown);
+
+                CompletableFuture<ListResponse> future = async.list();
+                boolean failed = false;
+                try {
+                    future.get(30L, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    failed = true;
+                }
+                assertTrue("connection failure should complete the future exceptionally", failed);
+                assertTrue("future should be completed exceptionally", future.isCompletedExceptionally());
+            }
+        });
+    }
+
     abstract class PackmgrClientTestBody extends TestBody {
         AbstractPackageManagerClient client = getClientImplementation();
     }
@@ -0,0 +1,73 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BackoffServiceWaitStrategyTest {
+
+    @Test
+    public void testGetDelay() {
+        BackoffServiceWaitStrategy strategy = new BackoffServiceWaitStrategy()
+                .setInitialDelay(10L).setMaxDelay(100L).setMultiplier(2.0).setJitter(0.0);
+
+        assertEquals("first probe is immediate", 0L, strategy.getDelay(0));
+        assertEquals(10L, strategy.getDelay(1));
+        assertEquals(20L, strategy.getDelay(2));
+        assertEquals(80L, strategy.getDelay(4));
+        assertEquals("delay is capped", 100L, strategy.getDelay(5));
+        assertEquals("delay is capped", 100L, strategy.getDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testGetDelayWithJitter() {
+        BackoffServiceWaitStrategy strategy = new BackoffServiceWaitStrategy()
+                .setInitialDelay(100L).setMaxDelay(1000L).setMultiplier(2.0).setJitter(0.5);
+
+        for (int i = 0; i < 1000; i++) {
+            long delay = strategy.getDelay(3);
+            assertTrue("delay should not exceed base: " + delay, delay <= 400L);
+            assertTrue("delay should not drop below base * (1 - jitter): " + delay, delay >= 200L);
+        }
+    }
+
+    @Test
+    public void testIsRetryable() {
+        BackoffServiceWaitStrategy strategy = new BackoffServiceWaitStrategy();
+
+        assertTrue(strategy.isRetryable(new IOException("connection refused")));
+        assertFalse(strategy.isRetryable(new UnauthorizedException("denied")));
+        assertFalse(strategy.isRetryable(new IllegalStateException()));
+        assertFalse(strategy.setRetryErrors(false).isRetryable(new IOException("connection refused")));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.granite.client.packman.fake.FakePackageManagerServer;
+import net.adamcin.granite.client.packman.http4.Http4PackageManagerClient;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class BulkOperationsTest {
+
+    private static final PackIdFilter SNAPSHOTS = new PackIdFilter() {
+        public boolean includes(PackId packId) {
+            return packId.getVersion().endsWith("-SNAPSHOT");
+        }
+    };
+
+    private FakePackageManagerServer server;
+    private Http4PackageManagerClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakePackageManagerServer().setThreads(8).start();
+        for (int i = 0; i < 12; i++) {
+            server.putPackage(PackId.createPackId("group", "name" + i, "1." + i), new byte[0]);
+            server.putPackage(PackId.createPackId("group", "name" + i, "1." + (i + 1) + "-SNAPSHOT"), new byte[0]);
+        }
+        client = new Http4PackageManagerClient();
+        client.setBaseUrl(server.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testDeleteAll() throws Exception {
+        server.setLatency(100L);
+        client.setBulkParallelism(6);
+        BulkResponse<SimpleResponse> response = client.deleteAll(SNAPSHOTS);
+
+        assertTrue("all deletes succeed: " + response.getFailures(), response.isSuccess());
+        assertEquals(12, response.getItems().size());
+        assertEquals(12, response.getSuccessCount());
+        for (BulkResponse.Item<SimpleResponse> item : response.getItems()) {
+            assertTrue(SNAPSHOTS.includes(item.getPackId()));
+            assertFalse("snapshot is deleted", server.hasPackage(item.getPackId()));
+        }
+        assertTrue("releases are kept", server.hasPackage(PackId.createPackId("group", "name0", "1.0")));
+        assertTrue("deletes should run concurrently, but took " + response.getDuration() + "ms",
+                response.getDuration() < 12 * 100L);
+    }
+
+    @Test
+    public void testDownloadAll() throws Exception {
+        File dir = new File("target/bulk-download-test");
+        FileUtils.deleteDirectory(dir);
+        BulkResponse<DownloadResponse> response = client.downloadAll(SNAPSHOTS, dir);
+
+        assertTrue("all downloads succeed: " + response.getFailures(), response.isSuccess());
+        assertEquals(12, response.getItems().size());
+        for (BulkResponse.Item<DownloadResponse> item : response.getItems()) {
+            assertTrue("package is downloaded", item.getResponse().getContent().isFile());
+        }
+    }
+
+    @Test
+    public void testBuildAllReportsFailures() throws Exception {
+        client.setBulkParallelism(1);
+        BulkResponse<DetailedResponse> response = client.buildAll(new PackIdFilter() {
+            private boolean first = true;
+
+            public boolean includes(PackId packId) {
+                if (first) {
+                    // fail the first build, which is the next request after the list request
+                    first = false;
+                    server.failNextRequests(1);
+                }
+                return packId.getName().equals("name1") || packId.getName().equals("name2");
+            }
+        });
+
+        assertFalse("failure is reported", response.isSuccess());
+        assertEquals(4, response.getItems().size());
+        assertEquals("only the first build fails", 1, response.getFailures().size());
+        assertEquals(response.getItems().get(0), response.getFailures().get(0));
+        assertEquals(3, response.getSuccessCount());
+
+        server.failNextRequests(1);
+        try {
+            client.buildAll(SNAPSHOTS);
+            fail("failed list request should be thrown");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRunSequentially() throws Exception {
+        BulkResponse<SimpleResponse> response = BulkResponse.runSequentially(client, SNAPSHOTS,
+                new BulkResponse.Command<SimpleResponse>() {
+                    public SimpleResponse execute(PackId packageId) throws Exception {
+                        return client.delete(packageId);
+                    }
+                });
+
+        assertTrue("all deletes succeed: " + response.getFailures(), response.isSuccess());
+        assertEquals(12, response.getItems().size());
+        for (BulkResponse.Item<SimpleResponse> item : response.getItems()) {
+            assertFalse("snapshot is deleted", server.hasPackage(item.getPackId()));
+        }
+        assertTrue("releases are kept", server.hasPackage(PackId.createPackId("group", "name0", "1.0")));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.granite.client.packman.WspFilter.Root;
+import net.adamcin.granite.client.packman.WspFilter.Rule;
+import net.adamcin.granite.client.packman.validation.PackageValidator;
+import org.apache.jackrabbit.vault.fs.api.PathFilterSet;
+import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompiledWspFilterTest {
+
+    private static final WspFilter FILTER = new WspFilter(
+            new Root("/apps/example",
+                    new Rule(false, "/apps/example/install(/.*)?"),
+                    new Rule(true, "/apps/example/install/keep\\.jar")),
+            new Root("/etc/",
+                    new Rule(true, "/etc/map(/.*)?"),
+                    new Rule(false, "/etc/map/secret(/.*)?")),
+            new Root("/etc/map/local"),
+            new Root("/content/dam",
+                    new Rule(false, "/content/dam/.*\\.tmp")),
+            new Root("/"),
+            new Root("/var", new Rule(true, "/var/a"), new Rule(false, "/var/.*")),
+            new Root("/libs",
+                    new Rule(true, "/libs/(?!x).*"),
+                    new Rule(false, "/libs/a.*"),
+                    new Rule(true, "(?i)/LIBS/AB"))
+    );
+
+    private static final List<String> PATHS = Arrays.asList(
+            "", "/", "/apps", "/apps/example", "/apps/example/", "/apps/example/install", "/apps/example/install/x.jar",
+            "/apps/example/install/keep.jar", "/apps/exampleother", "/apps/example/components/page",
+            "/etc", "/etc/", "/etc/map", "/etc/map/secret", "/etc/map/secret/key", "/etc/map/local",
+            "/etc/map/local/host", "/etc/packages", "/etc2", "/content", "/content/dam", "/content/dam/a.tmp",
+            "/content/dam/a.png", "/var", "/var/a", "/var/b", "relative/path", "//double",
+            "/libs", "/libs/a", "/libs/ab", "/libs/b", "/libs/xa");
+
+    private static void assertSameAsVault(WspFilter wspFilter) {
+        WorkspaceFilter vault = PackageValidator.convertToWorkspaceFilter(wspFilter);
+        CompiledWspFilter compiled = CompiledWspFilter.compile(wspFilter);
+        for (String path : PATHS) {
+            assertEquals("covers " + path, vault.covers(path), compiled.covers(path));
+            assertEquals("contains " + path, vault.contains(path), compiled.contains(path));
+            PathFilterSet covering = vault.getCoveringFilterSet(path);
+            Root coveringRoot = compiled.getCoveringRoot(path);
+            if (covering == null) {
+                assertNull("covering root " + path, coveringRoot);
+            } else {
+                assertNotNull("covering root " + path, coveringRoot);
+                assertEquals("covering root " + path,
+                        WspFilter.adaptFilterSet(covering).getRules(), coveringRoot.getRules());
+                assertEquals("covering root " + path,
+                        covering.getRoot().replaceAll("/$", ""), coveringRoot.getPath().replaceAll("/$", ""));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesVaultSemantics() {
+        assertSameAsVault(FILTER);
+        assertSameAsVault(new WspFilter(FILTER.getRoots().subList(0, 4)));
+        assertSameAsVault(new WspFilter(FILTER.getRoots().get(1), FILTER.getRoots().get(2)));
+        assertSameAsVault(new WspFilter(FILTER.getRoots().get(2), FILTER.getRoots().get(1)));
+        assertSameAsVault(new WspFilter());
+    }
+
+    @Test
+    public void testFirstCoveringRootWins() {
+        CompiledWspFilter compiled = CompiledWspFilter.compile(FILTER);
+        assertEquals("/etc/", compiled.getCoveringRoot("/etc/map/local/host").getPath());
+        assertEquals("/", compiled.getCoveringRoot("/libs").getPath());
+        assertTrue("a later root may contain a path excluded by the covering root",
+                compiled.contains("/etc/map/local"));
+        assertFalse(CompiledWspFilter.compile(new WspFilter(FILTER.getRoots().subList(0, 4))).covers("/libs"));
+    }
+
+    @Test
+    public void testCompileIsCached() {
+        WspFilter filter = new WspFilter(new Root("/apps"));
+        assertSame(filter.compile(), filter.compile());
+        assertSame(filter, filter.compile().getFilter());
+    }
+}
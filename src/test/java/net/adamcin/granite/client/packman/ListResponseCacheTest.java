@@ -0,0 +1,205 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.granite.client.packman.fake.FakePackageManagerServer;
+import net.adamcin.granite.client.packman.http4.Http4PackageManagerClient;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ListResponseCacheTest {
+
+    private static final String BASE_URL = "http://localhost:4502";
+
+    private static ListResponse response() {
+        return new AbstractPackageManagerClient.ListResponseImpl(Collections.<ListResult>emptyList(), 0);
+    }
+
+    @Test
+    public void testEviction() {
+        ListResponseCache cache = new ListResponseCache(2, 60000L);
+        ListResponse first = response();
+        cache.put(BASE_URL, "a", first, cache.getGeneration());
+        cache.put(BASE_URL, "b", response(), cache.getGeneration());
+        assertSame("a should be cached", first, cache.get(BASE_URL, "a"));
+
+        cache.put(BASE_URL, "c", response(), cache.getGeneration());
+        assertEquals(2, cache.size());
+        assertEquals(1L, cache.getEvictionCount());
+        assertNull("least recently used entry b should be evicted", cache.get(BASE_URL, "b"));
+        assertNotNull("recently used entry a should be kept", cache.get(BASE_URL, "a"));
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        ListResponseCache cache = new ListResponseCache(10, 20L);
+        cache.put(BASE_URL, "a", response(), cache.getGeneration());
+        Thread.sleep(50L);
+        assertNull("entry should expire", cache.get(BASE_URL, "a"));
+        assertEquals(0, cache.size());
+        assertEquals(1L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testInvalidate() {
+        ListResponseCache cache = new ListResponseCache();
+        final long generation = cache.getGeneration();
+        cache.put(BASE_URL, "a", response(), generation);
+        cache.put("http://localhost:4503", "a", response(), generation);
+
+        cache.invalidate(BASE_URL);
+        assertNull(cache.get(BASE_URL, "a"));
+        assertNotNull("other servers should be unaffected", cache.get("http://localhost:4503", "a"));
+
+        cache.put(BASE_URL, "a", response(), generation);
+        assertNull("response to a request sent before invalidation should not be cached", cache.get(BASE_URL, "a"));
+    }
+
+    @Test
+    public void testClientInvalidatesOnMutation() throws Exception {
+        final PackId packId = PackId.createPackId("group", "name", "1.0");
+        FakePackageManagerServer server = new FakePackageManagerServer().start();
+        Http4PackageManagerClient client = new Http4PackageManagerClient();
+        try {
+            ListResponseCache cache = new ListResponseCache();
+            client.setBaseUrl(server.getBaseUrl());
+            client.setListResponseCache(cache);
+
+            long before = server.getRequestCount();
+            for (int i = 0; i < 10; i++) {
+                assertFalse(client.existsOnServer(packId));
+            }
+            assertEquals("repeated checks should be served from the cache", before + 1, server.getRequestCount());
+            assertEquals(9L, cache.getHitCount());
+
+            server.putPackage(packId, new byte[0]);
+            assertFalse("changes by others are not visible until the entry expires", client.existsOnServer(packId));
+
+            client.delete(PackId.createPackId("group", "other", "1.0"));
+            assertEquals(0, cache.size());
+            assertTrue("cache should be invalidated by a mutation", client.existsOnServer(packId));
+            assertTrue(client.getAsyncPackageManager().existsOnServer(packId).get());
+            assertEquals(11L, cache.getHitCount());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Holds each delete on the server until released, after the request has been sent but before the package is
+     * removed.
+     */
+    static class BlockingDeleteClient extends StubPackageManagerClient {
+        volatile CountDownLatch sent = new CountDownLatch(1);
+        volatile CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        protected void beforeCommand(String cmd) throws Exception {
+            if (CMD_DELETE.equals(cmd)) {
+                sent.countDown();
+                assertTrue("delete should be released", release.await(10L, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    public void testListDuringMutationIsNotCached() throws Exception {
+        final PackId packId = PackId.createPackId("group", "name", "1.0");
+        final BlockingDeleteClient client = new BlockingDeleteClient();
+        client.setBaseUrl(BASE_URL);
+        final ListResponseCache cache = new ListResponseCache();
+        client.setListResponseCache(cache);
+        client.packages.add(packId);
+
+        Thread delete = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    client.delete(packId);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        delete.start();
+        assertTrue(client.sent.await(10L, TimeUnit.SECONDS));
+        assertTrue("list sent while the delete is in flight sees the package", client.existsOnServer(packId));
+        client.release.countDown();
+        delete.join(10000L);
+        assertFalse("stale list response should not outlive the delete", client.existsOnServer(packId));
+
+        client.packages.add(packId);
+        cache.clear();
+        client.sent = new CountDownLatch(1);
+        client.release = new CountDownLatch(1);
+        CompletableFuture<SimpleResponse> future = client.getAsyncPackageManager().delete(packId);
+        assertTrue(client.sent.await(10L, TimeUnit.SECONDS));
+        assertTrue("list sent while the delete is in flight sees the package",
+                client.getAsyncPackageManager().existsOnServer(packId).get());
+        client.release.countDown();
+        assertTrue(future.get(10L, TimeUnit.SECONDS).isSuccess());
+        assertFalse("stale list response should not outlive the async delete",
+                client.getAsyncPackageManager().existsOnServer(packId).get());
+    }
+
+    @Test
+    public void testCancellingAsyncMutationCancelsRequest() throws Exception {
+        final PackId packId = PackId.createPackId("group", "name", "1.0");
+        PendingRequestClient client = new PendingRequestClient();
+        client.setBaseUrl(BASE_URL);
+        client.setListResponseCache(new ListResponseCache());
+
+        CompletableFuture<SimpleResponse> future = client.getAsyncPackageManager().delete(packId);
+        assertTrue(future.cancel(true));
+        assertTrue("cancelling the returned future should cancel the request", client.request.isCancelled());
+    }
+
+    static class PendingRequestClient extends StubPackageManagerClient {
+        final CompletableFuture<SimpleResponse> request = new CompletableFuture<SimpleResponse>();
+
+        @Override
+        protected ResponseBuilder getResponseBuilder() {
+            return new StubResponseBuilder() {
+                @Override
+                protected CompletableFuture<SimpleResponse> getSimpleResponseAsync(Executor executor) {
+                    return request;
+                }
+            };
+        }
+    }
+}
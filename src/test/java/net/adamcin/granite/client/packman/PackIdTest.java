@@ -0,0 +1,253 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PackIdTest {
+
+    private static final String PROPERTIES_XML = "<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"no\"?>\n"
+            + "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n"
+            + "<properties>\n"
+            + "<comment>FileVault Package Properties</comment>\n"
+            + "<entry key=\"group\">my_packages</entry>\n"
+            + "<entry key=\"name\">example</entry>\n"
+            + "<entry key=\"version\">1.0</entry>\n"
+            + "</properties>\n";
+
+    private static File copyResource(String resource) throws IOException {
+        File file = new File("target/packid" + resource);
+        file.getParentFile().mkdirs();
+        InputStream is = PackIdTest.class.getResourceAsStream(resource);
+        OutputStream os = new FileOutputStream(file);
+        try {
+            IOUtils.copy(is, os);
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(os);
+        }
+        return file;
+    }
+
+    private static void writeZip(File file, int padEntries, String comment, String propertiesXml, int method)
+            throws IOException {
+        file.getParentFile().mkdirs();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            if (comment != null) {
+                zos.setComment(comment);
+            }
+            zos.setMethod(method);
+            for (int i = 0; i < padEntries; i++) {
+                ZipEntry entry = new ZipEntry("jcr_root/pad/" + i + ".txt");
+                if (method == ZipEntry.STORED) {
+                    entry.setSize(0);
+                    entry.setCrc(0);
+                }
+                zos.putNextEntry(entry);
+                zos.closeEntry();
+            }
+            if (propertiesXml != null) {
+                byte[] data = propertiesXml.getBytes("UTF-8");
+                ZipEntry entry = new ZipEntry(PackId.PROPERTIES_ENTRY);
+                if (method == ZipEntry.STORED) {
+                    java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+                    crc.update(data);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+    }
+
+    @Test
+    public void testIdentifyPackageResources() throws IOException {
+        for (String resource : Arrays.asList("/test-packmgr-client-1.0.zip", "/test-embedded-package-1.0.zip",
+                "/recap-0.8.0.zip")) {
+            File file = copyResource(resource);
+            PackId expected = PackId.identifyJarFile(file);
+            assertNotNull(resource, expected);
+            assertEquals(resource, expected, PackId.identifyZipDirectory(file));
+            assertEquals(resource, expected, PackId.identifyPackage(file));
+        }
+        assertEquals(PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0"),
+                PackId.identifyPackage(new File("target/packid/test-packmgr-client-1.0.zip")));
+    }
+
+    @Test
+    public void testIdentifyStoredAndCommented() throws IOException {
+        PackId expected = PackId.createPackId("my_packages", "example", "1.0");
+
+        File stored = new File("target/packid/stored.zip");
+        writeZip(stored, 3, null, PROPERTIES_XML, ZipEntry.STORED);
+        assertEquals(expected, PackId.identifyZipDirectory(stored));
+
+        File commented = new File("target/packid/commented.zip");
+        writeZip(commented, 3, "a comment that contains PK\u0005\u0006 in it", PROPERTIES_XML, ZipEntry.DEFLATED);
+        assertEquals(expected, PackId.identifyZipDirectory(commented));
+    }
+
+    @Test
+    public void testIdentifyZip64() throws IOException {
+        File zip64 = new File("target/packid/zip64.zip");
+        writeZip(zip64, 0x10000, null, PROPERTIES_XML, ZipEntry.DEFLATED);
+
+        ZipDirectory zip = ZipDirectory.open(zip64);
+        try {
+            assertEquals("entry count should come from the zip64 END record", 0x10001L, zip.size());
+        } finally {
+            zip.close();
+        }
+        assertEquals(PackId.createPackId("my_packages", "example", "1.0"), PackId.identifyZipDirectory(zip64));
+    }
+
+    @Test
+    public void testIdentifyWithoutProperties() throws IOException {
+        File bundle = new File("target/packid/example-bundle-1.0.zip");
+        writeZip(bundle, 2, null, null, ZipEntry.DEFLATED);
+        assertNull(PackId.identifyPackage(bundle));
+        PackId fromName = PackId.identifyPackage(bundle, false);
+        assertNotNull(fromName);
+        assertEquals("example-bundle", fromName.getName());
+        assertEquals("1.0", fromName.getVersion());
+    }
+
+    @Test
+    public void testFallbackToJarFile() throws IOException {
+        String withInternalSubset = PROPERTIES_XML.replace(
+                "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">",
+                "<!DOCTYPE properties [<!ENTITY grp \"my_packages\">]>").replace(">my_packages<", ">&grp;<");
+        File file = new File("target/packid/internal-subset.zip");
+        writeZip(file, 1, null, withInternalSubset, ZipEntry.DEFLATED);
+        try {
+            PackId.identifyZipDirectory(file);
+            fail("an internal DTD subset should not be handled by the lightweight scanner");
+        } catch (IOException e) {
+            // expected
+        }
+
+        File notZip = new File("target/packid/not-a-zip.zip");
+        OutputStream os = new FileOutputStream(notZip);
+        try {
+            os.write("not a zip file".getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        try {
+            PackId.identifyPackage(notZip);
+            fail("a file that is not a zip should still fail to open");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPropertiesXmlScanner() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("group", "a & b <c> \"d\" 'e'");
+        props.setProperty("name", "néme-中");
+        props.setProperty("version", "");
+        props.setProperty("description", "<![CDATA[ignored]]> </entry>");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        props.storeToXML(out, "comment with <entry key=\"group\">wrong</entry>", "UTF-8");
+
+        Properties scanned = PropertiesXmlScanner.scan(out.toByteArray(),
+                Arrays.asList("group", "name", "version", "path"));
+        assertEquals(props.getProperty("group"), scanned.getProperty("group"));
+        assertEquals(props.getProperty("name"), scanned.getProperty("name"));
+        assertEquals("", scanned.getProperty("version"));
+        assertNull(scanned.getProperty("path"));
+        assertNull("unrequested keys should not be extracted", scanned.getProperty("description"));
+
+        Properties cdata = PropertiesXmlScanner.scan(
+                "<properties><entry key='group'>x<![CDATA[<y>&]]>z&#x41;&#66;</entry></properties>".getBytes("UTF-8"),
+                Arrays.asList("group"));
+        assertEquals("x<y>&zAB", cdata.getProperty("group"));
+    }
+
+    @Test
+    public void testPropertiesXmlScannerRequiresPropertiesRoot() throws Exception {
+        for (String xml : Arrays.asList(
+                "<props><entry key='group'>x</entry></props>",
+                "<properties><entry key='group'>x</entry>",
+                "<entry key='group'>x</entry>",
+                "<properties></properties><entry key='group'>x</entry>",
+                "<properties><other/><entry key='group'>x</entry></properties>",
+                "<properties><entry key='group'>x</entry></properties>trailing")) {
+            try {
+                PropertiesXmlScanner.scan(xml.getBytes("UTF-8"), Arrays.asList("group"));
+                fail("should be rejected: " + xml);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals("x", PropertiesXmlScanner.scan(
+                "<!-- c --><properties>\n<entry key='group'>x</entry>\n</properties>\n".getBytes("UTF-8"),
+                Arrays.asList("group")).getProperty("group"));
+    }
+
+    @Test
+    public void testCorruptEntryFailsCrcCheck() throws Exception {
+        File file = new File("target/packid/corrupt-crc.zip");
+        writeZip(file, 1, null, PROPERTIES_XML, ZipEntry.STORED);
+        byte[] bytes = FileUtils.readFileToByteArray(file);
+        String latin = new String(bytes, "ISO-8859-1");
+        int pos = latin.indexOf(">my_packages<");
+        assertTrue(pos > 0);
+        bytes[pos + 1] = 'M';
+        FileUtils.writeByteArrayToFile(file, bytes);
+        try {
+            PackId.identifyZipDirectory(file);
+            fail("a corrupt properties.xml entry should fail the CRC check");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CRC"));
+        }
+    }
+}
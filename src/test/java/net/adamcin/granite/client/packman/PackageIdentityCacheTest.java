@@ -0,0 +1,323 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PackageIdentityCacheTest {
+
+    private static final PackId CLIENT_PACKAGE = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+
+    private File dir;
+    private File cacheFile;
+    private File packageFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("packman-idcache").toFile();
+        cacheFile = new File(dir, "identity.cache");
+        packageFile = new File(dir, "test-packmgr-client-1.0.zip");
+        InputStream is = getClass().getResourceAsStream("/test-packmgr-client-1.0.zip");
+        OutputStream os = new FileOutputStream(packageFile);
+        try {
+            IOUtils.copy(is, os);
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        PackageIdentityCache.setDefault(null);
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private void scramble(File file) throws IOException {
+        final long lastModified = file.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(new byte[(int) raf.length()]);
+        } finally {
+            raf.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+    }
+
+    @Test
+    public void testIdentifyPersists() throws IOException {
+        PackageIdentityCache cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertEquals(CLIENT_PACKAGE, cache.identify(packageFile));
+            assertEquals(CLIENT_PACKAGE, cache.identify(packageFile));
+            assertEquals(1L, cache.getHitCount());
+            assertEquals(1L, cache.getMissCount());
+        } finally {
+            cache.close();
+        }
+
+        scramble(packageFile);
+        cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertEquals("a reopened cache should not need to read the unchanged package",
+                    CLIENT_PACKAGE, cache.identify(packageFile));
+            assertEquals(1L, cache.getHitCount());
+
+            cache.setVerifyContent(true);
+            try {
+                cache.identify(packageFile);
+                fail("verifying content should detect the scrambled package");
+            } catch (IOException e) {
+                // expected, the package is no longer a zip
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testNotAPackage() throws IOException {
+        File bundle = new File(dir, "bundle.zip");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(bundle));
+        try {
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+
+        PackageIdentityCache cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertNull(cache.identify(bundle));
+        } finally {
+            cache.close();
+        }
+
+        cache = PackageIdentityCache.open(cacheFile);
+        try {
+            scramble(bundle);
+            assertNull("a non-package result should be reused", cache.identify(bundle));
+            assertEquals(1L, cache.getHitCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        PackageIdentityCache cache = PackageIdentityCache.open(cacheFile);
+        try {
+            cache.identify(packageFile);
+        } finally {
+            cache.close();
+        }
+
+        final long goodLength = cacheFile.length();
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+        try {
+            raf.seek(goodLength);
+            raf.writeInt(1000);
+            raf.write(new byte[10]);
+        } finally {
+            raf.close();
+        }
+
+        cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertEquals(goodLength, cacheFile.length());
+            assertEquals(1, cache.size());
+            assertTrue(packageFile.setLastModified(packageFile.lastModified() - 10000L));
+            cache.identify(packageFile);
+        } finally {
+            cache.close();
+        }
+
+        scramble(packageFile);
+        cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertEquals("records appended after a torn tail should be readable",
+                    CLIENT_PACKAGE, cache.identify(packageFile));
+            assertEquals(1L, cache.getHitCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        PackageIdentityCache cache = PackageIdentityCache.open(cacheFile);
+        try {
+            final long lastModified = packageFile.lastModified();
+            for (int i = 0; i < 100; i++) {
+                // each change to the package replaces its record
+                assertTrue(packageFile.setLastModified(lastModified - 1000L * (100 - i)));
+                cache.identify(packageFile);
+            }
+        } finally {
+            cache.close();
+        }
+
+        final long before = cacheFile.length();
+        scramble(packageFile);
+        cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertTrue("replaced records should be compacted away", cacheFile.length() < before / 10);
+            assertEquals(1, cache.size());
+            assertEquals(CLIENT_PACKAGE, cache.identify(packageFile));
+        } finally {
+            cache.close();
+        }
+
+        cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertEquals(CLIENT_PACKAGE, cache.identify(packageFile));
+            assertEquals(1L, cache.getHitCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testCompactionWhileSharedWithAnotherCache() throws IOException {
+        File other = new File(dir, "other.zip");
+        FileUtils.copyFile(packageFile, other);
+        File third = new File(dir, "third.zip");
+        FileUtils.copyFile(packageFile, third);
+
+        // stands in for another process which opened the file before it was compacted
+        PackageIdentityCache first = PackageIdentityCache.open(cacheFile);
+        try {
+            final long lastModified = packageFile.lastModified();
+            for (int i = 0; i < 100; i++) {
+                assertTrue(packageFile.setLastModified(lastModified - 1000L * (100 - i)));
+                first.identify(packageFile);
+            }
+
+            PackageIdentityCache second = PackageIdentityCache.open(cacheFile);
+            try {
+                assertEquals("the second cache should compact the file", 1, second.size());
+                first.identify(other);
+                second.identify(third);
+            } finally {
+                second.close();
+            }
+        } finally {
+            first.close();
+        }
+
+        File[] temps = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File parent, String name) {
+                return name.endsWith(".tmp");
+            }
+        });
+        assertEquals("no temporary file should be left", 0, temps.length);
+
+        PackageIdentityCache cache = PackageIdentityCache.open(cacheFile);
+        try {
+            assertEquals("appends to a replaced file should move to the compacted file", 3, cache.size());
+            assertEquals(CLIENT_PACKAGE, cache.identify(other));
+            assertEquals(CLIENT_PACKAGE, cache.identify(third));
+            assertEquals(2L, cache.getHitCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void testIdentifyWhileFileIsLockedElsewhere() throws IOException {
+        PackageIdentityCache cache = PackageIdentityCache.open(cacheFile);
+        try {
+            // stands in for another process which holds the lock
+            FileChannel other = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                FileLock lock = other.lock();
+                try {
+                    assertEquals("identify should neither wait for nor fail on the lock",
+                            CLIENT_PACKAGE, cache.identify(packageFile));
+                    assertEquals(CLIENT_PACKAGE, cache.identify(packageFile));
+                    assertEquals("the entry should be kept in memory", 1L, cache.getHitCount());
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                other.close();
+            }
+        } finally {
+            cache.close();
+        }
+
+        PackageIdentityCache reopened = PackageIdentityCache.open(cacheFile);
+        try {
+            assertEquals("the entry should not have been persisted", 0, reopened.size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsForeignFile() throws IOException {
+        FileUtils.writeStringToFile(cacheFile, "not a cache file", "UTF-8");
+        PackageIdentityCache.open(cacheFile);
+    }
+
+    @Test
+    public void testDefaultCache() throws IOException {
+        PackageIdentityCache cache = PackageIdentityCache.open(cacheFile);
+        try {
+            PackageIdentityCache.setDefault(cache);
+            assertEquals(CLIENT_PACKAGE, PackId.identifyPackage(packageFile));
+            assertEquals(CLIENT_PACKAGE, PackId.identifyPackage(packageFile));
+            assertEquals(1L, cache.getHitCount());
+        } finally {
+            cache.close();
+        }
+        assertNull("closing the default cache should clear it", PackageIdentityCache.getDefault());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PackageInventoryTest {
+
+    private static ListResult result(String group, String name, String version) {
+        return new AbstractPackageManagerClient.ListResultImpl(PackId.createPackId(group, name, version), false, false);
+    }
+
+    private static List<String> versions(List<ListResult> results) {
+        List<String> versions = new ArrayList<String>();
+        for (ListResult result : results) {
+            versions.add(result.getPackId().getVersion());
+        }
+        return versions;
+    }
+
+    private final PackageInventory inventory = new PackageInventory(Arrays.asList(
+            result("adamcin", "core", "1.10"),
+            result("adamcin", "core", "1.2"),
+            result("adamcin", "core", "1.9-SNAPSHOT"),
+            result("adamcin/apps", "core", "2.0"),
+            result("adamcin/apps", "ui", "2.0"),
+            result("other", "ui", "1.0")
+    ));
+
+    @Test
+    public void testLookups() {
+        assertEquals(6, inventory.size());
+        assertTrue(inventory.contains(PackId.createPackId("adamcin", "core", "1.2")));
+        assertFalse(inventory.contains(PackId.createPackId("adamcin", "core", "1.3")));
+        assertFalse(inventory.contains(null));
+        assertNotNull(inventory.get(PackId.createPackId("other", "ui", "1.0")));
+        assertEquals(Arrays.asList("adamcin", "adamcin/apps", "other"), new ArrayList<String>(inventory.getGroups()));
+    }
+
+    @Test
+    public void testVersions() {
+        assertEquals("versions should be in version order, not lexical order",
+                Arrays.asList("1.2", "1.9-SNAPSHOT", "1.10"), versions(inventory.getVersions("adamcin", "core")));
+        assertEquals("1.10", inventory.getLatest("adamcin", "core").getPackId().getVersion());
+        assertNull(inventory.getLatest("adamcin", "missing"));
+        assertTrue(inventory.getVersions("adamcin", "missing").isEmpty());
+    }
+
+    @Test
+    public void testGroupQueries() {
+        assertEquals(3, inventory.getByGroup("adamcin").size());
+        assertEquals(5, inventory.getByGroupPrefix("adamcin").size());
+        assertEquals(2, inventory.getByGroupPrefix("adamcin/").size());
+        assertEquals(0, inventory.getByGroupPrefix("zzz").size());
+        assertEquals(2, inventory.getByName("ui").size());
+        assertEquals(6, inventory.getByGroupPrefix("").size());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import static org.junit.Assert.*;
+
+public class PackageScannerTest {
+
+    private static final PackId CLIENT_PACKAGE = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+
+    private File dir;
+
+    private static void copyResource(String resource, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        InputStream is = PackageScannerTest.class.getResourceAsStream(resource);
+        OutputStream os = new FileOutputStream(file);
+        try {
+            IOUtils.copy(is, os);
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("packman-scanner").toFile();
+        copyResource("/test-packmgr-client-1.0.zip", new File(dir, "a/test-packmgr-client-1.0.zip"));
+        copyResource("/test-packmgr-client-1.0.zip", new File(dir, "b/c/copy.ZIP"));
+        copyResource("/test-embedded-package-1.0.zip", new File(dir, "b/embedded.zip"));
+        copyResource("/recap-0.8.0.zip", new File(dir, "recap.jar"));
+        FileUtils.writeStringToFile(new File(dir, "b/corrupt.zip"), "not a zip", "UTF-8");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        PackageScanner scanner = new PackageScanner().setParallelism(2);
+        SortedMap<PackId, File> packages = scanner.scan(dir);
+
+        PackId embedded = PackId.identifyPackage(new File(dir, "b/embedded.zip"));
+        assertNotNull(embedded);
+        assertEquals("only files with a .zip extension should be identified",
+                Arrays.asList(embedded, CLIENT_PACKAGE), Arrays.asList(packages.keySet().toArray()));
+        assertEquals("the lowest path should win for duplicate ids",
+                new File(dir, "a/test-packmgr-client-1.0.zip").getAbsoluteFile(), packages.get(CLIENT_PACKAGE));
+        assertEquals("corrupt and duplicate files should be remembered too", 4, scanner.getCacheSize());
+    }
+
+    @Test
+    public void testReuseUnchangedFiles() throws IOException {
+        PackageScanner scanner = new PackageScanner();
+        File file = new File(dir, "a/test-packmgr-client-1.0.zip");
+        assertTrue(scanner.scan(dir).containsKey(CLIENT_PACKAGE));
+
+        // overwrite the file in place, keeping its size and mtime, so only a cached result can identify it
+        final long lastModified = file.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(new byte[(int) raf.length()]);
+        } finally {
+            raf.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+        assertEquals("unchanged size, mtime and inode should reuse the result",
+                new File(dir, "a/test-packmgr-client-1.0.zip").getAbsoluteFile(),
+                scanner.scan(dir).get(CLIENT_PACKAGE));
+
+        assertTrue(file.setLastModified(lastModified - 10000L));
+        assertEquals("a changed mtime should identify the file again",
+                new File(dir, "b/c/copy.ZIP").getAbsoluteFile(), scanner.scan(dir).get(CLIENT_PACKAGE));
+
+        assertTrue(new File(dir, "b/c/copy.ZIP").delete());
+        assertFalse(scanner.scan(dir).containsKey(CLIENT_PACKAGE));
+        assertEquals("removed files should be forgotten", 3, scanner.getCacheSize());
+    }
+
+    @Test(expected = IOException.class)
+    public void testScanMissingDirectory() throws IOException {
+        new PackageScanner().scan(new File(dir, "missing"));
+    }
+
+    @Test
+    public void testSkipBrokenSymbolicLink() throws IOException {
+        // a link whose target is gone fails like a file removed between listing the directory and reading it
+        Files.createSymbolicLink(new File(dir, "b/broken.zip").toPath(), new File(dir, "b/missing.zip").toPath());
+        SortedMap<PackId, File> packages = new PackageScanner().scan(dir);
+        assertTrue(packages.containsKey(CLIENT_PACKAGE));
+        assertEquals(2, packages.size());
+    }
+}
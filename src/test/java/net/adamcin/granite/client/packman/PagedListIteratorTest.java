@@ -0,0 +1,160 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.granite.client.packman.fake.FakePackageManagerServer;
+import net.adamcin.granite.client.packman.http4.Http4PackageManagerClient;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class PagedListIteratorTest {
+
+    /**
+     * Serves pages of {@code total} generated results, and records each request.
+     */
+    static class StubFetcher implements PagedListIterator.Fetcher {
+        final int total;
+        final boolean ignorePaging;
+        final List<Integer> starts = new ArrayList<Integer>();
+        final List<CompletableFuture<ListResponse>> futures = new ArrayList<CompletableFuture<ListResponse>>();
+
+        StubFetcher(int total, boolean ignorePaging) {
+            this.total = total;
+            this.ignorePaging = ignorePaging;
+        }
+
+        public CompletableFuture<ListResponse> fetch(int start, int limit) {
+            starts.add(start);
+            int first = ignorePaging ? 0 : start;
+            int last = ignorePaging ? total : Math.min(total, start + limit);
+            List<ListResult> results = new ArrayList<ListResult>();
+            for (int i = first; i < last; i++) {
+                results.add(new AbstractPackageManagerClient.ListResultImpl(
+                        PackId.createPackId("group", "name" + i, "1.0"), false, false));
+            }
+            CompletableFuture<ListResponse> future = CompletableFuture.<ListResponse>completedFuture(
+                    new AbstractPackageManagerClient.ListResponseImpl(results, total));
+            futures.add(future);
+            return future;
+        }
+    }
+
+    @Test
+    public void testPaging() {
+        StubFetcher fetcher = new StubFetcher(25, false);
+        PagedListIterator iterator = new PagedListIterator(fetcher, 10);
+        assertTrue("nothing is requested before iteration", fetcher.starts.isEmpty());
+
+        int count = 0;
+        while (iterator.hasNext()) {
+            assertEquals("name" + count, iterator.next().getPackId().getName());
+            count++;
+        }
+        assertEquals(25, count);
+        assertEquals("pages are requested in order", "[0, 10, 20]", fetcher.starts.toString());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testPrefetchAndEarlyTermination() {
+        StubFetcher fetcher = new StubFetcher(100, false);
+        PagedListIterator iterator = new PagedListIterator(fetcher, 10);
+        assertEquals("name0", iterator.next().getPackId().getName());
+        assertEquals("second page is prefetched", "[0, 10]", fetcher.starts.toString());
+
+        iterator.close();
+        assertFalse("closed iterator has no more results", iterator.hasNext());
+        assertEquals("no further pages are requested", 2, fetcher.starts.size());
+    }
+
+    @Test
+    public void testServerIgnoresPaging() {
+        StubFetcher fetcher = new StubFetcher(25, true);
+        PagedListIterator iterator = new PagedListIterator(fetcher, 10);
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals("unpaged response is treated as the complete list", 25, count);
+        assertEquals(1, fetcher.starts.size());
+    }
+
+    @Test
+    public void testError() {
+        PagedListIterator iterator = new PagedListIterator(new PagedListIterator.Fetcher() {
+            public CompletableFuture<ListResponse> fetch(int start, int limit) {
+                CompletableFuture<ListResponse> future = new CompletableFuture<ListResponse>();
+                future.completeExceptionally(new IOException("Invalid status code: 500"));
+                return future;
+            }
+        }, 10);
+        try {
+            iterator.hasNext();
+            fail("hasNext should rethrow the error");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertFalse("iterator is closed after an error", iterator.hasNext());
+    }
+
+    @Test
+    public void testListIterable() throws Exception {
+        FakePackageManagerServer server = new FakePackageManagerServer().start();
+        Http4PackageManagerClient client = new Http4PackageManagerClient();
+        try {
+            for (int i = 0; i < 50; i++) {
+                server.putPackage(PackId.createPackId("group", "name" + i, "1.0"), new byte[0]);
+            }
+            client.setBaseUrl(server.getBaseUrl());
+
+            int count = 0;
+            for (ListResult result : client.listIterable(null, 7)) {
+                assertEquals("name" + count, result.getPackId().getName());
+                count++;
+            }
+            assertEquals(50, count);
+
+            long before = server.getRequestCount();
+            PagedListIterator iterator = client.listIterable("name3", 2).iterator();
+            assertEquals("name3", iterator.next().getPackId().getName());
+            iterator.close();
+            assertTrue("first match should not require the whole list", server.getRequestCount() - before <= 2);
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+}
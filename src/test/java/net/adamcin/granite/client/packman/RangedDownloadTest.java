@@ -0,0 +1,233 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RangedDownloadTest {
+
+    /**
+     * Serves ranges of an in-memory package, optionally failing one segment or ignoring the range header.
+     */
+    static class ByteArrayFetcher implements RangedDownload.Fetcher {
+        final byte[] content;
+        final String validator;
+        final AtomicInteger requests = new AtomicInteger();
+        volatile long failAt = -1L;
+        volatile boolean ignoreRange = false;
+
+        ByteArrayFetcher(byte[] content, String validator) {
+            this.content = content;
+            this.validator = validator;
+        }
+
+        public AbstractPackageManagerClient.RangeResponse fetch(long first, long last, FileChannel channel,
+                                                                boolean acceptFull) throws Exception {
+            requests.incrementAndGet();
+            if (first == failAt) {
+                throw new IOException("connection reset");
+            }
+            if (ignoreRange) {
+                AbstractPackageManagerClient.checkRangeResponseStatus(200, "OK", acceptFull);
+                channel.write(ByteBuffer.wrap(content), 0L);
+                return AbstractPackageManagerClient.createRangeResponse(200, null, validator, first, content.length);
+            }
+            if (first >= content.length) {
+                AbstractPackageManagerClient.checkRangeResponseStatus(416, "Requested Range Not Satisfiable",
+                        acceptFull);
+            }
+            int end = (int) Math.min(last + 1L, content.length);
+            channel.write(ByteBuffer.wrap(content, (int) first, end - (int) first), first);
+            return AbstractPackageManagerClient.createRangeResponse(206,
+                    "bytes " + first + "-" + (end - 1) + "/" + content.length, validator, first, end - first);
+        }
+    }
+
+    static byte[] randomContent(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    File prepareTarget(String name) {
+        File target = new File("target/ranged-download-test/" + name);
+        target.getParentFile().mkdirs();
+        FileUtils.deleteQuietly(target);
+        FileUtils.deleteQuietly(new File(target.getPath() + RangedDownload.PART_SUFFIX));
+        FileUtils.deleteQuietly(new File(target.getPath() + RangedDownload.PART_SUFFIX + RangedDownload.STATE_SUFFIX));
+        return target;
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            File target = prepareTarget("segmented.zip");
+            ByteArrayFetcher fetcher = new ByteArrayFetcher(randomContent(10000), "\"v1\"");
+            RangedDownload download = new RangedDownload(target, 1024L, 4, executor, fetcher);
+
+            DownloadResponse response = download.download();
+            assertEquals("content length", 10000L, response.getLength().longValue());
+            assertArrayEquals("content matches", fetcher.content, FileUtils.readFileToByteArray(target));
+            assertEquals("one request per segment", 10, fetcher.requests.get());
+            assertFalse("part file is moved", download.getPartFile().exists());
+            assertFalse("state file is removed", download.getStateFile().exists());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testResumeAfterFailure() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File target = prepareTarget("resumed.zip");
+            ByteArrayFetcher fetcher = new ByteArrayFetcher(randomContent(10000), "\"v1\"");
+            fetcher.failAt = 5L * 1024L;
+
+            try {
+                new RangedDownload(target, 1024L, 1, executor, fetcher).download();
+                fail("expected failure of segment 5");
+            } catch (IOException e) {
+                assertEquals("connection reset", e.getMessage());
+            }
+            assertFalse("target is not created", target.exists());
+
+            fetcher.failAt = -1L;
+            fetcher.requests.set(0);
+            RangedDownload resumed = new RangedDownload(target, 4096L, 2, executor, fetcher);
+            resumed.download();
+            assertEquals("completed segments are not requested again", 5, fetcher.requests.get());
+            assertArrayEquals("content matches", fetcher.content, FileUtils.readFileToByteArray(target));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestartWhenPackageChanged() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File target = prepareTarget("changed.zip");
+            ByteArrayFetcher fetcher = new ByteArrayFetcher(randomContent(10000), "\"v1\"");
+            fetcher.failAt = 5L * 1024L;
+            try {
+                new RangedDownload(target, 1024L, 2, executor, fetcher).download();
+                fail("expected failure of segment 5");
+            } catch (IOException e) {
+                // expected
+            }
+
+            ByteArrayFetcher changed = new ByteArrayFetcher(randomContent(9000), "\"v2\"");
+            new RangedDownload(target, 1024L, 2, executor, changed).download();
+            assertEquals("all segments are requested again", 9, changed.requests.get());
+            assertArrayEquals("content matches", changed.content, FileUtils.readFileToByteArray(target));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRestartWhenPackageShrank() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File target = prepareTarget("shrank.zip");
+            ByteArrayFetcher fetcher = new ByteArrayFetcher(randomContent(10000), "\"v1\"");
+            fetcher.failAt = 8L * 1024L;
+            try {
+                new RangedDownload(target, 1024L, 1, executor, fetcher).download();
+                fail("expected failure of segment 8");
+            } catch (IOException e) {
+                // expected
+            }
+
+            // the resumed probe asks for segment 8, which is past the end of the smaller package
+            ByteArrayFetcher shrunk = new ByteArrayFetcher(randomContent(6000), "\"v2\"");
+            RangedDownload resumed = new RangedDownload(target, 1024L, 2, executor, shrunk);
+            resumed.download();
+            assertEquals("rejected probe and all segments are requested", 7, shrunk.requests.get());
+            assertArrayEquals("content matches", shrunk.content, FileUtils.readFileToByteArray(target));
+            assertFalse("part file is moved", resumed.getPartFile().exists());
+            assertFalse("state file is removed", resumed.getStateFile().exists());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testServerIgnoresRange() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File target = prepareTarget("full.zip");
+            ByteArrayFetcher fetcher = new ByteArrayFetcher(randomContent(10000), null);
+            fetcher.ignoreRange = true;
+
+            new RangedDownload(target, 1024L, 2, executor, fetcher).download();
+            assertEquals("single request", 1, fetcher.requests.get());
+            assertArrayEquals("content matches", fetcher.content, FileUtils.readFileToByteArray(target));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCreateRangeResponse() throws Exception {
+        AbstractPackageManagerClient.RangeResponse response =
+                AbstractPackageManagerClient.createRangeResponse(206, "bytes 1024-2047/10000", "\"v1\"", 1024L, 1024L);
+        assertFalse("partial", response.isFull());
+        assertEquals("total", 10000L, response.getTotal());
+        assertEquals("validator", "\"v1\"", response.getValidator());
+
+        try {
+            AbstractPackageManagerClient.createRangeResponse(206, "bytes 0-1023/10000", null, 1024L, 1024L);
+            fail("range start must match the request");
+        } catch (IOException e) {
+            // expected
+        }
+
+        try {
+            AbstractPackageManagerClient.checkRangeResponseStatus(200, "OK", false);
+            fail("200 must be rejected for a segment request");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
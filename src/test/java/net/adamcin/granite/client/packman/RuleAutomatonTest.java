@@ -0,0 +1,167 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class RuleAutomatonTest {
+
+    private static final String[] ATOMS = {"a", "b", "/", "\\.", ".", "[ab]", "[^a/]", "[a-c]", "\\d", "\\w", "\\s",
+            "\\/", "[-a]", "[a-]", "\\Qa.b\\E", "\u00e9", "\ud83d\ude00", "[\ud83d\ude00b]", "\\u0061", "\\x2F", "]"};
+
+    private static final String[] QUANTIFIERS = {"*", "+", "?", "{2}", "{1,3}", "{0,}", "*?", "+?", "??", "{2,}?"};
+
+    private static int expectedLastMatch(List<String> patterns, RuleAutomaton automaton, String path) {
+        int expected = -1;
+        for (int i = 0; i < patterns.size(); i++) {
+            if (automaton.isSupported(i) && Pattern.compile(patterns.get(i)).matcher(path).matches()) {
+                expected = i;
+            }
+        }
+        return expected;
+    }
+
+    private static void assertSameAsRegex(List<String> patterns, List<String> paths) {
+        RuleAutomaton automaton = RuleAutomaton.compile(patterns);
+        for (String path : paths) {
+            assertEquals(patterns + " " + path,
+                    expectedLastMatch(patterns, automaton, path), automaton.lastMatch(path));
+        }
+    }
+
+    private static String randomPattern(Random random, int depth) {
+        switch (random.nextInt(depth > 3 ? 3 : 7)) {
+            case 0:
+            case 1:
+            case 2:
+                return ATOMS[random.nextInt(ATOMS.length)];
+            case 3:
+                return randomPattern(random, depth + 1) + randomPattern(random, depth + 1);
+            case 4:
+                return "(" + (random.nextBoolean() ? "?:" : "") + randomPattern(random, depth + 1)
+                        + "|" + randomPattern(random, depth + 1) + ")";
+            case 5:
+                return "(" + randomPattern(random, depth + 1) + ")" + QUANTIFIERS[random.nextInt(QUANTIFIERS.length)];
+            default:
+                return randomPattern(random, depth + 1) + randomPattern(random, depth + 1)
+                        + randomPattern(random, depth + 1);
+        }
+    }
+
+    private static String randomPath(Random random) {
+        final String chars = "ab/ab/aab.x1\u00e9";
+        StringBuilder sb = new StringBuilder();
+        final int length = random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(20) == 0) {
+                sb.append("\ud83d\ude00");
+            } else {
+                sb.append(chars.charAt(random.nextInt(chars.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testFilterPatterns() {
+        List<String> patterns = Arrays.asList(
+                "/apps/example(/.*)?",
+                "/apps/example/install(/.*)?",
+                "/apps/example/install/keep\\.jar",
+                "^/apps/example/config\\.[a-z]+(/.*)?$",
+                "/apps/[^/]+/components/.*",
+                "/apps/example/i18n/\\w{2}(_\\w{2})?\\.json");
+        assertSameAsRegex(patterns, Arrays.asList(
+                "", "/", "/apps", "/apps/example", "/apps/examples", "/apps/example/install",
+                "/apps/example/install/x.jar", "/apps/example/install/keep.jar", "/apps/example/install/keepxjar",
+                "/apps/example/config.author", "/apps/example/config.author/a.cfg", "/apps/example/config.",
+                "/apps/other/components/page", "/apps/other/x/components/page", "/apps/example/i18n/en.json",
+                "/apps/example/i18n/en_US.json", "/apps/example/i18n/eng.json", "/apps/example/\n"));
+    }
+
+    @Test
+    public void testUnsupportedPatterns() {
+        List<String> patterns = Arrays.asList("(?i)/apps", "/apps/(?!x).*", "(a)\\1", "/apps.*+", "[a[b]]",
+                "[a-z&&[^b]]", "\\b/apps", "\\p{L}+", "/apps|^/libs", "/apps$|/libs", "/apps/.*");
+        RuleAutomaton automaton = RuleAutomaton.compile(patterns);
+        for (int i = 0; i < patterns.size() - 1; i++) {
+            assertFalse(patterns.get(i), automaton.isSupported(i));
+        }
+        assertTrue(automaton.isSupported(patterns.size() - 1));
+        assertEquals("unsupported patterns should never match", patterns.size() - 1, automaton.lastMatch("/apps/x"));
+        assertEquals(-1, automaton.lastMatch("/apps"));
+    }
+
+    @Test
+    public void testRandomPatterns() {
+        Random random = new Random(20141017L);
+        for (int round = 0; round < 300; round++) {
+            List<String> patterns = new ArrayList<String>();
+            final int count = 1 + random.nextInt(6);
+            for (int i = 0; i < count; i++) {
+                patterns.add(randomPattern(random, 0));
+            }
+            List<String> paths = new ArrayList<String>();
+            for (int i = 0; i < 100; i++) {
+                paths.add(randomPath(random));
+            }
+            assertSameAsRegex(patterns, paths);
+        }
+    }
+
+    @Test
+    public void testStateBound() {
+        // the minimal DFA for this pattern has 2^13 states
+        List<String> patterns = Arrays.asList("(a|b)*a(a|b){12}", "b+");
+        RuleAutomaton automaton = RuleAutomaton.compile(patterns);
+        Random random = new Random(1L);
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 40; j++) {
+                sb.append(random.nextBoolean() ? 'a' : 'b');
+            }
+            paths.add(sb.toString());
+        }
+        assertSameAsRegex(patterns, paths);
+        for (String path : paths) {
+            automaton.lastMatch(path);
+        }
+        assertTrue(automaton.getStateCount() <= RuleAutomaton.MAX_DFA_STATES);
+        assertEquals(1, automaton.lastMatch("bbbb"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.granite.client.packman.fake.FakePackageManagerServer;
+import net.adamcin.granite.client.packman.http4.Http4PackageManagerClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ServiceAvailabilityMonitorTest {
+
+    private FakePackageManagerServer server;
+    private ServiceAvailabilityMonitor monitor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakePackageManagerServer().setFailureStatus(503).start();
+        monitor = new ServiceAvailabilityMonitor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        monitor.close();
+        server.close();
+    }
+
+    private AbstractPackageManagerClient newClient(long serviceTimeout) {
+        Http4PackageManagerClient client = new Http4PackageManagerClient();
+        client.setBaseUrl(server.getBaseUrl());
+        client.setServiceTimeout(serviceTimeout);
+        client.setServiceWaitStrategy(new BackoffServiceWaitStrategy().setInitialDelay(50L).setJitter(0.0));
+        client.setServiceAvailabilityMonitor(monitor);
+        return client;
+    }
+
+    @Test
+    public void testSharedProbe() throws Exception {
+        final int callers = 8;
+        server.failNextRequests(3);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < callers; i++) {
+                final AbstractPackageManagerClient client = newClient(10000L);
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        return client.waitForService();
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue("service should be available", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue("callers should share one probe, but sent " + server.getRequestCount() + " requests",
+                server.getRequestCount() < callers);
+        assertFalse("probe should stop once the service is available", monitor.isWatching(server.getBaseUrl()));
+
+        long before = server.getRequestCount();
+        assertTrue("a later caller should start a new probe", newClient(10000L).waitForService());
+        assertEquals("service is available, so one probe should be enough", before + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        server.setFailureRate(1.0);
+        AbstractPackageManagerClient client = newClient(300L);
+        long start = System.currentTimeMillis();
+        try {
+            client.waitForService();
+            fail("waitForService should time out");
+        } catch (IOException e) {
+            assertEquals("Service timeout exceeded.", e.getMessage());
+        }
+        assertTrue("waitForService should honor the service timeout",
+                System.currentTimeMillis() - start < 5000L);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory client for unit tests. Uploaded packages are tracked by id, and every request is counted by command.
+ */
+public class StubPackageManagerClient extends AbstractPackageManagerClient {
+
+    final Set<PackId> packages = Collections.newSetFromMap(new ConcurrentHashMap<PackId, Boolean>());
+    final ConcurrentHashMap<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    int count(String cmd) {
+        AtomicInteger count = counts.get(cmd);
+        return count != null ? count.get() : 0;
+    }
+
+    private void increment(String cmd) {
+        AtomicInteger count = new AtomicInteger();
+        AtomicInteger existing = counts.putIfAbsent(cmd, count);
+        (existing != null ? existing : count).incrementAndGet();
+    }
+
+    /**
+     * Called before each command is answered, so subclasses can delay or observe requests.
+     * @param cmd the command
+     * @throws Exception to fail the request
+     */
+    protected void beforeCommand(String cmd) throws Exception {
+    }
+
+    /**
+     * @param cmd the command
+     * @return whether the command should be answered as successful
+     */
+    protected boolean isSuccess(String cmd) {
+        return true;
+    }
+
+    @Override
+    public boolean login(String username, String password) throws IOException {
+        return true;
+    }
+
+    @Override
+    public void preemptLogin(String username, String password) {
+    }
+
+    @Override
+    protected Either<? extends Exception, Boolean> checkServiceAvailability(boolean checkTimeout,
+                                                                            long timeoutRemaining) {
+        return right(Exception.class, true);
+    }
+
+    @Override
+    protected ResponseBuilder getResponseBuilder() {
+        return new StubResponseBuilder();
+    }
+
+    class StubResponseBuilder extends ResponseBuilder {
+        PackId packId;
+        final Map<String, String> params = new HashMap<String, String>();
+
+        @Override
+        protected ResponseBuilder forPackId(PackId packId) {
+            this.packId = packId;
+            return this;
+        }
+
+        @Override
+        protected ResponseBuilder withParam(String name, String value) {
+            params.put(name, value);
+            return this;
+        }
+
+        @Override
+        protected ResponseBuilder withParam(String name, boolean value) {
+            return withParam(name, Boolean.toString(value));
+        }
+
+        @Override
+        protected ResponseBuilder withParam(String name, int value) {
+            return withParam(name, Integer.toString(value));
+        }
+
+        @Override
+        protected ResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
+            return withParam(name, value.getPath());
+        }
+
+        @Override
+        protected SimpleResponse getSimpleResponse() throws Exception {
+            String cmd = params.get(KEY_CMD);
+            increment(cmd);
+            beforeCommand(cmd);
+            if (!isSuccess(cmd)) {
+                return new SimpleResponseImpl(false, cmd, packId.getInstallationPath() + ".zip");
+            }
+            if (CMD_UPLOAD.equals(cmd) || CMD_CREATE.equals(cmd)) {
+                packages.add(packId);
+            } else if (CMD_DELETE.equals(cmd)) {
+                packages.remove(packId);
+            }
+            return new SimpleResponseImpl(true, cmd, packId.getInstallationPath() + ".zip");
+        }
+
+        @Override
+        protected ListResponse getListResponse() throws Exception {
+            increment("list");
+            List<ListResult> results = new ArrayList<ListResult>();
+            for (PackId id : packages) {
+                if (packId == null || packId.equals(id)) {
+                    results.add(new ListResultImpl(id, false, false));
+                }
+            }
+            return new ListResponseImpl(results, results.size());
+        }
+
+        @Override
+        protected DetailedResponse getDetailedResponse(ResponseProgressListener listener) throws Exception {
+            String cmd = params.get(KEY_CMD);
+            increment(cmd);
+            beforeCommand(cmd);
+            return new DetailedResponseImpl(isSuccess(cmd), cmd, 0L, null);
+        }
+
+        @Override
+        protected DownloadResponse getDownloadResponse(File outputFile) throws Exception {
+            throw new UnsupportedOperationException("download");
+        }
+
+        @Override
+        protected SimpleResponse getUpdateResponse() throws Exception {
+            increment("update");
+            return new SimpleResponseImpl(true, "update", "");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class UploadLedgerTest {
+
+    File copyTestPackage(File packageFile) throws Exception {
+        InputStream in = getClass().getResourceAsStream("/test-packmgr-client-1.0.zip");
+        OutputStream out = null;
+        try {
+            packageFile.getParentFile().mkdirs();
+            out = new FileOutputStream(packageFile);
+            IOUtils.copy(in, out);
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+        }
+        return packageFile;
+    }
+
+    @Test
+    public void testFileUploadLedgerPersists() throws Exception {
+        File ledgerFile = new File("target/upload-ledger-test/ledger.properties");
+        FileUtils.deleteQuietly(ledgerFile);
+
+        PackId id = PackId.createPackId("group", "name", "1.0");
+        FileUploadLedger ledger = new FileUploadLedger(ledgerFile);
+        assertNull("nothing recorded yet", ledger.getDigest("http://localhost:4502", id));
+
+        ledger.recordUpload("http://localhost:4502", id, "abc");
+        assertEquals("digest is reloaded", "abc",
+                new FileUploadLedger(ledgerFile).getDigest("http://localhost:4502", id));
+        assertNull("digest is per server", ledger.getDigest("http://localhost:4503", id));
+
+        ledger.forget("http://localhost:4502", id);
+        assertNull("forget is persisted", new FileUploadLedger(ledgerFile).getDigest("http://localhost:4502", id));
+    }
+
+    @Test
+    public void testUploadIfChanged() throws Exception {
+        File packageFile = copyTestPackage(new File("target/upload-ledger-test/test-packmgr-client-1.0.zip"));
+        StubPackageManagerClient client = new StubPackageManagerClient();
+        client.setUploadLedger(new FileUploadLedger(null));
+
+        SimpleResponse first = client.uploadIfChanged(packageFile, true, null);
+        assertTrue("first upload succeeds", first.isSuccess());
+        assertEquals("first upload is sent", 1, client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+
+        SimpleResponse second = client.uploadIfChanged(packageFile, true, null);
+        assertTrue("second upload succeeds", second.isSuccess());
+        assertEquals("second upload is skipped", AbstractPackageManagerClient.MSG_UPLOAD_SKIPPED, second.getMessage());
+        assertEquals("second upload is not sent", 1, client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+
+        client.delete(client.identify(packageFile));
+        client.uploadIfChanged(packageFile, true, null);
+        assertEquals("upload after delete is sent", 2, client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+
+        OutputStream out = new FileOutputStream(packageFile, true);
+        try {
+            out.write(0);
+        } finally {
+            out.close();
+        }
+        client.uploadIfChanged(packageFile, true, null);
+        assertEquals("changed file is sent", 3, client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+    }
+
+    @Test
+    public void testPlainUploadForgetsRecordedUpload() throws Exception {
+        File packageFile = copyTestPackage(new File("target/upload-ledger-test/plain/first.zip"));
+        File otherFile = copyTestPackage(new File("target/upload-ledger-test/plain/other.zip"));
+        OutputStream out = new FileOutputStream(otherFile, true);
+        try {
+            out.write(0);
+        } finally {
+            out.close();
+        }
+        StubPackageManagerClient client = new StubPackageManagerClient();
+        client.setUploadLedger(new FileUploadLedger(null));
+
+        client.uploadIfChanged(packageFile, true, null);
+        assertEquals("first upload is sent", 1, client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+
+        client.upload(otherFile, true, null);
+        assertEquals("plain upload is sent", 2, client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+
+        client.uploadIfChanged(packageFile, true, null);
+        assertEquals("upload after a plain upload of other content is sent", 3,
+                client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+
+        client.getAsyncPackageManager().upload(otherFile, true, null).get();
+        client.uploadIfChanged(packageFile, true, null);
+        assertEquals("upload after an async plain upload of other content is sent", 5,
+                client.count(AbstractPackageManagerClient.CMD_UPLOAD));
+    }
+}
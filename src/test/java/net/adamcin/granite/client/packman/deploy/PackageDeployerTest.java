@@ -0,0 +1,128 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman.deploy;
+
+import net.adamcin.granite.client.packman.PackId;
+import net.adamcin.granite.client.packman.PackageManagerClient;
+import net.adamcin.granite.client.packman.StubPackageManagerClient;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PackageDeployerTest {
+
+    final File packageFile = new File("target/deployer-test-package.zip");
+    final PackId packageId = PackId.createPackId("group", "name", "1.0");
+
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Test
+    public void testContinueOnFailure() throws Exception {
+        List<PackageManagerClient> targets = Arrays.asList(
+                target("http://a/", true), target("http://b/", false), target("http://c/", true));
+
+        List<DeployResult> results = new PackageDeployer(targets).setWaitForService(false)
+                .deploy(packageFile, packageId);
+
+        assertEquals("one result per target", 3, results.size());
+        assertEquals("results are in target order", "http://b/", results.get(1).getTarget().getBaseUrl());
+        assertTrue("first target succeeds", results.get(0).isSuccess());
+        assertEquals("second target fails on install", DeployResult.Stage.INSTALL, results.get(1).getStage());
+        assertTrue("third target succeeds", results.get(2).isSuccess());
+    }
+
+    @Test
+    public void testStopOnFailure() throws Exception {
+        List<PackageManagerClient> targets = Arrays.asList(
+                target("http://a/", false), target("http://b/", true), target("http://c/", true));
+
+        List<DeployResult> results = new PackageDeployer(targets).setParallelism(1)
+                .setFailurePolicy(FailurePolicy.STOP).deploy(packageFile, packageId);
+
+        assertEquals("first target fails on install", DeployResult.Stage.INSTALL, results.get(0).getStage());
+        assertEquals("second target is skipped", DeployResult.Stage.SKIPPED, results.get(1).getStage());
+        assertEquals("third target is skipped", DeployResult.Stage.SKIPPED, results.get(2).getStage());
+    }
+
+    @Test
+    public void testBoundedParallelism() throws Exception {
+        List<PackageManagerClient> targets = new ArrayList<PackageManagerClient>();
+        for (int i = 0; i < 12; i++) {
+            targets.add(target("http://host" + i + "/", true));
+        }
+
+        List<DeployResult> results = new PackageDeployer(targets).setParallelism(3).deploy(packageFile, packageId);
+
+        for (DeployResult result : results) {
+            assertTrue("all targets succeed: " + result, result.isSuccess());
+        }
+        assertTrue("no more than 3 targets at a time", maxRunning.get() <= 3);
+        assertTrue("targets run in parallel", maxRunning.get() > 1);
+    }
+
+    @Test
+    public void testEmptyTargets() throws Exception {
+        assertTrue("no targets, no results",
+                new PackageDeployer(Collections.<PackageManagerClient>emptyList())
+                        .deploy(packageFile, packageId).isEmpty());
+    }
+
+    PackageManagerClient target(final String baseUrl, final boolean installSucceeds) {
+        StubPackageManagerClient target = new StubPackageManagerClient() {
+            @Override
+            protected void beforeCommand(String cmd) throws Exception {
+                if (CMD_UPLOAD.equals(cmd)) {
+                    int current = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), current));
+                    }
+                    try {
+                        Thread.sleep(20L);
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            }
+
+            @Override
+            protected boolean isSuccess(String cmd) {
+                return installSucceeds || !CMD_INSTALL.equals(cmd);
+            }
+        };
+        target.setBaseUrl(baseUrl);
+        return target;
+    }
+}
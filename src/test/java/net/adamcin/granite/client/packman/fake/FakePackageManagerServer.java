@@ -0,0 +1,1010 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman.fake;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
+import net.adamcin.granite.client.packman.PackId;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An embeddable, in-memory stand-in for the CRX Package Manager services used by {@link AbstractPackageManagerClient}
+ * ({@code exec.json}, {@code console.html}, {@code list.jsp}, {@code download.jsp} and {@code update.jsp}), so that
+ * the client implementations can be tested and load-tested without a running CRX instance.
+ * <p>
+ * Responses can be slowed down by a fixed latency and a throughput cap, failures can be injected either for the next
+ * few requests or at random, and detailed (HTML) responses stream a configurable number of progress lines. Downloads
+ * honor single HTTP Range requests.
+ */
+public final class FakePackageManagerServer implements Closeable {
+
+    public static final String MSG_INJECTED_FAILURE = "Injected failure";
+
+    private static final String CONTENT_TYPE_JSON = "application/json;charset=utf-8";
+    private static final String CONTENT_TYPE_HTML = "text/html;charset=utf-8";
+    private static final String CONTENT_TYPE_ZIP = "application/zip";
+
+    private final Object lock = new Object();
+    private final Map<String, StoredPackage> packages = new LinkedHashMap<String, StoredPackage>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final Set<InetSocketAddress> remoteAddresses =
+            Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+    private final AtomicInteger failNext = new AtomicInteger();
+    private final AtomicLong generation = new AtomicLong();
+    private final Random random = new Random();
+
+    private final int port;
+    private int threads = 16;
+    private volatile long latency = 0L;
+    private volatile long bytesPerSecond = 0L;
+    private volatile double failureRate = 0.0;
+    private volatile int failureStatus = 500;
+    private volatile int progressLines = 20;
+    private volatile int keepAliveTimeout = -1;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Create a server bound to an ephemeral port on the loopback interface.
+     */
+    public FakePackageManagerServer() {
+        this(0);
+    }
+
+    public FakePackageManagerServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Set the number of request handler threads. Must be called before {@link #start()}.
+     * @param threads number of threads
+     * @return this server
+     */
+    public FakePackageManagerServer setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Set a delay in milliseconds before each response is sent.
+     * @param latency delay in milliseconds
+     * @return this server
+     */
+    public FakePackageManagerServer setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Cap the rate at which each response body is written. Set to zero or a negative number for no cap.
+     * @param bytesPerSecond bytes per second per response
+     * @return this server
+     */
+    public FakePackageManagerServer setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Fail a random fraction of requests with the failure status.
+     * @param failureRate probability between 0.0 and 1.0
+     * @return this server
+     */
+    public FakePackageManagerServer setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Set the status code of injected failures. Defaults to 500.
+     * @param failureStatus HTTP status code
+     * @return this server
+     */
+    public FakePackageManagerServer setFailureStatus(int failureStatus) {
+        this.failureStatus = failureStatus;
+        return this;
+    }
+
+    /**
+     * Fail the next {@code count} requests with the failure status.
+     * @param count number of requests to fail
+     * @return this server
+     */
+    public FakePackageManagerServer failNextRequests(int count) {
+        this.failNext.set(count);
+        return this;
+    }
+
+    /**
+     * Set the number of progress lines streamed by each detailed response.
+     * @param progressLines number of lines
+     * @return this server
+     */
+    public FakePackageManagerServer setProgressLines(int progressLines) {
+        this.progressLines = progressLines;
+        return this;
+    }
+
+    /**
+     * Send a {@code Keep-Alive: timeout=} header with each response. Set to a negative number to send none.
+     * @param keepAliveTimeout timeout in seconds
+     * @return this server
+     */
+    public FakePackageManagerServer setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+        return this;
+    }
+
+    public FakePackageManagerServer start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("server already started");
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fake-packmgr-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new Dispatcher());
+        server.start();
+        return this;
+    }
+
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the base URL to pass to {@link AbstractPackageManagerClient#setBaseUrl(String)}
+     */
+    public String getBaseUrl() {
+        if (server == null) {
+            throw new IllegalStateException("server not started");
+        }
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return number of requests received, including failed requests
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return number of distinct client connections over which requests have been received
+     */
+    public int getConnectionCount() {
+        return remoteAddresses.size();
+    }
+
+    /**
+     * Store a package as if it had been uploaded.
+     * @param packId the package id
+     * @param data the package binary
+     */
+    public void putPackage(PackId packId, byte[] data) {
+        synchronized (lock) {
+            packages.put(key(packId), new StoredPackage(packId, data, generation.incrementAndGet()));
+        }
+    }
+
+    public boolean hasPackage(PackId packId) {
+        synchronized (lock) {
+            return packages.containsKey(key(packId));
+        }
+    }
+
+    public boolean isInstalled(PackId packId) {
+        synchronized (lock) {
+            StoredPackage stored = packages.get(key(packId));
+            return stored != null && stored.installed;
+        }
+    }
+
+    /**
+     * @param packId the package id
+     * @return the stored package binary, or null if the package does not exist or has not been built
+     */
+    public byte[] getPackageData(PackId packId) {
+        synchronized (lock) {
+            StoredPackage stored = packages.get(key(packId));
+            return stored != null ? stored.data : null;
+        }
+    }
+
+    private static String key(PackId packId) {
+        return packId.getInstallationPath() + ".zip";
+    }
+
+    static final class StoredPackage {
+        final PackId packId;
+        final byte[] data;
+        final long generation;
+        final boolean installed;
+        final String filter;
+
+        StoredPackage(PackId packId, byte[] data, long generation) {
+            this(packId, data, generation, false, null);
+        }
+
+        StoredPackage(PackId packId, byte[] data, long generation, boolean installed, String filter) {
+            this.packId = packId;
+            this.data = data;
+            this.generation = generation;
+            this.installed = installed;
+            this.filter = filter;
+        }
+
+        StoredPackage withInstalled(boolean installed) {
+            return new StoredPackage(packId, data, generation, installed, filter);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Request handling
+    //-------------------------------------------------------------------------
+
+    final class Dispatcher implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            remoteAddresses.add(exchange.getRemoteAddress());
+            if (keepAliveTimeout >= 0) {
+                exchange.getResponseHeaders().set("Keep-Alive", "timeout=" + keepAliveTimeout);
+            }
+            try {
+                Request request = new Request(exchange);
+                delay();
+                if (shouldFail()) {
+                    sendText(exchange, failureStatus, MSG_INJECTED_FAILURE);
+                    return;
+                }
+
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith(AbstractPackageManagerClient.JSON_SERVICE_PATH)) {
+                    handleJson(exchange, request,
+                            path.substring(AbstractPackageManagerClient.JSON_SERVICE_PATH.length()));
+                } else if (path.startsWith(AbstractPackageManagerClient.HTML_SERVICE_PATH)) {
+                    handleHtml(exchange, request,
+                            path.substring(AbstractPackageManagerClient.HTML_SERVICE_PATH.length()));
+                } else if (path.equals(AbstractPackageManagerClient.CONSOLE_UI_LIST_PATH)) {
+                    handleList(exchange, request);
+                } else if (path.equals(AbstractPackageManagerClient.CONSOLE_UI_DOWNLOAD_PATH)) {
+                    handleDownload(exchange, request);
+                } else if (path.equals(AbstractPackageManagerClient.CONSOLE_UI_UPDATE_PATH)) {
+                    handleUpdate(exchange, request);
+                } else if (path.equals(AbstractPackageManagerClient.LOGIN_PATH)
+                        || path.equals(AbstractPackageManagerClient.LEGACY_PATH)) {
+                    sendText(exchange, 200, "");
+                } else {
+                    sendText(exchange, 404, "Not found: " + path);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                try {
+                    sendText(exchange, 500, String.valueOf(e));
+                } catch (IOException ignored) {
+                    // response already committed
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private void delay() throws InterruptedException {
+        long latency = this.latency;
+        if (latency > 0L) {
+            Thread.sleep(latency);
+        }
+    }
+
+    private boolean shouldFail() {
+        while (true) {
+            int remaining = failNext.get();
+            if (remaining <= 0) {
+                break;
+            }
+            if (failNext.compareAndSet(remaining, remaining - 1)) {
+                return true;
+            }
+        }
+        double failureRate = this.failureRate;
+        if (failureRate > 0.0) {
+            synchronized (random) {
+                return random.nextDouble() < failureRate;
+            }
+        }
+        return false;
+    }
+
+    private void handleJson(HttpExchange exchange, Request request, String packagePath) throws Exception {
+        String cmd = request.getParam(AbstractPackageManagerClient.KEY_CMD);
+        JSONObject json;
+        if (AbstractPackageManagerClient.CMD_UPLOAD.equals(cmd)) {
+            json = upload(request);
+        } else if (AbstractPackageManagerClient.CMD_DELETE.equals(cmd)) {
+            json = delete(packagePath);
+        } else if (AbstractPackageManagerClient.CMD_CREATE.equals(cmd)) {
+            json = create(request);
+        } else if (AbstractPackageManagerClient.CMD_REPLICATE.equals(cmd)) {
+            json = hasPackagePath(packagePath)
+                    ? result(true, "Package replicated", packagePath)
+                    : result(false, "no package", packagePath);
+        } else {
+            sendText(exchange, 400, "Command not supported: " + cmd);
+            return;
+        }
+        send(exchange, 200, CONTENT_TYPE_JSON, json.toString().getBytes("UTF-8"));
+    }
+
+    private JSONObject upload(Request request) throws Exception {
+        byte[] data = request.getFile(AbstractPackageManagerClient.KEY_PACKAGE);
+        if (data == null) {
+            return result(false, "no package uploaded", "");
+        }
+        PackId packId = identify(data);
+        if (packId == null) {
+            return result(false, "uploaded file is not a content package", "");
+        }
+        boolean force = Boolean.parseBoolean(request.getParam(AbstractPackageManagerClient.KEY_FORCE));
+        synchronized (lock) {
+            if (!force && packages.containsKey(key(packId))) {
+                return result(false, "Package already exists: " + key(packId), key(packId));
+            }
+            packages.put(key(packId), new StoredPackage(packId, data, generation.incrementAndGet()));
+        }
+        return result(true, "Package uploaded", key(packId));
+    }
+
+    private JSONObject delete(String packagePath) throws JSONException {
+        synchronized (lock) {
+            if (packages.remove(packagePath) == null) {
+                return result(false, "no package", packagePath);
+            }
+        }
+        return result(true, "Package deleted", packagePath);
+    }
+
+    private JSONObject create(Request request) throws JSONException {
+        PackId packId = PackId.createPackId(request.getParam(AbstractPackageManagerClient.KEY_GROUP_NAME),
+                request.getParam(AbstractPackageManagerClient.KEY_PACKAGE_NAME),
+                request.getParam(AbstractPackageManagerClient.KEY_PACKAGE_VERSION));
+        if (packId == null) {
+            return result(false, "Invalid package id", "");
+        }
+        synchronized (lock) {
+            if (packages.containsKey(key(packId))) {
+                return result(false, "Package already exists: " + key(packId), key(packId));
+            }
+            packages.put(key(packId), new StoredPackage(packId, null, generation.incrementAndGet()));
+        }
+        return result(true, "Package created", key(packId));
+    }
+
+    private void handleUpdate(HttpExchange exchange, Request request) throws Exception {
+        String path = request.getParam(AbstractPackageManagerClient.KEY_PATH);
+        PackId moveToId = PackId.createPackId(request.getParam(AbstractPackageManagerClient.KEY_GROUP_NAME),
+                request.getParam(AbstractPackageManagerClient.KEY_PACKAGE_NAME),
+                request.getParam(AbstractPackageManagerClient.KEY_VERSION));
+        String filter = request.getParam(AbstractPackageManagerClient.KEY_FILTER);
+
+        JSONObject json;
+        synchronized (lock) {
+            StoredPackage stored = path != null ? packages.get(path) : null;
+            if (stored == null) {
+                json = result(false, "no package", path != null ? path : "");
+            } else if (moveToId == null) {
+                json = result(false, "Invalid package id", path);
+            } else if (!key(moveToId).equals(path) && packages.containsKey(key(moveToId))) {
+                json = result(false, "Package already exists: " + key(moveToId), path);
+            } else {
+                packages.remove(path);
+                packages.put(key(moveToId), new StoredPackage(moveToId, stored.data, generation.incrementAndGet(),
+                        stored.installed, filter != null ? filter : stored.filter));
+                json = result(true, "Package updated", key(moveToId));
+            }
+        }
+        send(exchange, 200, CONTENT_TYPE_JSON, json.toString().getBytes("UTF-8"));
+    }
+
+    private void handleList(HttpExchange exchange, Request request) throws Exception {
+        String path = request.getParam(AbstractPackageManagerClient.KEY_PATH);
+        boolean includeVersions = Boolean.parseBoolean(request.getParam(AbstractPackageManagerClient.KEY_INCLUDE_VERSIONS));
+        String query = request.getParam(AbstractPackageManagerClient.KEY_QUERY);
+        query = query != null ? query.toLowerCase(Locale.ENGLISH) : "";
+
+        List<StoredPackage> matches = new ArrayList<StoredPackage>();
+        synchronized (lock) {
+            for (StoredPackage stored : packages.values()) {
+                if (path != null) {
+                    String installationPath = stored.packId.getInstallationPath();
+                    String versionless = installationPath.substring(0,
+                            installationPath.length() - stored.packId.getVersion().length());
+                    if (path.equals(key(stored.packId)) || (includeVersions && path.startsWith(versionless))) {
+                        matches.add(stored);
+                    }
+                } else if (query.length() == 0
+                        || stored.packId.toString().toLowerCase(Locale.ENGLISH).contains(query)) {
+                    matches.add(stored);
+                }
+            }
+        }
+
+        int start = parseInt(request.getParam(AbstractPackageManagerClient.KEY_START), 0);
+        int limit = parseInt(request.getParam(AbstractPackageManagerClient.KEY_LIMIT), Integer.MAX_VALUE);
+        int end = (int) Math.min((long) matches.size(), (long) Math.max(start, 0) + Math.max(limit, 0));
+
+        JSONArray results = new JSONArray();
+        for (StoredPackage stored : matches.subList(Math.min(Math.max(start, 0), end), end)) {
+            JSONObject result = new JSONObject();
+            result.put("pid", stored.packId.toString());
+            result.put(AbstractPackageManagerClient.KEY_PATH, key(stored.packId));
+            result.put(AbstractPackageManagerClient.KEY_GROUP, stored.packId.getGroup());
+            result.put(AbstractPackageManagerClient.KEY_NAME, stored.packId.getName());
+            result.put(AbstractPackageManagerClient.KEY_VERSION, stored.packId.getVersion());
+            result.put("downloadName", stored.packId.getName() + "-" + stored.packId.getVersion() + ".zip");
+            result.put("size", stored.data != null ? stored.data.length : 0);
+            result.put(AbstractPackageManagerClient.KEY_HAS_SNAPSHOT, stored.installed);
+            result.put(AbstractPackageManagerClient.KEY_NEEDS_REWRAP, false);
+            results.put(result);
+        }
+        JSONObject json = new JSONObject();
+        json.put(AbstractPackageManagerClient.KEY_RESULTS, results);
+        json.put(AbstractPackageManagerClient.KEY_TOTAL, matches.size());
+        send(exchange, 200, CONTENT_TYPE_JSON, json.toString().getBytes("UTF-8"));
+    }
+
+    private void handleDownload(HttpExchange exchange, Request request) throws IOException {
+        String path = request.getParam(AbstractPackageManagerClient.KEY_PATH);
+        StoredPackage stored;
+        synchronized (lock) {
+            stored = path != null ? packages.get(path) : null;
+        }
+        if (stored == null || stored.data == null) {
+            sendText(exchange, 404, "Not found: " + path);
+            return;
+        }
+
+        byte[] data = stored.data;
+        exchange.getResponseHeaders().set("ETag", "\"" + stored.generation + "\"");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+            String spec = range.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            try {
+                long first;
+                long last;
+                if (dash == 0) {
+                    first = Math.max(0L, data.length - Long.parseLong(spec.substring(1)));
+                    last = data.length - 1L;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? data.length - 1L
+                            : Math.min(Long.parseLong(spec.substring(dash + 1)), data.length - 1L);
+                }
+                if (first >= data.length || last < first) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + data.length);
+                    sendText(exchange, 416, "Requested range not satisfiable");
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + first + "-" + last + "/" + data.length);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_ZIP);
+                exchange.sendResponseHeaders(206, last - first + 1L);
+                OutputStream out = throttle(exchange.getResponseBody());
+                out.write(data, (int) first, (int) (last - first + 1L));
+                out.flush();
+                return;
+            } catch (NumberFormatException e) {
+                // ignore an invalid range and send the whole package
+            }
+        }
+        send(exchange, 200, CONTENT_TYPE_ZIP, data);
+    }
+
+    private void handleHtml(HttpExchange exchange, Request request, String packagePath) throws Exception {
+        String cmd = request.getParam(AbstractPackageManagerClient.KEY_CMD);
+        String title;
+        String action;
+        String message;
+        String success;
+        if (AbstractPackageManagerClient.CMD_INSTALL.equals(cmd)) {
+            title = "Installing content";
+            action = "A";
+            message = "Package imported.";
+            success = "Package installed";
+        } else if (AbstractPackageManagerClient.CMD_DRY_RUN.equals(cmd)) {
+            title = "Installing content (dry run)";
+            action = "A";
+            message = "Package imported (dry run).";
+            success = "Package installed";
+        } else if (AbstractPackageManagerClient.CMD_UNINSTALL.equals(cmd)) {
+            title = "Uninstalling content";
+            action = "D";
+            message = "Package uninstalled.";
+            success = "Package uninstalled";
+        } else if (AbstractPackageManagerClient.CMD_CONTENTS.equals(cmd)) {
+            title = "Dumping package contents";
+            action = "-";
+            message = "Package contents dumped.";
+            success = "Package contents dumped";
+        } else if (AbstractPackageManagerClient.CMD_BUILD.equals(cmd)) {
+            title = "Building package";
+            action = "A";
+            message = "Package built.";
+            success = "Package built";
+        } else if (AbstractPackageManagerClient.CMD_REWRAP.equals(cmd)) {
+            title = "Rewrapping package";
+            action = "A";
+            message = "Package rewrapped.";
+            success = "Package rewrapped";
+        } else {
+            sendText(exchange, 400, "Command not supported: " + cmd);
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_HTML);
+        exchange.sendResponseHeaders(200, 0L);
+        Writer writer = new OutputStreamWriter(throttle(exchange.getResponseBody()), "UTF-8");
+        writer.write("<html><head></head>\n<body><h2>");
+        writer.write(title);
+        writer.write("</h2><div>");
+
+        StoredPackage stored;
+        synchronized (lock) {
+            stored = packages.get(packagePath);
+        }
+        if (stored == null) {
+            writer.write("<br><span class=\"error\">Error during processing.</span><br><code><pre>\n");
+            writer.write("javax.jcr.PathNotFoundException: " + packagePath + "\n");
+            writer.write("\tat com.day.jcr.vault.packaging.impl.JcrPackageManagerImpl.open(JcrPackageManagerImpl.java)\n");
+            writer.write("</pre></code>\n</body></html>\n");
+            writer.flush();
+            return;
+        }
+
+        final int lines = this.progressLines;
+        for (int i = 0; i < lines; i++) {
+            writer.write("<span class=\"");
+            writer.write(action);
+            writer.write("\"><b>");
+            writer.write(action);
+            writer.write("</b>&nbsp;/content/fake/");
+            writer.write(stored.packId.getName());
+            writer.write("/node");
+            writer.write(Integer.toString(i));
+            writer.write("</span><br>\n");
+        }
+        writer.write("<span class=\"");
+        writer.write(message);
+        writer.write("\"><b>");
+        writer.write(message);
+        writer.write("</b>&nbsp;</span><br>\n");
+
+        synchronized (lock) {
+            StoredPackage current = packages.get(packagePath);
+            if (current != null) {
+                if (AbstractPackageManagerClient.CMD_INSTALL.equals(cmd)) {
+                    packages.put(packagePath, current.withInstalled(true));
+                } else if (AbstractPackageManagerClient.CMD_UNINSTALL.equals(cmd)) {
+                    packages.put(packagePath, current.withInstalled(false));
+                } else if (AbstractPackageManagerClient.CMD_BUILD.equals(cmd)
+                        || AbstractPackageManagerClient.CMD_REWRAP.equals(cmd)) {
+                    packages.put(packagePath, new StoredPackage(current.packId,
+                            buildPackage(current.packId, current.filter), generation.incrementAndGet(),
+                            current.installed, current.filter));
+                }
+            }
+        }
+
+        writer.write("</div><br>");
+        writer.write(success);
+        writer.write(" in ");
+        writer.write(Long.toString(System.currentTimeMillis() - start));
+        writer.write("ms.<br><script type=\"text/javascript\">\nwindow.scrollTo(0, 1000000);\n</script>\n");
+        writer.write("</body></html>\n");
+        writer.flush();
+    }
+
+    //-------------------------------------------------------------------------
+    // Package contents
+    //-------------------------------------------------------------------------
+
+    private static PackId identify(byte[] data) throws IOException {
+        File temp = File.createTempFile("fake-packmgr", ".zip");
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            return PackId.identifyPackage(temp);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Build a minimal package containing only the vault metadata for the package id and filter.
+     */
+    static byte[] buildPackage(PackId packId, String filterJson) throws IOException, JSONException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        try {
+            Properties props = new Properties();
+            props.setProperty(PackId.PROP_GROUP, packId.getGroup());
+            props.setProperty(PackId.PROP_NAME, packId.getName());
+            props.setProperty(PackId.PROP_VERSION, packId.getVersion());
+            zip.putNextEntry(new ZipEntry("META-INF/vault/properties.xml"));
+            ByteArrayOutputStream propsBytes = new ByteArrayOutputStream();
+            props.storeToXML(propsBytes, null);
+            zip.write(propsBytes.toByteArray());
+            zip.closeEntry();
+
+            StringBuilder filterXml = new StringBuilder();
+            filterXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<workspaceFilter version=\"1.0\">\n");
+            if (filterJson != null) {
+                JSONArray roots = new JSONArray(filterJson);
+                for (int i = 0; i < roots.length(); i++) {
+                    JSONObject root = roots.getJSONObject(i);
+                    filterXml.append("    <filter root=\"").append(escapeXml(root.getString("root"))).append("\">\n");
+                    JSONArray rules = root.optJSONArray("rules");
+                    for (int j = 0; rules != null && j < rules.length(); j++) {
+                        JSONObject rule = rules.getJSONObject(j);
+                        filterXml.append("        <").append(rule.getString("modifier"))
+                                .append(" pattern=\"").append(escapeXml(rule.getString("pattern"))).append("\"/>\n");
+                    }
+                    filterXml.append("    </filter>\n");
+                }
+            }
+            filterXml.append("</workspaceFilter>\n");
+            zip.putNextEntry(new ZipEntry("META-INF/vault/filter.xml"));
+            zip.write(filterXml.toString().getBytes("UTF-8"));
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("jcr_root/"));
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    //-------------------------------------------------------------------------
+    // HTTP utilities
+    //-------------------------------------------------------------------------
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private boolean hasPackagePath(String packagePath) {
+        synchronized (lock) {
+            return packages.containsKey(packagePath);
+        }
+    }
+
+    private static JSONObject result(boolean success, String message, String path) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(AbstractPackageManagerClient.KEY_SUCCESS, success);
+        json.put(AbstractPackageManagerClient.KEY_MESSAGE, message);
+        json.put(AbstractPackageManagerClient.KEY_PATH, path);
+        return json;
+    }
+
+    private void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        send(exchange, status, "text/plain;charset=utf-8", text.getBytes("UTF-8"));
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1L);
+        if (body.length > 0) {
+            OutputStream out = throttle(exchange.getResponseBody());
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    private OutputStream throttle(OutputStream out) {
+        long bytesPerSecond = this.bytesPerSecond;
+        return bytesPerSecond > 0L ? new ThrottledOutputStream(out, bytesPerSecond) : out;
+    }
+
+    /**
+     * Limits the rate of writes to the wrapped stream by sleeping whenever it is ahead of schedule.
+     */
+    static final class ThrottledOutputStream extends FilterOutputStream {
+        private static final int CHUNK_SIZE = 4096;
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long written = 0L;
+
+        ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            pace(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, CHUNK_SIZE);
+                pace(chunk);
+                out.write(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private void pace(int bytes) throws IOException {
+            written += bytes;
+            long due = start + TimeUnit.SECONDS.toNanos(1L) * written / bytesPerSecond;
+            long wait = due - System.nanoTime();
+            if (wait > 0L) {
+                out.flush();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects query, urlencoded form and multipart form parameters of a request.
+     */
+    static final class Request {
+        private final Map<String, String> params = new HashMap<String, String>();
+        private final Map<String, byte[]> files = new HashMap<String, byte[]>();
+
+        Request(HttpExchange exchange) throws IOException {
+            parseUrlEncoded(exchange.getRequestURI().getRawQuery());
+            byte[] body = readFully(exchange.getRequestBody());
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType == null || body.length == 0) {
+                return;
+            }
+            String lower = contentType.toLowerCase(Locale.ENGLISH);
+            if (lower.startsWith("application/x-www-form-urlencoded")) {
+                parseUrlEncoded(new String(body, "ISO-8859-1"));
+            } else if (lower.startsWith("multipart/form-data")) {
+                parseMultipart(body, getBoundary(contentType));
+            }
+        }
+
+        String getParam(String name) {
+            return params.get(name);
+        }
+
+        byte[] getFile(String name) {
+            return files.get(name);
+        }
+
+        private void parseUrlEncoded(String encoded) throws UnsupportedEncodingException {
+            if (encoded == null || encoded.length() == 0) {
+                return;
+            }
+            for (String pair : encoded.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                } else if (pair.length() > 0) {
+                    params.put(URLDecoder.decode(pair, "UTF-8"), "");
+                }
+            }
+        }
+
+        private static String getBoundary(String contentType) throws IOException {
+            for (String param : contentType.split(";")) {
+                String trimmed = param.trim();
+                if (trimmed.toLowerCase(Locale.ENGLISH).startsWith("boundary=")) {
+                    String boundary = trimmed.substring("boundary=".length());
+                    if (boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() > 1) {
+                        boundary = boundary.substring(1, boundary.length() - 1);
+                    }
+                    return boundary;
+                }
+            }
+            throw new IOException("multipart request without boundary");
+        }
+
+        private void parseMultipart(byte[] body, String boundary) throws IOException {
+            byte[] delimiter = ("--" + boundary).getBytes("ISO-8859-1");
+            int pos = indexOf(body, delimiter, 0);
+            while (pos >= 0) {
+                int partStart = pos + delimiter.length;
+                if (partStart + 1 < body.length && body[partStart] == '-' && body[partStart + 1] == '-') {
+                    break;
+                }
+                partStart = skipLineBreak(body, partStart);
+                int headerEnd = indexOf(body, "\r\n\r\n".getBytes("ISO-8859-1"), partStart);
+                if (headerEnd < 0) {
+                    break;
+                }
+                int next = indexOf(body, delimiter, headerEnd + 4);
+                if (next < 0) {
+                    break;
+                }
+                int contentEnd = next;
+                if (contentEnd >= 2 && body[contentEnd - 2] == '\r' && body[contentEnd - 1] == '\n') {
+                    contentEnd -= 2;
+                }
+
+                String headers = new String(body, partStart, headerEnd - partStart, "UTF-8");
+                String name = null;
+                boolean file = false;
+                String charset = "UTF-8";
+                for (String header : headers.split("\r\n")) {
+                    String lower = header.toLowerCase(Locale.ENGLISH);
+                    if (lower.startsWith("content-disposition:")) {
+                        name = getDispositionParam(header, "name");
+                        file = getDispositionParam(header, "filename") != null;
+                    } else if (lower.startsWith("content-type:") && lower.contains("charset=")) {
+                        charset = header.substring(lower.indexOf("charset=") + "charset=".length()).trim();
+                    }
+                }
+
+                if (name != null) {
+                    int length = contentEnd - (headerEnd + 4);
+                    if (file) {
+                        byte[] content = new byte[length];
+                        System.arraycopy(body, headerEnd + 4, content, 0, length);
+                        files.put(name, content);
+                    } else {
+                        params.put(name, new String(body, headerEnd + 4, length, charset));
+                    }
+                }
+                pos = next;
+            }
+        }
+
+        private static String getDispositionParam(String header, String param) {
+            for (String part : header.split(";")) {
+                String trimmed = part.trim();
+                if (trimmed.startsWith(param + "=")) {
+                    String value = trimmed.substring(param.length() + 1);
+                    if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        private static int skipLineBreak(byte[] body, int pos) {
+            if (pos < body.length && body[pos] == '\r') {
+                pos++;
+            }
+            if (pos < body.length && body[pos] == '\n') {
+                pos++;
+            }
+            return pos;
+        }
+
+        private static int indexOf(byte[] haystack, byte[] needle, int from) {
+            outer:
+            for (int i = from; i <= haystack.length - needle.length; i++) {
+                for (int j = 0; j < needle.length; j++) {
+                    if (haystack[i + j] != needle[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private static byte[] readFully(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16384];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+}
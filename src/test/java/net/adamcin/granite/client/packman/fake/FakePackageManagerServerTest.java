@@ -0,0 +1,241 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+
+package net.adamcin.granite.client.packman.fake;
+
+import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
+import net.adamcin.granite.client.packman.DetailedResponse;
+import net.adamcin.granite.client.packman.ListResponse;
+import net.adamcin.granite.client.packman.PackId;
+import net.adamcin.granite.client.packman.SimpleResponse;
+import net.adamcin.granite.client.packman.WspFilter;
+import net.adamcin.granite.client.packman.async.AsyncPackageManagerClient;
+import net.adamcin.granite.client.packman.http3.Http3PackageManagerClient;
+import net.adamcin.granite.client.packman.http4.Http4PackageManagerClient;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FakePackageManagerServerTest {
+
+    private static final PackId TEST_PACKAGE = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+
+    private FakePackageManagerServer server;
+    private final List<AbstractPackageManagerClient> clients = new ArrayList<AbstractPackageManagerClient>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakePackageManagerServer().start();
+        clients.add(new AsyncPackageManagerClient());
+        clients.add(new Http3PackageManagerClient(new HttpClient(new MultiThreadedHttpConnectionManager())));
+        clients.add(new Http4PackageManagerClient());
+        for (AbstractPackageManagerClient client : clients) {
+            client.setBaseUrl(server.getBaseUrl());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (AbstractPackageManagerClient client : clients) {
+            if (client instanceof Closeable) {
+                ((Closeable) client).close();
+            } else if (client instanceof AsyncPackageManagerClient) {
+                ((AsyncPackageManagerClient) client).getClient().close();
+            }
+        }
+        server.close();
+    }
+
+    File copyTestPackage(File packageFile) throws IOException {
+        InputStream in = getClass().getResourceAsStream("/test-packmgr-client-1.0.zip");
+        try {
+            FileUtils.copyInputStreamToFile(in, packageFile);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return packageFile;
+    }
+
+    @Test
+    public void testPackageLifecycle() throws Exception {
+        File packageFile = copyTestPackage(new File("target/fake-server-test/test-packmgr-client-1.0.zip"));
+        for (AbstractPackageManagerClient client : clients) {
+            String name = client.getClass().getSimpleName();
+            assertTrue(name + " service is available", client.waitForService());
+
+            SimpleResponse uploaded = client.upload(packageFile, false, null);
+            assertTrue(name + " upload succeeds: " + uploaded.getMessage(), uploaded.isSuccess());
+            assertFalse(name + " second upload without force fails",
+                    client.upload(packageFile, false, null).isSuccess());
+            assertTrue(name + " package exists", client.existsOnServer(TEST_PACKAGE));
+
+            final AtomicInteger progress = new AtomicInteger();
+            DetailedResponse installed = client.install(TEST_PACKAGE, false, 1024, null,
+                    new CountingListener(progress));
+            assertTrue(name + " install succeeds", installed.isSuccess());
+            assertEquals(name + " progress lines are streamed", 20, progress.get());
+            assertTrue(name + " package is installed", server.isInstalled(TEST_PACKAGE));
+
+            File downloaded = new File("target/fake-server-test/" + name + "/downloaded.zip");
+            FileUtils.deleteQuietly(downloaded);
+            downloaded.getParentFile().mkdirs();
+            client.download(TEST_PACKAGE, downloaded);
+            assertTrue(name + " download matches upload",
+                    FileUtils.contentEquals(packageFile, downloaded));
+
+            assertTrue(name + " delete succeeds", client.delete(TEST_PACKAGE).isSuccess());
+            assertFalse(name + " package no longer exists", client.existsOnServer(TEST_PACKAGE));
+            DetailedResponse missing = client.install(TEST_PACKAGE, false, 1024, null);
+            assertFalse(name + " install of missing package fails", missing.isSuccess());
+        }
+    }
+
+    @Test
+    public void testCreateUpdateBuildMove() throws Exception {
+        for (AbstractPackageManagerClient client : clients) {
+            String name = client.getClass().getSimpleName();
+            PackId id = PackId.createPackId("test-packmgr", "created-" + name, "1.0");
+            PackId moveToId = PackId.createPackId("test-packmgr", "moved-" + name, "1.0");
+
+            assertTrue(name + " create succeeds", client.create(id).isSuccess());
+            assertTrue(name + " update filter succeeds", client.updateFilter(id,
+                    new WspFilter(new WspFilter.Root("/tmp/" + name))).isSuccess());
+            assertTrue(name + " move succeeds", client.move(id, moveToId).isSuccess());
+            assertFalse(name + " old id is gone", client.existsOnServer(id));
+            assertTrue(name + " build succeeds", client.build(moveToId).isSuccess());
+
+            ListResponse listed = client.list(moveToId, false);
+            assertEquals(name + " moved package is listed", 1, listed.getResults().size());
+
+            File downloaded = new File("target/fake-server-test/" + name + "/built.zip");
+            FileUtils.deleteQuietly(downloaded);
+            downloaded.getParentFile().mkdirs();
+            client.download(moveToId, downloaded);
+            assertEquals(name + " built package is identified", moveToId, PackId.identifyPackage(downloaded));
+        }
+    }
+
+    @Test
+    public void testRangedDownload() throws Exception {
+        byte[] data = new byte[256 * 1024 + 3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        server.putPackage(TEST_PACKAGE, data);
+        for (AbstractPackageManagerClient client : clients) {
+            String name = client.getClass().getSimpleName();
+            client.setDownloadParallelism(4);
+            client.setDownloadSegmentSize(16 * 1024);
+            File downloaded = new File("target/fake-server-test/" + name + "/ranged.zip");
+            FileUtils.deleteQuietly(downloaded);
+            downloaded.getParentFile().mkdirs();
+
+            long before = server.getRequestCount();
+            client.download(TEST_PACKAGE, downloaded);
+            assertArrayEquals(name + " ranged download matches", data, FileUtils.readFileToByteArray(downloaded));
+            assertEquals(name + " one request per segment", 17L, server.getRequestCount() - before);
+        }
+    }
+
+    @Test
+    public void testFailureInjection() throws Exception {
+        for (AbstractPackageManagerClient client : clients) {
+            String name = client.getClass().getSimpleName();
+            server.failNextRequests(1);
+            try {
+                client.list();
+                fail(name + " list should fail");
+            } catch (Exception e) {
+                // expected
+            }
+            assertNotNull(name + " next request succeeds", client.list());
+        }
+    }
+
+    @Test
+    public void testConcurrentInstalls() throws Exception {
+        File packageFile = copyTestPackage(new File("target/fake-server-test/test-packmgr-client-1.0.zip"));
+        server.setProgressLines(5000).setLatency(10L);
+        clients.get(0).upload(packageFile, true, null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 24; i++) {
+                final AbstractPackageManagerClient client = clients.get(i % clients.size());
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        AtomicInteger progress = new AtomicInteger();
+                        DetailedResponse response = client.install(TEST_PACKAGE, false, 1024, null,
+                                new CountingListener(progress));
+                        return response.isSuccess() && progress.get() == 5000;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue("concurrent install succeeds with all progress", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static class CountingListener implements net.adamcin.granite.client.packman.ResponseProgressListener {
+        final AtomicInteger progress;
+
+        CountingListener(AtomicInteger progress) {
+            this.progress = progress;
+        }
+
+        public void onStart(String title) { }
+        public void onLog(String message) { }
+        public void onMessage(String message) { }
+        public void onProgress(String action, String path) {
+            progress.incrementAndGet();
+        }
+        public void onError(String path, String error) { }
+    }
+}
@@ -29,11 +29,146 @@ package net.adamcin.granite.client.packman.http4;
 
 import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
 import net.adamcin.granite.client.packman.AbstractPackageManagerClientTestBase;
+import net.adamcin.granite.client.packman.PackId;
+import net.adamcin.granite.client.packman.fake.FakePackageManagerServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class Http4PackageManagerClientTest extends AbstractPackageManagerClientTestBase {
 
+    private static final PackId TEST_PACKAGE = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+
+    private FakePackageManagerServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new FakePackageManagerServer().start();
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
     @Override
     protected AbstractPackageManagerClient getClientImplementation() {
         return new Http4PackageManagerClient();
     }
+
+    private Http4PackageManagerClient createClient(Http4PackageManagerClient.ConnectionOptions options) {
+        Http4PackageManagerClient client = new Http4PackageManagerClient(options);
+        client.setBaseUrl(server.getBaseUrl());
+        return client;
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        Http4PackageManagerClient client = createClient(new Http4PackageManagerClient.ConnectionOptions());
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertFalse(client.existsOnServer(TEST_PACKAGE));
+            }
+            assertEquals("requests should share one pooled connection", 1, server.getConnectionCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testKeepAliveCapsServerTimeout() throws Exception {
+        server.setKeepAliveTimeout(60);
+
+        Http4PackageManagerClient uncapped = createClient(new Http4PackageManagerClient.ConnectionOptions()
+                .setKeepAlive(-1L).setIdleTimeout(0L));
+        try {
+            assertFalse(uncapped.existsOnServer(TEST_PACKAGE));
+            Thread.sleep(500L);
+            assertFalse(uncapped.existsOnServer(TEST_PACKAGE));
+            assertEquals("server timeout should keep the connection alive", 1, server.getConnectionCount());
+        } finally {
+            uncapped.close();
+        }
+
+        Http4PackageManagerClient capped = createClient(new Http4PackageManagerClient.ConnectionOptions()
+                .setKeepAlive(100L).setIdleTimeout(0L));
+        try {
+            assertFalse(capped.existsOnServer(TEST_PACKAGE));
+            Thread.sleep(500L);
+            assertFalse(capped.existsOnServer(TEST_PACKAGE));
+            assertEquals("capped keep-alive should expire the first connection", 3, server.getConnectionCount());
+        } finally {
+            capped.close();
+        }
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        Http4PackageManagerClient client = createClient(new Http4PackageManagerClient.ConnectionOptions()
+                .setIdleTimeout(100L));
+        try {
+            assertFalse(client.existsOnServer(TEST_PACKAGE));
+            Thread.sleep(1000L);
+            assertFalse(client.existsOnServer(TEST_PACKAGE));
+            assertEquals("idle connection should be evicted", 2, server.getConnectionCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testCloseReleasesOwnedClientOnly() throws Exception {
+        CloseableHttpClient httpClient = HttpClients.createDefault();
+        try {
+            Http4PackageManagerClient provided = new Http4PackageManagerClient(httpClient);
+            provided.setBaseUrl(server.getBaseUrl());
+            provided.close();
+            assertFalse("caller-supplied client should remain open", provided.existsOnServer(TEST_PACKAGE));
+        } finally {
+            httpClient.close();
+        }
+
+        Http4PackageManagerClient owned = createClient(new Http4PackageManagerClient.ConnectionOptions());
+        assertFalse(owned.existsOnServer(TEST_PACKAGE));
+        owned.close();
+        try {
+            owned.existsOnServer(TEST_PACKAGE);
+            fail("owned client should be closed");
+        } catch (IllegalStateException e) {
+            // connection pool shut down
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testGetClient() throws Exception {
+        DefaultHttpClient legacy = new DefaultHttpClient();
+        try {
+            Http4PackageManagerClient client = new Http4PackageManagerClient(legacy);
+            assertSame("legacy client should still be returned", legacy, client.getClient());
+            assertSame(legacy, client.getHttpClient());
+            client.setBaseUrl(server.getBaseUrl());
+            assertFalse(client.existsOnServer(TEST_PACKAGE));
+        } finally {
+            legacy.close();
+        }
+
+        CloseableHttpClient httpClient = HttpClients.createDefault();
+        try {
+            Http4PackageManagerClient client = new Http4PackageManagerClient(httpClient);
+            assertNull("no legacy client was provided", client.getClient());
+            assertSame(httpClient, client.getHttpClient());
+        } finally {
+            httpClient.close();
+        }
+    }
 }
@@ -30,6 +30,8 @@ package net.adamcin.granite.client.packman.validation;
 import net.adamcin.commons.testing.junit.FailUtil;
 import net.adamcin.granite.client.packman.ACHandling;
 import net.adamcin.granite.client.packman.WspFilter;
+import net.adamcin.granite.client.packman.ZipDirectory;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
 import org.apache.jackrabbit.vault.fs.config.DefaultWorkspaceFilter;
@@ -42,12 +44,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.jar.JarFile;
+import java.util.zip.ZipException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 /**
  * Created by madamcin on 3/14/14.
@@ -161,6 +173,173 @@ public class PackageValidatorTest {
         }
     }
 
+    @Test
+    public void testCollectViolations() {
+        try {
+            File recap = new File("target/recap-0.8.0.zip");
+            generatePackageFile("/recap-0.8.0.zip", recap);
+            DefaultValidationOptions opts = new DefaultValidationOptions()
+                    .setValidationFilter(new WspFilter(new WspFilter.Root("/test-packmgr")))
+                    .setForbiddenExtensions(Arrays.asList("jar"));
+            opts.setForbiddenACHandlingModes(Arrays.asList(ACHandling.IGNORE));
+            opts.setForbiddenFilterRootPrefixes(Arrays.asList("/libs"));
+            opts.setPathsDeniedForInclusion(Arrays.asList("/libs/recap/components/addressbook", "/libs/recap/foo"));
+
+            ValidationReport report = PackageValidator.report(recap, opts);
+            assertFalse(report.isValid());
+            List<ValidationResult> violations = report.getViolations();
+            List<ValidationResult.Reason> reasons = new ArrayList<ValidationResult.Reason>();
+            for (ValidationResult violation : violations) {
+                reasons.add(violation.getReason());
+            }
+            assertEquals(Arrays.asList(
+                    ValidationResult.Reason.FORBIDDEN_EXTENSION,
+                    ValidationResult.Reason.FORBIDDEN_EXTENSION,
+                    ValidationResult.Reason.FORBIDDEN_EXTENSION,
+                    ValidationResult.Reason.FORBIDDEN_ACHANDLING,
+                    ValidationResult.Reason.FORBIDDEN_FILTER_ROOT_PREFIX,
+                    ValidationResult.Reason.DENIED_PATH_INCLUSION,
+                    ValidationResult.Reason.DENIED_PATH_INCLUSION,
+                    ValidationResult.Reason.ROOT_NOT_ALLOWED), reasons);
+            assertEquals("/libs/recap/foo", violations.get(6).getForbiddenEntry());
+
+            assertEquals(3, report.getViolations(ValidationResult.Reason.FORBIDDEN_EXTENSION).size());
+
+            ValidationResult result = PackageValidator.validate(recap, opts);
+            assertEquals(report.getResult().getReason(), result.getReason());
+            assertEquals(report.getResult().getForbiddenEntry(), result.getForbiddenEntry());
+        } catch (IOException e) {
+            FailUtil.sprintFail(e);
+        }
+    }
+
+    @Test
+    public void testFallbackForArchivesOnlyJarFileReads() {
+        try {
+            File recap = new File("target/fallback/recap-0.8.0.zip");
+            generatePackageFile("/recap-0.8.0.zip", recap);
+            // bytes after the END header, which its comment length does not account for, are tolerated by JarFile
+            File trailing = new File("target/fallback/recap-trailing-bytes.zip");
+            FileUtils.copyFile(recap, trailing);
+            FileOutputStream os = new FileOutputStream(trailing, true);
+            try {
+                os.write("trailing bytes".getBytes("UTF-8"));
+            } finally {
+                os.close();
+            }
+            try {
+                ZipDirectory.open(trailing).close();
+                fail("the lightweight reader should not find the END header");
+            } catch (ZipException e) {
+                // expected
+            }
+
+            DefaultValidationOptions opts = new DefaultValidationOptions()
+                    .setValidationFilter(new WspFilter(new WspFilter.Root("/test-packmgr")))
+                    .setForbiddenExtensions(Arrays.asList("jar"));
+            opts.setForbiddenACHandlingModes(Arrays.asList(ACHandling.IGNORE));
+            opts.setForbiddenFilterRootPrefixes(Arrays.asList("/libs"));
+            opts.setPathsDeniedForInclusion(Arrays.asList("/libs/recap/components/addressbook", "/libs/recap/foo"));
+
+            ValidationReport expected = PackageValidator.report(recap, opts);
+            ValidationReport actual = PackageValidator.report(trailing, opts);
+            assertEquals(8, actual.getViolations().size());
+            for (int i = 0; i < expected.getViolations().size(); i++) {
+                ValidationResult expectedViolation = expected.getViolations().get(i);
+                ValidationResult actualViolation = actual.getViolations().get(i);
+                assertEquals(expectedViolation.getReason(), actualViolation.getReason());
+                assertEquals(expectedViolation.getForbiddenEntry(), actualViolation.getForbiddenEntry());
+            }
+            assertEquals(ValidationResult.Reason.FORBIDDEN_EXTENSION,
+                    PackageValidator.validate(trailing, opts).getReason());
+            assertEquals(ValidationResult.Reason.SUCCESS,
+                    PackageValidator.validate(trailing, new DefaultValidationOptions()).getReason());
+        } catch (IOException e) {
+            FailUtil.sprintFail(e);
+        }
+    }
+
+    @Test
+    public void testReportConcurrently() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<File> files = new ArrayList<File>();
+            for (String resource : Arrays.asList("/test-packmgr-client-1.0.zip", "/recap-0.8.0.zip",
+                    "/test-embedded-package-1.0.zip")) {
+                File file = new File("target/report" + resource);
+                generatePackageFile(resource, file);
+                files.add(file);
+            }
+            File notAPackage = new File("target/report/not-a-package.zip");
+            FileUtils.writeStringToFile(notAPackage, "not a zip", "UTF-8");
+            files.add(notAPackage);
+
+            DefaultValidationOptions opts = new DefaultValidationOptions()
+                    .setValidationFilter(new WspFilter(new WspFilter.Root("/libs/recap")))
+                    .setForbiddenExtensions(Arrays.asList("jar", "zip"));
+            opts.setForbiddenACHandlingModes(Arrays.asList(ACHandling.IGNORE, ACHandling.OVERWRITE));
+            opts.setForbiddenFilterRootPrefixes(Arrays.asList("/etc"));
+            opts.setPathsDeniedForInclusion(Arrays.asList("/libs/recap/components/addressbook"));
+
+            for (File file : files) {
+                ValidationReport expected = PackageValidator.report(file, opts);
+                ValidationReport actual = PackageValidator.report(file, opts, executor);
+                assertEquals(file.getPath(), expected.toString(), actual.toString());
+                assertEquals(file.getPath(), PackageValidator.validate(file, opts).getReason(),
+                        actual.getResult().getReason());
+            }
+            assertEquals(ValidationResult.Reason.FAILED_TO_ID,
+                    PackageValidator.report(notAPackage, opts, executor).getResult().getReason());
+        } catch (IOException e) {
+            FailUtil.sprintFail(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testValidateAll() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<File> files = new ArrayList<File>();
+            for (String resource : Arrays.asList("/test-packmgr-client-1.0.zip", "/recap-0.8.0.zip",
+                    "/test-embedded-package-1.0.zip")) {
+                for (int i = 0; i < 4; i++) {
+                    File file = new File("target/validateAll/" + i + resource);
+                    generatePackageFile(resource, file);
+                    files.add(file);
+                }
+            }
+            File notAPackage = new File("target/validateAll/not-a-package.zip");
+            FileUtils.writeStringToFile(notAPackage, "not a zip", "UTF-8");
+            files.add(notAPackage);
+
+            DefaultValidationOptions opts = new DefaultValidationOptions()
+                    .setValidationFilter(new WspFilter(new WspFilter.Root("/test-packmgr")))
+                    .setForbiddenExtensions(Arrays.asList("jar"));
+
+            Map<File, ValidationResult.Reason> expected = new HashMap<File, ValidationResult.Reason>();
+            for (File file : files) {
+                expected.put(file, PackageValidator.validate(file, opts).getReason());
+            }
+            assertEquals(ValidationResult.Reason.FORBIDDEN_EXTENSION, expected.get(files.get(4)));
+            assertEquals(ValidationResult.Reason.FAILED_TO_ID, expected.get(notAPackage));
+
+            Map<File, ValidationResult.Reason> actual = new HashMap<File, ValidationResult.Reason>();
+            Iterator<ValidatedPackage> results = PackageValidator.validateAll(files, opts, executor);
+            while (results.hasNext()) {
+                ValidatedPackage validated = results.next();
+                assertNull("each file should be reported once", actual.put(validated.getFile(),
+                        validated.getResult().getReason()));
+            }
+            assertEquals(expected, actual);
+        } catch (IOException e) {
+            FailUtil.sprintFail(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private void expectReasonForCheckExtensions(File file, List<String> forbiddenExtensions, ValidationResult.Reason reason) throws IOException {
         ValidationResult result =
                 PackageValidator.checkForbiddenExtensions(